@@ -0,0 +1,64 @@
+package com.sait.cst.logging;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and formatting a single message of each type getFields supports, for a standalone device
+ * (1 unit) and a master/slave system (6 units).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogLineBenchmark {
+	@Param({ "fm", "cc", "hc", "sm" })
+	private String type;
+
+	@Param({ "1", "6" })
+	private int units;
+
+	private String serialized;
+	private LogLine logLine;
+
+	@Setup
+	public void setUp() {
+		SyntheticLogGenerator generator = new SyntheticLogGenerator(units, 0, System.currentTimeMillis());
+
+		for (LogLine sample : generator.nextSample()) {
+			if (sample.is(type)) {
+				logLine = sample;
+				serialized = LogLine.serialize(sample);
+			}
+		}
+	}
+
+	@Benchmark
+	public LogLine deserialize() {
+		return LogLine.deserailize(serialized);
+	}
+
+	@Benchmark
+	public boolean is() {
+		return logLine.is(type);
+	}
+
+	@Benchmark
+	public Map<String, String> getFields() {
+		return logLine.getFields();
+	}
+}
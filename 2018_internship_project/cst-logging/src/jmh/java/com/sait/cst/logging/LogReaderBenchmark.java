@@ -0,0 +1,85 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Full scans of a generated log file in every format, as text (what query does) and as decoded
+ * telemetry (what rollups are built from). Files of several GB can be scanned with e.g.
+ * -p sizeInMegabytes=4096; generated files are kept in the temporary directory and reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class LogReaderBenchmark {
+	@Param({ "256" })
+	private long sizeInMegabytes;
+
+	@Param({ "text", "framed", "dictionary", "timeseries" })
+	private String format;
+
+	@Param({ "1" })
+	private int units;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = new File(System.getProperty("java.io.tmpdir"), String.format("cst-jmh-%s-%dmb-%du.log", format, sizeInMegabytes, units));
+
+		if (!file.exists()) {
+			LogFormat logFormat = null;
+			for (LogFormat candidate : LogFormat.values()) {
+				logFormat = candidate.getName().equals(format) ? candidate : logFormat;
+			}
+
+			SyntheticLogGenerator.generate(file, logFormat, sizeInMegabytes * 1024 * 1024, units, 0);
+		}
+	}
+
+	@Benchmark
+	public void readLogLines(Blackhole blackhole) throws IOException {
+		LogReader logReader = new LogReader(file);
+
+		try {
+			LogLine logLine;
+			while ((logLine = logReader.readLogLine()) != null) {
+				blackhole.consume(logLine);
+			}
+		} finally {
+			logReader.close();
+		}
+	}
+
+	@Benchmark
+	public void readTelemetryRecords(Blackhole blackhole) throws IOException {
+		LogReader logReader = new LogReader(file);
+		TelemetryDecoder decoder = new TelemetryDecoder();
+		TelemetryRecord record = new TelemetryRecord();
+
+		try {
+			while (logReader.readTelemetryRecord(record, decoder)) {
+				blackhole.consume(record.getValue(0));
+			}
+		} finally {
+			logReader.close();
+		}
+	}
+}
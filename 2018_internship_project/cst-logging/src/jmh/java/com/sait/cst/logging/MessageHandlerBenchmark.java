@@ -0,0 +1,90 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Messages handed to a capture per second, in the given format. Capture blocks instead of spilling or
+ * thinning when it falls behind (see CapturePipeline), so this is what it can persist, not just accept.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageHandlerBenchmark {
+	private static final int MESSAGE_COUNT = 1 << 14;
+
+	@Param({ "text", "framed", "dictionary", "timeseries" })
+	private String format;
+
+	@Param({ "1", "6" })
+	private int units;
+
+	private String[] messages;
+	private int index;
+	private File directory;
+	private MessageHandler messageHandler;
+
+	@Setup
+	public void setUp() {
+		SyntheticLogGenerator generator = new SyntheticLogGenerator(units, 0, System.currentTimeMillis());
+		List<String> jsonStrings = new ArrayList<>();
+
+		while (jsonStrings.size() < MESSAGE_COUNT) {
+			for (LogLine logLine : generator.nextSample()) {
+				jsonStrings.add(logLine.getJsonString());
+			}
+		}
+
+		messages = jsonStrings.subList(0, MESSAGE_COUNT).toArray(new String[MESSAGE_COUNT]);
+		System.setProperty("cst.capture.format", format);
+		System.setProperty("cst.capture.overload", "block");
+		System.setProperty("cst.capture.thin.types", "");
+	}
+
+	// every iteration writes to a new directory, as capture file names only have a precision of seconds.
+	@Setup(Level.Iteration)
+	public void startCapture() throws IOException {
+		directory = Files.createTempDirectory("cst-jmh").toFile();
+		messageHandler = new MessageHandler(directory.getPath(), SyntheticLogGenerator.IP_ADDRESS);
+	}
+
+	@TearDown(Level.Iteration)
+	public void stopCapture() {
+		messageHandler.close();
+
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+
+		directory.delete();
+	}
+
+	@Benchmark
+	public void onTextMessage() throws Exception {
+		messageHandler.onTextMessage(null, messages[index++ & (MESSAGE_COUNT - 1)]);
+	}
+}
@@ -0,0 +1,95 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole query over a generated log directory, and rendering its table alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryApplicationBenchmark {
+	@Param({ "fm", "sm" })
+	private String type;
+
+	@Param({ "1", "6" })
+	private int units;
+
+	@Param({ "16" })
+	private long sizeInMegabytes;
+
+	private File directory;
+	private LogCatalog catalog;
+	private List<Map<String, String>> rows;
+	private PrintStream out;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("cst-jmh").toFile();
+		File file = new File(directory, SyntheticLogGenerator.IP_ADDRESS + "_20180829_124900." + Application.LOG_FILENAME_EXTENSION);
+		SyntheticLogGenerator.generate(file, LogFormat.TEXT, sizeInMegabytes * 1024 * 1024, units, 0);
+
+		catalog = new LogCatalog(directory);
+		rows = new ArrayList<>();
+		for (LogLine logLine : new LogReader(file).getMatchingLogLines(type, 0, Long.MAX_VALUE)) {
+			rows.add(logLine.getFields());
+		}
+
+		// output is thrown away; only producing it is measured.
+		out = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+
+		directory.delete();
+	}
+
+	@Benchmark
+	public boolean query() throws IOException {
+		return QueryApplication.run(catalog, type, null, null, out);
+	}
+
+	@Benchmark
+	public void printTable() {
+		QueryApplication.printTable(out, "File: benchmark (resolution: raw)", rows);
+	}
+}
@@ -0,0 +1,338 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+
+public class AgentApplication {
+	private static final Logger logger = Logger.getLogger(AgentApplication.class);
+
+	public static final int DEFAULT_PORT = 7461;
+
+	// requests are a single line of tab-separated values, starting with one of these. unset start and
+	// end are NO_VALUE, like requests of ServeApplication.
+	public static final String ROWS_REQUEST = "rows";
+	public static final String AGGREGATE_REQUEST = "aggregate";
+	public static final String NO_VALUE = "-";
+
+	// responses are lines of tab-separated values too, starting with one of these. a response is only
+	// complete once END is received.
+	public static final String ROW = "row";
+	public static final String ROLLUP = "rollup";
+	public static final String ERROR = "error";
+	public static final String END = "end";
+
+	/**
+	 * Keeps answering query fragments sent by CoordinatorApplication for the log directory of this
+	 * host until the program is stopped, so captures spread over several hosts can be queried together
+	 * without copying files around. Fragments are answered here, next to the data, and only their
+	 * results are sent back:
+	 * - rows: lines matching a type and time range, projected into their fields (see
+	 *   LogLine.getFields) and merged across files in timestamp order.
+	 * - aggregate: rollups matching a type, channel pattern and time range (see TrendApplication),
+	 *   combined across captures of this host into partial aggregates per device, bucket and channel.
+	 *
+	 * Fragments are accepted on cst.agent.port of cst.agent.address, with up to cst.agent.threads
+	 * answered at a time. Agents only ever read the log directory, but fragments aren't authenticated,
+	 * so the address is the loopback interface by default; reaching agents from a coordinator on
+	 * another host takes setting it (e.g. to 0.0.0.0) on a trusted network, or a tunnel.
+	 */
+	public static void run(String logDirectory) {
+		String address = Settings.getString("cst.agent.address", "127.0.0.1");
+		int port = Settings.getInt("cst.agent.port", DEFAULT_PORT);
+		ExecutorService executor = Executors.newFixedThreadPool(Settings.getInt("cst.agent.threads", 4));
+		final LogCatalog catalog = new LogCatalog(new File(logDirectory).getAbsoluteFile());
+
+		try (ServerSocket serverSocket = new ServerSocket()) {
+			catalog.watch();
+			Metrics.getInstance().export("agent", logDirectory);
+			serverSocket.bind(new InetSocketAddress(address, port));
+			logger.info("Answering query fragments on %s for %s.", serverSocket.getLocalSocketAddress(), catalog.getDirectory().getPath());
+
+			while (true) {
+				final Socket socket = serverSocket.accept();
+
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						respond(catalog, socket);
+					}
+				});
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to answer query fragments on port %d: %s", port, exception.getMessage());
+			System.exit(-2);
+		} finally {
+			catalog.close();
+			executor.shutdown();
+		}
+	}
+
+	private static void respond(LogCatalog catalog, Socket socket) {
+		try (Socket connection = socket) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+			String line = reader.readLine();
+			if (line == null) {
+				return;
+			}
+
+			long start = System.nanoTime();
+			String[] arguments = line.split("\t", -1);
+
+			try {
+				if (arguments[0].equals(ROWS_REQUEST) && arguments.length == 4) {
+					sendRows(catalog, arguments[1], parseTimestamp(arguments[2], 0), parseTimestamp(arguments[3], Long.MAX_VALUE), writer);
+				} else if (arguments[0].equals(AGGREGATE_REQUEST) && arguments.length == 6) {
+					sendAggregates(catalog, arguments[1], arguments[2], RollupResolution.valueOf(arguments[3]), parseTimestamp(arguments[4], 0),
+							parseTimestamp(arguments[5], Long.MAX_VALUE), writer);
+				} else {
+					writeLine(writer, ERROR, "Unknown request: " + line);
+				}
+			} catch (IllegalArgumentException exception) {
+				writeLine(writer, ERROR, "Invalid request (" + line + "): " + exception.getMessage());
+			} catch (FileNotFoundException exception) {
+				// e.g. a file compacted or expired since the directory was listed.
+				writeLine(writer, ERROR, "Failed to answer request (" + line + "): " + exception.getMessage());
+			}
+
+			writer.flush();
+			logger.debug("Answered %s from %s in %d ms.", line, connection.getRemoteSocketAddress(), (System.nanoTime() - start) / 1000000);
+		} catch (IOException | RuntimeException exception) {
+			logger.error("Failed to answer query fragment: %s", exception.getMessage());
+		}
+	}
+
+	/**
+	 * Sends matching lines of every log file as rows (timestamp, file they come from and fields),
+	 * merged in timestamp order so the coordinator only has to merge one ordered stream per agent.
+	 * Captures of a device follow each other in time, so its files are read one after another, and
+	 * devices side by side, a line at a time, so rows are sent as they are found. Only a file per device
+	 * is open at a time, however many files the directory has.
+	 */
+	private static void sendRows(LogCatalog catalog, String type, long startTimestamp, long endTimestamp, Writer writer) throws IOException {
+		File[] files = catalog.getLogFiles(type);
+		if (files == null) {
+			writeLine(writer, ERROR, "Failed to list files in directory: " + catalog.getDirectory().getPath());
+			return;
+		}
+
+		QueryStatistics statistics = new QueryStatistics("agent");
+		PriorityQueue<RowSource> sources = new PriorityQueue<>(Math.max(files.length, 1), new Comparator<RowSource>() {
+			@Override
+			public int compare(RowSource source, RowSource otherSource) {
+				int order = Long.compare(source.logLine.getTimestamp(), otherSource.logLine.getTimestamp());
+				return order != 0 ? order : Integer.compare(source.order, otherSource.order);
+			}
+		});
+
+		// files are sorted by capture name, so each device's are in the order they were captured in.
+		Map<String, RowSource> deviceSources = new LinkedHashMap<>();
+		for (File file : files) {
+			String device = LogCatalog.getDevice(catalog.getPartition(file) == null ? file.getName() : file.getParentFile().getName());
+			RowSource source = deviceSources.get(device);
+
+			if (source == null) {
+				source = new RowSource(catalog, type, startTimestamp, endTimestamp, statistics, deviceSources.size());
+				deviceSources.put(device, source);
+			}
+
+			source.files.add(file);
+		}
+
+		List<RowSource> allSources = new ArrayList<>(deviceSources.values());
+		long rowCount = 0;
+		long parseTime = 0;
+
+		try {
+			for (RowSource source : allSources) {
+				if (source.next()) {
+					sources.add(source);
+				}
+			}
+
+			while (!sources.isEmpty()) {
+				RowSource source = sources.poll();
+
+				long parseStart = System.nanoTime();
+				JSONArray fields = new JSONArray();
+				for (Map.Entry<String, String> field : source.logLine.getFields().entrySet()) {
+					fields.put(field.getKey()).put(field.getValue());
+				}
+				parseTime += System.nanoTime() - parseStart;
+
+				writeLine(writer, ROW, Long.toString(source.logLine.getTimestamp()), source.name, fields.toString());
+				rowCount++;
+
+				if (source.next()) {
+					sources.add(source);
+				}
+			}
+		} finally {
+			for (RowSource source : allSources) {
+				source.close();
+			}
+		}
+
+		statistics.addParsed(rowCount, parseTime);
+		statistics.record();
+		writeLine(writer, END, Long.toString(rowCount));
+	}
+
+	/**
+	 * Sends matching rollups of every capture, combined per resolution, device, bucket and channel (see
+	 * Rollup.combine), so captures of a device are combined but different devices never are. Captures
+	 * use rollups of the given resolution, or coarser ones if those aren't available, the same way
+	 * TrendApplication does.
+	 */
+	private static void sendAggregates(LogCatalog catalog, String type, String channel, RollupResolution preferredResolution, long startTimestamp, long endTimestamp,
+			Writer writer) throws IOException {
+		File directory = catalog.getDirectory();
+		if (catalog.getCaptureNames() == null) {
+			writeLine(writer, ERROR, "Failed to list files in directory: " + directory.getPath());
+			return;
+		}
+
+		QueryStatistics statistics = new QueryStatistics("agent");
+		Pattern channelPattern = ChannelLayout.compilePattern(channel);
+		Map<String, Rollup> aggregates = new LinkedHashMap<>();
+		Map<String, RollupResolution> resolutions = new LinkedHashMap<>();
+		Map<String, String> devices = new LinkedHashMap<>();
+
+		for (String captureName : catalog.getCaptureNames()) {
+			File file = new File(directory, captureName + "." + Application.LOG_FILENAME_EXTENSION);
+
+			SegmentIndex index = catalog.getIndex(file);
+			if (index != null && !index.mayContain(type, startTimestamp, endTimestamp)) {
+				statistics.addScanned(0, 0, true);
+				continue;
+			}
+
+			RollupResolution resolution = TrendApplication.getAvailableResolution(file, preferredResolution);
+			if (resolution == null) {
+				continue;
+			}
+
+			List<Rollup> rollups = TrendApplication.getMatchingRollups(catalog, resolution.getRollupFile(file), type, channelPattern,
+					resolution.getBucketStart(startTimestamp), endTimestamp, statistics);
+
+			String device = LogCatalog.getDevice(captureName);
+
+			for (Rollup rollup : rollups) {
+				String key = resolution + "\t" + device + "\t" + rollup.getBucketStart() + "\t" + rollup.getChannel();
+				Rollup aggregate = aggregates.get(key);
+
+				aggregates.put(key, aggregate == null ? rollup : aggregate.combine(rollup));
+				resolutions.put(key, resolution);
+				devices.put(key, device);
+			}
+		}
+
+		for (Map.Entry<String, Rollup> entry : aggregates.entrySet()) {
+			writeLine(writer, ROLLUP, resolutions.get(entry.getKey()).name(), devices.get(entry.getKey()), Rollup.serialize(entry.getValue()));
+		}
+
+		statistics.record();
+		writeLine(writer, END, Integer.toString(aggregates.size()));
+	}
+
+	private static long parseTimestamp(String value, long defaultValue) {
+		return value.equals(NO_VALUE) ? defaultValue : Long.parseLong(value);
+	}
+
+	/**
+	 * Writes values as a line of tab-separated values. Tabs and line breaks can't be part of a value,
+	 * so they are replaced with spaces.
+	 */
+	static void writeLine(Writer writer, String... values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				writer.write('\t');
+			}
+
+			writer.write(values[i].replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+		}
+
+		writer.write('\n');
+	}
+
+	/**
+	 * Matching lines of the log files of a device, read one at a time, a file after the other. A file
+	 * is only opened once the previous one is done, and closed as soon as it is.
+	 */
+	private static class RowSource {
+		private final LogCatalog catalog;
+		private final String type;
+		private final long startTimestamp;
+		private final long endTimestamp;
+		private final QueryStatistics statistics;
+		private final int order;
+		private final List<File> files = new ArrayList<>();
+		private int fileIndex = 0;
+		private LogReader reader;
+		private String name;
+		private LogLine logLine;
+
+		RowSource(LogCatalog catalog, String type, long startTimestamp, long endTimestamp, QueryStatistics statistics, int order) {
+			this.catalog = catalog;
+			this.type = type;
+			this.startTimestamp = startTimestamp;
+			this.endTimestamp = endTimestamp;
+			this.statistics = statistics;
+			this.order = order;
+		}
+
+		boolean next() throws IOException {
+			while (true) {
+				if (reader != null) {
+					logLine = reader.readMatchingLogLine();
+					if (logLine != null) {
+						return true;
+					}
+
+					close();
+				}
+
+				if (fileIndex == files.size()) {
+					return false;
+				}
+
+				File file = files.get(fileIndex++);
+				reader = new LogReader(file);
+				name = catalog.getName(file);
+
+				if (!reader.startMatching(type, startTimestamp, endTimestamp, catalog.getIndex(file))) {
+					close();
+				}
+			}
+		}
+
+		void close() {
+			if (reader != null) {
+				reader.close();
+				statistics.addScanned(reader.getScannedCount(), reader.getSkippedCount(), reader.isSkippedByIndex());
+				reader = null;
+			}
+		}
+	}
+}
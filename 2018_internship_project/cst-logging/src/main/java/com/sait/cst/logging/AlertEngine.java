@@ -0,0 +1,119 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+public class AlertEngine {
+	private static final Logger logger = Logger.getLogger(AlertEngine.class);
+
+	public static final String DEFAULT_RULES_FILENAME = "cst-alerts.rules";
+	private static final long STALE_CHECK_INTERVAL = 1000;
+
+	private final AlertRule[] rules;
+	private final AlertSink sink;
+	private Timer timer;
+
+	/**
+	 * Creates an AlertEngine evaluating the given rules and reporting hits to sink.
+	 */
+	public AlertEngine(List<AlertRule> rules, AlertSink sink) {
+		this.rules = rules.toArray(new AlertRule[rules.size()]);
+		this.sink = sink;
+	}
+
+	/**
+	 * Creates an AlertEngine for a capture writing to the given log file, using rules from the file
+	 * set by cst.alerts.rules (cst-alerts.rules by default). If there are no rules, null is returned
+	 * since there's nothing to evaluate.
+	 */
+	public static AlertEngine create(File logFile) throws IOException {
+		File rulesFile = new File(Settings.getString("cst.alerts.rules", DEFAULT_RULES_FILENAME));
+		if (!rulesFile.exists()) {
+			return null;
+		}
+
+		List<AlertRule> rules = load(rulesFile);
+		if (rules.isEmpty()) {
+			return null;
+		}
+
+		logger.info("Loaded %d alert rule(s) from %s.", rules.size(), rulesFile.getName());
+		return new AlertEngine(rules, new AlertSink(AlertSink.getAlertFile(logFile)));
+	}
+
+	/**
+	 * Loads rules from a file with one rule per line (see AlertRule.parse). Empty lines and lines
+	 * starting with # are ignored, as are invalid rules which are reported.
+	 */
+	public static List<AlertRule> load(File rulesFile) throws IOException {
+		List<AlertRule> rules = new ArrayList<>();
+
+		try (BufferedReader reader = FileUtils.createBufferedReader(rulesFile)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				try {
+					rules.add(AlertRule.parse(line));
+				} catch (IllegalArgumentException exception) {
+					logger.error("Ignoring invalid alert rule: %s", exception.getMessage());
+				}
+			}
+		}
+
+		return rules;
+	}
+
+	/**
+	 * Evaluates every rule against a decoded message. This runs for every message received, so it is
+	 * kept to a loop over rules which don't allocate while evaluating.
+	 */
+	public void evaluate(TelemetryRecord record) {
+		for (AlertRule rule : rules) {
+			rule.evaluate(record, sink);
+		}
+	}
+
+	/**
+	 * Starts checking stale rules in the background, if there are any.
+	 */
+	public void start() {
+		boolean hasStaleRules = false;
+		for (AlertRule rule : rules) {
+			hasStaleRules |= rule.getKind() == AlertRule.Kind.STALE;
+		}
+
+		if (!hasStaleRules) {
+			return;
+		}
+
+		timer = new Timer("alerts", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				long now = System.currentTimeMillis();
+
+				for (AlertRule rule : rules) {
+					rule.checkStale(now, sink);
+				}
+			}
+		}, STALE_CHECK_INTERVAL, STALE_CHECK_INTERVAL);
+	}
+
+	public void close() {
+		if (timer != null) {
+			timer.cancel();
+		}
+
+		sink.close();
+	}
+}
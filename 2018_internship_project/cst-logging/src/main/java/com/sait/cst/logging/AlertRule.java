@@ -0,0 +1,210 @@
+package com.sait.cst.logging;
+
+import java.util.Arrays;
+
+public class AlertRule {
+	public enum Kind {
+		// value of a channel is above argument.
+		ABOVE,
+		// value of a channel is below argument.
+		BELOW,
+		// value of a channel changes faster than argument per second (in either direction).
+		RATE,
+		// value of a channel has any of the bits in argument set, e.g. alarm bits of saa[] or paa[].
+		MASK,
+		// no message of the type was received for argument milliseconds.
+		STALE
+	}
+
+	private final String name;
+	private final Kind kind;
+	private final String type;
+	private final String channel;
+	private final double threshold;
+	private final long mask;
+
+	// rules are compiled against every layout (message shape) they see, once. the last one used is kept
+	// aside since messages of a device almost always have the same layout.
+	private Binding[] bindings = new Binding[0];
+	private Binding lastBinding;
+
+	// state of stale rules, which are also checked from a timer thread.
+	private volatile long lastSeen;
+	private boolean staleFiring;
+
+	/**
+	 * Creates an AlertRule. See parse for what each value means.
+	 */
+	public AlertRule(String name, Kind kind, String type, String channel, double argument) {
+		this.name = name;
+		this.kind = kind;
+		this.type = type;
+		this.channel = channel;
+		this.threshold = argument;
+		this.mask = (long) argument;
+		this.lastSeen = System.currentTimeMillis();
+	}
+
+	/**
+	 * Parses a rule from a line of the rules file. Lines are comma-separated: name, kind, type, channel
+	 * and argument. For example:
+	 *
+	 *   pa-overheat,above,sm,ta[*][*],70
+	 *   ps-alarm,mask,fm,saa,2
+	 *   fm-stale,stale,fm,*,5000
+	 *
+	 * Channel uses the same patterns as ChannelLayout.find. If line isn't a valid rule, an
+	 * IllegalArgumentException is thrown.
+	 */
+	public static AlertRule parse(String line) {
+		String[] segments = line.split(",");
+
+		if (segments.length != 5) {
+			throw new IllegalArgumentException("Expected 5 comma-separated values: " + line);
+		}
+
+		Kind kind;
+		double argument;
+
+		try {
+			kind = Kind.valueOf(segments[1].trim().toUpperCase());
+			argument = Double.parseDouble(segments[4].trim());
+		} catch (IllegalArgumentException exception) {
+			throw new IllegalArgumentException("Invalid kind or argument: " + line);
+		}
+
+		return new AlertRule(segments[0].trim(), kind, segments[2].trim(), segments[3].trim(), argument);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Evaluates rule against a decoded message. Only state allocated when the rule was compiled for the
+	 * message's layout is used, so evaluating doesn't allocate; sink is only called when a channel
+	 * starts or stops matching, not on every message while it matches.
+	 */
+	public void evaluate(TelemetryRecord record, AlertSink sink) {
+		if (!type.equals(record.getType())) {
+			return;
+		}
+
+		long timestamp = record.getTimestamp();
+
+		if (kind == Kind.STALE) {
+			seen(timestamp, sink);
+			return;
+		}
+
+		Binding binding = getBinding(record.getLayout());
+
+		for (int i = 0; i < binding.slots.length; i++) {
+			double value = record.getValue(binding.slots[i]);
+			boolean hit;
+
+			switch (kind) {
+			case ABOVE:
+				hit = value > threshold;
+				break;
+			case BELOW:
+				hit = value < threshold;
+				break;
+			case MASK:
+				hit = ((long) value & mask) != 0;
+				break;
+			default:
+				// rate needs a previous value, so the first message of a channel never matches.
+				long elapsed = timestamp - binding.previousTimestamps[i];
+				hit = binding.previousTimestamps[i] != Long.MIN_VALUE && elapsed > 0
+						&& Math.abs(value - binding.previousValues[i]) * 1000 / elapsed > threshold;
+
+				binding.previousValues[i] = value;
+				binding.previousTimestamps[i] = timestamp;
+				break;
+			}
+
+			if (hit != binding.firing[i]) {
+				binding.firing[i] = hit;
+
+				String channelName = record.getLayout().getName(binding.slots[i]);
+				if (hit) {
+					sink.raise(this, channelName, value, timestamp);
+				} else {
+					sink.clear(this, channelName, value, timestamp);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a stale rule went without messages for longer than allowed. This is called
+	 * periodically, since a missing message can't trigger evaluate.
+	 */
+	public synchronized void checkStale(long now, AlertSink sink) {
+		if (kind == Kind.STALE && !staleFiring && now - lastSeen > threshold) {
+			staleFiring = true;
+			sink.raise(this, channel, now - lastSeen, now);
+		}
+	}
+
+	private synchronized void seen(long timestamp, AlertSink sink) {
+		lastSeen = timestamp;
+
+		if (staleFiring) {
+			staleFiring = false;
+			sink.clear(this, channel, 0, timestamp);
+		}
+	}
+
+	private Binding getBinding(ChannelLayout layout) {
+		if (lastBinding != null && lastBinding.layout == layout) {
+			return lastBinding;
+		}
+
+		for (Binding binding : bindings) {
+			if (binding.layout == layout) {
+				lastBinding = binding;
+				return binding;
+			}
+		}
+
+		// first message with this layout: compile rule against it.
+		Binding binding = new Binding(layout, channel);
+		bindings = Arrays.copyOf(bindings, bindings.length + 1);
+		bindings[bindings.length - 1] = binding;
+		lastBinding = binding;
+
+		return binding;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AlertRule(name=%s, kind=%s, type=%s, channel=%s, argument=%s)", name, kind, type, channel, Rollup.formatValue(threshold));
+	}
+
+	/**
+	 * A rule compiled against a layout: indexes of matching channels and per-channel state.
+	 */
+	private static class Binding {
+		private final ChannelLayout layout;
+		private final int[] slots;
+		private final boolean[] firing;
+		private final double[] previousValues;
+		private final long[] previousTimestamps;
+
+		Binding(ChannelLayout layout, String channel) {
+			this.layout = layout;
+			this.slots = layout.find(channel);
+			this.firing = new boolean[slots.length];
+			this.previousValues = new double[slots.length];
+			this.previousTimestamps = new long[slots.length];
+
+			Arrays.fill(previousTimestamps, Long.MIN_VALUE);
+		}
+	}
+}
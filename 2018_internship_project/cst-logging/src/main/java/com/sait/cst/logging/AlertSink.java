@@ -0,0 +1,74 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class AlertSink {
+	private static final Logger logger = Logger.getLogger(AlertSink.class);
+
+	public static final String ALERT_FILENAME_EXTENSION = "alerts";
+
+	private BufferedWriter bufferedWriter;
+
+	/**
+	 * Creates an AlertSink which appends alerts to the given file and reports them on the console.
+	 * Every alert is flushed right away; alerts are rare and should be visible as soon as possible.
+	 */
+	public AlertSink(File file) throws IOException {
+		this.bufferedWriter = new BufferedWriter(new FileWriter(file, true));
+	}
+
+	/**
+	 * Returns the file where alerts raised while capturing to the given log file are written, e.g.
+	 * 10.10.102.11_20180829_144900.alerts.
+	 */
+	public static File getAlertFile(File logFile) {
+		String name = logFile.getName();
+		String extension = "." + Application.LOG_FILENAME_EXTENSION;
+
+		if (name.endsWith(extension)) {
+			name = name.substring(0, name.length() - extension.length());
+		}
+
+		return new File(logFile.getParentFile(), name + "." + ALERT_FILENAME_EXTENSION);
+	}
+
+	/**
+	 * Records that a channel started matching a rule.
+	 */
+	public synchronized void raise(AlertRule rule, String channel, double value, long timestamp) {
+		logger.warn("Alert %s raised on %s (value: %s).", rule.getName(), channel, Rollup.formatValue(value));
+		write(timestamp, rule, "raised", channel, value);
+	}
+
+	/**
+	 * Records that a channel which matched a rule doesn't anymore.
+	 */
+	public synchronized void clear(AlertRule rule, String channel, double value, long timestamp) {
+		logger.info("Alert %s cleared on %s (value: %s).", rule.getName(), channel, Rollup.formatValue(value));
+		write(timestamp, rule, "cleared", channel, value);
+	}
+
+	public synchronized void close() {
+		try {
+			bufferedWriter.close();
+		} catch (IOException exception) {
+			logger.error("Failed to finish writing to alert file: %s", exception.getMessage());
+		}
+	}
+
+	/**
+	 * Writes an alert as a comma-separated line: timestamp, rule, state, channel and value.
+	 */
+	private void write(long timestamp, AlertRule rule, String state, String channel, double value) {
+		try {
+			bufferedWriter.write(timestamp + "," + rule.getName() + "," + state + "," + channel + "," + Rollup.formatValue(value));
+			bufferedWriter.newLine();
+			bufferedWriter.flush();
+		} catch (IOException exception) {
+			logger.error("Failed to write to alert file: %s", exception.getMessage());
+		}
+	}
+}
@@ -2,10 +2,15 @@ package com.sait.cst.logging;
 
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Application {
 	private static final String DEFAULT_LOG_DIRECTORY = "cst-logs";
 	private static final int DEFAULT_CAPTURE_DURATION = -1;
+	private static final long DEFAULT_GENERATE_SIZE = 64;
+	private static final int DEFAULT_SIMULATE_DEVICES = 1;
+	private static final double DEFAULT_SIMULATE_SPEED = 1;
 	public static final String LOG_FILENAME_EXTENSION = "log";
 
 	public static void main(String[] args) {
@@ -18,6 +23,24 @@ public class Application {
 		// depending on mode (first argument), determine what to do.
 		// - capture: call CaptureApplication after making sure required IP address argument is provided.
 		// - query: call QueryApplication after making sure type argument is provided.
+		// - trend: call TrendApplication after making sure type and channel arguments are provided.
+		// - compact: call CompactApplication, optionally limited to a single IP address.
+		// - retention: call RetentionApplication, optionally repeating every given number of minutes.
+		// - state: call StateApplication to show latest state served by a running capture.
+		// - serve: call ServeApplication to keep answering query and trend requests from memory.
+		// - generate: call SyntheticLogGenerator to write a log file of the given size, e.g. for benchmarks.
+		// - batch: call BatchApplication to answer every query of a plan file in a single pass over files.
+		// - simulate: call SimulateApplication to run simulated devices (and captures of them) for load tests.
+		// - agent: call AgentApplication to keep answering query fragments of coordinators for this host.
+		// - coordinate: call CoordinatorApplication to run a query or trend over the agents of several hosts.
+		// - session: call SessionApplication to decode a type and range once and explore it interactively.
+		// - export: call ExportApplication to write a type and range as typed columns for analytics tools.
+		// - join: call JoinApplication to show telemetry around every error or warning of lr records.
+		//
+		// query and trend are forwarded to a running serve (if there is one) and answered here otherwise.
+		//
+		// classes of a mode are only loaded once its branch runs, so e.g. query never loads WebSocket
+		// classes and capture never loads asciitable. modes shouldn't be referenced outside their branch.
 		//
 		// if an unknown mode is provided, print usage instructions and exit. 
 		if (mode.equals("capture")) {
@@ -38,31 +61,160 @@ public class Application {
 				printUsage("Error: type is required for capture mode.");
 			}
 			
-			Instant startDate = null;
-			Instant endDate = null;
+			Instant[] range = parseRange(args, 2);
 
-			if (args.length > 2) {
-				if (args.length < 4) {
-					printUsage("Error: start and end times must to be specified together.");
-				}
+			if (!ServeApplication.forward(DEFAULT_LOG_DIRECTORY, "query", args[1], toString(range[0]), toString(range[1]))) {
+				QueryApplication.run(DEFAULT_LOG_DIRECTORY, args[1], range[0], range[1]);
+			}
+		} else if (mode.equals("batch")) {
+			if (args.length < 2) {
+				printUsage("Error: plan file is required for batch mode.");
+			}
 
-				startDate = parseDate(args[2]);
-				if (startDate == null) {
-					System.out.println("Warning: Failed to parse start date provided, defaulting to null.");
-				}
+			BatchApplication.run(DEFAULT_LOG_DIRECTORY, args[1]);
+		} else if (mode.equals("trend")) {
+			if (args.length < 3) {
+				printUsage("Error: type and channel are required for trend mode.");
+			}
+
+			Instant[] range = parseRange(args, 3);
+
+			if (!ServeApplication.forward(DEFAULT_LOG_DIRECTORY, "trend", args[1], args[2], toString(range[0]), toString(range[1]))) {
+				TrendApplication.run(DEFAULT_LOG_DIRECTORY, args[1], args[2], range[0], range[1]);
+			}
+		} else if (mode.equals("compact")) {
+			String ipAddress = args.length > 1 ? args[1] : null;
+			CompactApplication.run(DEFAULT_LOG_DIRECTORY, ipAddress);
+		} else if (mode.equals("retention")) {
+			int intervalInMinutes = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+			RetentionApplication.run(DEFAULT_LOG_DIRECTORY, intervalInMinutes);
+		} else if (mode.equals("state")) {
+			int statePort = Settings.getInt("cst.state.port", 0);
+			if (statePort <= 0) {
+				printUsage("Error: cst.state.port must be set for state mode.");
+			}
+
+			String ipAddress = args.length > 1 ? args[1] : null;
+			StateApplication.run(statePort, ipAddress);
+		} else if (mode.equals("serve")) {
+			ServeApplication.run(DEFAULT_LOG_DIRECTORY);
+		} else if (mode.equals("generate")) {
+			long sizeInMegabytes = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_GENERATE_SIZE;
+			int units = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+			SyntheticLogGenerator.run(DEFAULT_LOG_DIRECTORY, sizeInMegabytes, units);
+		} else if (mode.equals("simulate")) {
+			// speed multiplies how fast log files are replayed; 0 sends messages as fast as possible.
+			int deviceCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIMULATE_DEVICES;
+			double speed = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_SIMULATE_SPEED;
+			int durationInSeconds = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CAPTURE_DURATION;
 
-				endDate = parseDate(args[3]);
-				if (endDate == null) {
-					System.out.println("Warning: Failed to parse end date provided, defaulting to null.");
+			if (deviceCount < 1) {
+				printUsage("Error: at least one device is required for simulate mode.");
+			}
+
+			SimulateApplication.run(DEFAULT_LOG_DIRECTORY, deviceCount, speed, durationInSeconds);
+		} else if (mode.equals("session")) {
+			if (args.length < 2) {
+				printUsage("Error: type is required for session mode.");
+			}
+
+			Instant[] range = parseRange(args, 2);
+
+			SessionApplication.run(DEFAULT_LOG_DIRECTORY, args[1], range[0], range[1]);
+		} else if (mode.equals("export")) {
+			if (args.length < 3) {
+				printUsage("Error: type and output directory are required for export mode.");
+			}
+
+			Instant[] range = parseRange(args, 3);
+
+			ExportApplication.run(DEFAULT_LOG_DIRECTORY, args[1], args[2], range[0], range[1]);
+		} else if (mode.equals("join")) {
+			if (args.length < 3) {
+				printUsage("Error: types and channels are required for join mode.");
+			}
+
+			// window is optional, so it is there when what follows channels is a number of seconds rather
+			// than a date. anything left over after it must be a start and end pair.
+			int windowSeconds = JoinApplication.DEFAULT_WINDOW_SECONDS;
+			int rangeIndex = 3;
+
+			if (args.length > 3 && args[3].matches("\\d+")) {
+				windowSeconds = Integer.parseInt(args[3]);
+				rangeIndex = 4;
+			}
+
+			if (args.length > rangeIndex + 2) {
+				printUsage("Error: Too many arguments for join mode; see usage below.");
+			}
+
+			Instant[] range = parseRange(args, rangeIndex);
+
+			JoinApplication.run(DEFAULT_LOG_DIRECTORY, args[1], args[2], windowSeconds, range[0], range[1]);
+		} else if (mode.equals("agent")) {
+			AgentApplication.run(DEFAULT_LOG_DIRECTORY);
+		} else if (mode.equals("coordinate")) {
+			if (args.length < 3 || (!args[2].equals("query") && !args[2].equals("trend"))) {
+				printUsage("Error: agents and query or trend are required for coordinate mode.");
+			}
+
+			// arguments after query or trend are the same as those of query and trend modes.
+			boolean trend = args[2].equals("trend");
+			int rangeIndex = trend ? 5 : 4;
+
+			if (args.length < rangeIndex) {
+				printUsage(trend ? "Error: type and channel are required for trend mode." : "Error: type is required for query mode.");
+			}
+
+			Instant[] range = parseRange(args, rangeIndex);
+
+			List<String> agents = new ArrayList<>();
+			for (String agent : args[1].split(",")) {
+				if (!agent.trim().isEmpty()) {
+					agents.add(agent.trim());
 				}
 			}
 
-			QueryApplication.run(DEFAULT_LOG_DIRECTORY, args[1], startDate, endDate);
+			if (agents.isEmpty()) {
+				printUsage("Error: at least one agent is required for coordinate mode.");
+			}
+
+			if (trend) {
+				CoordinatorApplication.runTrend(agents, args[3], args[4], range[0], range[1]);
+			} else {
+				CoordinatorApplication.runQuery(agents, args[3], range[0], range[1]);
+			}
 		} else {
 			printUsage("Error: Unknown mode provided; see usage below.");
 		}
 	}
 	
+	/**
+	 * Returns the start and end dates given at args[index] and args[index + 1], or nulls if arguments
+	 * stop before index. Both must be given; one that can't be parsed is left null with a warning.
+	 */
+	private static Instant[] parseRange(String[] args, int index) {
+		Instant[] range = new Instant[2];
+
+		if (args.length > index) {
+			if (args.length < index + 2) {
+				printUsage("Error: start and end times must be specified together.");
+			}
+
+			range[0] = parseDate(args[index]);
+			if (range[0] == null) {
+				System.out.println("Warning: Failed to parse start date provided, defaulting to null.");
+			}
+
+			range[1] = parseDate(args[index + 1]);
+			if (range[1] == null) {
+				System.out.println("Warning: Failed to parse end date provided, defaulting to null.");
+			}
+		}
+
+		return range;
+	}
+
 	private static Instant parseDate(String dateString) {
 		Instant instant;
 		
@@ -75,6 +227,10 @@ public class Application {
 		return instant;
 	}
 
+	private static String toString(Instant instant) {
+		return instant == null ? null : instant.toString();
+	}
+
 	private static void printUsage(String errorMessage) {
 		if (errorMessage != null) {
 			System.out.println(errorMessage);
@@ -84,8 +240,23 @@ public class Application {
 		System.out.println("Usage:");
 		System.out.println("  cst-logs capture [IP ADDRESS] [duration in seconds]");
 		System.out.println("  cst-logs query [TYPE] [start] [end]");
+		System.out.println("  cst-logs trend [TYPE] [CHANNEL] [start] [end]");
+		System.out.println("  cst-logs batch [PLAN FILE]");
+		System.out.println("  cst-logs compact [ip address]");
+		System.out.println("  cst-logs retention [interval in minutes]");
+		System.out.println("  cst-logs state [ip address]");
+		System.out.println("  cst-logs serve");
+		System.out.println("  cst-logs generate [size in MB] [units]");
+		System.out.println("  cst-logs simulate [devices] [speed] [duration in seconds]");
+		System.out.println("  cst-logs session [TYPE] [start] [end]");
+		System.out.println("  cst-logs export [TYPE] [OUTPUT DIRECTORY] [start] [end]");
+		System.out.println("  cst-logs join [TYPES] [CHANNELS] [window in seconds] [start] [end]");
+		System.out.println("  cst-logs agent");
+		System.out.println("  cst-logs coordinate [AGENTS] query [TYPE] [start] [end]");
+		System.out.println("  cst-logs coordinate [AGENTS] trend [TYPE] [CHANNEL] [start] [end]");
 		System.out.println();
 		System.out.println("Lowercase names for options means it is optional.");
+		System.out.println("AGENTS is a comma-separated list of host:port (port defaults to " + AgentApplication.DEFAULT_PORT + ").");
 
 		if (errorMessage != null) {
 			System.exit(-1);
@@ -0,0 +1,254 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BatchApplication {
+	private static final Logger logger = Logger.getLogger(BatchApplication.class);
+
+	private static final String STANDARD_OUTPUT = "-";
+
+	/**
+	 * Answers every query of a plan file (see load) in a single pass over each log file, instead of
+	 * reading and parsing everything once per query. Every line is routed through all queries; it is
+	 * only parsed if one of them wants it, and at most once. Each query prints to its own output what
+	 * query mode would have printed for it.
+	 */
+	public static void run(String logDirectory, String planFilename) {
+		List<BatchQuery> queries = null;
+		Map<String, PrintStream> outputs = new HashMap<>();
+
+		try {
+			queries = load(new File(planFilename), outputs);
+		} catch (IOException exception) {
+			logger.error("Failed to read query plan (%s): %s", planFilename, exception.getMessage());
+			System.exit(-2);
+		}
+
+		if (queries.isEmpty()) {
+			logger.error("No queries to run in query plan (%s).", planFilename);
+			System.exit(-2);
+		}
+
+		LogCatalog catalog = new LogCatalog(new File(logDirectory));
+		File[] files = catalog.getLogFiles();
+		if (files == null) {
+			logger.error("Failed to list files in directory (%s).", logDirectory);
+			System.exit(-2);
+		}
+
+		QueryStatistics statistics = new QueryStatistics("batch");
+		for (File file : files) {
+			scan(file, catalog.getPartition(file), catalog.getIndex(file), queries, statistics);
+
+			for (BatchQuery query : queries) {
+				if (!query.rows.isEmpty()) {
+					QueryApplication.printRawTable(query.out, String.format("File: %s (resolution: raw)", catalog.getName(file)), query.rows);
+				}
+			}
+		}
+
+		for (PrintStream out : outputs.values()) {
+			out.flush();
+			if (out != System.out) {
+				out.close();
+			}
+		}
+
+		statistics.record();
+	}
+
+	/**
+	 * Loads queries from a plan file with one query per line: where to print its output (a file, or -
+	 * for the standard output) followed by the arguments of query mode, i.e. type and optionally start
+	 * and end, separated by spaces:
+	 *
+	 *     sm-morning.txt sm 2018-08-29T08:00:00Z 2018-08-29T12:00:00Z
+	 *     - fm
+	 *
+	 * Empty lines and lines starting with # are ignored, as are invalid queries which are reported.
+	 * Queries with the same output share it; their tables are printed file by file, in the order of the
+	 * plan for each file.
+	 */
+	public static List<BatchQuery> load(File planFile, Map<String, PrintStream> outputs) throws IOException {
+		List<BatchQuery> queries = new ArrayList<>();
+
+		try (BufferedReader reader = FileUtils.createBufferedReader(planFile)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] arguments = line.split("\\s+");
+				if (arguments.length != 2 && arguments.length != 4) {
+					logger.error("Ignoring invalid query (expected output, type and optionally start and end): %s", line);
+					continue;
+				}
+
+				long startTimestamp = 0;
+				long endTimestamp = Long.MAX_VALUE;
+
+				if (arguments.length == 4) {
+					try {
+						startTimestamp = Instant.parse(arguments[2]).toEpochMilli();
+						endTimestamp = Instant.parse(arguments[3]).toEpochMilli();
+					} catch (DateTimeParseException exception) {
+						logger.error("Ignoring query with invalid start or end: %s", line);
+						continue;
+					}
+				}
+
+				PrintStream out = outputs.get(arguments[0]);
+				if (out == null) {
+					out = openOutput(arguments[0]);
+					outputs.put(arguments[0], out);
+				}
+
+				queries.add(new BatchQuery(arguments[1], startTimestamp, endTimestamp, out));
+			}
+		}
+
+		return queries;
+	}
+
+	/**
+	 * Reads a log file once, collecting matching rows of every query. Queries follow the same rules as
+	 * LogReader.getMatchingLogLines: a query is done with the file once it is skipped by the index or a
+	 * line after its end is read, and the file is read no further once every query is done. Partitions
+	 * (see PartitionedLogWriter) are only read for queries of their type.
+	 */
+	private static void scan(File file, String partition, SegmentIndex index, List<BatchQuery> queries, QueryStatistics statistics) {
+		int activeCount = 0;
+		long offset = Long.MAX_VALUE;
+
+		for (BatchQuery query : queries) {
+			query.rows.clear();
+			query.done = index != null && !index.mayContain(query.type, query.startTimestamp, query.endTimestamp);
+			if (partition != null && !partition.equals(PartitionedLogWriter.OTHER_PARTITION)) {
+				query.done |= !partition.equals(PartitionedLogWriter.getPartition(query.type));
+			}
+
+			if (!query.done) {
+				activeCount++;
+				offset = Math.min(offset, index == null ? 0 : index.getOffset(query.startTimestamp));
+			}
+		}
+
+		if (activeCount == 0) {
+			statistics.addScanned(0, 0, true);
+			return;
+		}
+
+		// reading starts where the earliest query would; earlier lines are before every start anyway.
+		LogReader logReader;
+		try {
+			logReader = new LogReader(file);
+		} catch (IOException exception) {
+			logger.error("Failed to open file (%s): %s", file.getName(), exception.getMessage());
+			return;
+		}
+
+		logReader.seek(offset);
+
+		long scanned = 0;
+		long skipped = 0;
+		long rowCount = 0;
+		long parseTime = 0;
+
+		try {
+			LogCursor cursor = new LogCursor();
+
+			while (activeCount > 0 && logReader.readCursor(cursor)) {
+				scanned++;
+
+				// type is compared on the cursor; the line only becomes a LogLine, and its fields are only
+				// parsed, once for the first query wanting it.
+				LogLine logLine = null;
+				Map<String, String> fields = null;
+
+				for (BatchQuery query : queries) {
+					if (query.done || cursor.isBefore(query.startTimestamp)) {
+						continue;
+					}
+
+					if (cursor.isAfter(query.endTimestamp)) {
+						query.done = true;
+						activeCount--;
+						continue;
+					}
+
+					if (!cursor.isType(query.type)) {
+						continue;
+					}
+
+					if (logLine == null) {
+						logLine = cursor.toLogLine();
+					}
+
+					if (!logLine.is(query.type)) {
+						continue;
+					}
+
+					if (fields == null) {
+						long parseStart = System.nanoTime();
+						fields = logLine.getFields();
+						parseTime += System.nanoTime() - parseStart;
+					}
+
+					query.rows.add(fields);
+					rowCount++;
+				}
+
+				skipped += fields == null ? 1 : 0;
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to read lines from file: %s", exception.getMessage());
+		} finally {
+			logReader.close();
+		}
+
+		statistics.addScanned(scanned, skipped, false);
+		statistics.addParsed(rowCount, parseTime);
+	}
+
+	private static PrintStream openOutput(String filename) throws FileNotFoundException, UnsupportedEncodingException {
+		if (filename.equals(STANDARD_OUTPUT)) {
+			return System.out;
+		}
+
+		return new PrintStream(new FileOutputStream(filename), false, "UTF-8");
+	}
+
+	/**
+	 * A query of a plan, and what it matched in the file being read.
+	 */
+	public static class BatchQuery {
+		private final String type;
+		private final long startTimestamp;
+		private final long endTimestamp;
+		private final PrintStream out;
+		private final List<Map<String, String>> rows = new ArrayList<>();
+		private boolean done;
+
+		BatchQuery(String type, long startTimestamp, long endTimestamp, PrintStream out) {
+			this.type = type;
+			this.startTimestamp = startTimestamp;
+			this.endTimestamp = endTimestamp;
+			this.out = out;
+		}
+	}
+}
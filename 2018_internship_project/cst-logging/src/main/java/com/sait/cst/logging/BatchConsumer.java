@@ -0,0 +1,98 @@
+package com.sait.cst.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BatchConsumer<E> implements Runnable {
+	private static final Logger logger = Logger.getLogger(BatchConsumer.class);
+
+	private final String name;
+	private final RingBuffer<E> ringBuffer;
+	private final AtomicLong dependency;
+	private final EventHandler<E> handler;
+	private final AtomicLong sequence = new AtomicLong(-1);
+	private volatile boolean running = true;
+	private Thread thread;
+
+	/**
+	 * Creates a consumer which processes events of ringBuffer on its own thread once dependency has
+	 * passed them. Dependency is either the ring buffer's cursor (first stage) or the sequence of
+	 * another consumer, which makes this consumer a later stage of the pipeline.
+	 */
+	public BatchConsumer(String name, RingBuffer<E> ringBuffer, AtomicLong dependency, EventHandler<E> handler) {
+		this.name = name;
+		this.ringBuffer = ringBuffer;
+		this.dependency = dependency;
+		this.handler = handler;
+	}
+
+	public void start() {
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the consumer after it processed everything its dependency has passed. Consumers must be
+	 * stopped in pipeline order (after the producer) so nothing published is lost.
+	 */
+	public void stop() {
+		running = false;
+		ringBuffer.getWaitStrategy().signalAll();
+
+		try {
+			thread.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		long nextSequence = sequence.get() + 1;
+
+		while (true) {
+			long available = ringBuffer.getWaitStrategy().waitFor(nextSequence, dependency, this);
+
+			// events are handled in batches: everything available is processed before the sequence is
+			// moved, which keeps the cost of coordinating with other threads low under load.
+			while (nextSequence <= available) {
+				try {
+					handler.onEvent(ringBuffer.get(nextSequence), nextSequence, nextSequence == available);
+				} catch (Exception exception) {
+					logger.error("Failed to process event in %s: %s", name, exception.getMessage());
+				}
+
+				nextSequence++;
+			}
+
+			if (sequence.get() != nextSequence - 1) {
+				// set(), not lazySet(), for the same reason as RingBuffer.publish.
+				sequence.set(nextSequence - 1);
+				ringBuffer.getWaitStrategy().signalAll();
+			}
+
+			if (!running && dependency.get() < nextSequence) {
+				break;
+			}
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public AtomicLong getSequence() {
+		return sequence;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns how many published events this consumer still has to process.
+	 */
+	public long getLag() {
+		return ringBuffer.getCursor().get() - sequence.get();
+	}
+}
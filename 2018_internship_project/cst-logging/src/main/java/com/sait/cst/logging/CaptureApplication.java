@@ -1,5 +1,7 @@
 package com.sait.cst.logging;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -7,6 +9,8 @@ import com.neovisionaries.ws.client.WebSocket;
 import com.neovisionaries.ws.client.WebSocketFactory;
 
 public class CaptureApplication {
+	private static final Logger logger = Logger.getLogger(CaptureApplication.class);
+
 	private static final int CONNECTION_TIMEOUT = 5000;
 
 	public static void run(String ipAddress, String logDirectory, int captureDurationInSeconds) {
@@ -15,10 +19,34 @@ public class CaptureApplication {
 		// create directory where file(s) will be written. if creating directory fails for some
 		// reason, exit the program.
 		if (!FileUtils.createDirectory(logDirectory)) {
-			LoggingUtils.ERROR("Failed to create directory: %s", logDirectory);
+			logger.error("Failed to create directory: %s", logDirectory);
 			System.exit(-2);
 		}
 
+		// a previous capture which was killed may have left a file ending with an incomplete message;
+		// it is cut off so readers only ever see complete ones.
+		LogRecovery.recoverDirectory(new File(logDirectory));
+
+		// retention can be enforced in the background while capturing, so capture hosts never need a
+		// separate job to keep disk usage in check.
+		int retentionIntervalInMinutes = Settings.getInt("cst.retention.interval.minutes", 0);
+		if (retentionIntervalInMinutes > 0) {
+			RetentionApplication.schedule(logDirectory, retentionIntervalInMinutes, true);
+		}
+
+		// metrics (message rates, write latency, queue depths) are exported while capturing; see Metrics.
+		Metrics.getInstance().export("capture-" + ipAddress, logDirectory);
+
+		// latest state of the device can be served to dashboards from memory while capturing.
+		int statePort = Settings.getInt("cst.state.port", 0);
+		if (statePort > 0) {
+			try {
+				new StateServer(statePort).start();
+			} catch (IOException exception) {
+				logger.error("Failed to serve latest state on port %d: %s", statePort, exception.getMessage());
+			}
+		}
+
 		// call which will initiate capturing messages from IP address provided.
 		captureMessages(logDirectory, ipAddress, socketAddress, captureDurationInSeconds);
 	}
@@ -34,6 +62,21 @@ public class CaptureApplication {
 				.connect();
 	}
 
+	/**
+	 * Connects handler to the device at socketAddress and sends it the initial message, after which the
+	 * device starts sending its messages.
+	 */
+	public static WebSocket start(String socketAddress, MessageHandler handler) throws Exception {
+		WebSocket socket = connect(socketAddress, handler);
+		logger.info("Connected to WebSocket (%s) successfully.", socketAddress);
+
+		String message = String.format("init:[%d]", System.currentTimeMillis());
+		logger.debug("Sending %s to device.", message); 
+		socket.sendText(message);
+
+		return socket;
+	}
+
 	/**
 	 * Registering a shutdown hook helps with gracefully terminating the program when users quit from
 	 * the command line using Ctrl + C. This is done to make sure program cleans up after itself properly
@@ -44,7 +87,7 @@ public class CaptureApplication {
 				new Thread() {
 		            @Override
 		            public void run() {
-		                LoggingUtils.INFO("Terminating.");
+		                logger.info("Terminating.");
 
 		                if (socket != null) {
 		                	socket.disconnect();
@@ -77,17 +120,12 @@ public class CaptureApplication {
 		MessageHandler handler = new MessageHandler(baseLoggingDirectoryPath, ipAddress);
 
 		if (!handler.isReady()) {
-			LoggingUtils.ERROR("Failed to initialize LogMessageHandler successfully.");
+			logger.error("Failed to initialize LogMessageHandler successfully.");
 			System.exit(-3);
 		}
 
 		try {
-			final WebSocket socket = connect(socketAddress, handler);
-			LoggingUtils.INFO("Connected to WebSocket (%s) successfully.", socketAddress);
-
-			String message = String.format("init:[%d]", System.currentTimeMillis());
-			LoggingUtils.DEBUG("Sending %s to device.", message); 
-			socket.sendText(message);
+			final WebSocket socket = start(socketAddress, handler);
 
 			// this allows program to disconnect gracefully when user wants to stop.
 			registerShutdownHook(socket, handler);
@@ -98,7 +136,7 @@ public class CaptureApplication {
 				registerShutdownTimer(captureDurationInSeconds);
 			}
 		} catch (Exception exception) {
-			LoggingUtils.ERROR("Failed to WebSocket (%s): (%s)", socketAddress, exception.getMessage());
+			logger.error("Failed to WebSocket (%s): (%s)", socketAddress, exception.getMessage());
 		}
 	}
 }
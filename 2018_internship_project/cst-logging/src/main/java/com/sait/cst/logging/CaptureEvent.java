@@ -0,0 +1,67 @@
+package com.sait.cst.logging;
+
+public class CaptureEvent {
+	private long timestamp;
+	private long receivedTime;
+	private long receivedSequence;
+	private String text;
+	private boolean decoded;
+	private final TelemetryRecord record = new TelemetryRecord();
+
+	/**
+	 * Returns when the message was received, in milliseconds since epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns when the message was received according to System.nanoTime, to measure how long handling
+	 * it takes, or 0 if it isn't known (messages which were spilled; see CapturePipeline).
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * Returns how many messages the pipeline received before this one, dropped ones included. Messages
+	 * are written in the order they were received, so gaps tell which were dropped.
+	 */
+	public long getReceivedSequence() {
+		return receivedSequence;
+	}
+
+	/**
+	 * Returns the message as received from the WebSocket.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns whether the message was decoded into getRecord. Only valid for stages after decoding.
+	 */
+	public boolean isDecoded() {
+		return decoded;
+	}
+
+	public TelemetryRecord getRecord() {
+		return record;
+	}
+
+	void set(long timestamp, String text) {
+		set(timestamp, text, 0, -1);
+	}
+
+	void set(long timestamp, String text, long receivedTime, long receivedSequence) {
+		this.timestamp = timestamp;
+		this.receivedTime = receivedTime;
+		this.receivedSequence = receivedSequence;
+		this.text = text;
+		this.decoded = false;
+	}
+
+	void setDecoded(boolean decoded) {
+		this.decoded = decoded;
+	}
+}
@@ -0,0 +1,397 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CapturePipeline {
+	private static final Logger logger = Logger.getLogger(CapturePipeline.class);
+
+	public static final int DEFAULT_SIZE = 8192;
+	public static final String DEFAULT_WAIT_STRATEGY = "blocking";
+	public static final String DEFAULT_OVERLOAD_POLICY = "spill";
+	public static final String DEFAULT_THINNABLE_TYPES = "sm";
+	private static final int DEFAULT_THIN_WATERMARK_PERCENT = 75;
+	private static final int DEFAULT_THIN_KEEP_RATIO = 10;
+	private static final long DEFAULT_SPILL_MAX_MEGABYTES = 256;
+	private static final long DRAIN_INTERVAL = 10;
+
+	private final String name;
+	private final RingBuffer<CaptureEvent> ringBuffer;
+	private final BatchConsumer<CaptureEvent> decoder;
+	private final List<BatchConsumer<CaptureEvent>> consumers = new ArrayList<>();
+	private Timer lagTimer;
+
+	// overload handling; see publish.
+	private final boolean spill;
+	private final String[] thinnablePrefixes;
+	private final long thinRemainingCapacity;
+	private final int thinKeepRatio;
+	private final long spillMaxBytes;
+	private final SpillQueue spillQueue;
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong spilledCount = new AtomicLong();
+	private long thinCounter = 0;
+	private long receivedCount = 0;
+	private Timer drainTimer;
+
+	/**
+	 * Creates a CapturePipeline which splits handling of received messages into stages running on
+	 * their own threads, connected by a preallocated ring buffer:
+	 * 1. receive: the WebSocket thread only timestamps messages and publishes them (see publish).
+	 * 2. decode: messages are decoded into a TelemetryRecord kept in the ring buffer entry.
+	 * 3. consumers: raw handlers (e.g. writing the log file) follow receive directly, so a slow
+	 *    decoder never delays persisting; decoded handlers (rollups, alerts, state) follow decode.
+	 *
+	 * Ring buffer size (cst.pipeline.size) and how idle stages wait (cst.pipeline.wait, see
+	 * WaitStrategy.create) are configurable. How overload is handled is described in publish; messages
+	 * are spilled to spillFile.
+	 */
+	public CapturePipeline(String name, File spillFile) {
+		int size = Settings.getInt("cst.pipeline.size", DEFAULT_SIZE);
+		if (Integer.bitCount(size) != 1) {
+			logger.warn("Pipeline size must be a power of two (%d), using %d.", size, DEFAULT_SIZE);
+			size = DEFAULT_SIZE;
+		}
+
+		WaitStrategy waitStrategy = WaitStrategy.create(Settings.getString("cst.pipeline.wait", DEFAULT_WAIT_STRATEGY));
+
+		String overloadPolicy = Settings.getString("cst.capture.overload", DEFAULT_OVERLOAD_POLICY);
+		if (!overloadPolicy.equals("spill") && !overloadPolicy.equals("block")) {
+			logger.warn("Unknown overload policy (%s), using %s.", overloadPolicy, DEFAULT_OVERLOAD_POLICY);
+			overloadPolicy = DEFAULT_OVERLOAD_POLICY;
+		}
+
+		// types which may be thinned are matched by the start of the message, e.g. {"sm", which is
+		// cheap enough to do on the receiving thread.
+		String thinnableTypes = Settings.getString("cst.capture.thin.types", DEFAULT_THINNABLE_TYPES);
+		List<String> thinnablePrefixes = new ArrayList<>();
+		for (String type : thinnableTypes.split(",")) {
+			if (!type.trim().isEmpty()) {
+				thinnablePrefixes.add("{\"" + type.trim() + "\"");
+			}
+		}
+
+		this.spill = overloadPolicy.equals("spill");
+		this.thinnablePrefixes = thinnablePrefixes.toArray(new String[thinnablePrefixes.size()]);
+		this.thinRemainingCapacity = size - size * (long) Settings.getInt("cst.capture.thin.watermark", DEFAULT_THIN_WATERMARK_PERCENT) / 100;
+		this.thinKeepRatio = Math.max(1, Settings.getInt("cst.capture.thin.keep", DEFAULT_THIN_KEEP_RATIO));
+		this.spillMaxBytes = Settings.getLong("cst.capture.spill.max.mb", DEFAULT_SPILL_MAX_MEGABYTES) * 1024 * 1024;
+		this.spillQueue = new SpillQueue(spillFile);
+
+		this.name = name;
+		this.ringBuffer = new RingBuffer<>(new RingBuffer.EventFactory<CaptureEvent>() {
+			@Override
+			public CaptureEvent newInstance() {
+				return new CaptureEvent();
+			}
+		}, size, waitStrategy);
+
+		// decoder is owned by its stage's thread, so it can reuse its state without synchronization.
+		final TelemetryDecoder telemetryDecoder = new TelemetryDecoder();
+		this.decoder = new BatchConsumer<>(name + "-decode", ringBuffer, ringBuffer.getCursor(), new EventHandler<CaptureEvent>() {
+			@Override
+			public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) {
+				event.setDecoded(telemetryDecoder.decode(event.getTimestamp(), event.getText(), event.getRecord()));
+			}
+		});
+		this.ringBuffer.addGatingSequence(decoder.getSequence());
+	}
+
+	/**
+	 * Adds a handler receiving every message as received, whether it decodes or not.
+	 */
+	public void addRawHandler(String handlerName, EventHandler<CaptureEvent> handler) {
+		addConsumer(new BatchConsumer<>(name + "-" + handlerName, ringBuffer, ringBuffer.getCursor(), handler));
+	}
+
+	/**
+	 * Adds a handler receiving messages once decoded. Handlers should check CaptureEvent.isDecoded.
+	 */
+	public void addDecodedHandler(String handlerName, EventHandler<CaptureEvent> handler) {
+		addConsumer(new BatchConsumer<>(name + "-" + handlerName, ringBuffer, decoder.getSequence(), handler));
+	}
+
+	/**
+	 * Starts every stage. Handlers must be added before.
+	 */
+	public void start() {
+		decoder.start();
+		for (BatchConsumer<CaptureEvent> consumer : consumers) {
+			consumer.start();
+		}
+
+		registerMetrics();
+
+		// spilled messages are moved back into the ring buffer as room frees up, even if nothing new
+		// is received.
+		drainTimer = new Timer(name + "-drain", true);
+		drainTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (CapturePipeline.this) {
+					drain();
+				}
+			}
+		}, DRAIN_INTERVAL, DRAIN_INTERVAL);
+
+		// lag of each stage can be logged periodically to see which one falls behind.
+		int lagIntervalInSeconds = Settings.getInt("cst.pipeline.lag.interval.seconds", 0);
+		if (lagIntervalInSeconds > 0) {
+			lagTimer = new Timer(name + "-lag", true);
+			lagTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					logger.info("Pipeline %s lag: %s, dropped: %d, spilled: %d (%d waiting)", name, getLags(), getDroppedCount(), getSpilledCount(), getSpillQueueSize());
+				}
+			}, lagIntervalInSeconds * 1000L, lagIntervalInSeconds * 1000L);
+		}
+	}
+
+	/**
+	 * Publishes a message received at timestamp. This is the only work done on the receiving thread.
+	 * Memory used is bounded by the ring buffer, so when stages can't keep up messages are handled by
+	 * priority:
+	 * - thinnable types (cst.capture.thin.types, sm by default) are thinned to one in every
+	 *   cst.capture.thin.keep messages once the ring buffer is more than cst.capture.thin.watermark
+	 *   percent full, and dropped altogether while it is full.
+	 * - everything else is never dropped. With the spill policy (cst.capture.overload), it is spilled
+	 *   to disk while the ring buffer is full, up to cst.capture.spill.max.mb; once spilling, later
+	 *   messages are spilled too so order is kept. With the block policy, or when spill is full, the
+	 *   receiving thread waits, which pushes back on the device through the connection.
+	 */
+	public synchronized void publish(long timestamp, String text) {
+		long receivedTime = System.nanoTime();
+		long receivedSequence = receivedCount++;
+		drain();
+
+		if (isThinnable(text)) {
+			long remainingCapacity = ringBuffer.getRemainingCapacity();
+
+			if (!spillQueue.isEmpty() || remainingCapacity == 0
+					|| (remainingCapacity < thinRemainingCapacity && thinCounter++ % thinKeepRatio != 0)) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+		}
+
+		if (spillQueue.isEmpty()) {
+			long sequence = ringBuffer.tryNext();
+			if (sequence >= 0) {
+				ringBuffer.get(sequence).set(timestamp, text, receivedTime, receivedSequence);
+				ringBuffer.publish(sequence);
+				return;
+			}
+		}
+
+		if (spill && spillQueue.getByteCount() < spillMaxBytes) {
+			try {
+				spillQueue.add(timestamp, receivedSequence, text);
+				spilledCount.incrementAndGet();
+				return;
+			} catch (IOException exception) {
+				logger.error("Failed to spill message, waiting instead: %s", exception.getMessage());
+			}
+		}
+
+		// spilled messages came first, so they go in before this one.
+		drainFully();
+
+		long sequence = ringBuffer.next();
+		ringBuffer.get(sequence).set(timestamp, text, receivedTime, receivedSequence);
+		ringBuffer.publish(sequence);
+	}
+
+	/**
+	 * Stops every stage once everything published (and spilled) was handled. Nothing must be published
+	 * after.
+	 */
+	public void stop() {
+		if (lagTimer != null) {
+			lagTimer.cancel();
+		}
+
+		if (drainTimer != null) {
+			drainTimer.cancel();
+		}
+
+		synchronized (this) {
+			drainFully();
+			spillQueue.close();
+		}
+
+		unregisterMetrics();
+
+		if (droppedCount.get() > 0 || spilledCount.get() > 0) {
+			logger.warn("Pipeline %s was overloaded: %d message(s) dropped, %d spilled to disk.", name, droppedCount.get(), spilledCount.get());
+		}
+
+		// raw handlers and decoder only depend on the producer, which stopped; decoded handlers depend
+		// on the decoder, so it is stopped first to let them drain everything.
+		decoder.stop();
+		for (BatchConsumer<CaptureEvent> consumer : consumers) {
+			consumer.stop();
+		}
+	}
+
+	/**
+	 * Returns how many thinnable messages were dropped because of overload.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns how many messages were spilled to disk because of overload.
+	 */
+	public long getSpilledCount() {
+		return spilledCount.get();
+	}
+
+	/**
+	 * Returns how many spilled messages are still waiting to be moved back into the pipeline.
+	 */
+	public synchronized long getSpillQueueSize() {
+		return spillQueue.size();
+	}
+
+	/**
+	 * Returns how many messages each stage still has to handle, by stage name in pipeline order.
+	 */
+	public Map<String, Long> getLags() {
+		Map<String, Long> lags = new LinkedHashMap<>();
+
+		lags.put(decoder.getName(), decoder.getLag());
+		for (BatchConsumer<CaptureEvent> consumer : consumers) {
+			lags.put(consumer.getName(), consumer.getLag());
+		}
+
+		return lags;
+	}
+
+	/**
+	 * Exports how many messages wait for each stage (e.g. the log writer's queue), in the spill queue,
+	 * and how many were dropped or spilled; see Metrics.
+	 */
+	private void registerMetrics() {
+		Metrics metrics = Metrics.getInstance();
+
+		for (final BatchConsumer<CaptureEvent> stage : getStages()) {
+			metrics.registerGauge("cst_capture_queue_depth", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return stage.getLag();
+				}
+			}, "device", name, "stage", getStageName(stage));
+		}
+
+		metrics.registerGauge("cst_capture_spill_queue_depth", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getSpillQueueSize();
+			}
+		}, "device", name);
+
+		metrics.registerCounter("cst_capture_dropped_messages_total", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getDroppedCount();
+			}
+		}, "device", name);
+
+		metrics.registerCounter("cst_capture_spilled_messages_total", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return getSpilledCount();
+			}
+		}, "device", name);
+	}
+
+	private void unregisterMetrics() {
+		Metrics metrics = Metrics.getInstance();
+
+		for (BatchConsumer<CaptureEvent> stage : getStages()) {
+			metrics.unregister("cst_capture_queue_depth", "device", name, "stage", getStageName(stage));
+		}
+
+		metrics.unregister("cst_capture_spill_queue_depth", "device", name);
+		metrics.unregister("cst_capture_dropped_messages_total", "device", name);
+		metrics.unregister("cst_capture_spilled_messages_total", "device", name);
+	}
+
+	private List<BatchConsumer<CaptureEvent>> getStages() {
+		List<BatchConsumer<CaptureEvent>> stages = new ArrayList<>();
+		stages.add(decoder);
+		stages.addAll(consumers);
+		return stages;
+	}
+
+	/**
+	 * Returns name of a stage without the pipeline's, e.g. log.
+	 */
+	private String getStageName(BatchConsumer<CaptureEvent> stage) {
+		return stage.getName().substring(name.length() + 1);
+	}
+
+	/**
+	 * Moves spilled messages into the ring buffer while there is room, without waiting.
+	 */
+	private void drain() {
+		while (!spillQueue.isEmpty()) {
+			long sequence = ringBuffer.tryNext();
+			if (sequence < 0) {
+				return;
+			}
+
+			publishSpilled(sequence);
+		}
+	}
+
+	/**
+	 * Moves every spilled message into the ring buffer, waiting for room as needed.
+	 */
+	private void drainFully() {
+		while (!spillQueue.isEmpty()) {
+			publishSpilled(ringBuffer.next());
+		}
+	}
+
+	private void publishSpilled(long sequence) {
+		CaptureEvent event = ringBuffer.get(sequence);
+
+		try {
+			if (!spillQueue.poll(event)) {
+				event.set(0, "");
+			}
+		} catch (IOException exception) {
+			// a claimed entry must be published; it is published empty and the queue is given up.
+			logger.error("Failed to read spilled message, dropping %d spilled message(s): %s", spillQueue.size(), exception.getMessage());
+			droppedCount.addAndGet(spillQueue.size());
+			spillQueue.close();
+			event.set(0, "");
+		}
+
+		ringBuffer.publish(sequence);
+	}
+
+	private boolean isThinnable(String text) {
+		for (String prefix : thinnablePrefixes) {
+			if (text.startsWith(prefix)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void addConsumer(BatchConsumer<CaptureEvent> consumer) {
+		consumers.add(consumer);
+		ringBuffer.addGatingSequence(consumer.getSequence());
+	}
+}
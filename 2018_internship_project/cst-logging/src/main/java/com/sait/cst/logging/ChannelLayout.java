@@ -0,0 +1,105 @@
+package com.sait.cst.logging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class ChannelLayout {
+	private final String type;
+	private final long signature;
+	private final String[] names;
+	private final Map<String, Integer> indexes = new HashMap<>();
+
+	/**
+	 * Creates a layout describing numeric channels of a message type in a specific shape. For example,
+	 * an sm message of a standalone transmitter and one of a master/slave transmitter have different
+	 * layouts since the latter has more rows in each array.
+	 *
+	 * Channel names are made of the JSON key and indexes in arrays, e.g. rs, bi[0] or ta[1][3].
+	 */
+	public ChannelLayout(String type, long signature, String[] names) {
+		this.type = type;
+		this.signature = signature;
+		this.names = names;
+
+		for (int i = 0; i < names.length; i++) {
+			indexes.put(names[i], i);
+		}
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public long getSignature() {
+		return signature;
+	}
+
+	public int getChannelCount() {
+		return names.length;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Returns index of the channel with given name, or -1 if there's no such channel.
+	 */
+	public int indexOf(String name) {
+		Integer index = indexes.get(name);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns indexes of channels matching the given pattern. A pattern can be:
+	 * - a channel name, e.g. ta[1][3]
+	 * - a channel name with * for any index, e.g. ta[*][3]
+	 * - a key without indexes, which matches all channels of that key, e.g. ta
+	 * - a single *, which matches all channels.
+	 */
+	public int[] find(String pattern) {
+		Pattern regex = compilePattern(pattern);
+		List<Integer> matches = new ArrayList<>();
+
+		for (int i = 0; i < names.length; i++) {
+			if (regex.matcher(names[i]).matches()) {
+				matches.add(i);
+			}
+		}
+
+		int[] result = new int[matches.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = matches.get(i);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Turns a channel pattern (see find) into a regular expression matching channel names.
+	 */
+	public static Pattern compilePattern(String pattern) {
+		if (pattern.equals("*")) {
+			return Pattern.compile(".*");
+		}
+
+		StringBuilder regex = new StringBuilder();
+		for (String part : pattern.split("\\*", -1)) {
+			if (regex.length() > 0) {
+				regex.append("\\d+");
+			}
+
+			regex.append(Pattern.quote(part));
+		}
+
+		// a key without indexes matches all of its channels.
+		if (pattern.indexOf('[') < 0) {
+			regex.append("(\\[\\d+\\])*");
+		}
+
+		return Pattern.compile(regex.toString());
+	}
+}
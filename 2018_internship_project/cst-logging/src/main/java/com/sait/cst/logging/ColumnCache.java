@@ -0,0 +1,359 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ColumnCache {
+	private static final Logger logger = Logger.getLogger(ColumnCache.class);
+
+	public static final String CACHE_FILENAME_EXTENSION = "cols";
+	private static final int MAGIC = 0x43535443;
+	private static final int VERSION = 1;
+
+	private final String name;
+	private final long size;
+	private final List<ColumnBlock> blocks;
+
+	private ColumnCache(String name, long size, List<ColumnBlock> blocks) {
+		this.name = name;
+		this.size = size;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Opens the cache of messages of a type within a time range of a log file, decoding them into it
+	 * first if there is no cache yet or the log file changed since (e.g. it is still being captured).
+	 * Name is the name of the log file in its catalog (see LogCatalog.getName).
+	 *
+	 * A cache is a file of cacheDirectory holding numeric channels (see TelemetryDecoder) in columns:
+	 * for each shape of message (see ChannelLayout), timestamps of all its messages followed by every
+	 * channel's values. The file is memory-mapped, so columns are read in place, off the heap, and
+	 * stay in the page cache from one query to the next.
+	 */
+	public static ColumnCache open(File logFile, String name, SegmentIndex index, String type, long startTimestamp, long endTimestamp, File cacheDirectory)
+			throws IOException {
+		File cacheFile = new File(cacheDirectory, String.format("%s_%s_%d_%d.%s", name.replace('/', '_'), type, startTimestamp, endTimestamp, CACHE_FILENAME_EXTENSION));
+
+		ColumnCache cache = cacheFile.exists() ? read(cacheFile, logFile, name, type, startTimestamp, endTimestamp) : null;
+		if (cache == null) {
+			build(logFile, index, type, startTimestamp, endTimestamp, cacheFile);
+			cache = read(cacheFile, logFile, name, type, startTimestamp, endTimestamp);
+		}
+
+		if (cache == null) {
+			throw new IOException("Cache changed while it was being read: " + cacheFile.getName());
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Returns the name of the log file the cache was decoded from.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the size of the cache in bytes, i.e. how much of it is mapped.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public List<ColumnBlock> getBlocks() {
+		return blocks;
+	}
+
+	public long getRowCount() {
+		long rowCount = 0;
+		for (ColumnBlock block : blocks) {
+			rowCount += block.rowCount;
+		}
+
+		return rowCount;
+	}
+
+	/**
+	 * Decodes messages into a staging file as they are read, a row at a time (layout, timestamp and
+	 * values), then turns rows into columns once how many messages each layout has is known. The
+	 * cache file is only put in place once it is complete.
+	 */
+	private static void build(File logFile, SegmentIndex index, String type, long startTimestamp, long endTimestamp, File cacheFile) throws IOException {
+		long start = System.nanoTime();
+		File stagingFile = new File(cacheFile.getPath() + ".staging");
+		File buildFile = new File(cacheFile.getPath() + ".tmp");
+
+		List<ChannelLayout> layouts = new ArrayList<>();
+		List<Integer> rowCounts = new ArrayList<>();
+		long sourceLength = logFile.length();
+		long sourceModified = logFile.lastModified();
+
+		try {
+			LogReader logReader = new LogReader(logFile);
+			TelemetryRecord record = new TelemetryRecord();
+			TelemetryDecoder decoder = new TelemetryDecoder();
+
+			try (DataOutputStream stagingStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stagingFile), 64 * 1024))) {
+				if (index != null) {
+					logReader.seek(index.getOffset(startTimestamp));
+				}
+
+				// layouts of other types are kept too (with a negative count), so they are only compared once.
+				ChannelLayout lastLayout = null;
+				int lastLayoutIndex = -1;
+
+				while (logReader.readTelemetryRecord(record, decoder)) {
+					if (record.getTimestamp() < startTimestamp) {
+						continue;
+					}
+
+					if (record.getTimestamp() > endTimestamp) {
+						break;
+					}
+
+					if (record.getLayout() != lastLayout) {
+						lastLayout = record.getLayout();
+						lastLayoutIndex = layouts.indexOf(lastLayout);
+
+						if (lastLayoutIndex < 0) {
+							lastLayoutIndex = layouts.size();
+							layouts.add(lastLayout);
+							rowCounts.add(lastLayout.getType().equals(type) ? 0 : -1);
+						}
+					}
+
+					if (rowCounts.get(lastLayoutIndex) < 0) {
+						continue;
+					}
+
+					stagingStream.writeInt(lastLayoutIndex);
+					stagingStream.writeLong(record.getTimestamp());
+					for (int i = 0; i < record.getSize(); i++) {
+						stagingStream.writeDouble(record.getValue(i));
+					}
+
+					rowCounts.set(lastLayoutIndex, rowCounts.get(lastLayoutIndex) + 1);
+				}
+			} finally {
+				logReader.close();
+			}
+
+			// layouts of other types and those without rows don't make it into the cache.
+			for (int i = layouts.size() - 1; i >= 0; i--) {
+				if (rowCounts.get(i) <= 0) {
+					layouts.set(i, null);
+				}
+			}
+
+			transpose(stagingFile, buildFile, type, startTimestamp, endTimestamp, sourceLength, sourceModified, layouts, rowCounts);
+			FileUtils.replaceFile(buildFile, cacheFile);
+		} finally {
+			stagingFile.delete();
+			buildFile.delete();
+		}
+
+		logger.debug("Built cache %s in %d ms.", cacheFile.getName(), (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Writes the cache file: a header (source length and modification time, range, type and where
+	 * each layout's columns are) followed by columns, each 8-byte aligned.
+	 */
+	private static void transpose(File stagingFile, File buildFile, String type, long startTimestamp, long endTimestamp, long sourceLength, long sourceModified,
+			List<ChannelLayout> layouts, List<Integer> rowCounts) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+		int layoutCount = 0;
+		long headerSize = 4 + 4 + 8 + 8 + 8 + 8 + 2 + typeBytes.length + 4;
+
+		for (ChannelLayout layout : layouts) {
+			if (layout != null) {
+				layoutCount++;
+				headerSize += 8 + 4 + 4 + 8;
+				for (int i = 0; i < layout.getChannelCount(); i++) {
+					headerSize += 2 + layout.getName(i).getBytes(StandardCharsets.UTF_8).length;
+				}
+			}
+		}
+
+		// columns of a layout: timestamps, then values of every channel, one after the other.
+		long[] dataOffsets = new long[layouts.size()];
+		long size = align(headerSize);
+
+		for (int i = 0; i < layouts.size(); i++) {
+			if (layouts.get(i) != null) {
+				dataOffsets[i] = size;
+				size += 8L * rowCounts.get(i) * (1 + layouts.get(i).getChannelCount());
+			}
+		}
+
+		if (size > Integer.MAX_VALUE || stagingFile.length() > Integer.MAX_VALUE) {
+			throw new IOException("Range is too large to be cached; choose a shorter one.");
+		}
+
+		try (RandomAccessFile stagingAccess = new RandomAccessFile(stagingFile, "r"); RandomAccessFile buildAccess = new RandomAccessFile(buildFile, "rw")) {
+			buildAccess.setLength(size);
+
+			ByteBuffer staging = stagingAccess.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, stagingFile.length());
+			MappedByteBuffer output = buildAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			output.order(ByteOrder.nativeOrder());
+
+			output.putInt(MAGIC).putInt(VERSION).putLong(sourceLength).putLong(sourceModified).putLong(startTimestamp).putLong(endTimestamp);
+			output.putShort((short) typeBytes.length).put(typeBytes);
+			output.putInt(layoutCount);
+
+			for (int i = 0; i < layouts.size(); i++) {
+				ChannelLayout layout = layouts.get(i);
+				if (layout == null) {
+					continue;
+				}
+
+				output.putLong(layout.getSignature()).putInt(layout.getChannelCount());
+				for (int j = 0; j < layout.getChannelCount(); j++) {
+					byte[] nameBytes = layout.getName(j).getBytes(StandardCharsets.UTF_8);
+					output.putShort((short) nameBytes.length).put(nameBytes);
+				}
+
+				output.putInt(rowCounts.get(i)).putLong(dataOffsets[i]);
+			}
+
+			// rows of the staging file are read in order, so each goes to the next row of its layout.
+			int[] rows = new int[layouts.size()];
+
+			while (staging.hasRemaining()) {
+				int layoutIndex = staging.getInt();
+				long timestamp = staging.getLong();
+				int row = rows[layoutIndex]++;
+				int rowCount = rowCounts.get(layoutIndex);
+				int channelCount = layouts.get(layoutIndex).getChannelCount();
+				int offset = (int) dataOffsets[layoutIndex];
+
+				output.putLong(offset + 8 * row, timestamp);
+				for (int j = 0; j < channelCount; j++) {
+					output.putDouble(offset + 8 * (rowCount * (1 + j) + row), staging.getDouble());
+				}
+			}
+
+			output.force();
+		}
+	}
+
+	/**
+	 * Maps a cache file, returning null if it isn't one for the log file as it is right now, or for
+	 * another type or range.
+	 */
+	private static ColumnCache read(File cacheFile, File logFile, String name, String type, long startTimestamp, long endTimestamp) throws IOException {
+		try (RandomAccessFile access = new RandomAccessFile(cacheFile, "r")) {
+			long size = access.length();
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+
+			// the mapping stays valid once the file is closed, until the buffer is garbage collected.
+			MappedByteBuffer buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != logFile.length() || buffer.getLong() != logFile.lastModified()
+					|| buffer.getLong() != startTimestamp || buffer.getLong() != endTimestamp || !readString(buffer).equals(type)) {
+				logger.debug("Ignoring stale cache (%s).", cacheFile.getName());
+				return null;
+			}
+
+			List<ColumnBlock> blocks = new ArrayList<>();
+			int layoutCount = buffer.getInt();
+
+			for (int i = 0; i < layoutCount; i++) {
+				long signature = buffer.getLong();
+				String[] names = new String[buffer.getInt()];
+				for (int j = 0; j < names.length; j++) {
+					names[j] = readString(buffer);
+				}
+
+				int rowCount = buffer.getInt();
+				long offset = buffer.getLong();
+				blocks.add(new ColumnBlock(new ChannelLayout(type, signature, names), buffer, rowCount, (int) offset));
+			}
+
+			return new ColumnCache(name, size, Collections.unmodifiableList(blocks));
+		} catch (RuntimeException exception) {
+			logger.warn("Ignoring unreadable cache (%s): %s", cacheFile.getName(), exception.getMessage());
+			return null;
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Columns of the messages of a single layout, in the order they were captured. Values are read
+	 * straight from the mapped file.
+	 */
+	public static class ColumnBlock {
+		private final ChannelLayout layout;
+		private final ByteBuffer buffer;
+		private final int rowCount;
+		private final int offset;
+
+		ColumnBlock(ChannelLayout layout, ByteBuffer buffer, int rowCount, int offset) {
+			this.layout = layout;
+			this.buffer = buffer;
+			this.rowCount = rowCount;
+			this.offset = offset;
+		}
+
+		public ChannelLayout getLayout() {
+			return layout;
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public long getTimestamp(int row) {
+			return buffer.getLong(offset + 8 * row);
+		}
+
+		public double getValue(int channel, int row) {
+			return buffer.getDouble(offset + 8 * (rowCount * (1 + channel) + row));
+		}
+
+		/**
+		 * Returns the first row whose timestamp isn't before the given one, or the row count if there is
+		 * none. Rows are in capture order, so timestamps are searched in halves.
+		 */
+		public int findRow(long timestamp) {
+			int low = 0;
+			int high = rowCount;
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (getTimestamp(middle) < timestamp) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low;
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CompactApplication {
+	private static final Logger logger = Logger.getLogger(CompactApplication.class);
+
+	// capture files are named <ip>_<yyyyMMdd>_<HHmmss>.log and compacted segments <ip>_<yyyyMMdd>.log;
+	// directories of partitioned captures the same without extension.
+	private static final Pattern FILENAME_PATTERN = Pattern.compile("^(.+)_(\\d{8})(_\\d{6})?\\.log$");
+	private static final Pattern DIRECTORY_PATTERN = Pattern.compile("^(.+)_(\\d{8})(_\\d{6})?$");
+	private static final String TEMPORARY_FILENAME_EXTENSION = "tmp";
+
+	// merging opens one reader per input; above this many inputs, files are merged in rounds so we don't
+	// run out of file handles on devices with thousands of files per day.
+	private static final int MAX_MERGE_WIDTH = 128;
+
+	public static void run(String logDirectory, String ipAddress) {
+		File directory = new File(logDirectory);
+		File[] files = FileUtils.listLogFiles(directory);
+		File[] partitionDirectories = FileUtils.listPartitionDirectories(directory);
+
+		if (files == null || partitionDirectories == null) {
+			logger.error("Failed to list files in directory (%s).", logDirectory);
+			System.exit(-2);
+		}
+
+		// group files by segment they belong to: <ip>_<yyyyMMdd>.log. TreeMap keeps segments (and so
+		// the output) in a predictable order.
+		Map<String, List<File>> segments = groupBySegment(files, FILENAME_PATTERN, "." + Application.LOG_FILENAME_EXTENSION, ipAddress);
+		Map<String, List<File>> partitionedSegments = groupBySegment(partitionDirectories, DIRECTORY_PATTERN, "", ipAddress);
+
+		for (Map.Entry<String, List<File>> segment : segments.entrySet()) {
+			File segmentFile = new File(directory, segment.getKey());
+			List<File> inputs = segment.getValue();
+
+			// a segment that is already compacted and indexed only needs rollups it is missing (e.g. it
+			// was compacted before rollups existed).
+			if (inputs.size() == 1 && inputs.get(0).equals(segmentFile) && SegmentIndex.load(segmentFile) != null) {
+				completeRollups(segmentFile);
+				continue;
+			}
+
+			try {
+				compact(inputs, segmentFile);
+				logger.info("Compacted %d file(s) into %s.", inputs.size(), segmentFile.getName());
+			} catch (IOException exception) {
+				logger.error("Failed to compact files into %s: %s", segmentFile.getName(), exception.getMessage());
+			}
+		}
+
+		// partitioned captures of a day become a partitioned segment (<ip>_<yyyyMMdd>/), compacted a
+		// partition at a time.
+		for (Map.Entry<String, List<File>> segment : partitionedSegments.entrySet()) {
+			File segmentDirectory = new File(directory, segment.getKey());
+			List<File> inputs = segment.getValue();
+
+			// rollups of both would be written to the same files.
+			if (segments.containsKey(segment.getKey() + "." + Application.LOG_FILENAME_EXTENSION)) {
+				logger.warn("Skipping partitioned captures of %s, as the day also has whole log files.", segment.getKey());
+				continue;
+			}
+
+			if (inputs.size() == 1 && inputs.get(0).equals(segmentDirectory) && isIndexed(segmentDirectory)) {
+				completeRollups(new File(directory, segment.getKey() + "." + Application.LOG_FILENAME_EXTENSION));
+				continue;
+			}
+
+			try {
+				compactPartitioned(inputs, segmentDirectory);
+				logger.info("Compacted %d partitioned capture(s) into %s.", inputs.size(), segmentDirectory.getName());
+			} catch (IOException exception) {
+				logger.error("Failed to compact partitioned captures into %s: %s", segmentDirectory.getName(), exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Groups files named by pattern (as <ip>_<yyyyMMdd>[_<HHmmss>]<extension>) by the name of the segment
+	 * they belong to, <ip>_<yyyyMMdd><extension>. Files of today, and any other a capture is still
+	 * writing (e.g. one started before midnight), are left alone: merging them would delete what the
+	 * capture keeps appending to.
+	 */
+	private static Map<String, List<File>> groupBySegment(File[] files, Pattern pattern, String extension, String ipAddress) {
+		String today = new SimpleDateFormat("yyyyMMdd").format(new Date());
+		Map<String, List<File>> segments = new TreeMap<>();
+
+		for (File file : files) {
+			Matcher matcher = pattern.matcher(file.getName());
+			if (!matcher.matches()) {
+				logger.debug("Skipping file with unexpected name: %s", file.getName());
+				continue;
+			}
+
+			if (ipAddress != null && !matcher.group(1).equals(ipAddress)) {
+				continue;
+			}
+
+			if (matcher.group(2).equals(today)) {
+				continue;
+			}
+
+			if (isBeingWritten(file)) {
+				logger.info("Skipping %s, which is still being captured.", file.getName());
+				continue;
+			}
+
+			String segmentName = String.format("%s_%s%s", matcher.group(1), matcher.group(2), extension);
+			List<File> segmentFiles = segments.get(segmentName);
+			if (segmentFiles == null) {
+				segmentFiles = new ArrayList<>();
+				segments.put(segmentName, segmentFiles);
+			}
+
+			segmentFiles.add(file);
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Returns whether a LogWriter still holds the file, or one of the partitions of the directory.
+	 */
+	private static boolean isBeingWritten(File file) {
+		if (!file.isDirectory()) {
+			return LogWriter.isLocked(file);
+		}
+
+		File[] partitions = FileUtils.listLogFiles(file);
+		if (partitions == null) {
+			return false;
+		}
+
+		for (File partition : partitions) {
+			if (LogWriter.isLocked(partition)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Builds rollups of a compacted segment which are missing or incomplete. Trends don't build them
+	 * (see TrendApplication.getAvailableResolution), so this is where captures get them.
+	 */
+	private static void completeRollups(File segmentFile) {
+		RollupResolution[] resolutions = RollupAggregator.getIncompleteResolutions(segmentFile, RollupResolution.values());
+		if (resolutions.length == 0) {
+			return;
+		}
+
+		try {
+			RollupAggregator.backfill(segmentFile, resolutions);
+		} catch (IOException exception) {
+			logger.error("Failed to build rollups for %s: %s", segmentFile.getName(), exception.getMessage());
+		}
+	}
+
+	private static boolean isIndexed(File segmentDirectory) {
+		File[] partitions = FileUtils.listLogFiles(segmentDirectory);
+		if (partitions == null) {
+			return false;
+		}
+
+		for (File partition : partitions) {
+			if (SegmentIndex.load(partition) == null) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Merges the given files into a single time-sorted segment with its index and rollups (see
+	 * writeSegment), then replaces the originals with it.
+	 */
+	private static void compact(List<File> inputs, File segmentFile) throws IOException {
+		RollupAggregator rollupAggregator = new RollupAggregator(segmentFile, true);
+
+		try {
+			writeSegment(inputs, segmentFile, rollupAggregator);
+			rollupAggregator.commit(segmentFile);
+		} finally {
+			rollupAggregator.discard();
+		}
+
+		// originals are only removed once segment is in place. if program dies before this completes,
+		// the next run merges the segment with the leftovers again and duplicates are dropped.
+		for (File input : inputs) {
+			if (!input.equals(segmentFile)) {
+				SegmentIndex.getIndexFile(input).delete();
+				RollupAggregator.delete(input);
+
+				if (!input.delete()) {
+					logger.warn("Failed to delete compacted file: %s", input.getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same as compact, for directories of partitioned captures: each partition is merged with the same
+	 * partition of the other captures into the segment directory, and rollups of all of them are
+	 * written once, named after the segment.
+	 */
+	private static void compactPartitioned(List<File> inputs, File segmentDirectory) throws IOException {
+		Map<String, List<File>> partitions = new TreeMap<>();
+		for (File input : inputs) {
+			File[] inputPartitions = FileUtils.listLogFiles(input);
+			if (inputPartitions == null) {
+				throw new IOException("Failed to list files in directory: " + input.getPath());
+			}
+
+			for (File partition : inputPartitions) {
+				List<File> partitionFiles = partitions.get(partition.getName());
+				if (partitionFiles == null) {
+					partitionFiles = new ArrayList<>();
+					partitions.put(partition.getName(), partitionFiles);
+				}
+
+				partitionFiles.add(partition);
+			}
+		}
+
+		if (!FileUtils.createDirectory(segmentDirectory.getPath())) {
+			throw new IOException("Failed to create directory: " + segmentDirectory.getPath());
+		}
+
+		// partitions hold a type each (but _other), so rollups see each type in order.
+		File segmentFile = new File(segmentDirectory.getParentFile(), segmentDirectory.getName() + "." + Application.LOG_FILENAME_EXTENSION);
+		RollupAggregator rollupAggregator = new RollupAggregator(segmentFile, true);
+
+		try {
+			for (Map.Entry<String, List<File>> partition : partitions.entrySet()) {
+				writeSegment(partition.getValue(), new File(segmentDirectory, partition.getKey()), rollupAggregator);
+			}
+
+			rollupAggregator.commit(segmentFile);
+		} finally {
+			rollupAggregator.discard();
+		}
+
+		for (File input : inputs) {
+			if (input.equals(segmentDirectory)) {
+				continue;
+			}
+
+			for (List<File> partitionFiles : partitions.values()) {
+				for (File partition : partitionFiles) {
+					if (partition.getParentFile().equals(input)) {
+						SegmentIndex.getIndexFile(partition).delete();
+						partition.delete();
+					}
+				}
+			}
+
+			RollupAggregator.delete(new File(input.getParentFile(), input.getName() + "." + Application.LOG_FILENAME_EXTENSION));
+			if (!input.delete()) {
+				logger.warn("Failed to delete compacted directory: %s", input.getName());
+			}
+		}
+	}
+
+	/**
+	 * Merges the given files into a single time-sorted segment with its index, filling the rollup
+	 * aggregator along the way. Segment is written to a temporary file first and moved in place, so a
+	 * failure at any point leaves either the original files or the complete segment behind.
+	 */
+	private static void writeSegment(List<File> inputs, File segmentFile, RollupAggregator rollupAggregator) throws IOException {
+		File directory = segmentFile.getParentFile();
+		List<File> temporaryFiles = new ArrayList<>();
+		List<File> mergeInputs = inputs;
+
+		// if there are too many inputs to open at once, merge them in rounds into temporary files.
+		while (mergeInputs.size() > MAX_MERGE_WIDTH) {
+			List<File> roundOutputs = new ArrayList<>();
+
+			for (int i = 0; i < mergeInputs.size(); i += MAX_MERGE_WIDTH) {
+				List<File> chunk = mergeInputs.subList(i, Math.min(i + MAX_MERGE_WIDTH, mergeInputs.size()));
+				File roundOutput = getTemporaryFile(directory, segmentFile.getName() + "." + temporaryFiles.size());
+
+				merge(chunk, roundOutput, null, null);
+				temporaryFiles.add(roundOutput);
+				roundOutputs.add(roundOutput);
+			}
+
+			mergeInputs = roundOutputs;
+		}
+
+		File temporarySegmentFile = getTemporaryFile(directory, segmentFile.getName());
+		File temporaryIndexFile = getTemporaryFile(directory, SegmentIndex.getIndexFile(segmentFile).getName());
+
+		try {
+			SegmentIndex index = new SegmentIndex();
+			merge(mergeInputs, temporarySegmentFile, index, rollupAggregator);
+			index.write(temporaryIndexFile);
+
+			// segment goes in place first; its index and rollups (committed by the caller) only after, so
+			// they never describe a file they weren't built for (stale indexes are ignored by
+			// SegmentIndex.load anyway).
+			FileUtils.replaceFile(temporarySegmentFile, segmentFile);
+			FileUtils.replaceFile(temporaryIndexFile, SegmentIndex.getIndexFile(segmentFile));
+		} finally {
+			temporaryFiles.add(temporarySegmentFile);
+			temporaryFiles.add(temporaryIndexFile);
+
+			for (File temporaryFile : temporaryFiles) {
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Streams lines from all inputs into output in timestamp order. Only one line per input is held in
+	 * memory at any time. If an index and rollup aggregator are provided, they are filled while output
+	 * is written.
+	 */
+	private static void merge(List<File> inputs, File output, SegmentIndex index, RollupAggregator rollupAggregator) throws IOException {
+		TelemetryDecoder decoder = new TelemetryDecoder();
+		TelemetryRecord record = new TelemetryRecord();
+		PriorityQueue<MergeEntry> queue = new PriorityQueue<>();
+		List<LogReader> logReaders = new ArrayList<>();
+
+		// segments are written in the configured format, whatever format inputs are in.
+		LogWriter writer = LogWriter.create(output, LogFormat.getDefault());
+
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				LogReader logReader = new LogReader(inputs.get(i));
+				logReaders.add(logReader);
+				offer(queue, logReader, i);
+			}
+
+			long currentTimestamp = Long.MIN_VALUE;
+			Set<String> currentLines = new HashSet<>();
+
+			while (!queue.isEmpty()) {
+				MergeEntry entry = queue.poll();
+				offer(queue, entry.logReader, entry.order);
+
+				// identical lines (same timestamp and message) only appear when a previous compaction was
+				// interrupted after writing its segment, so they are dropped.
+				if (entry.logLine.getTimestamp() != currentTimestamp) {
+					currentTimestamp = entry.logLine.getTimestamp();
+					currentLines.clear();
+				}
+
+				String line = LogLine.serialize(entry.logLine);
+				if (!currentLines.add(line)) {
+					continue;
+				}
+
+				long offset = writer.getPosition();
+				long length = writer.write(entry.logLine.getTimestamp(), entry.logLine.getJsonString());
+				if (index != null) {
+					index.add(entry.logLine, offset, length);
+				}
+
+				if (rollupAggregator != null && decoder.decode(entry.logLine.getTimestamp(), entry.logLine.getJsonString(), record)) {
+					rollupAggregator.add(record);
+				}
+			}
+
+			writer.close();
+			if (index != null) {
+				index.setLength(writer.getPosition());
+			}
+		} finally {
+			writer.close();
+
+			for (LogReader logReader : logReaders) {
+				logReader.close();
+			}
+		}
+	}
+
+	private static void offer(PriorityQueue<MergeEntry> queue, LogReader logReader, int order) throws IOException {
+		LogLine logLine = logReader.readLogLine();
+		if (logLine != null) {
+			queue.add(new MergeEntry(logLine, logReader, order));
+		}
+	}
+
+	private static File getTemporaryFile(File directory, String name) {
+		return new File(directory, name + "." + TEMPORARY_FILENAME_EXTENSION);
+	}
+
+	/**
+	 * Holds the next line of one of the inputs being merged. Entries are ordered by timestamp, and by
+	 * input order for equal timestamps so that merging is stable.
+	 */
+	private static class MergeEntry implements Comparable<MergeEntry> {
+		private final LogLine logLine;
+		private final LogReader logReader;
+		private final int order;
+
+		MergeEntry(LogLine logLine, LogReader logReader, int order) {
+			this.logLine = logLine;
+			this.logReader = logReader;
+			this.order = order;
+		}
+
+		@Override
+		public int compareTo(MergeEntry other) {
+			int result = Long.compare(logLine.getTimestamp(), other.logLine.getTimestamp());
+			return result != 0 ? result : Integer.compare(order, other.order);
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+public class CoordinatorApplication {
+	private static final Logger logger = Logger.getLogger(CoordinatorApplication.class);
+
+	private static final int DEFAULT_CONNECT_TIMEOUT = 2000;
+	private static final int DEFAULT_CHUNK_ROWS = 1000;
+
+	/**
+	 * Answers a query over the log directories of several hosts, each running an AgentApplication
+	 * (agents are host:port, or host for the default port). The query is sent to every agent at once;
+	 * agents filter and project their lines and send back rows in timestamp order, which are merged
+	 * here into a single ordered stream. Rows are printed as they come, in tables of up to
+	 * cst.coordinate.chunk.rows, with the agent and file they come from. Agents which can't be reached
+	 * or fail are reported, and what the others answered is still printed.
+	 */
+	public static void runQuery(List<String> agents, String type, Instant start, Instant end) {
+		List<AgentStream> streams = start(agents, AgentApplication.ROWS_REQUEST, type, toString(start), toString(end));
+
+		PriorityQueue<AgentStream> heads = new PriorityQueue<>(streams.size(), new Comparator<AgentStream>() {
+			@Override
+			public int compare(AgentStream stream, AgentStream otherStream) {
+				int order = Long.compare(stream.getTimestamp(), otherStream.getTimestamp());
+				return order != 0 ? order : Integer.compare(stream.order, otherStream.order);
+			}
+		});
+
+		for (AgentStream stream : streams) {
+			if (stream.next()) {
+				heads.add(stream);
+			}
+		}
+
+		int chunkRows = Math.max(Settings.getInt("cst.coordinate.chunk.rows", DEFAULT_CHUNK_ROWS), 1);
+		List<Map<String, String>> rows = new ArrayList<>();
+		long printedCount = 0;
+
+		// ordered merge: the earliest row of all agents is always the next one.
+		while (!heads.isEmpty()) {
+			AgentStream stream = heads.poll();
+			Map<String, String> row = stream.getRow();
+
+			// a table has the columns of its first row, so one is also printed once columns change (e.g.
+			// rows of another device).
+			if (!rows.isEmpty() && (rows.size() == chunkRows || (row != null && !row.keySet().equals(rows.get(0).keySet())))) {
+				printRows(rows, printedCount);
+				printedCount += rows.size();
+				rows.clear();
+			}
+
+			if (row != null) {
+				rows.add(row);
+			}
+
+			if (stream.next()) {
+				heads.add(stream);
+			}
+		}
+
+		if (!rows.isEmpty()) {
+			printRows(rows, printedCount);
+		}
+
+		finish(streams);
+	}
+
+	/**
+	 * Answers a trend over the log directories of several hosts (see runQuery). Agents send partial
+	 * aggregates of their captures (min, max, sum, count and last of each device, bucket and channel),
+	 * which are combined here into a single trend across all hosts, still a row per device like trend
+	 * mode has a table per capture. Resolution is chosen like TrendApplication does, so agents all
+	 * aggregate on the same buckets.
+	 */
+	public static void runTrend(List<String> agents, String type, String channel, Instant start, Instant end) {
+		long startTimestamp = start == null ? 0 : start.toEpochMilli();
+		long endTimestamp = end == null ? Long.MAX_VALUE : end.toEpochMilli();
+		RollupResolution resolution = RollupResolution.forRange(startTimestamp, endTimestamp, TrendApplication.MAX_BUCKETS);
+
+		List<AgentStream> streams = start(agents, AgentApplication.AGGREGATE_REQUEST, type, channel, resolution.name(), toString(start), toString(end));
+
+		// combine step: partial aggregates of the same resolution, device, bucket and channel become one
+		// (e.g. a device whose captures were copied to several hosts).
+		Map<String, Rollup> aggregates = new LinkedHashMap<>();
+		final Map<String, RollupResolution> resolutions = new LinkedHashMap<>();
+		final Map<String, String> devices = new LinkedHashMap<>();
+
+		for (AgentStream stream : streams) {
+			while (stream.next()) {
+				String[] values = stream.values;
+				Rollup rollup = values.length == 4 ? Rollup.deserialize(values[3]) : null;
+
+				if (rollup == null) {
+					logger.error("Ignoring invalid aggregate from agent %s: %s", stream.agent, String.join("\t", values));
+					continue;
+				}
+
+				String key = values[1] + "\t" + values[2] + "\t" + rollup.getBucketStart() + "\t" + rollup.getChannel();
+				Rollup aggregate = aggregates.get(key);
+
+				aggregates.put(key, aggregate == null ? rollup : aggregate.combine(rollup));
+				resolutions.put(key, RollupResolution.valueOf(values[1]));
+				devices.put(key, values[2]);
+			}
+		}
+
+		List<Map.Entry<String, Rollup>> entries = new ArrayList<>(aggregates.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Rollup>>() {
+			@Override
+			public int compare(Map.Entry<String, Rollup> entry, Map.Entry<String, Rollup> otherEntry) {
+				int order = resolutions.get(entry.getKey()).compareTo(resolutions.get(otherEntry.getKey()));
+				if (order == 0) {
+					order = Long.compare(entry.getValue().getBucketStart(), otherEntry.getValue().getBucketStart());
+				}
+
+				if (order == 0) {
+					order = devices.get(entry.getKey()).compareTo(devices.get(otherEntry.getKey()));
+				}
+
+				return order != 0 ? order : entry.getValue().getChannel().compareTo(otherEntry.getValue().getChannel());
+			}
+		});
+
+		// a table per resolution, as agents fall back to coarser rollups when finer ones are missing.
+		List<Map<String, String>> rows = new ArrayList<>();
+		RollupResolution tableResolution = null;
+
+		for (Map.Entry<String, Rollup> entry : entries) {
+			RollupResolution entryResolution = resolutions.get(entry.getKey());
+
+			if (entryResolution != tableResolution && !rows.isEmpty()) {
+				printTrend(rows, streams.size(), tableResolution);
+				rows.clear();
+			}
+
+			tableResolution = entryResolution;
+
+			Map<String, String> fields = new LinkedHashMap<>();
+			fields.put(LogLineColumnNames.DEVICE, devices.get(entry.getKey()));
+			fields.putAll(entry.getValue().getFields());
+			rows.add(fields);
+		}
+
+		if (!rows.isEmpty()) {
+			printTrend(rows, streams.size(), tableResolution);
+		}
+
+		finish(streams);
+	}
+
+	/**
+	 * Sends the request to every agent, each read on its own thread.
+	 */
+	private static List<AgentStream> start(List<String> agents, String... request) {
+		StringWriter line = new StringWriter();
+
+		try {
+			AgentApplication.writeLine(line, request);
+		} catch (IOException exception) {
+			// not thrown by StringWriter.
+		}
+
+		List<AgentStream> streams = new ArrayList<>();
+		for (String agent : agents) {
+			AgentStream stream = new AgentStream(agent, line.toString(), streams.size());
+			streams.add(stream);
+			stream.start();
+		}
+
+		return streams;
+	}
+
+	/**
+	 * Reports agents which failed; if any did, what was printed is incomplete and the program exits
+	 * with an error.
+	 */
+	private static void finish(List<AgentStream> streams) {
+		int failedCount = 0;
+
+		for (AgentStream stream : streams) {
+			if (stream.failure != null) {
+				logger.error("Agent %s failed, so results are missing its data: %s", stream.agent, stream.failure);
+				failedCount++;
+			}
+		}
+
+		System.out.flush();
+		if (failedCount > 0) {
+			System.exit(-2);
+		}
+	}
+
+	private static void printRows(List<Map<String, String>> rows, long printedCount) {
+		QueryApplication.printRawTable(System.out, String.format("Rows %d-%d (resolution: raw)", printedCount + 1, printedCount + rows.size()), rows);
+	}
+
+	private static void printTrend(List<Map<String, String>> rows, int agentCount, RollupResolution resolution) {
+		QueryApplication.printTable(String.format("Agents: %d (resolution: %s)", agentCount, resolution.getLabel()), rows);
+	}
+
+	private static String toString(Instant instant) {
+		return instant == null ? AgentApplication.NO_VALUE : Long.toString(instant.toEpochMilli());
+	}
+
+	/**
+	 * Response of an agent, read on a thread of its own into a bounded queue: the agent is only read
+	 * as fast as results are merged, and a slow agent doesn't hold up reading the others.
+	 */
+	private static class AgentStream implements Runnable {
+		// marks the end of the queue, whether the response was complete or not.
+		private static final String[] END_OF_STREAM = new String[0];
+
+		private final String agent;
+		private final String request;
+		private final int order;
+		private final BlockingQueue<String[]> lines = new ArrayBlockingQueue<>(Settings.getInt("cst.coordinate.queue.size", 4096));
+		private volatile String failure;
+		private String[] values;
+
+		AgentStream(String agent, String request, int order) {
+			this.agent = agent;
+			this.request = request;
+			this.order = order;
+		}
+
+		void start() {
+			Thread thread = new Thread(this, "coordinate-" + agent);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			boolean complete = false;
+
+			try (Socket socket = new Socket()) {
+				socket.connect(getAddress(agent), Settings.getInt("cst.coordinate.connect.timeout.ms", DEFAULT_CONNECT_TIMEOUT));
+
+				OutputStream outputStream = socket.getOutputStream();
+				outputStream.write(request.getBytes(StandardCharsets.UTF_8));
+				outputStream.flush();
+
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 64 * 1024);
+				String line;
+
+				while ((line = reader.readLine()) != null) {
+					String[] lineValues = line.split("\t", -1);
+
+					if (lineValues[0].equals(AgentApplication.END)) {
+						complete = true;
+						break;
+					} else if (lineValues[0].equals(AgentApplication.ERROR)) {
+						failure = lineValues.length > 1 ? lineValues[1] : line;
+						break;
+					}
+
+					lines.put(lineValues);
+				}
+
+				if (!complete && failure == null) {
+					failure = "Connection closed before the response was complete.";
+				}
+			} catch (IOException | IllegalArgumentException exception) {
+				failure = exception.getMessage();
+			} catch (InterruptedException exception) {
+				failure = "Interrupted.";
+				Thread.currentThread().interrupt();
+			} finally {
+				try {
+					lines.put(END_OF_STREAM);
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Moves to the next line of the response. Returns false once there are no more.
+		 */
+		boolean next() {
+			if (values == END_OF_STREAM) {
+				return false;
+			}
+
+			try {
+				values = lines.take();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				values = END_OF_STREAM;
+			}
+
+			return values != END_OF_STREAM;
+		}
+
+		/**
+		 * Returns timestamp of the current row, or 0 if the line isn't one.
+		 */
+		long getTimestamp() {
+			try {
+				return values.length == 4 && values[0].equals(AgentApplication.ROW) ? Long.parseLong(values[1]) : 0;
+			} catch (NumberFormatException exception) {
+				return 0;
+			}
+		}
+
+		/**
+		 * Returns fields of the current row with where it comes from first, or null if the line isn't a
+		 * valid row.
+		 */
+		Map<String, String> getRow() {
+			if (values.length != 4 || !values[0].equals(AgentApplication.ROW)) {
+				logger.error("Ignoring invalid row from agent %s: %s", agent, String.join("\t", values));
+				return null;
+			}
+
+			Map<String, String> row = new LinkedHashMap<>();
+			row.put(LogLineColumnNames.SOURCE, agent + "/" + values[2]);
+
+			try {
+				JSONArray fields = new JSONArray(values[3]);
+				for (int i = 0; i + 1 < fields.length(); i += 2) {
+					row.put(fields.getString(i), fields.getString(i + 1));
+				}
+			} catch (JSONException exception) {
+				logger.error("Ignoring invalid row from agent %s: %s", agent, exception.getMessage());
+				return null;
+			}
+
+			return row;
+		}
+
+		private static InetSocketAddress getAddress(String agent) {
+			int separator = agent.lastIndexOf(':');
+			if (separator < 0 || agent.endsWith("]")) {
+				return new InetSocketAddress(agent, AgentApplication.DEFAULT_PORT);
+			}
+
+			String host = agent.substring(0, separator);
+			return new InetSocketAddress(host.startsWith("[") ? host.substring(1, host.length() - 1) : host, Integer.parseInt(agent.substring(separator + 1)));
+		}
+	}
+}
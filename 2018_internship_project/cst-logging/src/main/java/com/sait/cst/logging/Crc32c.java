@@ -0,0 +1,81 @@
+package com.sait.cst.logging;
+
+import java.util.zip.Checksum;
+
+public class Crc32c implements Checksum {
+	// reversed Castagnoli polynomial, as used by iSCSI, ext4 and most storage formats.
+	private static final int POLYNOMIAL = 0x82F63B78;
+
+	// tables for slicing-by-8: eight bytes are folded into the checksum per step instead of one.
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc >>> 1) ^ ((crc & 1) != 0 ? POLYNOMIAL : 0);
+			}
+
+			TABLES[0][i] = crc;
+		}
+
+		for (int i = 0; i < 256; i++) {
+			for (int k = 1; k < 8; k++) {
+				TABLES[k][i] = (TABLES[k - 1][i] >>> 8) ^ TABLES[0][TABLES[k - 1][i] & 0xFF];
+			}
+		}
+	}
+
+	private int crc = 0xFFFFFFFF;
+
+	/**
+	 * Creates a CRC32C (Castagnoli) checksum. It detects more errors than CRC32 for the short records
+	 * it is used for; java.util.zip.CRC32C only exists from Java 9, so it is implemented here.
+	 */
+	public Crc32c() {
+	}
+
+	@Override
+	public void update(int b) {
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(byte[] bytes, int offset, int length) {
+		int c = crc;
+		int end = offset + length;
+
+		while (end - offset >= 8) {
+			c ^= (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+			c = TABLES[7][c & 0xFF] ^ TABLES[6][(c >>> 8) & 0xFF] ^ TABLES[5][(c >>> 16) & 0xFF] ^ TABLES[4][c >>> 24]
+					^ TABLES[3][bytes[offset + 4] & 0xFF] ^ TABLES[2][bytes[offset + 5] & 0xFF]
+					^ TABLES[1][bytes[offset + 6] & 0xFF] ^ TABLES[0][bytes[offset + 7] & 0xFF];
+			offset += 8;
+		}
+
+		while (offset < end) {
+			c = (c >>> 8) ^ TABLES[0][(c ^ bytes[offset++]) & 0xFF];
+		}
+
+		crc = c;
+	}
+
+	@Override
+	public long getValue() {
+		return (~crc) & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+
+	/**
+	 * Returns the checksum of a range of bytes.
+	 */
+	public static int compute(byte[] bytes, int offset, int length) {
+		Crc32c checksum = new Crc32c();
+		checksum.update(bytes, offset, length);
+		return (int) checksum.getValue();
+	}
+}
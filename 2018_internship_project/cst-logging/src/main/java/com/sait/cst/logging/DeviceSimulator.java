@@ -0,0 +1,458 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class DeviceSimulator {
+	private static final Logger logger = Logger.getLogger(DeviceSimulator.class);
+
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+	private static final int MAX_HEADER_LENGTH = 8192;
+
+	// gaps longer than this between replayed messages (e.g. from one file to the next, or while the
+	// original capture was disconnected) are shortened so replay keeps going.
+	private static final long MAX_GAP = 5000;
+
+	private static final int OPCODE_TEXT = 0x1;
+	private static final int OPCODE_CLOSE = 0x8;
+	private static final int OPCODE_PING = 0x9;
+	private static final int OPCODE_PONG = 0xA;
+
+	private final InetSocketAddress address;
+	private final File[] replayFiles;
+	private final int index;
+	private final double speed;
+	private final int units;
+	private final SentTimes sentTimes;
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong sentBytes = new AtomicLong();
+
+	private ServerSocket serverSocket;
+	private volatile Socket connection;
+	private volatile boolean stopped = false;
+
+	// pacing of the current connection; see send.
+	private long lastTimestamp;
+	private long nextSendTime;
+
+	/**
+	 * Creates a DeviceSimulator: a WebSocket server at address behaving like a CST device, for load
+	 * testing captures without hardware. Like a device, nothing is sent until a capture asks for it with
+	 * init:[ts]; then messages of replayFiles are sent, in turn starting with the index-th and over
+	 * again forever, with the gaps they were captured with divided by speed (0 sends as fast as
+	 * possible). Without replay files, messages of a SyntheticLogGenerator with the given number of
+	 * units are sent instead.
+	 *
+	 * When sentTimes isn't null, the time (System.nanoTime) each message is sent at is added to it, so
+	 * whoever receives it can measure end-to-end latency (see SimulateApplication).
+	 */
+	public DeviceSimulator(InetSocketAddress address, File[] replayFiles, int index, double speed, int units, SentTimes sentTimes) {
+		this.address = address;
+		this.replayFiles = replayFiles;
+		this.index = index;
+		this.speed = speed;
+		this.units = units;
+		this.sentTimes = sentTimes;
+	}
+
+	/**
+	 * Starts accepting captures in the background, one at a time.
+	 */
+	public void start() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.bind(address);
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "simulator-" + address.getPort()).start();
+	}
+
+	/**
+	 * Stops sending messages and closes the connection of the capture, if any.
+	 */
+	public void stop() {
+		stopped = true;
+
+		try {
+			serverSocket.close();
+
+			Socket socket = connection;
+			if (socket != null) {
+				socket.close();
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to stop simulated device on port %d: %s", address.getPort(), exception.getMessage());
+		}
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getSentBytes() {
+		return sentBytes.get();
+	}
+
+	private void accept() {
+		while (!stopped) {
+			try (Socket socket = serverSocket.accept()) {
+				connection = socket;
+				serve(socket);
+			} catch (IOException exception) {
+				if (!stopped) {
+					logger.warn("Simulated device on port %d lost its capture: %s", address.getPort(), exception.getMessage());
+				}
+			} catch (InterruptedException exception) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Upgrades a connection to WebSocket (RFC 6455), waits for init:[ts] and sends messages until the
+	 * capture goes away or the simulator is stopped.
+	 */
+	private void serve(Socket socket) throws IOException, InterruptedException {
+		socket.setTcpNoDelay(true);
+		InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+		OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+
+		if (!handshake(inputStream, outputStream)) {
+			return;
+		}
+
+		String message;
+		do {
+			message = readText(inputStream, outputStream);
+			if (message == null) {
+				return;
+			}
+		} while (!message.startsWith("init:"));
+
+		logger.info("Simulated device on port %d received %s, sending messages.", address.getPort(), message);
+		lastTimestamp = -1;
+		nextSendTime = System.nanoTime();
+
+		if (replayFiles.length > 0) {
+			replay(outputStream);
+		} else {
+			generate(outputStream);
+		}
+	}
+
+	private void replay(OutputStream outputStream) throws IOException, InterruptedException {
+		while (!stopped) {
+			long count = sentCount.get();
+
+			// a pass over every file which sends nothing would otherwise spin forever.
+			for (int j = 0; j < replayFiles.length && !stopped; j++) {
+				LogReader reader = new LogReader(replayFiles[(index + j) % replayFiles.length]);
+
+				try {
+					LogLine logLine;
+					while (!stopped && (logLine = reader.readLogLine()) != null) {
+						send(outputStream, logLine.getTimestamp(), logLine.getJsonString());
+					}
+				} finally {
+					reader.close();
+				}
+			}
+
+			if (sentCount.get() == count) {
+				logger.error("Simulated device on port %d has no messages to replay.", address.getPort());
+				return;
+			}
+		}
+	}
+
+	private void generate(OutputStream outputStream) throws IOException, InterruptedException {
+		SyntheticLogGenerator generator = new SyntheticLogGenerator(units, index, System.currentTimeMillis());
+
+		for (LogLine logLine : generator.nextHeader()) {
+			send(outputStream, logLine.getTimestamp(), logLine.getJsonString());
+		}
+
+		while (!stopped) {
+			for (LogLine logLine : generator.nextSample()) {
+				send(outputStream, logLine.getTimestamp(), logLine.getJsonString());
+			}
+		}
+	}
+
+	/**
+	 * Sends a message as a text frame once it is due. Messages are due on a schedule kept from the
+	 * first message of the connection rather than from the previous one, so time spent sending doesn't
+	 * add up to a lower rate than asked for; a simulator which fell behind catches up.
+	 */
+	private void send(OutputStream outputStream, long timestamp, String text) throws IOException, InterruptedException {
+		if (speed > 0 && lastTimestamp >= 0) {
+			long gap = Math.min(Math.max(timestamp - lastTimestamp, 0), MAX_GAP);
+			nextSendTime += (long) (gap * 1000000 / speed);
+
+			long delay;
+			while ((delay = nextSendTime - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(delay);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+
+		lastTimestamp = timestamp;
+		byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+
+		if (sentTimes != null) {
+			sentTimes.add(System.nanoTime());
+		}
+
+		writeFrame(outputStream, OPCODE_TEXT, payload);
+		outputStream.flush();
+
+		sentCount.incrementAndGet();
+		sentBytes.addAndGet(payload.length);
+	}
+
+	/**
+	 * Reads the HTTP upgrade request and accepts it. Returns false, after answering with an error, if
+	 * it isn't a WebSocket request.
+	 */
+	private boolean handshake(InputStream inputStream, OutputStream outputStream) throws IOException {
+		String key = null;
+		String line = readLine(inputStream);
+
+		if (line == null || !line.startsWith("GET ")) {
+			return false;
+		}
+
+		while ((line = readLine(inputStream)) != null && !line.isEmpty()) {
+			int separator = line.indexOf(':');
+			if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+				key = line.substring(separator + 1).trim();
+			}
+		}
+
+		if (key == null) {
+			outputStream.write("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			outputStream.flush();
+			return false;
+		}
+
+		String accept;
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+			accept = Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IOException(exception);
+		}
+
+		outputStream.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+				+ "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		outputStream.flush();
+
+		return true;
+	}
+
+	/**
+	 * Reads frames until a text message, answering pings and close frames on the way. Returns null
+	 * once the capture closes the connection. Messages split into several frames aren't expected from
+	 * captures, so each frame is taken as a whole message.
+	 */
+	private String readText(InputStream inputStream, OutputStream outputStream) throws IOException {
+		while (true) {
+			int first = inputStream.read();
+			int second = inputStream.read();
+			if (first < 0 || second < 0) {
+				return null;
+			}
+
+			long length = second & 0x7F;
+			if (length == 126) {
+				length = readNumber(inputStream, 2);
+			} else if (length == 127) {
+				length = readNumber(inputStream, 8);
+			}
+
+			if (length > MAX_FRAME_LENGTH) {
+				throw new IOException(String.format("Frame too long (%d bytes).", length));
+			}
+
+			// frames from clients are always masked.
+			byte[] mask = new byte[4];
+			if ((second & 0x80) != 0) {
+				readFully(inputStream, mask);
+			}
+
+			byte[] payload = new byte[(int) length];
+			readFully(inputStream, payload);
+			for (int i = 0; i < payload.length; i++) {
+				payload[i] ^= mask[i & 3];
+			}
+
+			int opcode = first & 0x0F;
+			if (opcode == OPCODE_TEXT) {
+				return new String(payload, StandardCharsets.UTF_8);
+			} else if (opcode == OPCODE_PING) {
+				writeFrame(outputStream, OPCODE_PONG, payload);
+				outputStream.flush();
+			} else if (opcode == OPCODE_CLOSE) {
+				writeFrame(outputStream, OPCODE_CLOSE, payload);
+				outputStream.flush();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Writes a single unmasked frame, as servers do.
+	 */
+	private static void writeFrame(OutputStream outputStream, int opcode, byte[] payload) throws IOException {
+		outputStream.write(0x80 | opcode);
+
+		if (payload.length < 126) {
+			outputStream.write(payload.length);
+		} else if (payload.length <= 0xFFFF) {
+			outputStream.write(126);
+			outputStream.write(payload.length >>> 8);
+			outputStream.write(payload.length);
+		} else {
+			outputStream.write(127);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				outputStream.write((int) ((long) payload.length >>> shift));
+			}
+		}
+
+		outputStream.write(payload);
+	}
+
+	private static long readNumber(InputStream inputStream, int length) throws IOException {
+		long value = 0;
+
+		for (int i = 0; i < length; i++) {
+			int b = inputStream.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+
+			value = (value << 8) | b;
+		}
+
+		return value;
+	}
+
+	private static void readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		int offset = 0;
+
+		while (offset < buffer.length) {
+			int length = inputStream.read(buffer, offset, buffer.length - offset);
+			if (length < 0) {
+				throw new EOFException();
+			}
+
+			offset += length;
+		}
+	}
+
+	/**
+	 * Reads a line of the HTTP request, without its line ending. Returns null at the end of the stream.
+	 */
+	private static String readLine(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+
+		while ((b = inputStream.read()) >= 0 && b != '\n') {
+			if (line.size() >= MAX_HEADER_LENGTH) {
+				throw new IOException("Request header too long.");
+			}
+
+			line.write(b);
+		}
+
+		if (b < 0 && line.size() == 0) {
+			return null;
+		}
+
+		String value = new String(line.toByteArray(), StandardCharsets.US_ASCII);
+		return value.endsWith("\r") ? value.substring(0, value.length() - 1) : value;
+	}
+
+	/**
+	 * Times messages of a device were sent at, by sequence: the first message sent is 0, the next 1 and
+	 * so on. A capture writes messages in the order they were sent, leaving out those it dropped, so
+	 * times are kept first-in first-out and the time of a written message is looked up by its sequence
+	 * (see CaptureEvent.getReceivedSequence), passing over dropped ones.
+	 */
+	public static class SentTimes {
+		private long[] times = new long[1024];
+		private int head = 0;
+		private int size = 0;
+		private long headSequence = 0;
+		private long passedCount = 0;
+
+		synchronized void add(long sentTime) {
+			if (size == times.length) {
+				long[] grown = new long[times.length * 2];
+				for (int i = 0; i < size; i++) {
+					grown[i] = times[(head + i) % times.length];
+				}
+
+				times = grown;
+				head = 0;
+			}
+
+			times[(head + size) % times.length] = sentTime;
+			size++;
+		}
+
+		/**
+		 * Removes and returns the time the message with the given sequence was sent at, along with those
+		 * of earlier messages which were never written. Returns -1 if it isn't known (e.g. it was already
+		 * removed).
+		 */
+		public synchronized long remove(long sequence) {
+			while (size > 0 && headSequence < sequence) {
+				poll();
+				passedCount++;
+			}
+
+			return size > 0 && headSequence == sequence ? poll() : -1;
+		}
+
+		/**
+		 * Returns how many messages were passed over because a later one was written, i.e. were lost.
+		 */
+		public synchronized long getPassedCount() {
+			return passedCount;
+		}
+
+		private long poll() {
+			long sentTime = times[head];
+			head = (head + 1) % times.length;
+			size--;
+			headSequence++;
+			return sentTime;
+		}
+	}
+}
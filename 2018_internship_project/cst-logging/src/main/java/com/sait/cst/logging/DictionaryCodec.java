@@ -0,0 +1,256 @@
+package com.sait.cst.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DictionaryCodec {
+	/**
+	 * First byte of a record's payload tells what it holds: a message, or the definition of the next
+	 * dictionary id (its string follows as UTF-8).
+	 */
+	public static final byte MESSAGE = 'M';
+	public static final byte DEFINITION = 'D';
+
+	// strings longer than this are rarely repeated (e.g. error descriptions), so they stay inline.
+	private static final int MAX_STRING_LENGTH = 64;
+	private static final int MAX_ENTRIES = 4096;
+
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final List<String> strings = new ArrayList<>();
+	private byte[] output = new byte[4096];
+	private int outputLength;
+
+	/**
+	 * Creates a DictionaryCodec, which replaces strings of JSON messages (keys like "is[]" and values
+	 * like firmware versions or serial numbers) with small ids. Messages are encoded as a sequence of:
+	 * - varint (length << 1) followed by that many bytes of text copied as is (numbers, punctuation).
+	 * - varint (id << 1 | 1) standing for a quoted string of the dictionary.
+	 *
+	 * Ids are assigned in order of first use, and the definition of each one is written just before the
+	 * first message using it. Dictionary is started over at every sync marker of the file (see
+	 * clear), so readers can start at any of them.
+	 */
+	public DictionaryCodec() {
+	}
+
+	/**
+	 * Encodes message text. Strings not in the dictionary yet are added to it and returned in
+	 * definitions (in id order); their definition records must be written before the message. Encoded
+	 * message is available from getOutput and getOutputLength.
+	 */
+	public void encode(String text, List<String> definitions) {
+		outputLength = 0;
+		ensureCapacity(1);
+		output[outputLength++] = MESSAGE;
+
+		int rawStart = 0;
+		int length = text.length();
+		int i = 0;
+
+		while (i < length) {
+			if (text.charAt(i) != '"') {
+				i++;
+				continue;
+			}
+
+			// find the closing quote, skipping escaped characters.
+			int end = i + 1;
+			while (end < length && text.charAt(end) != '"') {
+				end += text.charAt(end) == '\\' ? 2 : 1;
+			}
+
+			if (end >= length) {
+				break;
+			}
+
+			int id = getOrDefine(text.substring(i + 1, end), definitions);
+			if (id >= 0) {
+				writeRaw(text, rawStart, i);
+				writeVarint((id << 1) | 1);
+				rawStart = end + 1;
+			}
+
+			i = end + 1;
+		}
+
+		writeRaw(text, rawStart, length);
+	}
+
+	public byte[] getOutput() {
+		return output;
+	}
+
+	public int getOutputLength() {
+		return outputLength;
+	}
+
+	/**
+	 * Adds the string of a definition record read from a file and returns it. It gets the next id.
+	 */
+	public String define(byte[] payload, int offset, int end) {
+		String string = new String(payload, offset + 1, end - offset - 1, StandardCharsets.UTF_8);
+		strings.add(string);
+
+		return string;
+	}
+
+	/**
+	 * Decodes a message record (payload between offset and end) back into its original text.
+	 */
+	public String decode(byte[] payload, int offset, int end, StringBuilder builder) {
+		builder.setLength(0);
+		int position = offset + 1;
+
+		while (position < end) {
+			long token = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = payload[position++];
+				token |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			if ((token & 1) == 1) {
+				builder.append('"').append(strings.get((int) (token >>> 1))).append('"');
+				continue;
+			}
+
+			int rawLength = (int) (token >>> 1);
+			boolean ascii = true;
+			for (int i = position; i < position + rawLength; i++) {
+				ascii &= payload[i] >= 0;
+			}
+
+			if (ascii) {
+				for (int i = position; i < position + rawLength; i++) {
+					builder.append((char) payload[i]);
+				}
+			} else {
+				builder.append(new String(payload, position, rawLength, StandardCharsets.UTF_8));
+			}
+
+			position += rawLength;
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the dictionary id of the first string of a message record, which is the type of the
+	 * message (e.g. sm), or -1 if it isn't in the dictionary. This lets readers filter messages by type
+	 * by comparing ids, without decoding them.
+	 */
+	public static int getFirstId(byte[] payload, int offset, int end) {
+		int position = offset + 1;
+
+		while (position < end) {
+			long token = 0;
+			int shift = 0;
+			byte b;
+
+			do {
+				b = payload[position++];
+				token |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			if ((token & 1) == 1) {
+				return (int) (token >>> 1);
+			}
+
+			// raw text before the first string is only ever {, but anything else means there's no
+			// dictionary type to compare with.
+			int rawLength = (int) (token >>> 1);
+			for (int i = position; i < position + rawLength; i++) {
+				if (payload[i] == '"') {
+					return -1;
+				}
+			}
+
+			position += rawLength;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns how many strings are in the dictionary.
+	 */
+	public int size() {
+		return strings.size();
+	}
+
+	/**
+	 * Starts the dictionary over.
+	 */
+	public void clear() {
+		ids.clear();
+		strings.clear();
+	}
+
+	private int getOrDefine(String string, List<String> definitions) {
+		Integer id = ids.get(string);
+		if (id != null) {
+			return id;
+		}
+
+		if (string.length() > MAX_STRING_LENGTH || strings.size() >= MAX_ENTRIES) {
+			return -1;
+		}
+
+		id = strings.size();
+		ids.put(string, id);
+		strings.add(string);
+		definitions.add(string);
+
+		return id;
+	}
+
+	private void writeRaw(String text, int start, int end) {
+		if (start >= end) {
+			return;
+		}
+
+		boolean ascii = true;
+		for (int i = start; i < end; i++) {
+			ascii &= text.charAt(i) < 0x80;
+		}
+
+		if (ascii) {
+			writeVarint((long) (end - start) << 1);
+			ensureCapacity(end - start);
+			for (int i = start; i < end; i++) {
+				output[outputLength++] = (byte) text.charAt(i);
+			}
+		} else {
+			byte[] bytes = text.substring(start, end).getBytes(StandardCharsets.UTF_8);
+			writeVarint((long) bytes.length << 1);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, output, outputLength, bytes.length);
+			outputLength += bytes.length;
+		}
+	}
+
+	private void writeVarint(long value) {
+		ensureCapacity(10);
+
+		while ((value & ~0x7FL) != 0) {
+			output[outputLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		output[outputLength++] = (byte) value;
+	}
+
+	private void ensureCapacity(int length) {
+		if (outputLength + length > output.length) {
+			output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + length));
+		}
+	}
+}
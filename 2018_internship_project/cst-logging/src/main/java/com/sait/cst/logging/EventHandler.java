@@ -0,0 +1,9 @@
+package com.sait.cst.logging;
+
+public interface EventHandler<E> {
+	/**
+	 * Called for every event published to the ring buffer, in order. endOfBatch is true for the last
+	 * event currently available, which is a good time to flush anything buffered.
+	 */
+	void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,742 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class ExportApplication {
+	private static final Logger logger = Logger.getLogger(ExportApplication.class);
+
+	public static final String EXPORT_FILENAME_EXTENSION = "arrow";
+	private static final String TIMESTAMP_COLUMN = "timestamp";
+	private static final int DEFAULT_BATCH_ROWS = 65536;
+
+	/**
+	 * Exports messages of a type within a time range from every log file into Arrow IPC files of
+	 * outputDirectory, one per log file (e.g. 10.10.102.11_20180829_sm.arrow), for analytics tools to
+	 * load directly instead of parsing query tables.
+	 *
+	 * Columns are typed: a UTC timestamp in milliseconds, then a column per key of the message, keeping
+	 * the shape of arrays. Numbers written as integers (e.g. om, ec or alarm bitmasks; see
+	 * TelemetryRecord.isIntegral) are 64-bit integers, other numbers doubles and strings (e.g. serial
+	 * numbers of hc) UTF-8 text. For example, is of sm messages becomes a list of lists of integers,
+	 * with a row per power supply of a master/slave transmitter. Keys missing from a message are null.
+	 *
+	 * Messages are read in batches of cst.export.batch.rows. Batches are turned into columns by
+	 * cst.export.threads threads (one per core by default) while reading goes on. They are written in
+	 * order, and only a few are in memory at a time, however large the log file is. If a message brings
+	 * a key the file doesn't have yet, or a decimal for a key of integers, the rest go into another file
+	 * with the new key added or widened to doubles (e.g. 10.10.102.11_20180829_sm.1.arrow).
+	 */
+	public static void run(String logDirectory, String type, String outputDirectory, Instant start, Instant end) {
+		LogCatalog catalog = new LogCatalog(new File(logDirectory));
+		File[] files = catalog.getLogFiles(type);
+		if (files == null) {
+			logger.error("Failed to list files in directory (%s).", logDirectory);
+			System.exit(-2);
+		}
+
+		File directory = new File(outputDirectory);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			logger.error("Failed to create output directory (%s).", outputDirectory);
+			System.exit(-2);
+		}
+
+		long startTimestamp = start == null ? 0 : start.toEpochMilli();
+		long endTimestamp = end == null ? Long.MAX_VALUE : end.toEpochMilli();
+		int threadCount = Math.max(Settings.getInt("cst.export.threads", Runtime.getRuntime().availableProcessors()), 1);
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		long exportStart = System.nanoTime();
+		long rowCount = 0;
+		boolean failed = false;
+
+		try (BufferAllocator allocator = createAllocator()) {
+			for (File file : files) {
+				SegmentIndex index = catalog.getIndex(file);
+				if (index != null && !index.mayContain(type, startTimestamp, endTimestamp)) {
+					continue;
+				}
+
+				String name = catalog.getName(file);
+				String baseName = name.replace('/', '_');
+				if (baseName.endsWith("." + Application.LOG_FILENAME_EXTENSION)) {
+					baseName = baseName.substring(0, baseName.length() - Application.LOG_FILENAME_EXTENSION.length() - 1);
+				}
+
+				try {
+					Export export = new Export(name, new File(directory, baseName + "_" + type), type, allocator, executor, threadCount * 2);
+					export.run(file, index, startTimestamp, endTimestamp);
+					rowCount += export.rowCount;
+				} catch (IOException exception) {
+					logger.error("Failed to export %s: %s", name, exception.getMessage());
+					failed = true;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		logger.info("Exported %d %s message(s) to %s in %d ms.", rowCount, type, directory.getPath(), (System.nanoTime() - exportStart) / 1000000);
+		if (failed) {
+			System.exit(-2);
+		}
+	}
+
+	/**
+	 * Creates the allocator of off-heap memory for vectors. Arrow needs java.nio opened to it on Java 9
+	 * and later, which start scripts do for export mode and the jar's manifest does for java -jar; if it
+	 * isn't, the program exits with an error.
+	 */
+	private static BufferAllocator createAllocator() {
+		try {
+			return new RootAllocator(Long.MAX_VALUE);
+		} catch (RuntimeException | LinkageError exception) {
+			logger.error("Failed to allocate memory for columns (on Java 9 or later, start Java with --add-opens=java.base/java.nio=ALL-UNNAMED): %s", exception);
+			System.exit(-2);
+			return null;
+		}
+	}
+
+	/**
+	 * Export of a single log file: read and batched here, turned into columns by the executor and
+	 * written back here in the order batches were read.
+	 */
+	private static class Export {
+		private final String name;
+		private final File outputPrefix;
+		private final String type;
+		private final BufferAllocator allocator;
+		private final ExecutorService executor;
+		private final int maxPendingBatches;
+		private final Deque<Future<ArrowRecordBatch>> pendingBatches = new ArrayDeque<>();
+		private final Map<ChannelLayout, ExportShape> shapes = new IdentityHashMap<>();
+
+		// keys (and the type of their column) of the file being written.
+		private final Map<String, ExportColumn> keys = new LinkedHashMap<>();
+		private Schema schema;
+		private int partCount = 0;
+		private File partFile;
+		private File temporaryFile;
+		private FileOutputStream outputStream;
+		private VectorSchemaRoot root;
+		private VectorLoader loader;
+		private ArrowFileWriter writer;
+		private long rowCount = 0;
+
+		Export(String name, File outputPrefix, String type, BufferAllocator allocator, ExecutorService executor, int maxPendingBatches) {
+			this.name = name;
+			this.outputPrefix = outputPrefix;
+			this.type = type;
+			this.allocator = allocator;
+			this.executor = executor;
+			this.maxPendingBatches = maxPendingBatches;
+		}
+
+		void run(File file, SegmentIndex index, long startTimestamp, long endTimestamp) throws IOException {
+			int batchRows = Math.max(Settings.getInt("cst.export.batch.rows", DEFAULT_BATCH_ROWS), 1);
+			LogReader logReader = new LogReader(file);
+			TelemetryRecord record = new TelemetryRecord();
+			TelemetryDecoder decoder = new TelemetryDecoder();
+			ExportBatch batch = new ExportBatch(batchRows);
+
+			try {
+				if (index != null) {
+					logReader.seek(index.getOffset(startTimestamp));
+				}
+
+				while (logReader.readTelemetryRecord(record, decoder)) {
+					if (record.getTimestamp() < startTimestamp) {
+						continue;
+					}
+
+					if (record.getTimestamp() > endTimestamp) {
+						break;
+					}
+
+					if (!record.getType().equals(type)) {
+						continue;
+					}
+
+					ExportShape shape = shapes.get(record.getLayout());
+					if (shape == null) {
+						shape = new ExportShape(record.getLayout(), logReader.getTelemetryText());
+						shapes.put(record.getLayout(), shape);
+					}
+
+					// only shapes with strings need the text of messages again.
+					Object[] strings = shape.stringKeys.length == 0 ? null : shape.getStrings(logReader.getTelemetryText());
+
+					if (schema == null || !shape.fits(keys, record)) {
+						submit(batch);
+						batch = new ExportBatch(batchRows);
+						startPart(shape, record);
+					}
+
+					batch.add(record, shape, strings);
+					if (batch.size == batchRows) {
+						submit(batch);
+						batch = new ExportBatch(batchRows);
+					}
+				}
+
+				submit(batch);
+				finishPart();
+			} finally {
+				logReader.close();
+				abort();
+			}
+		}
+
+		/**
+		 * Hands a batch to the executor, first writing batches done so far if too many are pending.
+		 */
+		private void submit(final ExportBatch batch) throws IOException {
+			if (batch.size == 0 || schema == null) {
+				return;
+			}
+
+			final Schema batchSchema = schema;
+			pendingBatches.add(executor.submit(new Callable<ArrowRecordBatch>() {
+				@Override
+				public ArrowRecordBatch call() {
+					return batch.encode(batchSchema, allocator);
+				}
+			}));
+
+			while (pendingBatches.size() >= maxPendingBatches) {
+				writePending();
+			}
+		}
+
+		/**
+		 * Writes the oldest pending batch once it is encoded.
+		 */
+		private void writePending() throws IOException {
+			try (ArrowRecordBatch recordBatch = pendingBatches.poll().get()) {
+				loader.load(recordBatch);
+				writer.writeBatch();
+				rowCount += recordBatch.getLength();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while encoding batches.");
+			} catch (ExecutionException exception) {
+				throw new IOException("Failed to encode batch: " + exception.getCause().getMessage(), exception.getCause());
+			}
+		}
+
+		/**
+		 * Finishes the file being written, if any, and starts the next one with keys of the message added
+		 * to those it had (or replacing them if they don't fit).
+		 */
+		private void startPart(ExportShape shape, TelemetryRecord record) throws IOException {
+			finishPart();
+
+			for (int i = 0; i < shape.keyNames.length; i++) {
+				ExportColumn column = new ExportColumn(shape.depths[i], shape.isIntegral(i, record) ? ColumnType.INTEGER : ColumnType.FLOAT);
+				keys.put(shape.keyNames[i], column.merge(keys.get(shape.keyNames[i])));
+			}
+
+			for (int i = 0; i < shape.stringKeys.length; i++) {
+				keys.put(shape.stringKeys[i], new ExportColumn(shape.stringDepths[i], ColumnType.STRING));
+			}
+
+			List<Field> fields = new ArrayList<>();
+			fields.add(new Field(TIMESTAMP_COLUMN, FieldType.notNullable(new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC")), null));
+			for (Map.Entry<String, ExportColumn> key : keys.entrySet()) {
+				fields.add(createField(key.getKey(), key.getValue().depth, key.getValue().type));
+			}
+
+			Map<String, String> metadata = new HashMap<>();
+			metadata.put("cst.source", name);
+			metadata.put("cst.type", type);
+			schema = new Schema(fields, metadata);
+
+			partFile = new File(outputPrefix.getPath() + (partCount == 0 ? "" : "." + partCount) + "." + EXPORT_FILENAME_EXTENSION);
+			temporaryFile = new File(partFile.getPath() + ".tmp");
+			partCount++;
+
+			outputStream = new FileOutputStream(temporaryFile);
+			root = VectorSchemaRoot.create(schema, allocator);
+			loader = new VectorLoader(root);
+			writer = new ArrowFileWriter(root, null, outputStream.getChannel());
+			writer.start();
+		}
+
+		private void finishPart() throws IOException {
+			if (writer == null) {
+				return;
+			}
+
+			while (!pendingBatches.isEmpty()) {
+				writePending();
+			}
+
+			writer.end();
+			writer.close();
+			root.close();
+			outputStream.close();
+			writer = null;
+
+			FileUtils.replaceFile(temporaryFile, partFile);
+			logger.debug("Exported %s to %s.", name, partFile.getName());
+		}
+
+		/**
+		 * Releases what an export which failed part way was holding.
+		 */
+		private void abort() {
+			for (Future<ArrowRecordBatch> pendingBatch : pendingBatches) {
+				try {
+					pendingBatch.get().close();
+				} catch (InterruptedException | ExecutionException exception) {
+					// nothing to release.
+				}
+			}
+
+			pendingBatches.clear();
+
+			if (writer != null) {
+				writer.close();
+				root.close();
+
+				try {
+					outputStream.close();
+				} catch (IOException exception) {
+					// file is deleted anyway.
+				}
+
+				temporaryFile.delete();
+				writer = null;
+			}
+		}
+
+		private static Field createField(String name, int depth, ColumnType type) {
+			if (depth > 0) {
+				return new Field(name, FieldType.nullable(ArrowType.List.INSTANCE), Collections.singletonList(createField("item", depth - 1, type)));
+			}
+
+			switch (type) {
+			case INTEGER:
+				return new Field(name, FieldType.nullable(new ArrowType.Int(64, true)), null);
+			case STRING:
+				return new Field(name, FieldType.nullable(ArrowType.Utf8.INSTANCE), null);
+			default:
+				return new Field(name, FieldType.nullable(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)), null);
+			}
+		}
+	}
+
+	private enum ColumnType {
+		INTEGER, FLOAT, STRING
+	}
+
+	/**
+	 * Type of a column: how deep its arrays are and what their items are.
+	 */
+	private static class ExportColumn {
+		private final int depth;
+		private final ColumnType type;
+
+		ExportColumn(int depth, ColumnType type) {
+			this.depth = depth;
+			this.type = type;
+		}
+
+		/**
+		 * Returns whether values of the given type fit in this column; integers fit in doubles.
+		 */
+		boolean holds(int depth, ColumnType type) {
+			return this.depth == depth && (this.type == type || (this.type == ColumnType.FLOAT && type == ColumnType.INTEGER));
+		}
+
+		/**
+		 * Returns the column for values of this one where the previous file had other (null if it didn't
+		 * have the key): one holding both when they are numbers as deep, otherwise this one.
+		 */
+		ExportColumn merge(ExportColumn other) {
+			if (other != null && other.holds(depth, type)) {
+				return other;
+			}
+
+			if (other != null && other.depth == depth && other.type != ColumnType.STRING && type != ColumnType.STRING) {
+				return new ExportColumn(depth, ColumnType.FLOAT);
+			}
+
+			return this;
+		}
+	}
+
+	/**
+	 * How channels of a layout map to keys: for each key, its channels and their indexes in arrays,
+	 * e.g. is[1][0] is the first channel of the second row of is. Keys holding only strings (arrays of
+	 * them included) aren't channels; they are found in the text of the first message of the layout,
+	 * as messages of a layout have strings in the same places.
+	 */
+	private static class ExportShape {
+		private final String type;
+		private final String[] keyNames;
+		private final int[] depths;
+		private final int[] firstChannels;
+		private final int[] endChannels;
+		private final int[][] indexes;
+		private final String[] stringKeys;
+		private final String[] stringJsonKeys;
+		private final int[] stringDepths;
+
+		ExportShape(ChannelLayout layout, String text) {
+			type = layout.getType();
+
+			List<String> names = new ArrayList<>();
+			List<Integer> firsts = new ArrayList<>();
+			indexes = new int[layout.getChannelCount()][];
+
+			for (int i = 0; i < layout.getChannelCount(); i++) {
+				String channel = layout.getName(i);
+				int bracket = channel.indexOf('[');
+				String key = bracket < 0 ? channel : channel.substring(0, bracket);
+
+				if (names.isEmpty() || !names.get(names.size() - 1).equals(key)) {
+					names.add(key);
+					firsts.add(i);
+				}
+
+				String[] parts = bracket < 0 ? new String[0] : channel.substring(bracket + 1, channel.length() - 1).split("\\]\\[");
+				indexes[i] = new int[parts.length];
+				for (int j = 0; j < parts.length; j++) {
+					indexes[i][j] = Integer.parseInt(parts[j]);
+				}
+			}
+
+			keyNames = names.toArray(new String[names.size()]);
+			depths = new int[keyNames.length];
+			firstChannels = new int[keyNames.length];
+			endChannels = new int[keyNames.length];
+
+			for (int i = 0; i < keyNames.length; i++) {
+				firstChannels[i] = firsts.get(i);
+				endChannels[i] = i + 1 < keyNames.length ? firsts.get(i + 1) : layout.getChannelCount();
+				depths[i] = indexes[firstChannels[i]].length;
+			}
+
+			List<String> jsonKeys = new ArrayList<>();
+			List<Integer> jsonDepths = new ArrayList<>();
+			JSONObject body = getBody(text);
+
+			if (body != null) {
+				for (String jsonKey : body.keySet()) {
+					int depth = getStringDepth(body.get(jsonKey));
+					if (depth >= 0 && indexOf(getKeyName(jsonKey)) < 0) {
+						jsonKeys.add(jsonKey);
+						jsonDepths.add(depth);
+					}
+				}
+			}
+
+			// columns follow the order of keys in the message, which JSONObject doesn't keep.
+			final String orderText = text;
+			Collections.sort(jsonKeys, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					return Integer.compare(orderText.indexOf('"' + a + '"'), orderText.indexOf('"' + b + '"'));
+				}
+			});
+
+			stringJsonKeys = jsonKeys.toArray(new String[jsonKeys.size()]);
+			stringKeys = new String[stringJsonKeys.length];
+			stringDepths = new int[stringJsonKeys.length];
+			for (int i = 0; i < stringJsonKeys.length; i++) {
+				stringKeys[i] = getKeyName(stringJsonKeys[i]);
+				stringDepths[i] = getStringDepth(body.get(stringJsonKeys[i]));
+			}
+		}
+
+		/**
+		 * Returns whether all keys of the message are columns of the given ones, as deep and of a type
+		 * holding their values.
+		 */
+		boolean fits(Map<String, ExportColumn> keys, TelemetryRecord record) {
+			for (int i = 0; i < keyNames.length; i++) {
+				ExportColumn column = keys.get(keyNames[i]);
+				if (column == null || column.depth != depths[i] || column.type == ColumnType.STRING
+						|| (column.type == ColumnType.INTEGER && !isIntegral(i, record))) {
+					return false;
+				}
+			}
+
+			for (int i = 0; i < stringKeys.length; i++) {
+				ExportColumn column = keys.get(stringKeys[i]);
+				if (column == null || !column.holds(stringDepths[i], ColumnType.STRING)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns whether all channels of key are integers in the message.
+		 */
+		boolean isIntegral(int key, TelemetryRecord record) {
+			for (int channel = firstChannels[key]; channel < endChannels[key]; channel++) {
+				if (!record.isIntegral(channel)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns values of the string keys of a message of this shape, in the order of stringKeys.
+		 */
+		Object[] getStrings(String text) {
+			Object[] strings = new Object[stringJsonKeys.length];
+			JSONObject body = getBody(text);
+
+			for (int i = 0; body != null && i < strings.length; i++) {
+				strings[i] = body.opt(stringJsonKeys[i]);
+			}
+
+			return strings;
+		}
+
+		int indexOfString(String key) {
+			for (int i = 0; i < stringKeys.length; i++) {
+				if (stringKeys[i].equals(key)) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		private JSONObject getBody(String text) {
+			try {
+				return new JSONObject(text).optJSONObject(type);
+			} catch (JSONException exception) {
+				return null;
+			}
+		}
+
+		/**
+		 * Returns how deep arrays of a value holding only strings are (0 for a string), or -1 if it holds
+		 * anything else or has empty arrays.
+		 */
+		private static int getStringDepth(Object value) {
+			if (value instanceof String) {
+				return 0;
+			}
+
+			if (!(value instanceof JSONArray) || ((JSONArray) value).length() == 0) {
+				return -1;
+			}
+
+			JSONArray array = (JSONArray) value;
+			int depth = getStringDepth(array.get(0));
+			for (int i = 1; i < array.length() && depth >= 0; i++) {
+				if (getStringDepth(array.get(i)) != depth) {
+					return -1;
+				}
+			}
+
+			return depth < 0 ? -1 : depth + 1;
+		}
+
+		/**
+		 * Returns the column name of a JSON key, the way channel names are built (e.g. u1fv[] is u1fv).
+		 */
+		private static String getKeyName(String jsonKey) {
+			return jsonKey.endsWith("[]") ? jsonKey.substring(0, jsonKey.length() - 2) : jsonKey;
+		}
+
+		int indexOf(String key) {
+			for (int i = 0; i < keyNames.length; i++) {
+				if (keyNames[i].equals(key)) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+	}
+
+	/**
+	 * Messages read for a batch: their timestamps, shapes and values one after the other, the way
+	 * TelemetryRecord has them. Turned into columns by encode.
+	 */
+	private static class ExportBatch {
+		private final long[] timestamps;
+		private final ExportShape[] shapes;
+		private final int[] offsets;
+		private final Object[][] strings;
+		private double[] values = new double[1024];
+		private int valueCount = 0;
+		private int size = 0;
+
+		ExportBatch(int capacity) {
+			timestamps = new long[capacity];
+			shapes = new ExportShape[capacity];
+			offsets = new int[capacity];
+			strings = new Object[capacity][];
+		}
+
+		void add(TelemetryRecord record, ExportShape shape, Object[] rowStrings) {
+			if (valueCount + record.getSize() > values.length) {
+				values = Arrays.copyOf(values, Math.max(values.length * 2, valueCount + record.getSize()));
+			}
+
+			for (int i = 0; i < record.getSize(); i++) {
+				values[valueCount + i] = record.getValue(i);
+			}
+
+			timestamps[size] = record.getTimestamp();
+			shapes[size] = shape;
+			offsets[size] = valueCount;
+			strings[size] = rowStrings;
+			valueCount += record.getSize();
+			size++;
+		}
+
+		/**
+		 * Fills vectors of the schema with the batch and returns them as a record batch, which holds the
+		 * vectors' buffers until it is closed.
+		 */
+		ArrowRecordBatch encode(Schema schema, BufferAllocator allocator) {
+			try (VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator)) {
+				root.allocateNew();
+
+				TimeStampMilliTZVector timestampVector = (TimeStampMilliTZVector) root.getVector(0);
+				for (int row = 0; row < size; row++) {
+					timestampVector.setSafe(row, timestamps[row]);
+				}
+
+				// a column is filled for all rows at once; which key of a shape it is, is only looked up
+				// once per shape.
+				Map<ExportShape, Integer> keyIndexes = new IdentityHashMap<>();
+
+				for (int column = 1; column < schema.getFields().size(); column++) {
+					FieldVector vector = root.getVector(column);
+					String key = schema.getFields().get(column).getName();
+					int[] positions = new int[16];
+					keyIndexes.clear();
+
+					for (int row = 0; row < size; row++) {
+						ExportShape shape = shapes[row];
+						Integer keyIndex = keyIndexes.get(shape);
+						if (keyIndex == null) {
+							keyIndex = shape.indexOf(key);
+							keyIndexes.put(shape, keyIndex);
+						}
+
+						if (keyIndex >= 0) {
+							fill(vector, row, shape, shape.firstChannels[keyIndex], shape.endChannels[keyIndex], 0, offsets[row], positions);
+						} else if (strings[row] != null) {
+							int stringIndex = shape.indexOfString(key);
+							if (stringIndex >= 0 && strings[row][stringIndex] != null) {
+								fillStrings(vector, row, strings[row][stringIndex], 0, positions);
+							}
+						}
+					}
+				}
+
+				root.setRowCount(size);
+				return new VectorUnloader(root).getRecordBatch();
+			}
+		}
+
+		/**
+		 * Sets element position of vector to channels [from, to) of a message, which share their first
+		 * level indexes. Lists get an element per distinct index of the level, filled recursively;
+		 * positions counts elements written so far into the vector of each level.
+		 */
+		private void fill(FieldVector vector, int position, ExportShape shape, int from, int to, int level, int offset, int[] positions) {
+			if (vector instanceof BigIntVector) {
+				((BigIntVector) vector).setSafe(position, (long) values[offset + from]);
+				return;
+			}
+
+			if (!(vector instanceof ListVector)) {
+				((Float8Vector) vector).setSafe(position, values[offset + from]);
+				return;
+			}
+
+			ListVector list = (ListVector) vector;
+			FieldVector child = list.getDataVector();
+			int count = 0;
+
+			list.startNewValue(position);
+			for (int start = from; start < to; count++) {
+				int end = start + 1;
+				while (end < to && shape.indexes[end][level] == shape.indexes[start][level]) {
+					end++;
+				}
+
+				fill(child, positions[level + 1]++, shape, start, end, level + 1, offset, positions);
+				start = end;
+			}
+
+			list.endValue(position, count);
+		}
+
+		/**
+		 * Sets element position of vector to a string value, or an array of them (see fill).
+		 */
+		private void fillStrings(FieldVector vector, int position, Object value, int level, int[] positions) {
+			if (!(vector instanceof ListVector)) {
+				((VarCharVector) vector).setSafe(position, value.toString().getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+
+			ListVector list = (ListVector) vector;
+			JSONArray array = (JSONArray) value;
+
+			list.startNewValue(position);
+			for (int i = 0; i < array.length(); i++) {
+				fillStrings(list.getDataVector(), positions[level + 1]++, array.get(i), level + 1, positions);
+			}
+
+			list.endValue(position, array.length());
+		}
+	}
+}
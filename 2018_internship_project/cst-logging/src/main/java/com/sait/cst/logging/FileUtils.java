@@ -1,15 +1,22 @@
 package com.sait.cst.logging;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileFilter;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 public class FileUtils {
+	// captures are named <ip>_<yyyyMMdd>_<HHmmss> and compacted segments <ip>_<yyyyMMdd>; see
+	// listPartitionDirectories.
+	private static final Pattern CAPTURE_NAME_PATTERN = Pattern.compile("^.+_\\d{8}(_\\d{6})?$");
+
 	/**
 	 * Creates a directory specified by pathname argument if it doesn't exist already. If directory
 	 * exists, then File instance will be returned. If creating directory fails for some reason, null
@@ -25,23 +32,64 @@ public class FileUtils {
 		return newDirectory.mkdirs();
 	}
 
+	public static BufferedReader createBufferedReader(File file) throws FileNotFoundException {
+		return new BufferedReader(new FileReader(file));
+	}
+
 	/**
-	 * Creates a BufferedWriter instance that can be used to write content to the file specified by
-	 * directoryPath and filename. If file provided already exists, it will throw an exception as it
-	 * is not desirable to overwrite existing log files.
+	 * Returns all log files (matching the extension) under the directory provided sorted by name, which
+	 * for files of the same device is also the order they were created in. If directory can't be
+	 * listed, null is returned.
 	 */
-	public static BufferedWriter createBufferedWriter(String directoryPath, String filename) throws IOException {
-		File file = new File(directoryPath, filename);
+	public static File[] listLogFiles(File directory) {
+		return listFiles(directory, Application.LOG_FILENAME_EXTENSION);
+	}
 
-		// check if file exists, and throw an exception if so.
-		if (file.exists()) {
-			throw new FileAlreadyExistsException(file.getAbsolutePath());
+	/**
+	 * Returns subdirectories of the directory provided sorted by name, which is where partitioned
+	 * captures (see PartitionedLogWriter) keep their partitions. Only those named like a capture are
+	 * returned, so others (e.g. metrics, archive or an export directory) aren't taken for captures. If
+	 * directory can't be listed, null is returned.
+	 */
+	public static File[] listPartitionDirectories(File directory) {
+		File[] directories = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isDirectory() && CAPTURE_NAME_PATTERN.matcher(file.getName()).matches();
+			}
+		});
+
+		if (directories != null) {
+			Arrays.sort(directories);
 		}
 
-		return new BufferedWriter(new FileWriter(file));
+		return directories;
 	}
 
-	public static BufferedReader createBufferedReader(File file) throws FileNotFoundException {
-		return new BufferedReader(new FileReader(file));
+	/**
+	 * Returns all files with the given extension under the directory provided sorted by name. If
+	 * directory can't be listed, null is returned.
+	 */
+	public static File[] listFiles(File directory, final String extension) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.toLowerCase().endsWith("." + extension);
+			}
+		});
+
+		if (files != null) {
+			Arrays.sort(files);
+		}
+
+		return files;
+	}
+
+	/**
+	 * Moves source file over target file in a single step so readers either see the old or the new
+	 * content of target, never a partially written one.
+	 */
+	public static void replaceFile(File source, File target) throws IOException {
+		Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 	}
 }
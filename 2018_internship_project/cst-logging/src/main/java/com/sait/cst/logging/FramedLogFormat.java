@@ -0,0 +1,88 @@
+package com.sait.cst.logging;
+
+public class FramedLogFormat {
+	/*
+	 * Framed log files start with the magic of their LogFormat, followed by records. Records of
+	 * LogFormat.FRAMED files hold a message as UTF-8 text; records of LogFormat.DICTIONARY files hold
+	 * a message or a dictionary definition encoded by DictionaryCodec.
+	 */
+
+	/**
+	 * Written between records every SYNC_INTERVAL bytes. It starts with 0xFF, which a record (whose
+	 * length is never negative) can't, so readers and recovery can find a record boundary again by
+	 * scanning for it. Payloads may be binary (see DictionaryCodec and TimeSeriesCodec) and hold the
+	 * same 8 bytes by chance; such a false match needs a 64-bit collision and is caught by the CRC of
+	 * the record read after it.
+	 */
+	public static final long SYNC_MARKER = 0xFFFF53594E43FFFFL;
+	public static final int SYNC_MARKER_LENGTH = 8;
+	public static final int SYNC_INTERVAL = 64 * 1024;
+
+	/**
+	 * Every record is: length of payload (4 bytes), CRC32C of timestamp and payload (4 bytes),
+	 * timestamp (8 bytes) and payload.
+	 */
+	public static final int HEADER_LENGTH = 16;
+	public static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Encodes a record into buffer (which must have room for HEADER_LENGTH + length bytes) and returns
+	 * its length in bytes.
+	 */
+	public static int encode(long timestamp, byte[] payload, int length, byte[] buffer) {
+		writeInt(buffer, 0, length);
+		writeLong(buffer, 8, timestamp);
+		System.arraycopy(payload, 0, buffer, HEADER_LENGTH, length);
+		writeInt(buffer, 4, Crc32c.compute(buffer, 8, 8 + length));
+
+		return HEADER_LENGTH + length;
+	}
+
+	/**
+	 * Returns length of the valid record starting at offset in buffer, or -1 if there isn't a whole
+	 * record there or its checksum doesn't match.
+	 */
+	public static int getValidRecordLength(byte[] buffer, int offset, int limit) {
+		if (limit - offset < HEADER_LENGTH) {
+			return -1;
+		}
+
+		int length = readInt(buffer, offset);
+		if (length < 0 || length > MAX_RECORD_LENGTH || limit - offset - HEADER_LENGTH < length) {
+			return -1;
+		}
+
+		if (Crc32c.compute(buffer, offset + 8, 8 + length) != readInt(buffer, offset + 4)) {
+			return -1;
+		}
+
+		return HEADER_LENGTH + length;
+	}
+
+	/**
+	 * Returns whether a sync marker starts at offset in buffer.
+	 */
+	public static boolean isSyncMarker(byte[] buffer, int offset, int limit) {
+		return limit - offset >= SYNC_MARKER_LENGTH && readLong(buffer, offset) == SYNC_MARKER;
+	}
+
+	public static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	public static void writeLong(byte[] buffer, int offset, long value) {
+		writeInt(buffer, offset, (int) (value >>> 32));
+		writeInt(buffer, offset + 4, (int) value);
+	}
+
+	public static int readInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+	}
+
+	public static long readLong(byte[] buffer, int offset) {
+		return (long) readInt(buffer, offset) << 32 | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+	}
+}
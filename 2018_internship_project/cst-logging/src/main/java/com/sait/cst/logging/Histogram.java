@@ -0,0 +1,110 @@
+package com.sait.cst.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Histogram {
+	// values are counted in buckets growing with their magnitude, 32 per power of two, so any
+	// percentile is within about 3% of the exact value whatever the range (like HdrHistogram).
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong maximum = new AtomicLong();
+
+	/**
+	 * Creates a Histogram of non-negative values (e.g. latencies in nanoseconds). Recording never
+	 * allocates or locks, so it is cheap enough for every message and safe from any thread.
+	 */
+	public Histogram() {
+	}
+
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts.incrementAndGet(getIndex(value));
+		count.increment();
+		sum.add(value);
+
+		long current;
+		while (value > (current = maximum.get()) && !maximum.compareAndSet(current, value)) {
+			// another thread raised the maximum; check against its value.
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMaximum() {
+		return maximum.get();
+	}
+
+	/**
+	 * Returns the value below which the given percentage (0 to 100) of recorded values fall, or 0 if
+	 * nothing was recorded. Values recorded meanwhile may or may not be taken into account.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+
+		for (int i = 0; i < counts.length() && seen < total; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(getUpperBound(i), getMaximum());
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Forgets every value recorded, e.g. to report on intervals. Values recorded meanwhile may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+
+		count.reset();
+		sum.reset();
+		maximum.set(0);
+	}
+
+	private static int getIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value counted in the given bucket.
+	 */
+	private static long getUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		long upperBound = ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+
+		// the last bucket ends past Long.MAX_VALUE.
+		return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+	}
+}
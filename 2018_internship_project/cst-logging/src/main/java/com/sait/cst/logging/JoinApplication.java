@@ -0,0 +1,589 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class JoinApplication {
+	private static final Logger logger = Logger.getLogger(JoinApplication.class);
+
+	public static final int DEFAULT_WINDOW_SECONDS = 10;
+	private static final String EVENT_TYPE = "lr";
+	private static final String[] EVENT_KEYS = { "ec", "wn" };
+	private static final String LOGGED_TIME_KEY = "lt";
+	private static final int DEFAULT_CHUNK_ROWS = 1000;
+
+	/**
+	 * Joins lr records reporting an error or warning (a non-zero ec or wn) with telemetry of the same
+	 * capture around them: for every such event, matching channels of messages of the given types
+	 * (comma-separated, e.g. sm,fm) within windowSeconds before and after it. Channels are patterns as
+	 * trend mode takes them, comma-separated, e.g. is,ta,ll.
+	 *
+	 * Events are placed at the time the device logged them (lt), not the time they were captured, as
+	 * devices send their whole log history on connect. Start and end times select events by lt too.
+	 * Events logged while the capture had no telemetry (before its first or after its last message of
+	 * the given types) are listed as unmatched rather than joined.
+	 *
+	 * Events are collected first, which only reads lr records (and finds the time range of telemetry
+	 * when indexes can't tell). Telemetry is then read once, in timestamp order (partitions of a
+	 * partitioned capture are merged), from the window of the first matched event. It is kept in a
+	 * buffer sliding along with the events still waiting for the rest of their window, and an event is
+	 * answered from it once a message after its window is read. No event needs the file to be read
+	 * again.
+	 *
+	 * By default, an event gets a row per channel summarizing its window: min, max, average, count,
+	 * and the last value before and first value after the event. With cst.join.rows, raw values of
+	 * the window are printed instead, a table per event and message layout.
+	 */
+	public static void run(String logDirectory, String types, String channels, int windowSeconds, Instant start, Instant end) {
+		LogCatalog catalog = new LogCatalog(new File(logDirectory));
+		Map<String, Set<File>> captures = new LinkedHashMap<>();
+		Set<String> typeSet = new LinkedHashSet<>(Arrays.asList(types.split(",")));
+
+		// files which may hold events or telemetry, grouped by capture so each is joined on its own.
+		List<String> readTypes = new ArrayList<>(typeSet);
+		readTypes.add(0, EVENT_TYPE);
+
+		for (String type : readTypes) {
+			File[] files = catalog.getLogFiles(type);
+			if (files == null) {
+				logger.error("Failed to list files in directory (%s).", logDirectory);
+				System.exit(-2);
+			}
+
+			for (File file : files) {
+				String captureName = catalog.getPartition(file) == null ? file.getName() : file.getParentFile().getName();
+				if (!captures.containsKey(captureName)) {
+					captures.put(captureName, new LinkedHashSet<File>());
+				}
+
+				captures.get(captureName).add(file);
+			}
+		}
+
+		long windowMillis = windowSeconds * 1000L;
+		long startTimestamp = start == null ? 0 : start.toEpochMilli();
+		long endTimestamp = end == null ? Long.MAX_VALUE : end.toEpochMilli();
+		QueryStatistics statistics = new QueryStatistics("join");
+
+		for (Map.Entry<String, Set<File>> capture : captures.entrySet()) {
+			Join join = new Join(capture.getKey(), typeSet, channels.split(","), windowMillis, startTimestamp, endTimestamp);
+
+			try {
+				join.run(catalog, capture.getValue(), statistics);
+			} catch (IOException exception) {
+				logger.error("Failed to read lines from capture (%s): %s", capture.getKey(), exception.getMessage());
+			}
+		}
+
+		statistics.record();
+	}
+
+	private static String formatTimestamp(long timestamp) {
+		return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(timestamp).truncatedTo(ChronoUnit.SECONDS));
+	}
+
+	/**
+	 * Join of a single capture.
+	 */
+	private static class Join {
+		private final String captureName;
+		private final Set<String> types;
+		private final String[] channelPatterns;
+		private final long windowMillis;
+		private final long startTimestamp;
+		private final long endTimestamp;
+		private final boolean rawRows = Settings.getBoolean("cst.join.rows", false);
+		private final int chunkRows = Math.max(Settings.getInt("cst.join.chunk.rows", DEFAULT_CHUNK_ROWS), 1);
+
+		// channels of each layout to keep: matching ones for telemetry, none for other messages.
+		private final Map<ChannelLayout, int[]> layoutChannels = new IdentityHashMap<>();
+
+		// events of the range in the order they were logged, and the time range of telemetry.
+		private final List<WindowEvent> events = new ArrayList<>();
+		private long firstTelemetryTimestamp = Long.MAX_VALUE;
+		private long lastTelemetryTimestamp = Long.MIN_VALUE;
+
+		// telemetry no older than the window of the first pending event (or of the latest message), in
+		// timestamp order. rows which slide out are reused.
+		private final Deque<WindowRow> window = new ArrayDeque<>();
+		private final Deque<WindowRow> freeRows = new ArrayDeque<>();
+		private final Deque<WindowEvent> pendingEvents = new ArrayDeque<>();
+		private final List<Map<String, String>> summaryRows = new ArrayList<>();
+
+		Join(String captureName, Set<String> types, String[] channelPatterns, long windowMillis, long startTimestamp, long endTimestamp) {
+			this.captureName = captureName;
+			this.types = types;
+			this.channelPatterns = channelPatterns;
+			this.windowMillis = windowMillis;
+			this.startTimestamp = startTimestamp;
+			this.endTimestamp = endTimestamp;
+		}
+
+		void run(LogCatalog catalog, Set<File> files, QueryStatistics statistics) throws IOException {
+			long scanned = collectEvents(catalog, files);
+			long skipped = 0;
+
+			List<Map<String, String>> unmatchedRows = new ArrayList<>();
+			for (WindowEvent event : events) {
+				if (event.timestamp < firstTelemetryTimestamp || event.timestamp > lastTelemetryTimestamp) {
+					Map<String, String> fields = new LinkedHashMap<>();
+					fields.put(LogLineColumnNames.TIMESTAMP, formatTimestamp(event.timestamp));
+					fields.put(LogLineColumnNames.RECEIVED, formatTimestamp(event.receivedTimestamp));
+					fields.put(LogLineColumnNames.EVENT, event.description);
+					unmatchedRows.add(fields);
+				} else {
+					pendingEvents.addLast(event);
+				}
+			}
+
+			if (!pendingEvents.isEmpty()) {
+				long readStart = pendingEvents.peekFirst().timestamp - windowMillis;
+				long readEnd = pendingEvents.peekLast().timestamp + windowMillis;
+				MergedReader reader = new MergedReader();
+
+				try {
+					for (File file : files) {
+						SegmentIndex index = catalog.getIndex(file);
+						if (index == null || mayContainTelemetry(index, readStart, readEnd)) {
+							reader.add(file, index, readStart);
+						}
+					}
+
+					TelemetryRecord record;
+					while ((record = reader.next()) != null) {
+						long timestamp = record.getTimestamp();
+						scanned++;
+
+						if (timestamp > readEnd) {
+							break;
+						}
+
+						int[] channels = getChannels(record.getLayout());
+						if (channels.length == 0 || timestamp < readStart) {
+							skipped++;
+							continue;
+						}
+
+						// events whose window ended before this message are complete.
+						while (!pendingEvents.isEmpty() && pendingEvents.peekFirst().timestamp + windowMillis < timestamp) {
+							answer(pendingEvents.pollFirst());
+						}
+
+						slide(timestamp);
+						window.addLast(toRow(record, channels));
+					}
+
+					while (!pendingEvents.isEmpty()) {
+						answer(pendingEvents.pollFirst());
+					}
+				} finally {
+					reader.close();
+				}
+			}
+
+			printSummary();
+			for (int i = 0; i < unmatchedRows.size(); i += chunkRows) {
+				QueryApplication.printTable(String.format("File: %s, unmatched events (telemetry: %s)", captureName, formatTelemetryRange()),
+						unmatchedRows.subList(i, Math.min(i + chunkRows, unmatchedRows.size())));
+			}
+
+			statistics.addScanned(scanned, skipped, false);
+		}
+
+		/**
+		 * Collects events of the range from lr records of the capture, sorted by the time they were
+		 * logged, and finds the time range of telemetry. Telemetry is only read here when the index of
+		 * its file can't tell its range. Returns how many messages were read.
+		 */
+		private long collectEvents(LogCatalog catalog, Set<File> files) throws IOException {
+			TelemetryDecoder decoder = new TelemetryDecoder();
+			TelemetryRecord record = new TelemetryRecord();
+			LogCursor cursor = new LogCursor();
+			long scanned = 0;
+
+			for (File file : files) {
+				SegmentIndex index = catalog.getIndex(file);
+
+				// files without events and with nothing but telemetry, e.g. partitions, have their range in
+				// their index.
+				if (index != null && !index.mayContain(EVENT_TYPE, Long.MIN_VALUE, Long.MAX_VALUE)) {
+					if (types.containsAll(index.getTypeCounts().keySet())) {
+						if (index.getLineCount() > 0) {
+							addTelemetryTimestamp(index.getFirstTimestamp());
+							addTelemetryTimestamp(index.getLastTimestamp());
+						}
+
+						continue;
+					} else if (!mayContainTelemetry(index, Long.MIN_VALUE, Long.MAX_VALUE)) {
+						continue;
+					}
+				}
+
+				LogReader reader = new LogReader(file);
+				try {
+					while (reader.readCursor(cursor)) {
+						scanned++;
+
+						if (cursor.isType(EVENT_TYPE)) {
+							if (decoder.decode(cursor.getTimestamp(), cursor.getJsonString(), record)) {
+								addEvent(record);
+							}
+						} else if (isTelemetry(cursor)) {
+							addTelemetryTimestamp(cursor.getTimestamp());
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+
+			// stable, so events logged at the same time stay in the order they were received.
+			Collections.sort(events, new Comparator<WindowEvent>() {
+				@Override
+				public int compare(WindowEvent event, WindowEvent otherEvent) {
+					return Long.compare(event.timestamp, otherEvent.timestamp);
+				}
+			});
+
+			return scanned;
+		}
+
+		private boolean mayContainTelemetry(SegmentIndex index, long readStart, long readEnd) {
+			for (String type : types) {
+				if (index.mayContain(type, readStart, readEnd)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private boolean isTelemetry(LogCursor cursor) {
+			for (String type : types) {
+				if (cursor.isType(type)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private void addTelemetryTimestamp(long timestamp) {
+			firstTelemetryTimestamp = Math.min(firstTelemetryTimestamp, timestamp);
+			lastTelemetryTimestamp = Math.max(lastTelemetryTimestamp, timestamp);
+		}
+
+		private String formatTelemetryRange() {
+			if (firstTelemetryTimestamp > lastTelemetryTimestamp) {
+				return "none";
+			}
+
+			return formatTimestamp(firstTelemetryTimestamp) + " - " + formatTimestamp(lastTelemetryTimestamp);
+		}
+
+		/**
+		 * Returns channels to keep of messages of the layout, found once per layout.
+		 */
+		private int[] getChannels(ChannelLayout layout) {
+			int[] channels = layoutChannels.get(layout);
+			if (channels != null) {
+				return channels;
+			}
+
+			Set<Integer> indexes = new TreeSet<>();
+			String[] patterns = types.contains(layout.getType()) ? channelPatterns : new String[0];
+
+			for (String pattern : patterns) {
+				for (int index : layout.find(pattern)) {
+					indexes.add(index);
+				}
+			}
+
+			channels = new int[indexes.size()];
+			int i = 0;
+			for (int index : indexes) {
+				channels[i++] = index;
+			}
+
+			layoutChannels.put(layout, channels);
+			return channels;
+		}
+
+		/**
+		 * Adds the event an lr record reports, if it has an error or warning and was logged within the
+		 * range. Records without a time they were logged at are placed at the time they were received.
+		 */
+		private void addEvent(TelemetryRecord record) {
+			ChannelLayout layout = record.getLayout();
+			int loggedIndex = layout.indexOf(LOGGED_TIME_KEY);
+			long timestamp = loggedIndex < 0 ? record.getTimestamp() : (long) record.getValue(loggedIndex);
+
+			if (timestamp < startTimestamp || timestamp > endTimestamp) {
+				return;
+			}
+
+			StringBuilder description = new StringBuilder();
+			boolean reported = false;
+
+			for (String key : EVENT_KEYS) {
+				for (int index : layout.find(key)) {
+					reported |= record.getValue(index) != 0;
+					description.append(description.length() == 0 ? "" : " ").append(layout.getName(index)).append('=').append(Rollup.formatValue(record.getValue(index)));
+				}
+			}
+
+			if (reported) {
+				events.add(new WindowEvent(timestamp, record.getTimestamp(), description.toString()));
+			}
+		}
+
+		private WindowRow toRow(TelemetryRecord record, int[] channels) {
+			WindowRow row = freeRows.isEmpty() ? new WindowRow() : freeRows.pollFirst();
+			row.timestamp = record.getTimestamp();
+			row.layout = record.getLayout();
+			row.channels = channels;
+
+			if (row.values.length < channels.length) {
+				row.values = new double[channels.length];
+			}
+
+			for (int i = 0; i < channels.length; i++) {
+				row.values[i] = record.getValue(channels[i]);
+			}
+
+			return row;
+		}
+
+		/**
+		 * Drops rows no pending event (nor one still to come) can need anymore.
+		 */
+		private void slide(long timestamp) {
+			long oldestNeeded = (pendingEvents.isEmpty() ? timestamp : Math.min(timestamp, pendingEvents.peekFirst().timestamp)) - windowMillis;
+
+			while (!window.isEmpty() && window.peekFirst().timestamp < oldestNeeded) {
+				freeRows.addLast(window.pollFirst());
+			}
+		}
+
+		/**
+		 * Answers an event from rows of the window around it.
+		 */
+		private void answer(WindowEvent event) {
+			long from = event.timestamp - windowMillis;
+			long to = event.timestamp + windowMillis;
+
+			if (rawRows) {
+				printRows(event, from, to);
+				return;
+			}
+
+			Map<String, ChannelSummary> summaries = new LinkedHashMap<>();
+
+			for (WindowRow row : window) {
+				if (row.timestamp < from) {
+					continue;
+				}
+
+				if (row.timestamp > to) {
+					break;
+				}
+
+				for (int i = 0; i < row.channels.length; i++) {
+					String key = row.layout.getType() + "\t" + row.layout.getName(row.channels[i]);
+					ChannelSummary summary = summaries.get(key);
+					if (summary == null) {
+						summary = new ChannelSummary(row.layout.getType(), row.layout.getName(row.channels[i]));
+						summaries.put(key, summary);
+					}
+
+					summary.add(row.timestamp <= event.timestamp, row.values[i]);
+				}
+			}
+
+			for (ChannelSummary summary : summaries.values()) {
+				Map<String, String> fields = new LinkedHashMap<>();
+				fields.put(LogLineColumnNames.TIMESTAMP, formatTimestamp(event.timestamp));
+				fields.put(LogLineColumnNames.EVENT, event.description);
+				fields.put(LogLineColumnNames.TYPE, summary.type);
+				fields.put(LogLineColumnNames.CHANNEL, summary.channel);
+				fields.put(LogLineColumnNames.MIN, Rollup.formatValue(summary.min));
+				fields.put(LogLineColumnNames.MAX, Rollup.formatValue(summary.max));
+				fields.put(LogLineColumnNames.AVERAGE, Rollup.formatValue(summary.sum / summary.count));
+				fields.put(LogLineColumnNames.BEFORE, summary.hasBefore ? Rollup.formatValue(summary.before) : "");
+				fields.put(LogLineColumnNames.AFTER, summary.hasAfter ? Rollup.formatValue(summary.after) : "");
+				fields.put(LogLineColumnNames.COUNT, Long.toString(summary.count));
+				summaryRows.add(fields);
+			}
+
+			if (summaryRows.size() >= chunkRows) {
+				printSummary();
+			}
+		}
+
+		private void printSummary() {
+			if (!summaryRows.isEmpty()) {
+				QueryApplication.printTable(String.format("File: %s (window: %d s)", captureName, windowMillis / 1000), summaryRows);
+				summaryRows.clear();
+			}
+		}
+
+		/**
+		 * Prints rows of the window around an event, a table per layout as each has its own columns.
+		 */
+		private void printRows(WindowEvent event, long from, long to) {
+			Map<ChannelLayout, List<Map<String, String>>> tables = new IdentityHashMap<>();
+			List<ChannelLayout> layouts = new ArrayList<>();
+
+			for (WindowRow row : window) {
+				if (row.timestamp < from) {
+					continue;
+				}
+
+				if (row.timestamp > to) {
+					break;
+				}
+
+				List<Map<String, String>> rows = tables.get(row.layout);
+				if (rows == null) {
+					rows = new ArrayList<>();
+					tables.put(row.layout, rows);
+					layouts.add(row.layout);
+				}
+
+				Map<String, String> fields = new LinkedHashMap<>();
+				fields.put(LogLineColumnNames.TIMESTAMP, formatTimestamp(row.timestamp));
+				fields.put(LogLineColumnNames.OFFSET, Long.toString(row.timestamp - event.timestamp));
+				for (int i = 0; i < row.channels.length; i++) {
+					fields.put(row.layout.getName(row.channels[i]), Rollup.formatValue(row.values[i]));
+				}
+
+				rows.add(fields);
+			}
+
+			for (ChannelLayout layout : layouts) {
+				QueryApplication.printTable(String.format("File: %s, event: %s %s (type: %s, window: %d s)", captureName, formatTimestamp(event.timestamp),
+						event.description, layout.getType(), windowMillis / 1000), tables.get(layout));
+			}
+		}
+	}
+
+	/**
+	 * Messages of several log files (e.g. partitions of a capture) read in timestamp order.
+	 */
+	private static class MergedReader {
+		private final List<LogReader> readers = new ArrayList<>();
+		private final List<TelemetryRecord> records = new ArrayList<>();
+		private final List<TelemetryDecoder> decoders = new ArrayList<>();
+		private final List<Boolean> available = new ArrayList<>();
+		private int current = -1;
+
+		void add(File file, SegmentIndex index, long startTimestamp) throws IOException {
+			LogReader reader = new LogReader(file);
+			readers.add(reader);
+			records.add(new TelemetryRecord());
+			decoders.add(new TelemetryDecoder());
+
+			if (index != null) {
+				reader.seek(index.getOffset(startTimestamp));
+			}
+
+			available.add(reader.readTelemetryRecord(records.get(records.size() - 1), decoders.get(decoders.size() - 1)));
+		}
+
+		/**
+		 * Returns the earliest message not returned yet, or null once there are no more. A record is only
+		 * valid until the next call.
+		 */
+		TelemetryRecord next() throws IOException {
+			if (current >= 0) {
+				available.set(current, readers.get(current).readTelemetryRecord(records.get(current), decoders.get(current)));
+			}
+
+			current = -1;
+			for (int i = 0; i < readers.size(); i++) {
+				if (available.get(i) && (current < 0 || records.get(i).getTimestamp() < records.get(current).getTimestamp())) {
+					current = i;
+				}
+			}
+
+			return current < 0 ? null : records.get(current);
+		}
+
+		void close() {
+			for (LogReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	private static class WindowRow {
+		private long timestamp;
+		private ChannelLayout layout;
+		private int[] channels;
+		private double[] values = new double[0];
+	}
+
+	private static class WindowEvent {
+		private final long timestamp;
+		private final long receivedTimestamp;
+		private final String description;
+
+		WindowEvent(long timestamp, long receivedTimestamp, String description) {
+			this.timestamp = timestamp;
+			this.receivedTimestamp = receivedTimestamp;
+			this.description = description;
+		}
+	}
+
+	/**
+	 * Values of a channel within the window of an event.
+	 */
+	private static class ChannelSummary {
+		private final String type;
+		private final String channel;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private double sum = 0;
+		private long count = 0;
+		private double before;
+		private double after;
+		private boolean hasBefore = false;
+		private boolean hasAfter = false;
+
+		ChannelSummary(String type, String channel) {
+			this.type = type;
+			this.channel = channel;
+		}
+
+		void add(boolean isBefore, double value) {
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			sum += value;
+			count++;
+
+			if (isBefore) {
+				before = value;
+				hasBefore = true;
+			} else if (!hasAfter) {
+				after = value;
+				hasAfter = true;
+			}
+		}
+	}
+}
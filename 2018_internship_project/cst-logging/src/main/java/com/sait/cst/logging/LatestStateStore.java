@@ -0,0 +1,73 @@
+package com.sait.cst.logging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class LatestStateStore {
+	// message types whose latest values are kept; these describe the current state of a transmitter.
+	public static final List<String> STATE_TYPES = Collections.unmodifiableList(Arrays.asList("sm", "fm", "cc", "hc"));
+
+	private static final LatestStateStore instance = new LatestStateStore();
+	private final Map<String, AtomicReferenceArray<StateSnapshot>> devices = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the store shared by everything running in this process (captures, state server).
+	 */
+	public static LatestStateStore getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Publishes a decoded message as the latest state of its type for the given device. Every device
+	 * has a single writer (its capture), so publishing is a plain ordered store of a new immutable
+	 * snapshot; there are no locks for writers or readers.
+	 */
+	public void update(String device, TelemetryRecord record) {
+		int typeIndex = STATE_TYPES.indexOf(record.getType());
+		if (typeIndex < 0) {
+			return;
+		}
+
+		AtomicReferenceArray<StateSnapshot> snapshots = devices.get(device);
+		if (snapshots == null) {
+			snapshots = new AtomicReferenceArray<>(STATE_TYPES.size());
+			devices.put(device, snapshots);
+		}
+
+		snapshots.lazySet(typeIndex, new StateSnapshot(record));
+	}
+
+	/**
+	 * Returns names of all devices which have published state, sorted.
+	 */
+	public Set<String> getDevices() {
+		return new TreeSet<>(devices.keySet());
+	}
+
+	/**
+	 * Returns latest snapshot of a message type for a device, or null if none was received yet.
+	 */
+	public StateSnapshot getSnapshot(String device, String type) {
+		AtomicReferenceArray<StateSnapshot> snapshots = devices.get(device);
+		int typeIndex = STATE_TYPES.indexOf(type);
+
+		if (snapshots == null || typeIndex < 0) {
+			return null;
+		}
+
+		return snapshots.get(typeIndex);
+	}
+
+	/**
+	 * Removes a device from the store, e.g. when its capture stops.
+	 */
+	public void remove(String device) {
+		devices.remove(device);
+	}
+}
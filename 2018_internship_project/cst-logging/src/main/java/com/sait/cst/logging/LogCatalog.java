@@ -0,0 +1,396 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class LogCatalog {
+	private static final Logger logger = Logger.getLogger(LogCatalog.class);
+
+	private final File directory;
+	private final int maxCachedRollupFiles;
+
+	// everything below is only ever read and replaced while holding the lock on this catalog; loading
+	// itself happens outside of it so a slow file doesn't hold up other queries.
+	private File[] captures;
+	private Set<String> captureNames;
+	private final Map<File, SegmentIndex> indexes = new HashMap<>();
+	private final Map<File, CachedRollups> rollups;
+
+	private volatile WatchService watchService;
+
+	/**
+	 * Creates a LogCatalog: what queries need to know about a log directory (which files there are,
+	 * their indexes and parsed rollups) cached in memory. Cached entries are checked against the size
+	 * and modification time of their file before being used, so a catalog is never stale; a watched
+	 * catalog (see watch) also drops entries as soon as their file changes.
+	 *
+	 * Up to cst.serve.cache.files rollup files are kept parsed, least recently used ones going first.
+	 */
+	public LogCatalog(File directory) {
+		this.directory = directory;
+		this.maxCachedRollupFiles = Settings.getInt("cst.serve.cache.files", 64);
+		this.rollups = new LinkedHashMap<File, CachedRollups>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, CachedRollups> eldest) {
+				return size() > maxCachedRollupFiles;
+			}
+		};
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Starts watching the directory for changes in the background, so files listed and cached are
+	 * refreshed only when something changed instead of on every query.
+	 */
+	public void watch() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processEvents();
+			}
+		}, "catalog-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException exception) {
+				logger.error("Failed to stop watching directory (%s): %s", directory.getPath(), exception.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns log files of the directory sorted by capture name (see FileUtils.listLogFiles), along
+	 * with every partition of partitioned captures (see PartitionedLogWriter), or null if the directory
+	 * can't be listed.
+	 */
+	public File[] getLogFiles() {
+		return getLogFiles(null);
+	}
+
+	/**
+	 * Same as above, but only with partitions which may hold messages of the given type: the one of
+	 * the type, and the one of messages whose type couldn't be told. If type is null, all of them.
+	 */
+	public File[] getLogFiles(String type) {
+		File[] captureFiles = getCaptures();
+		if (captureFiles == null) {
+			return null;
+		}
+
+		List<File> files = new ArrayList<>();
+
+		for (File capture : captureFiles) {
+			if (!capture.isDirectory()) {
+				files.add(capture);
+				continue;
+			}
+
+			// partitions are looked up on every call, as the directory being watched doesn't tell when
+			// a capture creates one.
+			if (type == null) {
+				File[] partitions = FileUtils.listLogFiles(capture);
+				if (partitions != null) {
+					files.addAll(Arrays.asList(partitions));
+				}
+
+				continue;
+			}
+
+			String partition = PartitionedLogWriter.getPartition(type);
+			addPartition(files, capture, partition);
+			if (!partition.equals(PartitionedLogWriter.OTHER_PARTITION)) {
+				addPartition(files, capture, PartitionedLogWriter.OTHER_PARTITION);
+			}
+		}
+
+		return files.toArray(new File[files.size()]);
+	}
+
+	/**
+	 * Returns the name of a log file of the catalog as shown to users: its filename, prefixed by the
+	 * directory of its capture for partitions (e.g. 10.10.102.11_20180829_144900/sm.log).
+	 */
+	public String getName(File logFile) {
+		String partition = getPartition(logFile);
+		return partition == null ? logFile.getName() : logFile.getParentFile().getName() + "/" + logFile.getName();
+	}
+
+	/**
+	 * Returns the partition a log file of the catalog is (e.g. sm, or PartitionedLogWriter.OTHER_PARTITION),
+	 * or null if it holds a whole capture.
+	 */
+	public String getPartition(File logFile) {
+		if (directory.equals(logFile.getParentFile())) {
+			return null;
+		}
+
+		String name = logFile.getName();
+		return name.substring(0, name.length() - Application.LOG_FILENAME_EXTENSION.length() - 1);
+	}
+
+	/**
+	 * Returns log files and directories of partitioned captures, sorted by capture name so partitioned
+	 * and whole captures of a device are in the order they were created in.
+	 */
+	private File[] getCaptures() {
+		synchronized (this) {
+			if (captures != null && watchService != null) {
+				return captures;
+			}
+		}
+
+		File[] logFiles = FileUtils.listLogFiles(directory);
+		File[] partitionDirectories = FileUtils.listPartitionDirectories(directory);
+		if (logFiles == null || partitionDirectories == null) {
+			return null;
+		}
+
+		File[] files = Arrays.copyOf(logFiles, logFiles.length + partitionDirectories.length);
+		System.arraycopy(partitionDirectories, 0, files, logFiles.length, partitionDirectories.length);
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File file, File otherFile) {
+				return getCaptureName(file).compareTo(getCaptureName(otherFile));
+			}
+		});
+
+		synchronized (this) {
+			captures = files;
+		}
+
+		return files;
+	}
+
+	private static void addPartition(List<File> files, File capture, String partition) {
+		File file = new File(capture, partition + "." + Application.LOG_FILENAME_EXTENSION);
+		if (file.isFile()) {
+			files.add(file);
+		}
+	}
+
+	private static String getCaptureName(File capture) {
+		String name = capture.getName();
+		String extension = "." + Application.LOG_FILENAME_EXTENSION;
+		return name.endsWith(extension) ? name.substring(0, name.length() - extension.length()) : name;
+	}
+
+	/**
+	 * Returns the device a capture was made from: the IP address its name starts with (e.g.
+	 * 10.10.102.11 for 10.10.102.11_20180829_144900).
+	 */
+	public static String getDevice(String captureName) {
+		int separator = captureName.indexOf('_');
+		return separator < 0 ? captureName : captureName.substring(0, separator);
+	}
+
+	/**
+	 * Returns names (without extension) of all captures in the directory, whether they have a raw log
+	 * (or partitions), rollups or both. Returns null if the directory can't be listed.
+	 */
+	public Set<String> getCaptureNames() {
+		synchronized (this) {
+			if (captureNames != null && watchService != null) {
+				return captureNames;
+			}
+		}
+
+		Set<String> names = new TreeSet<>();
+		List<String> extensions = new ArrayList<>();
+
+		extensions.add(Application.LOG_FILENAME_EXTENSION);
+		for (RollupResolution resolution : RollupResolution.values()) {
+			extensions.add(resolution.getFileExtension());
+		}
+
+		for (String extension : extensions) {
+			File[] files = FileUtils.listFiles(directory, extension);
+			if (files == null) {
+				return null;
+			}
+
+			for (File file : files) {
+				names.add(file.getName().substring(0, file.getName().length() - extension.length() - 1));
+			}
+		}
+
+		File[] partitionDirectories = FileUtils.listPartitionDirectories(directory);
+		if (partitionDirectories == null) {
+			return null;
+		}
+
+		for (File partitionDirectory : partitionDirectories) {
+			names.add(partitionDirectory.getName());
+		}
+
+		names = Collections.unmodifiableSet(names);
+		synchronized (this) {
+			captureNames = names;
+		}
+
+		return names;
+	}
+
+	/**
+	 * Returns the up-to-date index of a log file, or null if it has none (see SegmentIndex.load).
+	 */
+	public SegmentIndex getIndex(File logFile) {
+		synchronized (this) {
+			SegmentIndex index = indexes.get(logFile);
+			if (index != null && index.getLength() == logFile.length()) {
+				return index;
+			}
+		}
+
+		SegmentIndex index = SegmentIndex.load(logFile);
+
+		synchronized (this) {
+			if (index == null) {
+				indexes.remove(logFile);
+			} else {
+				indexes.put(logFile, index);
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Returns all rollups of a rollup file, in the order they were written. Lines that can't be parsed
+	 * are reported and skipped. Returned list must not be modified, as it is shared between queries.
+	 */
+	public List<Rollup> getRollups(File rollupFile) throws IOException {
+		long length = rollupFile.length();
+		long lastModified = rollupFile.lastModified();
+
+		synchronized (this) {
+			CachedRollups cached = rollups.get(rollupFile);
+			if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+				return cached.rollups;
+			}
+		}
+
+		List<Rollup> fileRollups = new ArrayList<>();
+
+		try (BufferedReader reader = FileUtils.createBufferedReader(rollupFile)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.equals(RollupAggregator.COMPLETE_MARKER)) {
+					continue;
+				}
+
+				Rollup rollup = Rollup.deserialize(line);
+				if (rollup == null) {
+					logger.error("Failed to parse line as Rollup: %s", line);
+					continue;
+				}
+
+				fileRollups.add(rollup);
+			}
+		}
+
+		fileRollups = Collections.unmodifiableList(fileRollups);
+		synchronized (this) {
+			rollups.put(rollupFile, new CachedRollups(fileRollups, length, lastModified));
+		}
+
+		return fileRollups;
+	}
+
+	/**
+	 * Drops whatever is cached about a file of the directory, and the listings since it may have been
+	 * created or deleted. Any event the watcher lost (overflow) drops everything.
+	 */
+	private synchronized void invalidate(String name) {
+		captures = null;
+		captureNames = null;
+
+		if (name == null) {
+			indexes.clear();
+			rollups.clear();
+			return;
+		}
+
+		File file = new File(directory, name);
+		rollups.remove(file);
+		indexes.remove(file);
+
+		// an index changing means its log file has to be checked again too.
+		String indexExtension = "." + SegmentIndex.INDEX_FILENAME_EXTENSION;
+		if (name.endsWith(indexExtension)) {
+			indexes.remove(new File(directory, name.substring(0, name.length() - indexExtension.length())));
+		}
+	}
+
+	private void processEvents() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						invalidate(null);
+					} else {
+						invalidate(((Path) event.context()).getFileName().toString());
+					}
+				}
+
+				if (!key.reset()) {
+					logger.warn("Stopped watching directory (%s), as it is no longer accessible.", directory.getPath());
+					invalidate(null);
+					watchService.close();
+					watchService = null;
+					return;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException | IOException exception) {
+			// catalog was closed.
+		}
+	}
+
+	/**
+	 * Parsed rollups of a file along with the size and modification time of the file they were read at.
+	 */
+	private static class CachedRollups {
+		private final List<Rollup> rollups;
+		private final long length;
+		private final long lastModified;
+
+		CachedRollups(List<Rollup> rollups, long length, long lastModified) {
+			this.rollups = rollups;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
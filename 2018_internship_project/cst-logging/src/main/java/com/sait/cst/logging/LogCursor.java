@@ -0,0 +1,97 @@
+package com.sait.cst.logging;
+
+import java.nio.charset.StandardCharsets;
+
+public class LogCursor {
+	private long timestamp;
+
+	// the message is either bytes of a buffer owned by LogReader, or a string (decoded from a dictionary
+	// or time series file, or once asked for).
+	private byte[] bytes;
+	private int offset;
+	private int length;
+	private String jsonString;
+
+	/**
+	 * Creates a LogCursor: a view of the message LogReader.readCursor read last, reused from one message
+	 * to the next. Timestamp and type can be checked without allocating anything; the message only
+	 * becomes a String (or a LogLine, see toLogLine) when asked for, which scans should only do for
+	 * messages they keep. A cursor is only valid until the next message is read.
+	 */
+	public LogCursor() {
+	}
+
+	void set(long timestamp, byte[] bytes, int offset, int length) {
+		this.timestamp = timestamp;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.jsonString = null;
+	}
+
+	void set(long timestamp, String jsonString) {
+		this.timestamp = timestamp;
+		this.bytes = null;
+		this.jsonString = jsonString;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public boolean isBefore(long otherTimestamp) {
+		return timestamp < otherTimestamp;
+	}
+
+	public boolean isAfter(long otherTimestamp) {
+		return timestamp > otherTimestamp;
+	}
+
+	/**
+	 * Returns whether the message is of the given type (e.g. fm), by comparing its first key like
+	 * LogLine.getType but without allocating.
+	 */
+	public boolean isType(String type) {
+		int typeLength = type.length();
+
+		if (jsonString != null) {
+			return jsonString.length() > typeLength + 2 && jsonString.startsWith("{\"") && jsonString.startsWith(type, 2)
+					&& jsonString.charAt(typeLength + 2) == '"';
+		}
+
+		if (length <= typeLength + 2 || bytes[offset] != '{' || bytes[offset + 1] != '"' || bytes[offset + typeLength + 2] != '"') {
+			return false;
+		}
+
+		for (int i = 0; i < typeLength; i++) {
+			if (bytes[offset + 2 + i] != type.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the message as a String, decoding it the first time.
+	 */
+	public String getJsonString() {
+		if (jsonString == null) {
+			jsonString = new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+
+		return jsonString;
+	}
+
+	/**
+	 * Returns a LogLine of the message which, unlike the cursor, can be kept.
+	 */
+	public LogLine toLogLine() {
+		return new LogLine(timestamp, getJsonString());
+	}
+
+	@Override
+	public String toString() {
+		return timestamp + "," + getJsonString();
+	}
+}
@@ -0,0 +1,110 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public enum LogFormat {
+	// one timestamp,json line per message; see LogLine.serialize.
+	TEXT("text", null),
+	// framed records with checksums and sync markers; see FramedLogFormat.
+	FRAMED("framed", "CSTLOG1\n"),
+	// framed records whose strings are replaced by ids of a dictionary kept in the file; see
+	// DictionaryCodec.
+	DICTIONARY("dictionary", "CSTLOG2\n"),
+	// framed records holding blocks of messages stored as numeric columns; see TimeSeriesCodec.
+	TIMESERIES("timeseries", "CSTLOG3\n");
+
+	private static final Logger logger = Logger.getLogger(LogFormat.class);
+	public static final int MAGIC_LENGTH = 8;
+	public static final LogFormat DEFAULT = TEXT;
+
+	private final String name;
+	private final byte[] magic;
+
+	LogFormat(String name, String magic) {
+		this.name = name;
+		this.magic = magic == null ? null : magic.getBytes();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns bytes every file in this format starts with, or null for text files which start with a
+	 * timestamp. This is what lets every format use the same extension.
+	 */
+	public byte[] getMagic() {
+		return magic;
+	}
+
+	/**
+	 * Returns whether files in this format are made of framed records (see FramedLogFormat).
+	 */
+	public boolean isFramed() {
+		return magic != null;
+	}
+
+	/**
+	 * Returns the format new log files are written in, set by cst.capture.format.
+	 */
+	public static LogFormat getDefault() {
+		String name = Settings.getString("cst.capture.format", DEFAULT.name);
+
+		for (LogFormat format : values()) {
+			if (format.name.equals(name)) {
+				return format;
+			}
+		}
+
+		logger.warn("Unknown log format (%s), using %s.", name, DEFAULT.name);
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the format of the given file based on its first bytes. Files which can't be read are
+	 * reported as text files, which is what every reader falls back to.
+	 */
+	public static LogFormat detect(File file) {
+		byte[] bytes = new byte[MAGIC_LENGTH];
+
+		try (InputStream inputStream = new FileInputStream(file)) {
+			int read = 0;
+			int count;
+
+			while (read < bytes.length && (count = inputStream.read(bytes, read, bytes.length - read)) > 0) {
+				read += count;
+			}
+
+			return read == bytes.length ? detect(bytes) : TEXT;
+		} catch (IOException exception) {
+			return TEXT;
+		}
+	}
+
+	public static LogFormat detect(RandomAccessFile file) throws IOException {
+		if (file.length() < MAGIC_LENGTH) {
+			return TEXT;
+		}
+
+		byte[] bytes = new byte[MAGIC_LENGTH];
+		file.seek(0);
+		file.readFully(bytes);
+
+		return detect(bytes);
+	}
+
+	private static LogFormat detect(byte[] bytes) {
+		for (LogFormat format : values()) {
+			if (format.magic != null && Arrays.equals(bytes, format.magic)) {
+				return format;
+			}
+		}
+
+		return TEXT;
+	}
+}
@@ -11,6 +11,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 public class LogLine {
+	private static final Logger logger = Logger.getLogger(LogLine.class);
+
 	private long timestamp;
 	private String jsonString;
 	private boolean jsonParsed;
@@ -38,7 +40,8 @@ public class LogLine {
 	 * This method is used to deserialize a given LogLine instance from a String value. This is almost
 	 * always read from a file which is written to using serialize method above.
 	 *
-	 * It consists of two parts separated by a comma (,): timestamp and json.
+	 * It consists of two parts separated by a comma (,): timestamp and json. If string isn't a valid
+	 * LogLine (e.g. a line torn when capture was killed), null is returned.
 	 */
 	public static LogLine deserailize(String logLineString) {
 		String[] lineSegments = logLineString.split(",", 2);
@@ -47,12 +50,53 @@ public class LogLine {
 			return null;
 		}
 
-		long timestamp = Long.parseLong(lineSegments[0]);
+		long timestamp;
+		try {
+			timestamp = Long.parseLong(lineSegments[0]);
+		} catch (NumberFormatException exception) {
+			return null;
+		}
+
 		String jsonString = lineSegments[1];
 		
 		return new LogLine(timestamp, jsonString);
 	}
 
+	/**
+	 * Returns the timestamp (milliseconds since epoch) when LogLine was captured.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the JSON string held by LogLine exactly as it was received from the device.
+	 */
+	public String getJsonString() {
+		return jsonString;
+	}
+
+	/**
+	 * Returns the type of the message held by LogLine (e.g. fm) without parsing the JSON string. Every
+	 * message sent by devices is an object with a single key which is the type, so it is enough to
+	 * look at the first key. If it cannot be determined, null is returned.
+	 */
+	public String getType() {
+		return getType(jsonString);
+	}
+
+	/**
+	 * Same as above, for a JSON string that isn't (yet) in a LogLine.
+	 */
+	public static String getType(String jsonString) {
+		if (!jsonString.startsWith("{\"")) {
+			return null;
+		}
+
+		int end = jsonString.indexOf('"', 2);
+		return end < 0 ? null : jsonString.substring(2, end);
+	}
+
 	/**
 	 * Returns whether or not timestamp provided is before LogLine's timestamp.
 	 */
@@ -600,7 +644,7 @@ public class LogLine {
 		    }
 		   
 		} else {
-			LoggingUtils.WARN("Unexpected provided; don't know how to format this line: %s", jsonString);
+			logger.warn("Unexpected provided; don't know how to format this line: %s", jsonString);
 		}
 
 		return fields;
@@ -622,7 +666,7 @@ public class LogLine {
 				jsonObject = new JSONObject(jsonString);
 				jsonParsed = true;
 			} catch (JSONException exception) {
-				LoggingUtils.ERROR("Failed to parse string as JSON: %s", exception.getMessage());
+				logger.error("Failed to parse string as JSON: %s", exception.getMessage());
 			}
 		}
 	}
@@ -47,4 +47,21 @@ public class LogLineColumnNames {
 	public static final String PS_HEATSINK_TEMPERATURE = "Heatsink Temp";
 
 	public static final String PA_PS_ENABLE = "PA & PS Enable";
+
+	public static final String SOURCE = "Source";
+	public static final String DEVICE = "Device";
+
+	public static final String CHANNEL = "Channel";
+	public static final String MIN = "Min";
+	public static final String MAX = "Max";
+	public static final String AVERAGE = "Avg";
+	public static final String LAST = "Last";
+	public static final String COUNT = "Count";
+
+	public static final String EVENT = "Event";
+	public static final String TYPE = "Type";
+	public static final String OFFSET = "Offset (ms)";
+	public static final String BEFORE = "Before";
+	public static final String AFTER = "After";
+	public static final String RECEIVED = "Received (UTC)";
 }
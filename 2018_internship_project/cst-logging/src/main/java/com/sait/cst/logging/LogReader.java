@@ -1,25 +1,89 @@
 package com.sait.cst.logging;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class LogReader {
-	private BufferedReader bufferedReader;
+	private static final Logger logger = Logger.getLogger(LogReader.class);
+
+	private File file;
+
+	// text files are read in chunks of bytes and lines are copied into lineBuffer, so lines which
+	// aren't wanted never become Strings (see LogCursor).
+	private InputStream textStream;
+	private byte[] textBuffer;
+	private int textPosition;
+	private int textLimit;
+	private byte[] lineBuffer = new byte[4096];
+	private int lineLength;
+	private long parsedTimestamp;
+	private final LogCursor cursor = new LogCursor();
+
+	// framed files (see FramedLogFormat) are read as records instead of lines.
+	private LogFormat format;
+	private boolean framed;
+	private DataInputStream inputStream;
+	private long position;
+	private byte[] buffer = new byte[4096];
+
+	// dictionary files (see DictionaryCodec) are decoded with the dictionary read so far. when only one
+	// type of message is wanted, others are skipped by comparing dictionary ids, without decoding.
+	private DictionaryCodec codec;
+	private StringBuilder builder;
+	private String typeFilter;
+	private int typeFilterId = -1;
+
+	// time series files (see TimeSeriesCodec) hold blocks of messages, served one by one from the last
+	// block read.
+	private TimeSeriesCodec series;
+	private int blockIndex;
+	// whether the last message readTelemetryRecord returned came from the block; see getTelemetryText.
+	private boolean seriesRecord;
+
+	// what readMatchingLogLine looks for; see startMatching.
+	private long matchStartTimestamp;
+	private long matchEndTimestamp;
+	private boolean matchDone;
+
+	// what the last getMatchingLogLines did, for metrics; see QueryApplication.
+	private long scannedCount;
+	private long skippedCount;
+	private boolean skippedByIndex;
 
 	/**
-	 * Creates a LogReader instance given a file handle. This will internally create a BufferedReader
-	 * so lines can be read from the file. If file doesn't exist, program will terminate.
+	 * Creates a LogReader instance given a file handle. This will internally open the file so lines
+	 * can be read from it, or a stream of records if it is a framed file. If file
+	 * can't be opened (e.g. compaction or retention removed it since it was listed), an exception is
+	 * thrown for the caller to report, so a serve or agent process keeps answering other requests.
 	 */
-	public LogReader(File file) {
-		try {
-			this.bufferedReader = FileUtils.createBufferedReader(file);
-		} catch (FileNotFoundException exception) {
-			LoggingUtils.ERROR("Failed to open file because it doesn't exist: %s", exception.getMessage());
-			System.exit(-2);
+	public LogReader(File file) throws IOException {
+		this.file = file;
+		this.format = LogFormat.detect(file);
+		this.framed = format.isFramed();
+
+		if (format == LogFormat.DICTIONARY || format == LogFormat.TIMESERIES) {
+			this.codec = new DictionaryCodec();
+			this.builder = new StringBuilder();
+		}
+
+		if (format == LogFormat.TIMESERIES) {
+			this.series = new TimeSeriesCodec();
+		}
+
+		if (framed) {
+			openFramed(LogFormat.MAGIC_LENGTH);
+		} else {
+			openText(0);
 		}
 	}
 
@@ -27,51 +91,544 @@ public class LogReader {
 	 * This method is used to get matching log lines given an expected type (e.g. fm, cc), a start timestamp
 	 * and an endTimestamp. Method will iterate over the lines in the file and make perform checks to
 	 * make sure conditions are met.
+	 *
+	 * If file has an up-to-date SegmentIndex, it is used to skip the file entirely when it can't have
+	 * matching lines, or to start reading close to the start timestamp.
 	 */
 	public List<LogLine> getMatchingLogLines(String type, long startTimestamp, long endTimestamp) {
-		LoggingUtils.DEBUG("Collecting matching logs for type=%s startTimestamp=%d endTimestamp=%d.", type, startTimestamp, endTimestamp);
+		return getMatchingLogLines(type, startTimestamp, endTimestamp, SegmentIndex.load(file));
+	}
+
+	/**
+	 * Same as above, using the given index of the file (e.g. one kept in memory by LogCatalog), or
+	 * none if it is null.
+	 */
+	public List<LogLine> getMatchingLogLines(String type, long startTimestamp, long endTimestamp, SegmentIndex index) {
+		logger.debug("Collecting matching logs for type=%s startTimestamp=%d endTimestamp=%d.", type, startTimestamp, endTimestamp);
 
 		// initialize a list of LogLine instances which will be used to collect matching lines.
 		List<LogLine> logLines = new ArrayList<>();
 
 		try {
-			String line;
-
-			// until end of the file is reached, read line by line.
-			// every line consists of a comma-separated value:
-			// - timestamp: milliseconds since epoch. it can be converted into a date
-			// - json: string which can be parsed as a JSON object for further analysis.
-			while ((line = bufferedReader.readLine()) != null) {
-				LogLine logLine = LogLine.deserailize(line);
-				if (logLine == null) {
-					LoggingUtils.ERROR("Failed to parse line as LogLine: %s", line);
+			if (!startMatching(type, startTimestamp, endTimestamp, index)) {
+				return logLines;
+			}
+
+			LogLine logLine;
+			while ((logLine = readMatchingLogLine()) != null) {
+				logLines.add(logLine);
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to read lines from file: %s", exception.getMessage());
+		} finally {
+			close();
+		}
+
+		return logLines;
+	}
+
+	/**
+	 * Gets ready to read lines matching type and time range one at a time with readMatchingLogLine,
+	 * e.g. to merge lines of several files in timestamp order; getMatchingLogLines reads them all at
+	 * once. Returns false if the index shows the file has no matching lines.
+	 */
+	public boolean startMatching(String type, long startTimestamp, long endTimestamp, SegmentIndex index) {
+		typeFilter = type;
+		matchStartTimestamp = startTimestamp;
+		matchEndTimestamp = endTimestamp;
+		matchDone = false;
+		scannedCount = 0;
+		skippedCount = 0;
+		skippedByIndex = false;
+
+		if (index != null) {
+			if (!index.mayContain(type, startTimestamp, endTimestamp)) {
+				logger.debug("Skipping file based on its index: %s", file.getName());
+				skippedByIndex = true;
+				matchDone = true;
+				return false;
+			}
+
+			seek(index.getOffset(startTimestamp));
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the next line matching what startMatching was given, or null once there are no more.
+	 */
+	public LogLine readMatchingLogLine() throws IOException {
+		// until end of the file is reached, read line by line.
+		// every line consists of a comma-separated value:
+		// - timestamp: milliseconds since epoch. it can be converted into a date
+		// - json: string which can be parsed as a JSON object for further analysis.
+		//
+		// lines are looked at through the cursor, so only matching ones are turned into LogLines.
+		while (!matchDone && readCursor(cursor)) {
+			scannedCount++;
+
+			// if timestamp read is before start, then skip.
+			if (cursor.isBefore(matchStartTimestamp)) {
+				skippedCount++;
+				continue;
+			}
+
+			// if timestamp read is after end, then stop processing.
+			if (cursor.isAfter(matchEndTimestamp)) {
+				break;
+			}
+
+			// if line isn't expected type, then skip. the first key is checked first so JSON is only
+			// parsed for lines which are most likely matching.
+			if (!cursor.isType(typeFilter)) {
+				skippedCount++;
+				continue;
+			}
+
+			LogLine logLine = cursor.toLogLine();
+			if (!logLine.is(typeFilter)) {
+				skippedCount++;
+				continue;
+			}
+
+			// if we made it this far, it is a match.
+			return logLine;
+		}
+
+		matchDone = true;
+		return null;
+	}
+
+	/**
+	 * Returns how many messages the last getMatchingLogLines read.
+	 */
+	public long getScannedCount() {
+		return scannedCount;
+	}
+
+	/**
+	 * Returns how many messages the last getMatchingLogLines read but didn't match.
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Returns whether the last getMatchingLogLines skipped the file entirely because of its index.
+	 */
+	public boolean isSkippedByIndex() {
+		return skippedByIndex;
+	}
+
+	/**
+	 * Reads the next line from the file as a LogLine. Lines that can't be parsed are reported and
+	 * skipped. When end of the file is reached, null is returned.
+	 */
+	public LogLine readLogLine() throws IOException {
+		return readCursor(cursor) ? cursor.toLogLine() : null;
+	}
+
+	/**
+	 * Reads the next line from the file into cursor, without allocating anything for lines of text
+	 * and plain framed files; see LogCursor. Lines that can't be parsed are reported and skipped. When
+	 * end of the file is reached, false is returned.
+	 */
+	public boolean readCursor(LogCursor cursor) throws IOException {
+		if (framed) {
+			return readRecord(cursor);
+		}
+
+		while (readLine()) {
+			// same as LogLine.deserailize: a timestamp, a comma and the JSON string.
+			int separator = 0;
+			while (separator < lineLength && lineBuffer[separator] != ',') {
+				separator++;
+			}
+
+			if (separator < lineLength && parseTimestamp(separator)) {
+				cursor.set(parsedTimestamp, lineBuffer, separator + 1, lineLength - separator - 1);
+				return true;
+			}
+
+			logger.error("Failed to parse line as LogLine: %s", new String(lineBuffer, 0, lineLength, StandardCharsets.UTF_8));
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads the next message from the file decoded into record (see TelemetryDecoder), skipping those
+	 * which can't be decoded. When end of the file is reached, false is returned.
+	 *
+	 * Messages of time series files are filled straight from their numeric columns, without going
+	 * through text; others are decoded from their text with decoder.
+	 */
+	public boolean readTelemetryRecord(TelemetryRecord record, TelemetryDecoder decoder) throws IOException {
+		while (true) {
+			if (series != null && blockIndex < series.getBlockSize()) {
+				int index = blockIndex++;
+
+				if (series.fill(index, record, decoder, builder)
+						|| decoder.decode(series.getTimestamp(index), series.decode(index, codec, builder), record)) {
+					seriesRecord = true;
+					return true;
+				}
+
+				continue;
+			}
+
+			if (!readCursor(cursor)) {
+				return false;
+			}
+
+			if (decoder.decode(cursor.getTimestamp(), cursor.getJsonString(), record)) {
+				seriesRecord = false;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the text of the message readTelemetryRecord returned last, for what isn't a numeric
+	 * channel of it (e.g. strings). Time series messages are only turned back into text here.
+	 */
+	public String getTelemetryText() {
+		return seriesRecord ? series.decode(blockIndex - 1, codec, builder) : cursor.getJsonString();
+	}
+
+	/**
+	 * Releases the file handle held by LogReader.
+	 */
+	public void close() {
+		try {
+			if (framed) {
+				inputStream.close();
+			} else {
+				textStream.close();
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to close file (%s): %s", file.getName(), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Re-opens the file so the next line read starts at the given byte offset, e.g. one given by
+	 * SegmentIndex.getOffset.
+	 */
+	public void seek(long offset) {
+		if (offset == 0) {
+			return;
+		}
+
+		try {
+			if (codec != null) {
+				// dictionary is only complete when read from the sync marker before offset.
+				openFramed(getSyncPositionBefore(offset));
+			} else if (framed) {
+				openFramed(offset);
+			} else {
+				openText(offset);
+			}
+		} catch (IOException exception) {
+			logger.warn("Failed to seek in file (%s), reading from the start: %s", file.getName(), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the next valid record of a framed file. A damaged record is reported and skipped by
+	 * scanning for the next sync marker; an incomplete record at the end (e.g. one still being written)
+	 * is treated as end of the file.
+	 */
+	private boolean readRecord(LogCursor cursor) throws IOException {
+		while (true) {
+			if (series != null && blockIndex < series.getBlockSize()) {
+				int index = blockIndex++;
+				if (typeFilter != null && !series.isType(index, typeFilter, typeFilterId)) {
 					continue;
 				}
 
-				LoggingUtils.DEBUG("# %s", logLine);
+				cursor.set(series.getTimestamp(index), series.decode(index, codec, builder));
+				return true;
+			}
+
+			long recordStart = position;
+
+			try {
+				inputStream.readFully(buffer, 0, 4);
+			} catch (EOFException exception) {
+				return false;
+			}
+
+			int length = FramedLogFormat.readInt(buffer, 0);
+
+			// a record's length is never negative, so this can only be the first half of a sync marker.
+			if (length < 0) {
+				if (!readFully(4, 4)) {
+					return false;
+				}
+
+				if (FramedLogFormat.isSyncMarker(buffer, 0, 8)) {
+					position += FramedLogFormat.SYNC_MARKER_LENGTH;
+					clearDictionary();
+				} else {
+					skipDamagedRecord(recordStart);
+				}
+
+				continue;
+			}
+
+			if (length > FramedLogFormat.MAX_RECORD_LENGTH) {
+				skipDamagedRecord(recordStart);
+				continue;
+			}
+
+			if (buffer.length < FramedLogFormat.HEADER_LENGTH + length) {
+				buffer = Arrays.copyOf(buffer, FramedLogFormat.HEADER_LENGTH + length);
+			}
+
+			if (!readFully(4, FramedLogFormat.HEADER_LENGTH - 4 + length)) {
+				return false;
+			}
+
+			if (FramedLogFormat.getValidRecordLength(buffer, 0, FramedLogFormat.HEADER_LENGTH + length) < 0) {
+				skipDamagedRecord(recordStart);
+				continue;
+			}
+
+			position += FramedLogFormat.HEADER_LENGTH + length;
+
+			if (codec != null) {
+				int end = FramedLogFormat.HEADER_LENGTH + length;
+
+				if (length > 0 && buffer[FramedLogFormat.HEADER_LENGTH] == DictionaryCodec.DEFINITION) {
+					String string = codec.define(buffer, FramedLogFormat.HEADER_LENGTH, end);
+					if (typeFilterId < 0 && string.equals(typeFilter)) {
+						typeFilterId = codec.size() - 1;
+					}
 
-				// if timestamp read is before start, then skip.
-				if (logLine.isBefore(startTimestamp)) {
 					continue;
 				}
 
-				// if timestamp read is after end, then stop processing.
-				if (logLine.isAfter(endTimestamp)) {
-					break;
+				if (series != null && length > 0 && buffer[FramedLogFormat.HEADER_LENGTH] == TimeSeriesCodec.TEMPLATE) {
+					series.defineTemplate(buffer, FramedLogFormat.HEADER_LENGTH, end);
+					continue;
 				}
-				
-				// if logLine isn't expected type, then skip.
-				if (!logLine.is(type)) {
+
+				if (series != null && length > 0 && buffer[FramedLogFormat.HEADER_LENGTH] == TimeSeriesCodec.BLOCK) {
+					series.decodeBlock(buffer, FramedLogFormat.HEADER_LENGTH, end, FramedLogFormat.readLong(buffer, 8));
+					blockIndex = 0;
 					continue;
 				}
 
-				// if we made it this far, add it to matching list.
-				logLines.add(logLine);
+				int typeId = DictionaryCodec.getFirstId(buffer, FramedLogFormat.HEADER_LENGTH, end);
+				if (typeFilter != null && typeId >= 0 && typeId != typeFilterId) {
+					continue;
+				}
+
+				cursor.set(FramedLogFormat.readLong(buffer, 8), codec.decode(buffer, FramedLogFormat.HEADER_LENGTH, end, builder));
+				return true;
+			}
+
+			cursor.set(FramedLogFormat.readLong(buffer, 8), buffer, FramedLogFormat.HEADER_LENGTH, length);
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the next line of a text file into lineBuffer (lineLength bytes, without its line ending).
+	 * Returns false at the end of the file.
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+
+		while (true) {
+			if (textPosition == textLimit) {
+				textLimit = textStream.read(textBuffer);
+				textPosition = 0;
+
+				if (textLimit <= 0) {
+					textLimit = 0;
+					if (lineLength == 0) {
+						return false;
+					}
+
+					// last line of the file has no line ending.
+					break;
+				}
+			}
+
+			int end = textPosition;
+			while (end < textLimit && textBuffer[end] != '\n') {
+				end++;
+			}
+
+			int length = end - textPosition;
+			if (lineLength + length > lineBuffer.length) {
+				lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + length));
+			}
+
+			System.arraycopy(textBuffer, textPosition, lineBuffer, lineLength, length);
+			lineLength += length;
+
+			if (end < textLimit) {
+				textPosition = end + 1;
+				break;
+			}
+
+			textPosition = textLimit;
+		}
+
+		if (lineLength > 0 && lineBuffer[lineLength - 1] == '\r') {
+			lineLength--;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses the timestamp at the start of lineBuffer, up to end, into parsedTimestamp. Returns false
+	 * if it isn't a number, like Long.parseLong would.
+	 */
+	private boolean parseTimestamp(int end) {
+		int start = lineBuffer[0] == '-' || lineBuffer[0] == '+' ? 1 : 0;
+		if (start == end || end - start > 18) {
+			// longer numbers may overflow; they are left to Long.parseLong.
+			try {
+				parsedTimestamp = Long.parseLong(new String(lineBuffer, 0, end, StandardCharsets.UTF_8));
+				return true;
+			} catch (NumberFormatException exception) {
+				return false;
+			}
+		}
+
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = lineBuffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
 			}
+
+			value = value * 10 + digit;
+		}
+
+		parsedTimestamp = lineBuffer[0] == '-' ? -value : value;
+		return true;
+	}
+
+	/**
+	 * Opens a text file so the next line read starts at the given byte offset.
+	 */
+	private void openText(long offset) throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(file);
+
+		try {
+			fileInputStream.getChannel().position(offset);
 		} catch (IOException exception) {
-			LoggingUtils.ERROR("Failed to read lines from file: %s", exception.getMessage());
+			fileInputStream.close();
+			throw exception;
+		}
+
+		if (textStream != null) {
+			textStream.close();
+		}
+
+		textStream = fileInputStream;
+		textPosition = 0;
+		textLimit = 0;
+		if (textBuffer == null) {
+			textBuffer = new byte[64 * 1024];
+		}
+	}
+
+	/**
+	 * Reads length bytes into buffer at offset. Returns false if the file ends before.
+	 */
+	private boolean readFully(int offset, int length) throws IOException {
+		try {
+			inputStream.readFully(buffer, offset, length);
+			return true;
+		} catch (EOFException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Moves to right after the next sync marker following a damaged record, or to the end of the file
+	 * if there are no more.
+	 */
+	private void skipDamagedRecord(long recordStart) throws IOException {
+		logger.error("Skipping damaged record in %s at offset %d.", file.getName(), recordStart);
+		openFramed(recordStart + 1);
+
+		long window = 0;
+		int count = 0;
+		int b;
+
+		while ((b = inputStream.read()) >= 0) {
+			window = (window << 8) | b;
+			position++;
+
+			if (++count >= FramedLogFormat.SYNC_MARKER_LENGTH && window == FramedLogFormat.SYNC_MARKER) {
+				clearDictionary();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Opens a framed file so the next record read starts at the given byte offset.
+	 */
+	private void openFramed(long offset) throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(file);
+		fileInputStream.getChannel().position(offset);
+
+		if (inputStream != null) {
+			inputStream.close();
+		}
+
+		inputStream = new DataInputStream(new BufferedInputStream(fileInputStream, 64 * 1024));
+		position = offset;
+		clearDictionary();
+	}
+
+	/**
+	 * Returns the position right after the last sync marker before offset, or right after the header
+	 * if there is none. Only up to a sync interval or so has to be read backwards to find it.
+	 */
+	private long getSyncPositionBefore(long offset) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			long end = Math.min(offset, randomAccessFile.length());
+
+			while (end > LogFormat.MAGIC_LENGTH) {
+				long start = Math.max(LogFormat.MAGIC_LENGTH, end - FramedLogFormat.SYNC_INTERVAL);
+				byte[] window = new byte[(int) (end - start)];
+				randomAccessFile.seek(start);
+				randomAccessFile.readFully(window);
+
+				for (int i = window.length - FramedLogFormat.SYNC_MARKER_LENGTH; i >= 0; i--) {
+					if (FramedLogFormat.isSyncMarker(window, i, window.length)) {
+						return start + i + FramedLogFormat.SYNC_MARKER_LENGTH;
+					}
+				}
+
+				// a marker may straddle windows, so they overlap by its length.
+				end = start == LogFormat.MAGIC_LENGTH ? start : start + FramedLogFormat.SYNC_MARKER_LENGTH - 1;
+			}
+		}
+
+		return LogFormat.MAGIC_LENGTH;
+	}
+
+	private void clearDictionary() {
+		if (codec != null) {
+			codec.clear();
+			typeFilterId = -1;
+		}
+
+		if (series != null) {
+			series.clearScope();
+			series.clearBlock();
 		}
-		
-		return logLines;
 	}
 }
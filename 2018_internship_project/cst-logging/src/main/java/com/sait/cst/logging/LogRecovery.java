@@ -0,0 +1,192 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LogRecovery {
+	private static final Logger logger = Logger.getLogger(LogRecovery.class);
+
+	// how much of the end of a file is looked at first; it always holds at least one sync marker
+	// unless a single record is bigger than that.
+	private static final int TAIL_WINDOW = 2 * FramedLogFormat.SYNC_INTERVAL;
+
+	/**
+	 * Recovers every log file in the directory which was left incomplete, e.g. when capture was
+	 * killed before it could finish writing, and builds again the rollups it left incomplete. Files
+	 * being written to by another capture are skipped.
+	 */
+	public static void recoverDirectory(File directory) {
+		File[] logFiles = FileUtils.listLogFiles(directory);
+		File[] partitionDirectories = FileUtils.listPartitionDirectories(directory);
+		if (logFiles == null || partitionDirectories == null) {
+			logger.error("Failed to list files in directory (%s).", directory.getPath());
+			return;
+		}
+
+		// partitions of partitioned captures (see PartitionedLogWriter) are recovered like any log file.
+		List<File> files = new ArrayList<>(Arrays.asList(logFiles));
+		for (File partitionDirectory : partitionDirectories) {
+			File[] partitions = FileUtils.listLogFiles(partitionDirectory);
+			if (partitions != null) {
+				files.addAll(Arrays.asList(partitions));
+			}
+		}
+
+		for (File logFile : files) {
+			try {
+				long removed = recover(logFile);
+				if (removed > 0) {
+					logger.warn("Recovered %s by removing %d byte(s) of incomplete data at its end.", logFile.getName(), removed);
+				}
+			} catch (IOException exception) {
+				logger.error("Failed to recover file (%s): %s", logFile.getName(), exception.getMessage());
+			}
+		}
+
+		// rollups of a partitioned capture are named after it, as if it was a single log file.
+		List<File> capturedFiles = new ArrayList<>(Arrays.asList(logFiles));
+		for (File partitionDirectory : partitionDirectories) {
+			capturedFiles.add(new File(directory, partitionDirectory.getName() + "." + Application.LOG_FILENAME_EXTENSION));
+		}
+
+		for (File logFile : capturedFiles) {
+			recoverRollups(logFile);
+		}
+	}
+
+	/**
+	 * Builds again the rollups of a log file whose capture was killed before it could write them out.
+	 * Files captured without rollups are left alone.
+	 */
+	private static void recoverRollups(File logFile) {
+		boolean hasRollups = false;
+		for (RollupResolution resolution : RollupResolution.values()) {
+			hasRollups |= resolution.getRollupFile(logFile).exists();
+		}
+
+		if (!hasRollups || RollupAggregator.hasCompleteRollups(logFile) || RollupAggregator.isBeingCaptured(logFile)) {
+			return;
+		}
+
+		try {
+			RollupAggregator.backfill(logFile);
+			logger.warn("Recovered rollups of %s.", logFile.getName());
+		} catch (IOException exception) {
+			logger.error("Failed to recover rollups of %s: %s", logFile.getName(), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Truncates a log file to its last complete message and returns how many bytes were removed:
+	 * - framed files are cut after the last record whose checksum matches.
+	 * - text files are cut after the last complete line.
+	 *
+	 * Only the tail of the file is read (starting from the last sync marker for framed files), so
+	 * recovering takes the same time however big the file is.
+	 */
+	public static long recover(File logFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+			FileChannel channel = file.getChannel();
+			FileLock lock;
+
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException exception) {
+				// being written to by this program.
+				return 0;
+			}
+
+			// being written to by another program.
+			if (lock == null) {
+				return 0;
+			}
+
+			try {
+				long length = file.length();
+				long validLength = LogFormat.detect(file).isFramed() ? getFramedValidLength(file, length) : getTextValidLength(file, length);
+
+				if (validLength < length) {
+					channel.truncate(validLength);
+				}
+
+				return length - validLength;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	private static long getFramedValidLength(RandomAccessFile file, long length) throws IOException {
+		long headerLength = LogFormat.MAGIC_LENGTH;
+		long windowStart = Math.max(headerLength, length - TAIL_WINDOW);
+
+		while (true) {
+			byte[] window = read(file, windowStart, length);
+			int start = -1;
+
+			for (int i = window.length - FramedLogFormat.SYNC_MARKER_LENGTH; i >= 0; i--) {
+				if (FramedLogFormat.isSyncMarker(window, i, window.length)) {
+					start = i;
+					break;
+				}
+			}
+
+			// records are only known to start at a sync marker or right after the header, so the window
+			// grows until it reaches one of them.
+			if (start < 0 && windowStart > headerLength) {
+				windowStart = Math.max(headerLength, length - 2 * (length - windowStart));
+				continue;
+			}
+
+			int position = Math.max(start, 0);
+			while (true) {
+				if (FramedLogFormat.isSyncMarker(window, position, window.length)) {
+					position += FramedLogFormat.SYNC_MARKER_LENGTH;
+					continue;
+				}
+
+				int recordLength = FramedLogFormat.getValidRecordLength(window, position, window.length);
+				if (recordLength < 0) {
+					return windowStart + position;
+				}
+
+				position += recordLength;
+			}
+		}
+	}
+
+	private static long getTextValidLength(RandomAccessFile file, long length) throws IOException {
+		long windowStart = Math.max(0, length - TAIL_WINDOW);
+
+		while (true) {
+			byte[] window = read(file, windowStart, length);
+
+			for (int i = window.length - 1; i >= 0; i--) {
+				if (window[i] == '\n') {
+					return windowStart + i + 1;
+				}
+			}
+
+			if (windowStart == 0) {
+				return 0;
+			}
+
+			windowStart = Math.max(0, length - 2 * (length - windowStart));
+		}
+	}
+
+	private static byte[] read(RandomAccessFile file, long start, long end) throws IOException {
+		byte[] bytes = new byte[(int) (end - start)];
+		file.seek(start);
+		file.readFully(bytes);
+
+		return bytes;
+	}
+}
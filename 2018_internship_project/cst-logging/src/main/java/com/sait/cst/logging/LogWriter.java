@@ -0,0 +1,342 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public abstract class LogWriter {
+	protected final FileOutputStream fileOutputStream;
+	private final FileLock lock;
+	protected long position = 0;
+	private boolean closed = false;
+
+	/**
+	 * Opens file for writing and locks it, so recovery (see LogRecovery) run by another capture on
+	 * the same directory leaves it alone while it is being written to.
+	 */
+	protected LogWriter(File file) throws IOException {
+		this.fileOutputStream = new FileOutputStream(file);
+		this.lock = fileOutputStream.getChannel().tryLock();
+	}
+
+	/**
+	 * For writers which don't write a single file themselves (see PartitionedLogWriter); they must
+	 * override close.
+	 */
+	protected LogWriter() {
+		this.fileOutputStream = null;
+		this.lock = null;
+	}
+
+	/**
+	 * Creates a LogWriter for a new log file in the format set by cst.capture.format (see LogFormat).
+	 * If file already exists, an exception is thrown as it is not desirable to overwrite existing log
+	 * files.
+	 */
+	public static LogWriter create(File file) throws IOException {
+		if (file.exists()) {
+			throw new FileAlreadyExistsException(file.getAbsolutePath());
+		}
+
+		return create(file, LogFormat.getDefault());
+	}
+
+	/**
+	 * Creates a LogWriter for the given file (replacing it if it exists) in the given format.
+	 */
+	public static LogWriter create(File file, LogFormat format) throws IOException {
+		switch (format) {
+		case FRAMED:
+			return new FramedLogWriter(file, format);
+		case DICTIONARY:
+			return new DictionaryLogWriter(file);
+		case TIMESERIES:
+			return new TimeSeriesLogWriter(file);
+		default:
+			return new TextLogWriter(file);
+		}
+	}
+
+	/**
+	 * Returns whether a LogWriter, in this program or another, is still writing file.
+	 */
+	public static boolean isLocked(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			FileLock fileLock = channel.tryLock(0, Long.MAX_VALUE, true);
+			if (fileLock == null) {
+				return true;
+			}
+
+			fileLock.release();
+			return false;
+		} catch (OverlappingFileLockException exception) {
+			return true;
+		} catch (IOException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a message received at timestamp and returns how many bytes it took in the file. Formats
+	 * which buffer messages (see TimeSeriesCodec) may return 0 and write more on a later call.
+	 */
+	public abstract long write(long timestamp, String text) throws IOException;
+
+	/**
+	 * Hands everything written so far to the operating system, so it survives the program being killed.
+	 */
+	public abstract void flush() throws IOException;
+
+	/**
+	 * Returns the byte offset in the file where the next message will be written.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		try {
+			flush();
+		} finally {
+			if (lock != null && lock.isValid()) {
+				lock.release();
+			}
+
+			getOutputStream().close();
+		}
+	}
+
+	protected abstract OutputStream getOutputStream();
+
+	/**
+	 * Writes messages as serialized LogLines, one per line.
+	 */
+	private static class TextLogWriter extends LogWriter {
+		private static final int LINE_SEPARATOR_LENGTH = System.lineSeparator().length();
+		private final BufferedWriter writer;
+
+		TextLogWriter(File file) throws IOException {
+			super(file);
+			this.writer = new BufferedWriter(new OutputStreamWriter(fileOutputStream));
+		}
+
+		@Override
+		public long write(long timestamp, String text) throws IOException {
+			String line = LogLine.serialize(new LogLine(timestamp, text));
+			writer.write(line);
+			writer.newLine();
+
+			long length = line.getBytes().length + LINE_SEPARATOR_LENGTH;
+			position += length;
+
+			return length;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writer.flush();
+		}
+
+		@Override
+		protected OutputStream getOutputStream() {
+			return fileOutputStream;
+		}
+	}
+
+	/**
+	 * Writes messages as framed records with checksums and periodic sync markers; see FramedLogFormat.
+	 */
+	private static class FramedLogWriter extends LogWriter {
+		private final BufferedOutputStream outputStream;
+		private final byte[] syncMarker = new byte[FramedLogFormat.SYNC_MARKER_LENGTH];
+		private byte[] buffer = new byte[4096];
+		private long lastSyncPosition;
+
+		FramedLogWriter(File file, LogFormat format) throws IOException {
+			super(file);
+			this.outputStream = new BufferedOutputStream(fileOutputStream, 64 * 1024);
+			this.outputStream.write(format.getMagic());
+			this.position = LogFormat.MAGIC_LENGTH;
+			this.lastSyncPosition = position;
+
+			FramedLogFormat.writeLong(syncMarker, 0, FramedLogFormat.SYNC_MARKER);
+		}
+
+		@Override
+		public long write(long timestamp, String text) throws IOException {
+			long start = position;
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+			writeSyncMarker();
+			writeRecord(timestamp, bytes, bytes.length);
+
+			return position - start;
+		}
+
+		/**
+		 * Writes a sync marker if enough was written since the last one. Sync markers let recovery find
+		 * a record boundary by looking at the tail of the file only. Returns whether one was written.
+		 */
+		protected boolean writeSyncMarker() throws IOException {
+			if (position - lastSyncPosition < FramedLogFormat.SYNC_INTERVAL) {
+				return false;
+			}
+
+			outputStream.write(syncMarker);
+			position += syncMarker.length;
+			lastSyncPosition = position;
+
+			return true;
+		}
+
+		protected void writeRecord(long timestamp, byte[] payload, int length) throws IOException {
+			if (length > FramedLogFormat.MAX_RECORD_LENGTH) {
+				throw new IOException("Message is too long to write: " + length + " bytes");
+			}
+
+			if (buffer.length < FramedLogFormat.HEADER_LENGTH + length) {
+				buffer = new byte[Math.max(buffer.length * 2, FramedLogFormat.HEADER_LENGTH + length)];
+			}
+
+			int recordLength = FramedLogFormat.encode(timestamp, payload, length, buffer);
+			outputStream.write(buffer, 0, recordLength);
+			position += recordLength;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			outputStream.flush();
+		}
+
+		@Override
+		protected OutputStream getOutputStream() {
+			return outputStream;
+		}
+	}
+
+	/**
+	 * Writes messages as framed records with their strings replaced by dictionary ids; see
+	 * DictionaryCodec.
+	 */
+	private static class DictionaryLogWriter extends FramedLogWriter {
+		private final DictionaryCodec codec = new DictionaryCodec();
+		private final List<String> definitions = new ArrayList<>();
+
+		DictionaryLogWriter(File file) throws IOException {
+			super(file, LogFormat.DICTIONARY);
+		}
+
+		@Override
+		public long write(long timestamp, String text) throws IOException {
+			long start = position;
+
+			// dictionary starts over at every sync marker so readers can start reading at any of them.
+			if (writeSyncMarker()) {
+				codec.clear();
+			}
+
+			definitions.clear();
+			codec.encode(text, definitions);
+
+			for (String definition : definitions) {
+				byte[] bytes = definition.getBytes(StandardCharsets.UTF_8);
+				byte[] payload = new byte[bytes.length + 1];
+				payload[0] = DictionaryCodec.DEFINITION;
+				System.arraycopy(bytes, 0, payload, 1, bytes.length);
+
+				writeRecord(timestamp, payload, payload.length);
+			}
+
+			writeRecord(timestamp, codec.getOutput(), codec.getOutputLength());
+
+			return position - start;
+		}
+	}
+
+	/**
+	 * Writes messages in blocks stored as numeric columns; see TimeSeriesCodec. A block is written once
+	 * it is full, or on flush once its first message is older than cst.capture.block.seconds, which is
+	 * how much capture may lose if it is killed.
+	 */
+	private static class TimeSeriesLogWriter extends FramedLogWriter {
+		private final DictionaryCodec dictionary = new DictionaryCodec();
+		private final TimeSeriesCodec codec = new TimeSeriesCodec();
+		private final List<byte[]> definitions = new ArrayList<>();
+		private final long maxBlockAge = Settings.getLong("cst.capture.block.seconds", 10) * 1000;
+		private long blockStartTime;
+
+		TimeSeriesLogWriter(File file) throws IOException {
+			super(file, LogFormat.TIMESERIES);
+		}
+
+		@Override
+		public long write(long timestamp, String text) throws IOException {
+			long start = position;
+
+			if (codec.getBlockSize() == 0) {
+				blockStartTime = System.currentTimeMillis();
+			}
+
+			if (codec.add(timestamp, text)) {
+				writeBlock();
+			}
+
+			return position - start;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (codec.getBlockSize() > 0 && System.currentTimeMillis() - blockStartTime >= maxBlockAge) {
+				writeBlock();
+			}
+
+			super.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (codec.getBlockSize() > 0) {
+				writeBlock();
+			}
+
+			super.close();
+		}
+
+		private void writeBlock() throws IOException {
+			long timestamp = codec.getTimestamp(0);
+
+			// templates and dictionary start over at every sync marker so readers can start reading at
+			// any of them.
+			if (writeSyncMarker()) {
+				dictionary.clear();
+				codec.clearScope();
+			}
+
+			definitions.clear();
+			codec.encodeBlock(dictionary, definitions);
+
+			for (byte[] definition : definitions) {
+				writeRecord(timestamp, definition, definition.length);
+			}
+
+			writeRecord(timestamp, codec.getOutput(), codec.getOutputLength());
+		}
+	}
+}
@@ -0,0 +1,496 @@
+package com.sait.cst.logging;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.json.JSONObject;
+
+public class Logger {
+	public static final String OBJECT_NAME = "com.sait.cst.logging:type=Logging";
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	// levels set at runtime (see setLevel) by component; ROOT applies to components without their own.
+	private static final String ROOT = "";
+	private static final ConcurrentMap<String, Level> levels = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<>();
+
+	// only used while printing, which is synchronized.
+	private static final SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+	private static Boolean json;
+
+	private final String component;
+	private volatile Level level;
+
+	/**
+	 * Creates a Logger for a component of the program (e.g. LogReader); see getLogger.
+	 */
+	private Logger(String component) {
+		this.component = component;
+	}
+
+	/**
+	 * Returns the Logger of a class, named after it. Messages below its level (cst.log.level.<name>,
+	 * or cst.log.level for all components, INFO by default) cost a single check: nothing is formatted
+	 * or allocated for them, as long as they are logged with up to two arguments (more need a varargs
+	 * array; hot paths should check isEnabled first). Others are handed to a background thread
+	 * through a ring buffer, and only formatted and printed there, so logging never waits on the
+	 * console; arguments must therefore not be changed once logged. If the buffer is full, messages
+	 * are dropped and how many is reported later rather than holding up the caller.
+	 *
+	 * Messages are printed to the standard output as they always were ([INFO] [date] message), or as
+	 * JSON objects with component and thread too if cst.log.format is json. Levels can be changed
+	 * while running, see setLevel.
+	 */
+	public static Logger getLogger(Class<?> type) {
+		return getLogger(type.getSimpleName());
+	}
+
+	public static Logger getLogger(String component) {
+		Logger logger = loggers.get(component);
+
+		if (logger == null) {
+			Logger created = new Logger(component);
+			logger = loggers.putIfAbsent(component, created);
+			if (logger == null) {
+				logger = created;
+			}
+		}
+
+		return logger;
+	}
+
+	/**
+	 * Changes the level of a component (or of every component without its own level if component is
+	 * null) from now on. A null level goes back to the one set by settings.
+	 */
+	public static void setLevel(String component, Level level) {
+		String key = component == null ? ROOT : component;
+
+		if (level == null) {
+			levels.remove(key);
+		} else {
+			levels.put(key, level);
+		}
+
+		// levels are resolved again on next use.
+		for (Logger logger : loggers.values()) {
+			logger.level = null;
+		}
+	}
+
+	/**
+	 * Returns the level of every component which has logged or checked its level so far.
+	 */
+	public static Map<String, Level> getLevels() {
+		Map<String, Level> componentLevels = new TreeMap<>();
+
+		for (Logger logger : loggers.values()) {
+			componentLevels.put(logger.component, logger.getLevel());
+		}
+
+		return componentLevels;
+	}
+
+	/**
+	 * Makes levels visible and changeable through JMX (com.sait.cst.logging:type=Logging), e.g. to turn
+	 * on debug messages of a component of a running capture with jconsole.
+	 */
+	public static void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Levels(), LevelsMBean.class), new ObjectName(OBJECT_NAME));
+		} catch (JMException exception) {
+			getLogger(Logger.class).error("Failed to register logging with JMX: %s", exception.getMessage());
+		}
+	}
+
+	public String getComponent() {
+		return component;
+	}
+
+	public Level getLevel() {
+		Level current = level;
+
+		if (current == null) {
+			current = resolveLevel(component);
+			level = current;
+		}
+
+		return current;
+	}
+
+	public boolean isEnabled(Level messageLevel) {
+		return messageLevel.compareTo(getLevel()) >= 0;
+	}
+
+	public boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
+
+	// a message without arguments is printed as is, so e.g. a message received from a device can be
+	// logged whatever it contains.
+
+	public void debug(String message) {
+		if (isEnabled(Level.DEBUG)) {
+			log(Level.DEBUG, message, null);
+		}
+	}
+
+	public void debug(String format, Object argument) {
+		if (isEnabled(Level.DEBUG)) {
+			log(Level.DEBUG, format, new Object[] { argument });
+		}
+	}
+
+	public void debug(String format, Object argument, Object otherArgument) {
+		if (isEnabled(Level.DEBUG)) {
+			log(Level.DEBUG, format, new Object[] { argument, otherArgument });
+		}
+	}
+
+	public void debug(String format, Object... arguments) {
+		if (isEnabled(Level.DEBUG)) {
+			log(Level.DEBUG, format, arguments);
+		}
+	}
+
+	public void info(String message) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, message, null);
+		}
+	}
+
+	public void info(String format, Object argument) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, format, new Object[] { argument });
+		}
+	}
+
+	public void info(String format, Object argument, Object otherArgument) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, format, new Object[] { argument, otherArgument });
+		}
+	}
+
+	public void info(String format, Object... arguments) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, format, arguments);
+		}
+	}
+
+	public void warn(String message) {
+		if (isEnabled(Level.WARN)) {
+			log(Level.WARN, message, null);
+		}
+	}
+
+	public void warn(String format, Object argument) {
+		if (isEnabled(Level.WARN)) {
+			log(Level.WARN, format, new Object[] { argument });
+		}
+	}
+
+	public void warn(String format, Object argument, Object otherArgument) {
+		if (isEnabled(Level.WARN)) {
+			log(Level.WARN, format, new Object[] { argument, otherArgument });
+		}
+	}
+
+	public void warn(String format, Object... arguments) {
+		if (isEnabled(Level.WARN)) {
+			log(Level.WARN, format, arguments);
+		}
+	}
+
+	public void error(String message) {
+		if (isEnabled(Level.ERROR)) {
+			log(Level.ERROR, message, null);
+		}
+	}
+
+	public void error(String format, Object argument) {
+		if (isEnabled(Level.ERROR)) {
+			log(Level.ERROR, format, new Object[] { argument });
+		}
+	}
+
+	public void error(String format, Object argument, Object otherArgument) {
+		if (isEnabled(Level.ERROR)) {
+			log(Level.ERROR, format, new Object[] { argument, otherArgument });
+		}
+	}
+
+	public void error(String format, Object... arguments) {
+		if (isEnabled(Level.ERROR)) {
+			log(Level.ERROR, format, arguments);
+		}
+	}
+
+	private void log(Level messageLevel, String format, Object[] arguments) {
+		Dispatcher dispatcher = Dispatcher.instance;
+
+		// settings read while the dispatcher is created may log themselves.
+		if (dispatcher == null) {
+			print(System.currentTimeMillis(), messageLevel, component, Thread.currentThread().getName(), format, arguments);
+			return;
+		}
+
+		dispatcher.publish(System.currentTimeMillis(), messageLevel, component, format, arguments);
+	}
+
+	private static Level resolveLevel(String component) {
+		Level level = levels.get(component);
+		if (level != null) {
+			return level;
+		}
+
+		String name = Settings.getString("cst.log.level." + component, null);
+		if (name != null) {
+			return Level.parse(name, Level.INFO);
+		}
+
+		return getRootLevel();
+	}
+
+	private static Level getRootLevel() {
+		Level level = levels.get(ROOT);
+		return level != null ? level : Level.parse(Settings.getString("cst.log.level", null), Level.INFO);
+	}
+
+	/**
+	 * Formats and prints a message. Invalid formats don't fail the caller: the format is printed as is,
+	 * followed by the arguments.
+	 */
+	private static synchronized void print(long timestamp, Level level, String component, String thread, String format, Object[] arguments) {
+		String message;
+
+		if (arguments == null) {
+			message = format;
+		} else {
+			try {
+				message = String.format(format, arguments);
+			} catch (IllegalFormatException exception) {
+				message = format + " " + Arrays.toString(arguments);
+			}
+		}
+
+		if (json == null) {
+			json = Settings.getString("cst.log.format", "text").equals("json");
+		}
+
+		if (json) {
+			System.out.println(String.format("{\"time\":\"%s\",\"level\":\"%s\",\"component\":%s,\"thread\":%s,\"message\":%s}", Instant.ofEpochMilli(timestamp),
+					level, JSONObject.quote(component), JSONObject.quote(thread), JSONObject.quote(message)));
+		} else {
+			System.out.println(String.format("[%s] [%s] %s", level, dateFormat.format(new Date(timestamp)), message));
+		}
+	}
+
+	public enum Level {
+		DEBUG,
+		INFO,
+		WARN,
+		ERROR,
+		OFF;
+
+		/**
+		 * Returns the level with the given name (in any case), or defaultLevel if there is none.
+		 */
+		public static Level parse(String name, Level defaultLevel) {
+			if (name == null) {
+				return defaultLevel;
+			}
+
+			try {
+				return valueOf(name.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException exception) {
+				return defaultLevel;
+			}
+		}
+	}
+
+	/**
+	 * A message waiting in the ring buffer to be printed.
+	 */
+	private static class LogEvent {
+		private long timestamp;
+		private Level level;
+		private String component;
+		private String thread;
+		private String format;
+		private Object[] arguments;
+		private long droppedCount;
+	}
+
+	/**
+	 * Hands messages to the thread printing them. It is created with the first message printed, so
+	 * programs which log nothing never start it. Whatever is in the buffer is printed before the
+	 * program exits; messages logged after that are printed right away.
+	 */
+	private static class Dispatcher {
+		private static final Dispatcher instance = new Dispatcher();
+
+		// ring buffer has a single producer, so loggers take turns.
+		private final RingBuffer<LogEvent> ringBuffer;
+		private final BatchConsumer<LogEvent> consumer;
+		private boolean synchronous = false;
+		private long droppedCount = 0;
+		private volatile long droppedTotal = 0;
+
+		Dispatcher() {
+			int size = Math.max(Settings.getInt("cst.log.buffer.size", DEFAULT_BUFFER_SIZE), 2);
+			size = Integer.bitCount(size) == 1 ? size : Integer.highestOneBit(size) << 1;
+
+			this.ringBuffer = new RingBuffer<>(new RingBuffer.EventFactory<LogEvent>() {
+				@Override
+				public LogEvent newInstance() {
+					return new LogEvent();
+				}
+			}, size, WaitStrategy.create("blocking"));
+
+			this.consumer = new BatchConsumer<>("logging", ringBuffer, ringBuffer.getCursor(), new EventHandler<LogEvent>() {
+				@Override
+				public void onEvent(LogEvent event, long sequence, boolean endOfBatch) {
+					// nothing may escape: the consumer would log it, which waits for this very thread while
+					// the dispatcher stops.
+					try {
+						if (event.droppedCount > 0) {
+							print(event.timestamp, Level.WARN, Logger.class.getSimpleName(), event.thread, "Dropped %d log message(s) as printing couldn't keep up.",
+									new Object[] { event.droppedCount });
+						}
+
+						print(event.timestamp, event.level, event.component, event.thread, event.format, event.arguments);
+					} catch (RuntimeException exception) {
+						System.out.println(String.format("[%s] %s (failed to print: %s)", event.level, event.format, exception));
+					}
+
+					// arguments aren't kept alive until the entry is reused.
+					event.arguments = null;
+				}
+			});
+			ringBuffer.addGatingSequence(consumer.getSequence());
+
+			try {
+				Runtime.getRuntime().addShutdownHook(new Thread("logging-shutdown") {
+					@Override
+					public void run() {
+						Dispatcher.this.stop();
+					}
+				});
+			} catch (IllegalStateException exception) {
+				// already shutting down; messages are printed right away.
+				synchronous = true;
+				return;
+			}
+
+			Metrics.getInstance().registerCounter("cst_log_dropped_messages_total", new Metrics.Gauge() {
+				@Override
+				public long getValue() {
+					return droppedTotal;
+				}
+			});
+
+			consumer.start();
+		}
+
+		void publish(long timestamp, Level level, String component, String format, Object[] arguments) {
+			synchronized (this) {
+				if (!synchronous) {
+					long sequence = ringBuffer.tryNext();
+
+					if (sequence < 0) {
+						droppedCount++;
+						droppedTotal++;
+						return;
+					}
+
+					LogEvent event = ringBuffer.get(sequence);
+					event.timestamp = timestamp;
+					event.level = level;
+					event.component = component;
+					event.thread = Thread.currentThread().getName();
+					event.format = format;
+					event.arguments = arguments;
+					event.droppedCount = droppedCount;
+					droppedCount = 0;
+
+					ringBuffer.publish(sequence);
+					return;
+				}
+			}
+
+			print(timestamp, level, component, Thread.currentThread().getName(), format, arguments);
+		}
+
+		/**
+		 * Prints everything in the buffer, then makes messages print right away. Loggers wait meanwhile
+		 * so messages stay in order.
+		 */
+		synchronized void stop() {
+			if (synchronous) {
+				return;
+			}
+
+			synchronous = true;
+			consumer.stop();
+		}
+	}
+
+	/**
+	 * Levels of components as seen through JMX.
+	 */
+	public interface LevelsMBean {
+		/**
+		 * Returns component=LEVEL for every component known so far.
+		 */
+		String[] getLevels();
+
+		String getRootLevel();
+
+		void setRootLevel(String level);
+
+		void setLevel(String component, String level);
+	}
+
+	private static class Levels implements LevelsMBean {
+		@Override
+		public String[] getLevels() {
+			List<String> componentLevels = new ArrayList<>();
+
+			for (Map.Entry<String, Level> entry : Logger.getLevels().entrySet()) {
+				componentLevels.add(entry.getKey() + "=" + entry.getValue());
+			}
+
+			return componentLevels.toArray(new String[componentLevels.size()]);
+		}
+
+		@Override
+		public String getRootLevel() {
+			return Logger.getRootLevel().toString();
+		}
+
+		@Override
+		public void setRootLevel(String level) {
+			Logger.setLevel(null, Level.parse(level, null));
+		}
+
+		@Override
+		public void setLevel(String component, String level) {
+			Logger.setLevel(component, Level.parse(level, null));
+		}
+	}
+}
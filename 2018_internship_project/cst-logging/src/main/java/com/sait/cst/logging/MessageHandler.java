@@ -1,17 +1,32 @@
 package com.sait.cst.logging;
 
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.neovisionaries.ws.client.WebSocket;
 import com.neovisionaries.ws.client.WebSocketAdapter;
 import com.neovisionaries.ws.client.WebSocketException;
 
 public class MessageHandler extends WebSocketAdapter {
+	private static final Logger logger = Logger.getLogger(MessageHandler.class);
+
 	private boolean ready = false;
-	private BufferedWriter bufferedWriter;
+	private String ipAddress;
+	private LogWriter logWriter;
+	private RollupAggregator rollupAggregator;
+	private AlertEngine alertEngine;
+	private CapturePipeline pipeline;
+	private volatile EventHandler<CaptureEvent> writeListener;
+
+	// see Metrics; kept here so recording doesn't look them up for every message.
+	private LongAdder receivedMessages;
+	private LongAdder writtenMessages;
+	private LongAdder writtenBytes;
+	private Histogram writeLatency;
+	private Histogram flushDuration;
 	private static final SimpleDateFormat filenameDateFormat = new SimpleDateFormat("yyyyMMdd_HHmmss");
 
 	/**
@@ -24,37 +39,79 @@ public class MessageHandler extends WebSocketAdapter {
 	 */
 	public MessageHandler(String baseLoggingDirectoryPath, String ipAddress) {
 		String filename = getFilename(ipAddress);
+		this.ipAddress = ipAddress;
+
+		Metrics metrics = Metrics.getInstance();
+		this.receivedMessages = metrics.getCounter("cst_capture_received_messages_total", "device", ipAddress);
+		this.writtenMessages = metrics.getCounter("cst_capture_written_messages_total", "device", ipAddress);
+		this.writtenBytes = metrics.getCounter("cst_capture_written_bytes_total", "device", ipAddress);
+		this.writeLatency = metrics.getHistogram("cst_capture_write_latency_seconds", "device", ipAddress);
+		this.flushDuration = metrics.getHistogram("cst_capture_flush_duration_seconds", "device", ipAddress);
+
+		// with cst.capture.partitioned, messages are written to a file per type (see PartitionedLogWriter)
+		// in a directory named like the log file; rollups, alerts and spilled messages stay next to it.
+		try {
+			File logFile = new File(baseLoggingDirectoryPath, filename);
+			if (Settings.getBoolean("cst.capture.partitioned", false)) {
+				this.logWriter = new PartitionedLogWriter(PartitionedLogWriter.getDirectory(logFile), LogFormat.getDefault());
+			} else {
+				this.logWriter = LogWriter.create(logFile);
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to open a file (%s) for writing in logging directory (%s): %s", filename, baseLoggingDirectoryPath, exception.getMessage());
+		}
+
+		// rollups are kept next to the log file. capture still works without them, so failing to create
+		// rollup files isn't fatal.
+		try {
+			this.rollupAggregator = new RollupAggregator(new File(baseLoggingDirectoryPath, filename), false);
+		} catch (IOException exception) {
+			logger.error("Failed to open rollup files for %s: %s", filename, exception.getMessage());
+		}
 
+		// alerts are evaluated as messages arrive when there are rules configured; see AlertEngine.
 		try {
-			this.bufferedWriter = FileUtils.createBufferedWriter(baseLoggingDirectoryPath, filename);
+			this.alertEngine = AlertEngine.create(new File(baseLoggingDirectoryPath, filename));
+			if (this.alertEngine != null) {
+				this.alertEngine.start();
+			}
 		} catch (IOException exception) {
-			LoggingUtils.ERROR("Failed to open a file (%s) for writing in logging directory (%s): %s", filename, baseLoggingDirectoryPath, exception.getMessage());
+			logger.error("Failed to set up alerts for %s: %s", filename, exception.getMessage());
 		}
 
-		// mark ready or not depending on whether bufferedWriter creation was successful or not.
-		this.ready = this.bufferedWriter != null;
+		// mark ready or not depending on whether logWriter creation was successful or not.
+		this.ready = this.logWriter != null;
+
+		if (this.ready) {
+			this.pipeline = createPipeline(new File(baseLoggingDirectoryPath, filename));
+			this.pipeline.start();
+		}
 	}
 
 	@Override
 	public void onTextMessage(WebSocket websocket, String text) throws Exception {
-		// this line prints the message received to the screen; it can be commented out to reduce noise
-		// while running the program.
-		LoggingUtils.DEBUG(text);
+		// this line prints the message received to the screen when debug messages are turned on (e.g.
+		// cst.log.level.MessageHandler=DEBUG, or through JMX while running); otherwise it costs a check.
+		logger.debug(text);
 
-		// try and write message received from WebSocket to the file using BufferedWriter. we use LogLine
-		// class to serialize is properly using a timestamp and text received from WebSocket.
-		try {
-			LogLine logLine = new LogLine(System.currentTimeMillis(), text);
-			bufferedWriter.write(LogLine.serialize(logLine));
-			bufferedWriter.newLine();
-		} catch (IOException exception) {
-			LoggingUtils.ERROR("Failed to write to line to log file: %s", exception.getMessage());
-		}
+		// messages are only timestamped here; writing, decoding and everything else happens on the
+		// pipeline's threads so receiving is never held up by disk or by slow consumers.
+		receivedMessages.increment();
+		pipeline.publish(System.currentTimeMillis(), text);
 	}
 
 	@Override
 	public void onTextMessageError(WebSocket websocket, WebSocketException cause, byte[] data) throws Exception {
-		LoggingUtils.ERROR("Failed to receive message from WebSocket: %s", cause.getMessage());
+		logger.error("Failed to receive message from WebSocket: %s", cause.getMessage());
+	}
+
+	/**
+	 * Sets a handler called with every message once it is written to the log file, e.g. to measure how
+	 * long messages take from the device to disk (see SimulateApplication). It runs on the thread
+	 * writing the log file, so it must be quick.
+	 */
+	public void setWriteListener(EventHandler<CaptureEvent> writeListener) {
+		this.writeListener = writeListener;
 	}
 
 	/**
@@ -69,11 +126,118 @@ public class MessageHandler extends WebSocketAdapter {
 	 * to it before application is terminated.
 	 */
 	public void close() {
+		// everything received is handled before files are closed.
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+
 		try {
-			bufferedWriter.close();
+			logWriter.close();
 		} catch (IOException exception) {
-			LoggingUtils.ERROR("Failed to finish writing to log file: %s", exception.getMessage());
+			logger.error("Failed to finish writing to log file: %s", exception.getMessage());
 		}
+
+		if (rollupAggregator != null) {
+			rollupAggregator.close();
+		}
+
+		if (alertEngine != null) {
+			alertEngine.close();
+		}
+	}
+
+	/**
+	 * Creates the pipeline handling received messages: the log file is written straight from received
+	 * messages, while rollups, alerts and latest state are maintained from decoded ones. Each of them
+	 * runs on its own thread.
+	 */
+	private CapturePipeline createPipeline(File logFile) {
+		CapturePipeline pipeline = new CapturePipeline(ipAddress, SpillQueue.getSpillFile(logFile));
+
+		// messages are written with the timestamp they were received at, as lines or framed records
+		// (see LogWriter). writer is flushed whenever the pipeline catches up, so little is lost on a crash.
+		pipeline.addRawHandler("log", new EventHandler<CaptureEvent>() {
+			@Override
+			public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) throws Exception {
+				// entries whose spilled message couldn't be read back are empty; see CapturePipeline.
+				if (event.getText().isEmpty()) {
+					return;
+				}
+
+				try {
+					writtenBytes.add(logWriter.write(event.getTimestamp(), event.getText()));
+					writtenMessages.increment();
+
+					if (endOfBatch) {
+						long flushStart = System.nanoTime();
+						logWriter.flush();
+						flushDuration.record(System.nanoTime() - flushStart);
+					}
+				} catch (IOException exception) {
+					logger.error("Failed to write to line to log file: %s", exception.getMessage());
+					return;
+				}
+
+				// latency from receiving a message to writing it; spilled messages only have the time
+				// they were received at in milliseconds.
+				if (event.getReceivedTime() != 0) {
+					writeLatency.record(System.nanoTime() - event.getReceivedTime());
+				} else {
+					writeLatency.record((System.currentTimeMillis() - event.getTimestamp()) * 1000000);
+				}
+
+				EventHandler<CaptureEvent> listener = writeListener;
+				if (listener != null) {
+					listener.onEvent(event, sequence, endOfBatch);
+				}
+			}
+		});
+
+		// rollups are maintained incrementally as messages arrive so trend queries never need raw data.
+		if (rollupAggregator != null) {
+			pipeline.addDecodedHandler("rollups", new EventHandler<CaptureEvent>() {
+				@Override
+				public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) {
+					if (!event.isDecoded()) {
+						return;
+					}
+
+					try {
+						rollupAggregator.add(event.getRecord());
+
+						// like the log file, closed buckets reach the file once the pipeline catches up.
+						if (endOfBatch) {
+							rollupAggregator.flush();
+						}
+					} catch (IOException exception) {
+						logger.error("Failed to write to rollup file: %s", exception.getMessage());
+					}
+				}
+			});
+		}
+
+		if (alertEngine != null) {
+			pipeline.addDecodedHandler("alerts", new EventHandler<CaptureEvent>() {
+				@Override
+				public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) {
+					if (event.isDecoded()) {
+						alertEngine.evaluate(event.getRecord());
+					}
+				}
+			});
+		}
+
+		// latest values are published for dashboards; see LatestStateStore and StateServer.
+		pipeline.addDecodedHandler("state", new EventHandler<CaptureEvent>() {
+			@Override
+			public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) {
+				if (event.isDecoded()) {
+					LatestStateStore.getInstance().update(ipAddress, event.getRecord());
+				}
+			}
+		});
+
+		return pipeline;
 	}
 
 	/**
@@ -83,6 +247,9 @@ public class MessageHandler extends WebSocketAdapter {
 	 */
 	private static String getFilename(String ipAddress) {
 		String dateSuffix = filenameDateFormat.format(new Date());
-		return String.format("%s_%s.%s", ipAddress, dateSuffix, Application.LOG_FILENAME_EXTENSION);
+
+		// addresses may include a port (e.g. simulated devices, see SimulateApplication), and ':' isn't
+		// allowed in filenames everywhere.
+		return String.format("%s_%s.%s", ipAddress.replace(':', '-'), dateSuffix, Application.LOG_FILENAME_EXTENSION);
 	}
 }
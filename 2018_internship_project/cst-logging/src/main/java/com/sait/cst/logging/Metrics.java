@@ -0,0 +1,366 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+public class Metrics {
+	private static final Logger logger = Logger.getLogger(Metrics.class);
+
+	public static final String OBJECT_NAME = "com.sait.cst.logging:type=Metrics";
+	public static final String METRICS_DIRECTORY = "metrics";
+	private static final int DEFAULT_INTERVAL = 10;
+
+	// percentiles exported for every histogram, as Prometheus quantiles and JMX attribute suffixes.
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+	private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999", "1" };
+	private static final String[] SUFFIXES = { "p50", "p90", "p99", "p99.9", "max" };
+
+	private static final Metrics instance = new Metrics();
+
+	// sorted by key, so metrics of the same name (with different labels) are next to each other.
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+	private boolean exported = false;
+
+	/**
+	 * Creates the Metrics registry: counters, gauges and histograms of what the program does, by name
+	 * and labels like Prometheus (e.g. cst_capture_received_messages_total{device="10.10.102.11"}).
+	 * Counters (LongAdder) and histograms (see Histogram) are striped and lock-free, so they are cheap
+	 * enough to update for every message; hot paths should keep a reference rather than look them up
+	 * every time. Durations are recorded in nanoseconds and exported in seconds.
+	 */
+	private Metrics() {
+	}
+
+	public static Metrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the counter with the given name and labels (name/value pairs), creating it if needed.
+	 */
+	public LongAdder getCounter(String name, String... labels) {
+		return getMetric(Type.COUNTER, name, labels).counter;
+	}
+
+	/**
+	 * Returns the histogram with the given name and labels (name/value pairs), creating it if needed.
+	 */
+	public Histogram getHistogram(String name, String... labels) {
+		return getMetric(Type.HISTOGRAM, name, labels).histogram;
+	}
+
+	/**
+	 * Registers a value read when exported, e.g. how many messages wait in a queue.
+	 */
+	public void registerGauge(String name, Gauge gauge, String... labels) {
+		metrics.put(getKey(name, labels), new Metric(Type.GAUGE, name, gauge));
+	}
+
+	/**
+	 * Registers a count kept elsewhere (e.g. in an AtomicLong), read when exported.
+	 */
+	public void registerCounter(String name, Gauge gauge, String... labels) {
+		metrics.put(getKey(name, labels), new Metric(Type.COUNTER, name, gauge));
+	}
+
+	public void unregister(String name, String... labels) {
+		metrics.remove(getKey(name, labels));
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text format. Histograms are written as summaries with a few
+	 * percentiles.
+	 */
+	public void write(Writer writer) throws IOException {
+		String lastName = null;
+
+		for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+			Metric metric = entry.getValue();
+			String labels = entry.getKey().substring(metric.name.length());
+
+			if (!metric.name.equals(lastName)) {
+				writer.write(String.format("# TYPE %s %s\n", metric.name, metric.type.getLabel()));
+				lastName = metric.name;
+			}
+
+			if (metric.histogram == null) {
+				writer.write(String.format("%s%s %d\n", metric.name, labels, metric.getValue()));
+				continue;
+			}
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				String quantileLabel = "quantile=\"" + QUANTILES[i] + "\"";
+				String quantileLabels = labels.isEmpty() ? "{" + quantileLabel + "}" : labels.substring(0, labels.length() - 1) + "," + quantileLabel + "}";
+				writer.write(String.format("%s%s %s\n", metric.name, quantileLabels, toSeconds(metric.histogram.getPercentile(PERCENTILES[i]))));
+			}
+
+			writer.write(String.format("%s_sum%s %s\n", metric.name, labels, toSeconds(metric.histogram.getSum())));
+			writer.write(String.format("%s_count%s %d\n", metric.name, labels, metric.histogram.getCount()));
+		}
+	}
+
+	/**
+	 * Makes metrics visible outside of the program while it runs: as attributes of a JMX MBean
+	 * (com.sait.cst.logging:type=Metrics, unless cst.metrics.jmx is false; logging levels are
+	 * registered along with it, see Logger.registerMBean), and in a file in the Prometheus text
+	 * format rewritten every cst.metrics.interval.seconds, e.g. for the textfile collector of
+	 * node_exporter. The file is cst.metrics.file, or metrics/<name>.prom in the log directory by
+	 * default; name tells apart programs sharing a directory (e.g. capture and serve).
+	 */
+	public synchronized void export(String name, String logDirectory) {
+		if (exported) {
+			return;
+		}
+
+		exported = true;
+
+		if (Settings.getBoolean("cst.metrics.jmx", true)) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+			} catch (JMException exception) {
+				logger.error("Failed to register metrics with JMX: %s", exception.getMessage());
+			}
+
+			// levels of logging can be changed there too.
+			Logger.registerMBean();
+		}
+
+		int intervalInSeconds = Settings.getInt("cst.metrics.interval.seconds", DEFAULT_INTERVAL);
+		if (intervalInSeconds <= 0) {
+			return;
+		}
+
+		String defaultFile = new File(new File(logDirectory, METRICS_DIRECTORY), name.replace(':', '-') + ".prom").getPath();
+		final File file = new File(Settings.getString("cst.metrics.file", defaultFile));
+
+		if (file.getParentFile() != null && !FileUtils.createDirectory(file.getParent())) {
+			logger.error("Failed to create directory for metrics: %s", file.getParent());
+			return;
+		}
+
+		Timer timer = new Timer("metrics", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				writeFile(file);
+			}
+		}, intervalInSeconds * 1000L, intervalInSeconds * 1000L);
+
+		// last values are written when the program stops, e.g. at the end of a capture with a duration.
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				writeFile(file);
+			}
+		});
+	}
+
+	/**
+	 * Writes metrics to a temporary file which then replaces file, so readers never see half of it.
+	 */
+	private synchronized void writeFile(File file) {
+		File temporaryFile = new File(file.getPath() + ".tmp");
+
+		try {
+			try (Writer writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+				write(writer);
+			}
+
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException exception) {
+			logger.error("Failed to write metrics to file (%s): %s", file.getPath(), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Returns every metric as name (with labels) -> value; histograms give one value per percentile
+	 * (in nanoseconds) and their count.
+	 */
+	private Map<String, Long> getValues() {
+		Map<String, Long> values = new LinkedHashMap<>();
+
+		for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+			Metric metric = entry.getValue();
+
+			if (metric.histogram == null) {
+				values.put(entry.getKey(), metric.getValue());
+				continue;
+			}
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				values.put(entry.getKey() + "." + SUFFIXES[i], metric.histogram.getPercentile(PERCENTILES[i]));
+			}
+
+			values.put(entry.getKey() + ".count", metric.histogram.getCount());
+		}
+
+		return values;
+	}
+
+	private Metric getMetric(Type type, String name, String[] labels) {
+		String key = getKey(name, labels);
+		Metric metric = metrics.get(key);
+
+		if (metric == null) {
+			Metric created = new Metric(type, name, null);
+			metric = metrics.putIfAbsent(key, created);
+			if (metric == null) {
+				metric = created;
+			}
+		}
+
+		if (metric.type != type || metric.gauge != null) {
+			throw new IllegalArgumentException(String.format("Metric %s is already registered as another type.", key));
+		}
+
+		return metric;
+	}
+
+	/**
+	 * Returns name followed by labels in the Prometheus format, e.g. name{device="10.10.102.11"}.
+	 */
+	private static String getKey(String name, String[] labels) {
+		if (labels.length == 0) {
+			return name;
+		}
+
+		StringBuilder key = new StringBuilder(name).append('{');
+
+		for (int i = 0; i + 1 < labels.length; i += 2) {
+			String value = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+			key.append(i == 0 ? "" : ",").append(labels[i]).append("=\"").append(value).append('"');
+		}
+
+		return key.append('}').toString();
+	}
+
+	private static String toSeconds(long nanoseconds) {
+		return Double.toString(nanoseconds / 1e9);
+	}
+
+	/**
+	 * A value read when metrics are exported.
+	 */
+	public interface Gauge {
+		long getValue();
+	}
+
+	private enum Type {
+		COUNTER("counter"),
+		GAUGE("gauge"),
+		HISTOGRAM("summary");
+
+		private final String label;
+
+		Type(String label) {
+			this.label = label;
+		}
+
+		String getLabel() {
+			return label;
+		}
+	}
+
+	private static class Metric {
+		private final Type type;
+		private final String name;
+		private final Gauge gauge;
+		private final LongAdder counter;
+		private final Histogram histogram;
+
+		Metric(Type type, String name, Gauge gauge) {
+			this.type = type;
+			this.name = name;
+			this.gauge = gauge;
+			this.counter = gauge == null && type == Type.COUNTER ? new LongAdder() : null;
+			this.histogram = type == Type.HISTOGRAM ? new Histogram() : null;
+		}
+
+		long getValue() {
+			return gauge != null ? gauge.getValue() : counter.sum();
+		}
+	}
+
+	/**
+	 * Exposes every metric (see getValues) as a read-only attribute. Metrics are created as the program
+	 * runs, so attributes are listed anew every time they are asked for.
+	 */
+	private class MetricsMBean implements DynamicMBean {
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Long value = getValues().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+
+			return value;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Long> values = getValues();
+			AttributeList list = new AttributeList();
+
+			for (String attribute : attributes) {
+				if (values.containsKey(attribute)) {
+					list.add(new Attribute(attribute, values.get(attribute)));
+				}
+			}
+
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(String.format("Metric %s is read-only.", attribute.getName()));
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+			for (String name : getValues().keySet()) {
+				attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+			}
+
+			return new MBeanInfo(Metrics.class.getName(), "Metrics of cst-logs; durations are in nanoseconds.",
+					attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+		}
+	}
+}
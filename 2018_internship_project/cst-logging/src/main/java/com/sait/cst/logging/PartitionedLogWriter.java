@@ -0,0 +1,105 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class PartitionedLogWriter extends LogWriter {
+	// messages whose type can't be used as a filename (or can't be determined) go to this partition.
+	public static final String OTHER_PARTITION = "_other";
+	private static final Pattern PARTITION_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+	private final File directory;
+	private final LogFormat format;
+	private final Map<String, LogWriter> writers = new HashMap<>();
+
+	/**
+	 * Creates a PartitionedLogWriter: a capture written as one log file per message type in its own
+	 * directory (e.g. 10.10.102.11_20180829_144900/sm.log, lr.log), each in the given format and with
+	 * the timestamps messages were received at. A query for one type then only reads its partition
+	 * (see LogCatalog.getLogFiles) instead of every message of the capture. Partitions are created
+	 * as their first message arrives. If directory already exists, an exception is thrown.
+	 */
+	public PartitionedLogWriter(File directory, LogFormat format) throws IOException {
+		if (directory.exists()) {
+			throw new FileAlreadyExistsException(directory.getAbsolutePath());
+		}
+
+		if (!directory.mkdirs()) {
+			throw new IOException("Failed to create directory: " + directory.getAbsolutePath());
+		}
+
+		this.directory = directory;
+		this.format = format;
+	}
+
+	/**
+	 * Returns the directory holding partitions of a capture which would otherwise be written to logFile.
+	 */
+	public static File getDirectory(File logFile) {
+		String name = logFile.getName();
+		return new File(logFile.getParentFile(), name.substring(0, name.length() - Application.LOG_FILENAME_EXTENSION.length() - 1));
+	}
+
+	/**
+	 * Returns the name of the partition holding messages of the given type.
+	 */
+	public static String getPartition(String type) {
+		return type != null && PARTITION_PATTERN.matcher(type).matches() ? type : OTHER_PARTITION;
+	}
+
+	@Override
+	public long write(long timestamp, String text) throws IOException {
+		String partition = getPartition(LogLine.getType(text));
+		LogWriter writer = writers.get(partition);
+
+		if (writer == null) {
+			writer = LogWriter.create(new File(directory, partition + "." + Application.LOG_FILENAME_EXTENSION), format);
+			writers.put(partition, writer);
+		}
+
+		long length = writer.write(timestamp, text);
+		position += length;
+
+		return length;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (LogWriter writer : writers.values()) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Closes every partition, even if some of them fail to; the first failure is thrown.
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+
+		for (LogWriter writer : writers.values()) {
+			try {
+				writer.close();
+			} catch (IOException exception) {
+				if (failure == null) {
+					failure = exception;
+				}
+			}
+		}
+
+		writers.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	protected OutputStream getOutputStream() {
+		return null;
+	}
+}
@@ -1,8 +1,10 @@
 package com.sait.cst.logging;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -11,20 +13,32 @@ import de.vandermeer.asciitable.CWC_FixedWidth;
 import de.vandermeer.asciithemes.a7.A7_Grids;
 
 public class QueryApplication {
+	private static final Logger logger = Logger.getLogger(QueryApplication.class);
+
 	public static void run(String logDirectory, String type, Instant start, Instant end) {
-		// gets a list of all log files (matching the extension) under the directory provided.
-		File directory = new File(logDirectory);
-		File[] files = directory.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.toLowerCase().endsWith("." + Application.LOG_FILENAME_EXTENSION);
+		// if there are no files found in the directory, prints an error message and exits.
+		try {
+			if (!run(new LogCatalog(new File(logDirectory)), type, start, end, System.out)) {
+				logger.error("Failed to list files in directory (%s).", logDirectory);
+				System.exit(-2);
 			}
-		});
+		} catch (IOException exception) {
+			logger.error("Failed to open file: %s", exception.getMessage());
+			System.exit(-2);
+		}
+	}
 
-		// if there are no files found in the directory, prints an error message and exits.
+	/**
+	 * Prints matching lines of every log file of the catalog to out. This is what both the command
+	 * line and a running ServeApplication answer queries with. Returns false if the log directory
+	 * can't be listed, and throws if a listed file can't be opened (e.g. it was compacted since).
+	 */
+	public static boolean run(LogCatalog catalog, String type, Instant start, Instant end, PrintStream out) throws IOException {
+		// gets a list of all log files (matching the extension) under the directory provided. of
+		// partitioned captures, only the partition of the type is read.
+		File[] files = catalog.getLogFiles(type);
 		if (files == null) {
-			LoggingUtils.ERROR("Failed to list files in directory (%s).", logDirectory);
-			System.exit(-2);
+			return false;
 		}
 
 		// if start and end aren't provided, then use meaningful default values which will effectively
@@ -33,26 +47,72 @@ public class QueryApplication {
 		long startTimestamp = start == null ? 0 : start.toEpochMilli();
 		long endTimestamp = end == null ? Long.MAX_VALUE : end.toEpochMilli();
 
-		LoggingUtils.DEBUG("Detected %d files in log directory provided (%s).", files.length, logDirectory);
+		// what the query did is recorded in metrics (see Metrics), e.g. to see how much of the files it
+		// had to read and how long parsing JSON took.
+		QueryStatistics statistics = new QueryStatistics("query");
+
+		logger.debug("Detected %d files in log directory provided (%s).", files.length, catalog.getDirectory().getPath());
 		for (File file : files) { 
-			LoggingUtils.DEBUG(">>>>> %s", file.getName());
+			String name = catalog.getName(file);
+			logger.debug(">>>>> %s", name);
 
 			// read the file using LogReader and get matching lines.
 			LogReader logReader = new LogReader(file);
-			List<LogLine> logLines = logReader.getMatchingLogLines(type, startTimestamp, endTimestamp);
+			List<LogLine> logLines = logReader.getMatchingLogLines(type, startTimestamp, endTimestamp, catalog.getIndex(file));
+			statistics.addScanned(logReader.getScannedCount(), logReader.getSkippedCount(), logReader.isSkippedByIndex());
 			
 			// if table isn't empty, print a table.
 			if (logLines.isEmpty()) {
-				LoggingUtils.DEBUG("No matching log lines were found.");
+				logger.debug("No matching log lines were found.");
 			} else {
-				printTable(file, logLines);
+				long parseStart = System.nanoTime();
+				List<Map<String, String>> rows = getRows(logLines);
+				statistics.addParsed(rows.size(), System.nanoTime() - parseStart);
+
+				printRawTable(out, String.format("File: %s (resolution: raw)", name), rows);
 			}
 
-			LoggingUtils.DEBUG("<<<<< %s", file.getName());
+			logger.debug("<<<<< %s", name);
 		}
+
+		statistics.record();
+		return true;
 	}
 	
-	private static void printTable(File file, List<LogLine> logLines) {
+	private static List<Map<String, String>> getRows(List<LogLine> logLines) {
+		// fields is a map of field name -> field value. e.g. DFS State -> 3
+		List<Map<String, String>> rows = new ArrayList<>();
+		for (LogLine logLine : logLines) {
+			rows.add(logLine.getFields());
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Prints rows as a table following the heading provided. Column names are taken from the keys of
+	 * the first row, so all rows are expected to have the same keys.
+	 */
+	public static void printTable(String heading, List<Map<String, String>> rows) {
+		printTable(System.out, heading, rows);
+	}
+
+	/**
+	 * Same as above, printing to out. Columns are as wide as their longest value or name.
+	 */
+	public static void printTable(PrintStream out, String heading, List<Map<String, String>> rows) {
+		printTable(out, heading, rows, getColumnWidths(rows));
+	}
+
+	/**
+	 * Same as above for rows of raw log lines. Columns are as wide as their names, as query tables
+	 * have always been (longer values wrap), since scripts exporting query output parse them.
+	 */
+	public static void printRawTable(PrintStream out, String heading, List<Map<String, String>> rows) {
+		printTable(out, heading, rows, getNameWidths(rows));
+	}
+
+	private static void printTable(PrintStream out, String heading, List<Map<String, String>> rows, int[] columnWidths) {
 		// use AsciiTable library to generate a nice looking table with all the column names.
 		AsciiTable table = new AsciiTable();
 		table.addRule();
@@ -61,12 +121,10 @@ public class QueryApplication {
 		// set each column width depending on the value returned for matches log lines.
 		CWC_FixedWidth cwc = new CWC_FixedWidth();
 
-		// iterate over all the lines and get their fields to add to the table. in the first iteration
-		// we add the field names as column headers.
-		//
-		// fields is a map of field name -> field value. e.g. DFS State -> 3
-		for (int i = 0; i < logLines.size(); i++) {
-			Map<String, String> fields = logLines.get(i).getFields();
+		// iterate over all the rows and add them to the table. in the first iteration we add the field
+		// names as column headers.
+		for (int i = 0; i < rows.size(); i++) {
+			Map<String, String> fields = rows.get(i);
 
 			// first row in the table is for headers (addRule() adds the line).
 			if (i == 0) {
@@ -74,8 +132,8 @@ public class QueryApplication {
 				table.addRule();
 				
 				// collect column lengths for the column width calculator.
-				for (String column : fields.keySet()) {
-					cwc.add(column.length());
+				for (int columnWidth : columnWidths) {
+					cwc.add(columnWidth);
 				}
 			}
 			
@@ -83,15 +141,58 @@ public class QueryApplication {
 			table.addRow(fields.values());
 		}
 
-		// finish up the table by adding a bottom line. then print it following the file name
-		// to users can understand where values are coming from.
+		// finish up the table by adding a bottom line. then print it following the heading so users
+		// can understand where values are coming from.
 		table.addRule();
-		System.out.format("File: %s%n", file.getName());
+		out.println(heading);
 
 		// set column width calculator before rendering the table.
 		table.getRenderer().setCWC(cwc);
 		table.getContext().setGrid(A7_Grids.minusBarPlusEquals());
 
-		System.out.println(table.render());
+		out.println(table.render());
+	}
+
+	/**
+	 * Returns width of every column: the length of the column name.
+	 */
+	private static int[] getNameWidths(List<Map<String, String>> rows) {
+		if (rows.isEmpty()) {
+			return new int[0];
+		}
+
+		int[] columnWidths = new int[rows.get(0).size()];
+		int column = 0;
+		for (String name : rows.get(0).keySet()) {
+			columnWidths[column++] = name.length();
+		}
+
+		return columnWidths;
+	}
+
+	/**
+	 * Returns width of every column: the longest of the column name and the values in that column.
+	 */
+	private static int[] getColumnWidths(List<Map<String, String>> rows) {
+		int[] columnWidths = new int[rows.isEmpty() ? 0 : rows.get(0).size()];
+
+		for (int i = 0; i < rows.size(); i++) {
+			int column = 0;
+
+			for (Map.Entry<String, String> field : rows.get(i).entrySet()) {
+				if (column == columnWidths.length) {
+					break;
+				}
+
+				if (i == 0) {
+					columnWidths[column] = field.getKey().length();
+				}
+
+				columnWidths[column] = Math.max(columnWidths[column], field.getValue().length());
+				column++;
+			}
+		}
+
+		return columnWidths;
 	}
 }
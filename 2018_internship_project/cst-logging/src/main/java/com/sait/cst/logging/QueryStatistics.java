@@ -0,0 +1,55 @@
+package com.sait.cst.logging;
+
+public class QueryStatistics {
+	private static final Logger logger = Logger.getLogger(QueryStatistics.class);
+
+	private final String mode;
+	private final long startTime = System.nanoTime();
+	private long scannedCount = 0;
+	private long skippedCount = 0;
+	private long skippedFileCount = 0;
+	private long rowCount = 0;
+	private long parseTime = 0;
+
+	/**
+	 * Creates a QueryStatistics collecting what a single query or trend request (mode) does, to be
+	 * recorded in Metrics once it is answered.
+	 */
+	public QueryStatistics(String mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Adds entries (lines or rollups) read, how many of them didn't match, and whether a whole file was
+	 * skipped without reading it (e.g. thanks to its index).
+	 */
+	public void addScanned(long scanned, long skipped, boolean skippedFile) {
+		scannedCount += scanned;
+		skippedCount += skipped;
+		skippedFileCount += skippedFile ? 1 : 0;
+	}
+
+	/**
+	 * Adds rows emitted and the time (in nanoseconds) taken parsing them.
+	 */
+	public void addParsed(long rows, long time) {
+		rowCount += rows;
+		parseTime += time;
+	}
+
+	public void record() {
+		long duration = System.nanoTime() - startTime;
+		Metrics metrics = Metrics.getInstance();
+
+		metrics.getCounter("cst_query_requests_total", "mode", mode).increment();
+		metrics.getCounter("cst_query_scanned_total", "mode", mode).add(scannedCount);
+		metrics.getCounter("cst_query_skipped_total", "mode", mode).add(skippedCount);
+		metrics.getCounter("cst_query_skipped_files_total", "mode", mode).add(skippedFileCount);
+		metrics.getCounter("cst_query_rows_total", "mode", mode).add(rowCount);
+		metrics.getHistogram("cst_query_parse_seconds", "mode", mode).record(parseTime);
+		metrics.getHistogram("cst_query_duration_seconds", "mode", mode).record(duration);
+
+		logger.debug("Answered %s in %d ms: scanned %d (%d skipped, %d file(s) skipped), %d row(s) parsed in %d ms.", mode,
+				duration / 1000000, scannedCount, skippedCount, skippedFileCount, rowCount, parseTime / 1000000);
+	}
+}
@@ -0,0 +1,247 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.GZIPOutputStream;
+
+public class RetentionApplication {
+	private static final Logger logger = Logger.getLogger(RetentionApplication.class);
+
+	public static final String ARCHIVE_DIRECTORY = "archive";
+	private static final long DAY_IN_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+	// how long (in days) each tier is kept; -1 means forever. these are defaults for settings below.
+	private static final long DEFAULT_RAW_RETENTION_DAYS = 7;
+	private static final long DEFAULT_SECOND_RETENTION_DAYS = 7;
+	private static final long DEFAULT_MINUTE_RETENTION_DAYS = 90;
+	private static final long DEFAULT_HOUR_RETENTION_DAYS = -1;
+
+	/**
+	 * Enforces retention on the log directory. If an interval is provided, retention keeps running in
+	 * the background every intervalInMinutes until the program is stopped; otherwise it runs once.
+	 */
+	public static void run(String logDirectory, int intervalInMinutes) {
+		if (intervalInMinutes <= 0) {
+			enforce(logDirectory);
+			return;
+		}
+
+		logger.info("Enforcing retention on %s every %d minute(s).", logDirectory, intervalInMinutes);
+		schedule(logDirectory, intervalInMinutes, false);
+	}
+
+	/**
+	 * Schedules retention to be enforced every intervalInMinutes on a background thread. Daemon timers
+	 * don't keep the program alive, which is what capture wants.
+	 */
+	public static Timer schedule(final String logDirectory, int intervalInMinutes, boolean daemon) {
+		Timer timer = new Timer("retention", daemon);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				// an exception escaping a TimerTask cancels the timer, so everything is caught here.
+				try {
+					enforce(logDirectory);
+				} catch (RuntimeException exception) {
+					logger.error("Failed to enforce retention: %s", exception.getMessage());
+				}
+			}
+		}, 0, intervalInMinutes * 60 * 1000L);
+
+		return timer;
+	}
+
+	/**
+	 * Goes through the log directory once and expires files older than their tier allows:
+	 * - raw logs are downsampled first (rollups still within their tier are built if missing or
+	 *   incomplete), then deleted or archived once those rollups are complete. Partitioned captures
+	 *   (see PartitionedLogWriter) expire as a whole, once none of their partitions is written to.
+	 * - rollup files are deleted once older than their resolution's tier.
+	 *
+	 * Age of a file is based on when it was last written to, so files still being captured to are
+	 * never expired.
+	 */
+	public static void enforce(String logDirectory) {
+		File directory = new File(logDirectory);
+		File[] logFiles = FileUtils.listLogFiles(directory);
+		File[] partitionDirectories = FileUtils.listPartitionDirectories(directory);
+
+		if (logFiles == null || partitionDirectories == null) {
+			logger.error("Failed to list files in directory (%s).", logDirectory);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long rawRetentionDays = Settings.getLong("cst.retention.raw.days", DEFAULT_RAW_RETENTION_DAYS);
+		File archiveDirectory = Settings.getBoolean("cst.retention.archive", false) ? new File(directory, ARCHIVE_DIRECTORY) : null;
+
+		for (File logFile : logFiles) {
+			expireRaw(logFile, new File[] { logFile }, archiveDirectory, rawRetentionDays, now);
+		}
+
+		// rollups of a partitioned capture are named after it, as if it was a single log file.
+		for (File partitionDirectory : partitionDirectories) {
+			File[] partitions = FileUtils.listLogFiles(partitionDirectory);
+			if (partitions == null || partitions.length == 0) {
+				continue;
+			}
+
+			File logFile = new File(directory, partitionDirectory.getName() + "." + Application.LOG_FILENAME_EXTENSION);
+			File partitionArchiveDirectory = archiveDirectory == null ? null : new File(archiveDirectory, partitionDirectory.getName());
+
+			if (expireRaw(logFile, partitions, partitionArchiveDirectory, rawRetentionDays, now) && !partitionDirectory.delete()) {
+				logger.warn("Failed to delete expired directory: %s", partitionDirectory.getName());
+			}
+		}
+
+		for (RollupResolution resolution : RollupResolution.values()) {
+			long retentionDays = getRetentionDays(resolution);
+			File[] rollupFiles = FileUtils.listFiles(directory, resolution.getFileExtension());
+
+			if (rollupFiles == null) {
+				continue;
+			}
+
+			for (File rollupFile : rollupFiles) {
+				if (isExpired(rollupFile, retentionDays, now)) {
+					if (rollupFile.delete()) {
+						logger.info("Deleted expired rollup file %s.", rollupFile.getName());
+					} else {
+						logger.warn("Failed to delete expired file: %s", rollupFile.getName());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Expires raw files of a capture (the log file itself, or partitions of a partitioned one) if all
+	 * of them are older than rawRetentionDays, archiving them to archiveDirectory unless it is null.
+	 * Returns true if they were all deleted.
+	 */
+	private static boolean expireRaw(File logFile, File[] rawFiles, File archiveDirectory, long rawRetentionDays, long now) {
+		long lastModified = 0;
+		for (File rawFile : rawFiles) {
+			lastModified = Math.max(lastModified, rawFile.lastModified());
+		}
+
+		if (!isExpired(lastModified, rawRetentionDays, now)) {
+			return false;
+		}
+
+		// raw data is only ever dropped once its trend history is safely in rollups. tiers which would
+		// have expired already aren't built again, as they'd come back with a fresh age.
+		RollupResolution[] retainedResolutions = getRetainedResolutions(lastModified, now);
+		try {
+			RollupResolution[] missingResolutions = RollupAggregator.getIncompleteResolutions(logFile, retainedResolutions);
+			if (missingResolutions.length > 0) {
+				RollupAggregator.backfill(logFile, missingResolutions);
+
+				// rebuilt rollups keep the age of the data they hold, so they expire with the others.
+				for (RollupResolution resolution : missingResolutions) {
+					resolution.getRollupFile(logFile).setLastModified(lastModified);
+				}
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to build rollups for %s, keeping it: %s", logFile.getName(), exception.getMessage());
+			return false;
+		}
+
+		if (RollupAggregator.getIncompleteResolutions(logFile, retainedResolutions).length > 0) {
+			logger.warn("Rollups of %s are incomplete, keeping it.", logFile.getName());
+			return false;
+		}
+
+		boolean deleted = true;
+		for (File rawFile : rawFiles) {
+			String name = rawFile == logFile ? rawFile.getName() : rawFile.getParentFile().getName() + "/" + rawFile.getName();
+
+			try {
+				if (archiveDirectory != null) {
+					archive(rawFile, archiveDirectory);
+				}
+
+				SegmentIndex.getIndexFile(rawFile).delete();
+				if (!rawFile.delete()) {
+					logger.warn("Failed to delete expired file: %s", name);
+					deleted = false;
+					continue;
+				}
+
+				logger.info("%s expired raw file %s.", archiveDirectory != null ? "Archived" : "Deleted", name);
+			} catch (IOException exception) {
+				logger.error("Failed to archive %s, keeping it: %s", name, exception.getMessage());
+				deleted = false;
+			}
+		}
+
+		return deleted;
+	}
+
+	private static boolean isExpired(File file, long retentionDays, long now) {
+		return isExpired(file.lastModified(), retentionDays, now);
+	}
+
+	private static boolean isExpired(long lastModified, long retentionDays, long now) {
+		return retentionDays >= 0 && lastModified < now - retentionDays * DAY_IN_MILLISECONDS;
+	}
+
+	/**
+	 * Returns the resolutions whose rollups of a capture last written at lastModified are still kept,
+	 * since rollups are written along with raw files.
+	 */
+	private static RollupResolution[] getRetainedResolutions(long lastModified, long now) {
+		List<RollupResolution> retained = new ArrayList<>();
+		for (RollupResolution resolution : RollupResolution.values()) {
+			if (!isExpired(lastModified, getRetentionDays(resolution), now)) {
+				retained.add(resolution);
+			}
+		}
+
+		return retained.toArray(new RollupResolution[retained.size()]);
+	}
+
+	private static long getRetentionDays(RollupResolution resolution) {
+		return Settings.getLong("cst.retention." + resolution.getLabel() + ".days", getDefaultRetentionDays(resolution));
+	}
+
+	private static long getDefaultRetentionDays(RollupResolution resolution) {
+		switch (resolution) {
+		case SECOND:
+			return DEFAULT_SECOND_RETENTION_DAYS;
+		case MINUTE:
+			return DEFAULT_MINUTE_RETENTION_DAYS;
+		default:
+			return DEFAULT_HOUR_RETENTION_DAYS;
+		}
+	}
+
+	/**
+	 * Compresses the given file into the archive directory (as <name>.gz) by streaming through it.
+	 */
+	private static void archive(File file, File archiveDirectory) throws IOException {
+		if (!FileUtils.createDirectory(archiveDirectory.getPath())) {
+			throw new IOException("Failed to create directory: " + archiveDirectory.getPath());
+		}
+
+		File archiveFile = new File(archiveDirectory, file.getName() + ".gz");
+		byte[] buffer = new byte[64 * 1024];
+
+		try (InputStream inputStream = new FileInputStream(file);
+				OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(archiveFile))) {
+			int length;
+
+			while ((length = inputStream.read(buffer)) > 0) {
+				outputStream.write(buffer, 0, length);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.sait.cst.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class RingBuffer<E> {
+	private final Object[] entries;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	private final AtomicLong cursor = new AtomicLong(-1);
+	private final List<AtomicLong> gatingSequences = new ArrayList<>();
+
+	// producer is single-threaded; these are only touched by it.
+	private long nextSequence = 0;
+	private long cachedGatingSequence = -1;
+
+	/**
+	 * Creates a RingBuffer with entries preallocated by factory. Entries are reused for the lifetime of
+	 * the buffer: producers fill them in and consumers read them, so no allocation happens per event.
+	 * Size must be a power of two. There must be a single producer thread.
+	 */
+	public RingBuffer(EventFactory<E> factory, int size, WaitStrategy waitStrategy) {
+		if (Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Size must be a power of two: " + size);
+		}
+
+		this.entries = new Object[size];
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+
+		for (int i = 0; i < size; i++) {
+			entries[i] = factory.newInstance();
+		}
+	}
+
+	/**
+	 * Registers sequences of consumers the producer must not overtake, i.e. the last consumers of the
+	 * pipeline. Must be called before publishing starts.
+	 */
+	public void addGatingSequence(AtomicLong sequence) {
+		gatingSequences.add(sequence);
+	}
+
+	/**
+	 * Claims the next sequence to publish, waiting while buffer is full.
+	 */
+	public long next() {
+		long sequence = nextSequence;
+		long wrapPoint = sequence - entries.length;
+
+		while (wrapPoint > cachedGatingSequence) {
+			cachedGatingSequence = getMinimumGatingSequence();
+			if (wrapPoint > cachedGatingSequence) {
+				LockSupport.parkNanos(1000);
+			}
+		}
+
+		nextSequence = sequence + 1;
+		return sequence;
+	}
+
+	/**
+	 * Claims the next sequence to publish if there is room, otherwise returns -1 without waiting.
+	 */
+	public long tryNext() {
+		long sequence = nextSequence;
+		long wrapPoint = sequence - entries.length;
+
+		if (wrapPoint > cachedGatingSequence) {
+			cachedGatingSequence = getMinimumGatingSequence();
+			if (wrapPoint > cachedGatingSequence) {
+				return -1;
+			}
+		}
+
+		nextSequence = sequence + 1;
+		return sequence;
+	}
+
+	/**
+	 * Makes a claimed (and filled in) entry visible to consumers. Published with set(), not lazySet(),
+	 * so blocking consumers about to wait see it or get signalled.
+	 */
+	public void publish(long sequence) {
+		cursor.set(sequence);
+		waitStrategy.signalAll();
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(long sequence) {
+		return (E) entries[(int) sequence & mask];
+	}
+
+	public AtomicLong getCursor() {
+		return cursor;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public int getSize() {
+		return entries.length;
+	}
+
+	/**
+	 * Returns how many entries can be claimed right now without waiting.
+	 */
+	public long getRemainingCapacity() {
+		return entries.length - (cursor.get() - getMinimumGatingSequence());
+	}
+
+	private long getMinimumGatingSequence() {
+		long minimum = cursor.get();
+
+		for (AtomicLong gatingSequence : gatingSequences) {
+			minimum = Math.min(minimum, gatingSequence.get());
+		}
+
+		return minimum;
+	}
+
+	/**
+	 * Creates entries of a RingBuffer when it is constructed.
+	 */
+	public interface EventFactory<E> {
+		E newInstance();
+	}
+}
@@ -0,0 +1,137 @@
+package com.sait.cst.logging;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Rollup {
+	private long bucketStart;
+	private String type;
+	private String channel;
+	private double min;
+	private double max;
+	private double sum;
+	private long count;
+	private double last;
+
+	/**
+	 * Creates an instance of Rollup class which holds aggregated values of a single channel (e.g. ta[0][1]
+	 * of sm messages) over a bucket of time starting at bucketStart.
+	 */
+	public Rollup(long bucketStart, String type, String channel, double min, double max, double sum, long count, double last) {
+		this.bucketStart = bucketStart;
+		this.type = type;
+		this.channel = channel;
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+		this.count = count;
+		this.last = last;
+	}
+
+	/**
+	 * This method is used to serialize a given Rollup instance as a String so we can use it to write to
+	 * a rollup file. Values are comma-separated: bucket start, type, channel, min, max, sum, count, last.
+	 */
+	public static String serialize(Rollup rollup) {
+		return rollup.bucketStart + "," + rollup.type + "," + rollup.channel + ","
+				+ formatValue(rollup.min) + "," + formatValue(rollup.max) + "," + formatValue(rollup.sum) + ","
+				+ rollup.count + "," + formatValue(rollup.last);
+	}
+
+	/**
+	 * This method is used to deserialize a given Rollup instance from a String value written using
+	 * serialize method above. If line doesn't have the expected format, null is returned.
+	 */
+	public static Rollup deserialize(String rollupString) {
+		String[] segments = rollupString.split(",");
+
+		if (segments.length != 8) {
+			return null;
+		}
+
+		try {
+			return new Rollup(Long.parseLong(segments[0]), segments[1], segments[2], Double.parseDouble(segments[3]),
+					Double.parseDouble(segments[4]), Double.parseDouble(segments[5]), Long.parseLong(segments[6]),
+					Double.parseDouble(segments[7]));
+		} catch (NumberFormatException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a Rollup of the values of both rollups, which must be of the same bucket and channel
+	 * (e.g. of different captures). Last value is taken from other, as the one combined later.
+	 */
+	public Rollup combine(Rollup other) {
+		return new Rollup(bucketStart, type, channel, Math.min(min, other.min), Math.max(max, other.max), sum + other.sum, count + other.count, other.last);
+	}
+
+	/**
+	 * Formats a value the way devices send them: integers without a fraction, others as they are.
+	 */
+	public static String formatValue(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+
+		return Double.toString(value);
+	}
+
+	public long getBucketStart() {
+		return bucketStart;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getLast() {
+		return last;
+	}
+
+	/**
+	 * This method returns fields for the given Rollup in a map where key is the column name and value is
+	 * the field value, the same way LogLine.getFields does for raw lines.
+	 */
+	public Map<String, String> getFields() {
+		Map<String, String> fields = new LinkedHashMap<>();
+
+		fields.put(LogLineColumnNames.TIMESTAMP, DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(bucketStart).truncatedTo(ChronoUnit.SECONDS)));
+		fields.put(LogLineColumnNames.CHANNEL, channel);
+		fields.put(LogLineColumnNames.MIN, formatValue(min));
+		fields.put(LogLineColumnNames.MAX, formatValue(max));
+		fields.put(LogLineColumnNames.AVERAGE, formatValue(sum / count));
+		fields.put(LogLineColumnNames.LAST, formatValue(last));
+		fields.put(LogLineColumnNames.COUNT, Long.toString(count));
+
+		return fields;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Rollup(%s)", serialize(this));
+	}
+}
@@ -0,0 +1,370 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class RollupAggregator {
+	private static final Logger logger = Logger.getLogger(RollupAggregator.class);
+
+	// only periodic telemetry is rolled up; configuration and event messages aren't trends.
+	public static final Set<String> ROLLUP_TYPES = new HashSet<>(Arrays.asList("sm", "fm", "cc"));
+	private static final String TEMPORARY_FILENAME_EXTENSION = "tmp";
+
+	// last line of rollup files which were closed, rather than left behind by a capture which was
+	// killed; see isComplete. readers of rollup files skip it.
+	public static final String COMPLETE_MARKER = "#complete";
+
+	private final RollupResolution[] resolutions;
+	private final File[] files;
+	private final BufferedWriter[] writers;
+	private final boolean temporary;
+
+	// open buckets per resolution, keyed by message type.
+	private final List<Map<String, Bucket>> buckets = new ArrayList<>();
+
+	/**
+	 * Creates a RollupAggregator writing rollups (of every resolution) for the given log file. If
+	 * temporary is true, rollups are written to temporary files which only replace the actual rollup
+	 * files when commit is called.
+	 */
+	public RollupAggregator(File logFile, boolean temporary) throws IOException {
+		this(logFile, temporary, RollupResolution.values());
+	}
+
+	/**
+	 * Creates a RollupAggregator writing rollups of the given resolutions only, leaving rollup files of
+	 * the others untouched.
+	 */
+	public RollupAggregator(File logFile, boolean temporary, RollupResolution[] resolutions) throws IOException {
+		this.resolutions = resolutions;
+		this.files = new File[resolutions.length];
+		this.writers = new BufferedWriter[resolutions.length];
+		this.temporary = temporary;
+
+		try {
+			for (int i = 0; i < resolutions.length; i++) {
+				File rollupFile = resolutions[i].getRollupFile(logFile);
+				files[i] = temporary ? getTemporaryFile(rollupFile) : rollupFile;
+				writers[i] = new BufferedWriter(new FileWriter(files[i]));
+				buckets.add(new HashMap<String, Bucket>());
+			}
+		} catch (IOException exception) {
+			close(false);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Adds a decoded message to the open buckets. When a message falls outside of the open bucket of
+	 * its type, that bucket is complete and is written out before a new one is started.
+	 */
+	public void add(TelemetryRecord record) throws IOException {
+		if (!ROLLUP_TYPES.contains(record.getType())) {
+			return;
+		}
+
+		for (int i = 0; i < resolutions.length; i++) {
+			long bucketStart = resolutions[i].getBucketStart(record.getTimestamp());
+			Bucket bucket = buckets.get(i).get(record.getType());
+
+			if (bucket == null) {
+				bucket = new Bucket();
+				bucket.reset(record.getLayout(), bucketStart);
+				buckets.get(i).put(record.getType(), bucket);
+			} else if (bucket.start != bucketStart || bucket.layout != record.getLayout()) {
+				bucket.write(writers[i]);
+				bucket.reset(record.getLayout(), bucketStart);
+			}
+
+			bucket.add(record);
+		}
+	}
+
+	/**
+	 * Hands rollups of closed buckets to the operating system, so trends of a capture which is still
+	 * running see them (and they survive the program being killed). Buckets still open are only
+	 * written once they close.
+	 */
+	public void flush() throws IOException {
+		for (int i = 0; i < writers.length; i++) {
+			if (writers[i] != null) {
+				writers[i].flush();
+			}
+		}
+	}
+
+	/**
+	 * Writes out buckets which are still open and closes rollup files, marking them complete.
+	 */
+	public void close() {
+		close(true);
+	}
+
+	private void close(boolean complete) {
+		for (int i = 0; i < writers.length; i++) {
+			if (writers[i] == null) {
+				continue;
+			}
+
+			try {
+				if (i < buckets.size()) {
+					for (Bucket bucket : buckets.get(i).values()) {
+						bucket.write(writers[i]);
+					}
+
+					buckets.get(i).clear();
+				}
+
+				if (complete) {
+					writers[i].write(COMPLETE_MARKER);
+					writers[i].newLine();
+				}
+
+				writers[i].close();
+			} catch (IOException exception) {
+				logger.error("Failed to finish writing to rollup file (%s): %s", files[i].getName(), exception.getMessage());
+			}
+
+			writers[i] = null;
+		}
+	}
+
+	/**
+	 * Closes temporary rollup files and moves them in place of the actual rollup files.
+	 */
+	public void commit(File logFile) throws IOException {
+		close();
+
+		for (int i = 0; i < resolutions.length; i++) {
+			FileUtils.replaceFile(files[i], resolutions[i].getRollupFile(logFile));
+		}
+	}
+
+	/**
+	 * Closes and deletes temporary rollup files without replacing the actual ones.
+	 */
+	public void discard() {
+		close(false);
+
+		if (temporary) {
+			for (File file : files) {
+				if (file != null) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds rollups for a log file which doesn't have them, e.g. files captured before rollups were
+	 * introduced or whose capture was killed, by streaming through the raw file once. Partitions of a
+	 * partitioned capture are read one after another, as each holds a single type.
+	 */
+	public static void backfill(File logFile) throws IOException {
+		backfill(logFile, RollupResolution.values());
+	}
+
+	/**
+	 * Builds rollups of the given resolutions only for a log file (see backfill), e.g. the ones missing
+	 * while others are complete or have already expired.
+	 */
+	public static void backfill(File logFile, RollupResolution[] resolutions) throws IOException {
+		logger.info("Building %s rollups for %s.", getLabels(resolutions), logFile.getName());
+
+		RollupAggregator rollupAggregator = new RollupAggregator(logFile, true, resolutions);
+		TelemetryDecoder decoder = new TelemetryDecoder();
+		TelemetryRecord record = new TelemetryRecord();
+
+		try {
+			for (File file : getRawFiles(logFile)) {
+				LogReader logReader = new LogReader(file);
+
+				try {
+					while (logReader.readTelemetryRecord(record, decoder)) {
+						rollupAggregator.add(record);
+					}
+				} finally {
+					logReader.close();
+				}
+			}
+
+			rollupAggregator.commit(logFile);
+		} finally {
+			rollupAggregator.discard();
+		}
+	}
+
+	/**
+	 * Returns whether a rollup file was completely written: closed by the capture, compaction or
+	 * backfill writing it rather than left behind when it was killed (or still being written). Only
+	 * the end of the file is read.
+	 */
+	public static boolean isComplete(File rollupFile) {
+		try (RandomAccessFile file = new RandomAccessFile(rollupFile, "r")) {
+			// the marker's line, with line separators of up to two bytes before and after it.
+			int tailLength = (int) Math.min(file.length(), COMPLETE_MARKER.length() + 4);
+			byte[] bytes = new byte[tailLength];
+
+			file.seek(file.length() - tailLength);
+			file.readFully(bytes);
+
+			String tail = new String(bytes, StandardCharsets.US_ASCII).replace("\r", "");
+			return tail.endsWith("\n" + COMPLETE_MARKER + "\n") || tail.equals(COMPLETE_MARKER + "\n");
+		} catch (IOException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether every rollup file of a log file exists and is complete.
+	 */
+	public static boolean hasCompleteRollups(File logFile) {
+		return getIncompleteResolutions(logFile, RollupResolution.values()).length == 0;
+	}
+
+	/**
+	 * Returns which of the given resolutions have rollup files for a log file that are missing or
+	 * incomplete.
+	 */
+	public static RollupResolution[] getIncompleteResolutions(File logFile, RollupResolution[] resolutions) {
+		List<RollupResolution> incomplete = new ArrayList<>();
+		for (RollupResolution resolution : resolutions) {
+			if (!isComplete(resolution.getRollupFile(logFile))) {
+				incomplete.add(resolution);
+			}
+		}
+
+		return incomplete.toArray(new RollupResolution[incomplete.size()]);
+	}
+
+	/**
+	 * Returns whether raw messages of a log file are still there to build rollups from, whether it is a
+	 * single file or a partitioned capture.
+	 */
+	public static boolean hasRawFiles(File logFile) {
+		return logFile.isFile() || PartitionedLogWriter.getDirectory(logFile).isDirectory();
+	}
+
+	/**
+	 * Returns whether a capture is still writing the log file (or one of its partitions), so its
+	 * rollups are incomplete but shouldn't be built again.
+	 */
+	public static boolean isBeingCaptured(File logFile) {
+		for (File file : getRawFiles(logFile)) {
+			if (LogWriter.isLocked(file)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String getLabels(RollupResolution[] resolutions) {
+		StringBuilder labels = new StringBuilder();
+		for (RollupResolution resolution : resolutions) {
+			labels.append(labels.length() == 0 ? "" : ",").append(resolution.getLabel());
+		}
+
+		return labels.toString();
+	}
+
+	private static File[] getRawFiles(File logFile) {
+		File partitionDirectory = PartitionedLogWriter.getDirectory(logFile);
+		if (logFile.exists() || !partitionDirectory.isDirectory()) {
+			return new File[] { logFile };
+		}
+
+		File[] partitions = FileUtils.listLogFiles(partitionDirectory);
+		return partitions == null ? new File[0] : partitions;
+	}
+
+	/**
+	 * Deletes rollup files (of every resolution) of the given log file.
+	 */
+	public static void delete(File logFile) {
+		for (RollupResolution resolution : RollupResolution.values()) {
+			resolution.getRollupFile(logFile).delete();
+		}
+	}
+
+	/**
+	 * Creates a temporary file next to file, named uniquely so that rollups of the same log file built
+	 * at the same time (e.g. by compaction and capture recovery) don't write over each other; whichever
+	 * is committed last stays.
+	 */
+	private static File getTemporaryFile(File file) throws IOException {
+		return File.createTempFile(file.getName() + ".", "." + TEMPORARY_FILENAME_EXTENSION, file.getParentFile());
+	}
+
+	/**
+	 * Holds min/max/sum/count/last of every channel of a message type within a single bucket of time.
+	 * Arrays are reused from one bucket to the next as long as the layout has the same size.
+	 */
+	private static class Bucket {
+		private ChannelLayout layout;
+		private long start;
+		private double[] min = new double[0];
+		private double[] max = new double[0];
+		private double[] sum = new double[0];
+		private double[] last = new double[0];
+		private long[] count = new long[0];
+
+		void reset(ChannelLayout layout, long start) {
+			int size = layout.getChannelCount();
+
+			if (count.length != size) {
+				min = new double[size];
+				max = new double[size];
+				sum = new double[size];
+				last = new double[size];
+				count = new long[size];
+			}
+
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			Arrays.fill(sum, 0);
+			Arrays.fill(count, 0);
+
+			this.layout = layout;
+			this.start = start;
+		}
+
+		void add(TelemetryRecord record) {
+			for (int i = 0; i < record.getSize(); i++) {
+				double value = record.getValue(i);
+
+				min[i] = Math.min(min[i], value);
+				max[i] = Math.max(max[i], value);
+				sum[i] += value;
+				last[i] = value;
+				count[i]++;
+			}
+		}
+
+		void write(BufferedWriter writer) throws IOException {
+			for (int i = 0; i < count.length; i++) {
+				if (count[i] == 0) {
+					continue;
+				}
+
+				Rollup rollup = new Rollup(start, layout.getType(), layout.getName(i), min[i], max[i], sum[i], count[i], last[i]);
+				writer.write(Rollup.serialize(rollup));
+				writer.newLine();
+			}
+
+			// a bucket is only ever written once; clearing counts makes sure of that.
+			Arrays.fill(count, 0);
+		}
+	}
+}
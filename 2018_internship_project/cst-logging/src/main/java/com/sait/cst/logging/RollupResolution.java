@@ -0,0 +1,68 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+
+public enum RollupResolution {
+	SECOND("1s", 1000L),
+	MINUTE("1m", 60 * 1000L),
+	HOUR("1h", 60 * 60 * 1000L);
+
+	private final String label;
+	private final long durationMillis;
+
+	RollupResolution(String label, long durationMillis) {
+		this.label = label;
+		this.durationMillis = durationMillis;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Returns start of the bucket (of this resolution) the given timestamp falls into.
+	 */
+	public long getBucketStart(long timestamp) {
+		return timestamp - Math.floorMod(timestamp, durationMillis);
+	}
+
+	/**
+	 * Returns the file where rollups of this resolution for the given log file are stored. Rollups
+	 * live next to the raw log and share its name, e.g. 10.10.102.11_20180829_144900.r1m.
+	 */
+	public File getRollupFile(File logFile) {
+		String name = logFile.getName();
+		String extension = "." + Application.LOG_FILENAME_EXTENSION;
+
+		if (name.endsWith(extension)) {
+			name = name.substring(0, name.length() - extension.length());
+		}
+
+		return new File(logFile.getParentFile(), name + "." + getFileExtension());
+	}
+
+	/**
+	 * Returns extension of rollup files of this resolution, e.g. r1m.
+	 */
+	public String getFileExtension() {
+		return "r" + label;
+	}
+
+	/**
+	 * Returns the finest resolution which covers the time range with at most maxBuckets buckets. If
+	 * none does (e.g. range is unbounded), the coarsest resolution is returned.
+	 */
+	public static RollupResolution forRange(long startTimestamp, long endTimestamp, long maxBuckets) {
+		for (RollupResolution resolution : values()) {
+			if ((endTimestamp - startTimestamp) / resolution.durationMillis <= maxBuckets) {
+				return resolution;
+			}
+		}
+
+		return HOUR;
+	}
+}
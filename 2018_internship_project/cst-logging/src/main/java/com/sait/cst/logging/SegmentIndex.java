@@ -0,0 +1,192 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SegmentIndex {
+	private static final Logger logger = Logger.getLogger(SegmentIndex.class);
+
+	public static final String INDEX_FILENAME_EXTENSION = "idx";
+	private static final int LINES_PER_ENTRY = 256;
+
+	private long length;
+	private long lineCount;
+	private long firstTimestamp = Long.MAX_VALUE;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private Map<String, Long> typeCounts = new LinkedHashMap<>();
+	private List<long[]> entries = new ArrayList<>();
+
+	/**
+	 * Returns the file where index for the given log file is (or would be) stored. Index files live
+	 * next to the log file they describe, e.g. 10.10.102.11_20180829.log.idx.
+	 */
+	public static File getIndexFile(File logFile) {
+		return new File(logFile.getParentFile(), logFile.getName() + "." + INDEX_FILENAME_EXTENSION);
+	}
+
+	/**
+	 * Records a line written to the log file at the given byte offset. Lines must be added in the
+	 * same order they are written to the file, which is also timestamp order for segments.
+	 */
+	public void add(LogLine logLine, long offset, long lineLength) {
+		long timestamp = logLine.getTimestamp();
+
+		// only every Nth line gets an entry; this keeps index small while still letting readers skip
+		// almost everything before the start of a time range.
+		if (lineCount % LINES_PER_ENTRY == 0) {
+			entries.add(new long[] { timestamp, offset });
+		}
+
+		String type = logLine.getType();
+		if (type != null) {
+			Long count = typeCounts.get(type);
+			typeCounts.put(type, count == null ? 1 : count + 1);
+		}
+
+		firstTimestamp = Math.min(firstTimestamp, timestamp);
+		lastTimestamp = Math.max(lastTimestamp, timestamp);
+		length = offset + lineLength;
+		lineCount++;
+	}
+
+	/**
+	 * Returns whether or not the segment may contain lines of given type between start and end
+	 * timestamps. A false value means the file can be skipped without reading it.
+	 */
+	public boolean mayContain(String type, long startTimestamp, long endTimestamp) {
+		if (lineCount == 0 || lastTimestamp < startTimestamp || firstTimestamp > endTimestamp) {
+			return false;
+		}
+
+		return type == null || typeCounts.containsKey(type);
+	}
+
+	/**
+	 * Returns the byte offset of a line from which reading can start without missing any line whose
+	 * timestamp is equal to or later than startTimestamp.
+	 */
+	public long getOffset(long startTimestamp) {
+		long offset = 0;
+
+		// every line before an entry has a timestamp smaller than or equal to the entry's timestamp, so
+		// the last entry strictly before startTimestamp is a safe place to start reading.
+		for (long[] entry : entries) {
+			if (entry[0] >= startTimestamp) {
+				break;
+			}
+
+			offset = entry[1];
+		}
+
+		return offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Sets length of the log file the index is for, when it is only known once the file is closed
+	 * (e.g. time series files, whose last messages are written on close).
+	 */
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	public long getFirstTimestamp() {
+		return firstTimestamp;
+	}
+
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	public Map<String, Long> getTypeCounts() {
+		return typeCounts;
+	}
+
+	/**
+	 * Writes index to the given file. Format is line based, similar to the log files themselves:
+	 * summary lines first (length, count, first, last, type) followed by offset entries.
+	 */
+	public void write(File indexFile) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile))) {
+			writer.write("length," + length);
+			writer.newLine();
+			writer.write("count," + lineCount);
+			writer.newLine();
+			writer.write("first," + firstTimestamp);
+			writer.newLine();
+			writer.write("last," + lastTimestamp);
+			writer.newLine();
+
+			for (Map.Entry<String, Long> typeCount : typeCounts.entrySet()) {
+				writer.write("type," + typeCount.getKey() + "," + typeCount.getValue());
+				writer.newLine();
+			}
+
+			for (long[] entry : entries) {
+				writer.write("offset," + entry[0] + "," + entry[1]);
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Loads index for the given log file. If there is no index, or index doesn't describe the file as
+	 * it is right now (e.g. file was appended to after index was written), null is returned so callers
+	 * can fall back to reading the whole file.
+	 */
+	public static SegmentIndex load(File logFile) {
+		File indexFile = getIndexFile(logFile);
+		if (!indexFile.exists()) {
+			return null;
+		}
+
+		SegmentIndex index = new SegmentIndex();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				String[] segments = line.split(",");
+
+				if (segments[0].equals("length")) {
+					index.length = Long.parseLong(segments[1]);
+				} else if (segments[0].equals("count")) {
+					index.lineCount = Long.parseLong(segments[1]);
+				} else if (segments[0].equals("first")) {
+					index.firstTimestamp = Long.parseLong(segments[1]);
+				} else if (segments[0].equals("last")) {
+					index.lastTimestamp = Long.parseLong(segments[1]);
+				} else if (segments[0].equals("type")) {
+					index.typeCounts.put(segments[1], Long.parseLong(segments[2]));
+				} else if (segments[0].equals("offset")) {
+					index.entries.add(new long[] { Long.parseLong(segments[1]), Long.parseLong(segments[2]) });
+				}
+			}
+		} catch (IOException | RuntimeException exception) {
+			logger.warn("Ignoring unreadable index (%s): %s", indexFile.getName(), exception.getMessage());
+			return null;
+		}
+
+		if (index.length != logFile.length()) {
+			logger.debug("Ignoring stale index (%s).", indexFile.getName());
+			return null;
+		}
+
+		return index;
+	}
+}
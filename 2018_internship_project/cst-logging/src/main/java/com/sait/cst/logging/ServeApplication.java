@@ -0,0 +1,248 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ServeApplication {
+	private static final Logger logger = Logger.getLogger(ServeApplication.class);
+
+	public static final int DEFAULT_PORT = 7460;
+	private static final int CONNECT_TIMEOUT = 200;
+	private static final int DEFAULT_READ_TIMEOUT = 10000;
+	private static final String NO_VALUE = "-";
+
+	// status sent back as soon as a request is read (accepted or unserved), and after a response's
+	// output (ok or failed).
+	private static final int STATUS_OK = 0;
+	private static final int STATUS_FAILED = 2;
+	private static final int STATUS_UNSERVED = 1;
+	private static final int STATUS_ACCEPTED = 3;
+
+	/**
+	 * Keeps answering query and trend requests for the log directory until the program is stopped.
+	 * Listing the directory, indexes and rollups are kept in memory (see LogCatalog) and classes stay
+	 * loaded and compiled, so requests forwarded by the command line (see forward) are answered without
+	 * the cost of starting a JVM and reading everything from cold.
+	 *
+	 * Requests are accepted on cst.serve.port of the loopback interface only.
+	 */
+	public static void run(String logDirectory) {
+		int port = Settings.getInt("cst.serve.port", DEFAULT_PORT);
+		ExecutorService executor = Executors.newFixedThreadPool(Settings.getInt("cst.serve.threads", 4));
+		final LogCatalog catalog = new LogCatalog(new File(logDirectory).getAbsoluteFile());
+
+		try (ServerSocket serverSocket = new ServerSocket()) {
+			catalog.watch();
+			Metrics.getInstance().export("serve", logDirectory);
+			serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			logger.info("Serving queries on %s for %s.", serverSocket.getLocalSocketAddress(), catalog.getDirectory().getPath());
+
+			while (true) {
+				final Socket socket = serverSocket.accept();
+
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						respond(catalog, socket);
+					}
+				});
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to serve queries on port %d: %s", port, exception.getMessage());
+			System.exit(-2);
+		} finally {
+			catalog.close();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Sends a query or trend request (mode followed by its arguments, with null for unset ones) to a
+	 * running ServeApplication and prints its output as it arrives. Returns false, without printing
+	 * anything, when no ServeApplication serving the log directory is running (or cst.serve.forward is
+	 * false), so the caller can answer the request itself. The same goes for a process on the port
+	 * which doesn't accept the request within cst.serve.timeout.ms; once accepted, a request takes as
+	 * long as it takes.
+	 */
+	public static boolean forward(String logDirectory, String... request) {
+		if (!Settings.getBoolean("cst.serve.forward", true)) {
+			return false;
+		}
+
+		int port = Settings.getInt("cst.serve.port", DEFAULT_PORT);
+		StringBuilder line = new StringBuilder(new File(logDirectory).getAbsolutePath());
+
+		for (String argument : request) {
+			line.append('\t').append(argument == null ? NO_VALUE : argument);
+		}
+
+		boolean printing = false;
+
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+			socket.setSoTimeout(Settings.getInt("cst.serve.timeout.ms", DEFAULT_READ_TIMEOUT));
+
+			OutputStream outputStream = socket.getOutputStream();
+			outputStream.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+			outputStream.flush();
+
+			DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+			if (inputStream.read() != STATUS_ACCEPTED) {
+				return false;
+			}
+
+			socket.setSoTimeout(0);
+			byte[] buffer = new byte[64 * 1024];
+			int length;
+
+			// output comes in chunks (see ChunkedOutputStream) ended by an empty one and the status.
+			while ((length = inputStream.readInt()) > 0) {
+				if (buffer.length < length) {
+					buffer = new byte[length];
+				}
+
+				inputStream.readFully(buffer, 0, length);
+				printing = true;
+				System.out.write(buffer, 0, length);
+			}
+
+			int status = inputStream.read();
+			System.out.flush();
+			if (status != STATUS_OK) {
+				System.exit(-2);
+			}
+
+			return true;
+		} catch (ConnectException exception) {
+			return false;
+		} catch (IOException exception) {
+			// part of the output was printed already, so answering here would print it twice.
+			if (printing) {
+				System.out.flush();
+				logger.error("Failed to read answer of query server: %s", exception.getMessage());
+				System.exit(-2);
+			}
+
+			logger.warn("Failed to forward request to query server, answering it here: %s", exception.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Answers a single request: a status byte (accepted or unserved) as soon as the request is read,
+	 * then what the command line would have printed, sent as it is printed, and the status of the
+	 * answer (see STATUS_*). Output is never held in memory as a whole, however large it is.
+	 */
+	private static void respond(LogCatalog catalog, Socket socket) {
+		try (Socket connection = socket) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+			String line = reader.readLine();
+			if (line == null) {
+				return;
+			}
+
+			String[] arguments = line.split("\t", -1);
+			OutputStream outputStream = connection.getOutputStream();
+
+			// requests for another directory (e.g. from a different working directory) aren't ours.
+			if (!catalog.getDirectory().equals(new File(arguments[0]))) {
+				outputStream.write(STATUS_UNSERVED);
+				return;
+			}
+
+			outputStream.write(STATUS_ACCEPTED);
+			outputStream.flush();
+
+			ChunkedOutputStream output = new ChunkedOutputStream(outputStream);
+			PrintStream out = new PrintStream(new BufferedOutputStream(output, 64 * 1024), false, "UTF-8");
+			int status = STATUS_OK;
+			long start = System.nanoTime();
+
+			try {
+				if (!execute(catalog, arguments, out)) {
+					out.println(String.format("Failed to answer request: %s", line));
+					status = STATUS_FAILED;
+				}
+			} catch (IOException exception) {
+				out.println(String.format("Failed to answer request (%s): %s", line, exception.getMessage()));
+				status = STATUS_FAILED;
+			}
+
+			out.flush();
+			output.finish(status);
+
+			logger.debug("Answered %s in %d ms.", line, (System.nanoTime() - start) / 1000000);
+		} catch (IOException | RuntimeException exception) {
+			logger.error("Failed to answer request: %s", exception.getMessage());
+		}
+	}
+
+	private static boolean execute(LogCatalog catalog, String[] arguments, PrintStream out) throws IOException {
+		String mode = arguments.length > 1 ? arguments[1] : null;
+
+		if ("query".equals(mode) && arguments.length == 5) {
+			return QueryApplication.run(catalog, arguments[2], parseInstant(arguments[3]), parseInstant(arguments[4]), out);
+		} else if ("trend".equals(mode) && arguments.length == 6) {
+			return TrendApplication.run(catalog, arguments[2], arguments[3], parseInstant(arguments[4]), parseInstant(arguments[5]), out);
+		}
+
+		return false;
+	}
+
+	private static Instant parseInstant(String value) {
+		return value.equals(NO_VALUE) ? null : Instant.parse(value);
+	}
+
+	/**
+	 * Sends what is written to it as chunks (length followed by bytes), so the client can tell the end
+	 * of output from a connection which was lost, and finish sends the status after an empty chunk.
+	 */
+	private static class ChunkedOutputStream extends OutputStream {
+		private final DataOutputStream outputStream;
+
+		ChunkedOutputStream(OutputStream outputStream) {
+			this.outputStream = new DataOutputStream(outputStream);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if (length > 0) {
+				outputStream.writeInt(length);
+				outputStream.write(bytes, offset, length);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			outputStream.flush();
+		}
+
+		void finish(int status) throws IOException {
+			outputStream.writeInt(0);
+			outputStream.write(status);
+			outputStream.flush();
+		}
+	}
+}
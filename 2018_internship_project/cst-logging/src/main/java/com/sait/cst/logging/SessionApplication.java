@@ -0,0 +1,376 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SessionApplication {
+	private static final Logger logger = Logger.getLogger(SessionApplication.class);
+
+	private static final int DEFAULT_CHUNK_ROWS = 1000;
+
+	/**
+	 * Starts an analysis session over messages of a type within a time range: they are decoded once
+	 * into column caches (see ColumnCache) and every command of the session is answered from those,
+	 * instead of reading and parsing log files again for each query. Commands are read from the
+	 * standard input, one per line (see printHelp), until it ends or quit is entered.
+	 *
+	 * Caches are kept in cst.session.directory (cst-session of the temporary directory by default) and
+	 * reused by later sessions over the same range, as long as their log file didn't change.
+	 */
+	public static void run(String logDirectory, String type, Instant start, Instant end) {
+		LogCatalog catalog = new LogCatalog(new File(logDirectory));
+		File[] files = catalog.getLogFiles(type);
+		if (files == null) {
+			logger.error("Failed to list files in directory (%s).", logDirectory);
+			System.exit(-2);
+		}
+
+		File cacheDirectory = new File(Settings.getString("cst.session.directory", new File(System.getProperty("java.io.tmpdir"), "cst-session").getPath()));
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+			logger.error("Failed to create session directory (%s).", cacheDirectory.getPath());
+			System.exit(-2);
+		}
+
+		long startTimestamp = start == null ? 0 : start.toEpochMilli();
+		long endTimestamp = end == null ? Long.MAX_VALUE : end.toEpochMilli();
+		long loadStart = System.nanoTime();
+		List<ColumnCache> caches = new ArrayList<>();
+		long size = 0;
+		long rowCount = 0;
+
+		for (File file : files) {
+			SegmentIndex index = catalog.getIndex(file);
+			if (index != null && !index.mayContain(type, startTimestamp, endTimestamp)) {
+				continue;
+			}
+
+			try {
+				ColumnCache cache = ColumnCache.open(file, catalog.getName(file), index, type, startTimestamp, endTimestamp, cacheDirectory);
+				if (cache.getRowCount() > 0) {
+					caches.add(cache);
+					size += cache.getSize();
+					rowCount += cache.getRowCount();
+				}
+			} catch (IOException exception) {
+				logger.error("Failed to cache %s, so it is left out of the session: %s", catalog.getName(file), exception.getMessage());
+			}
+		}
+
+		System.out.println(String.format("Session: %d %s message(s) of %d file(s), %d KB of columns, ready in %d ms. Enter help for commands.", rowCount, type,
+				caches.size(), size / 1024, (System.nanoTime() - loadStart) / 1000000));
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+			String line;
+
+			System.out.print("> ");
+			System.out.flush();
+
+			while ((line = reader.readLine()) != null) {
+				String[] arguments = line.trim().split("\\s+");
+
+				if (arguments[0].equals("quit") || arguments[0].equals("exit")) {
+					break;
+				} else if (!arguments[0].isEmpty()) {
+					long commandStart = System.nanoTime();
+					if (execute(caches, arguments)) {
+						System.out.println(String.format("(%d ms)", (System.nanoTime() - commandStart) / 1000000));
+					}
+				}
+
+				System.out.print("> ");
+				System.out.flush();
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to read commands: %s", exception.getMessage());
+		}
+	}
+
+	/**
+	 * Runs a command of the session. Returns false if it isn't a valid command.
+	 */
+	private static boolean execute(List<ColumnCache> caches, String[] arguments) {
+		String command = arguments[0];
+
+		if (command.equals("channels") && arguments.length == 1) {
+			printChannels(caches);
+			return true;
+		}
+
+		// the rest are CHANNEL [...] [start end], with a channel pattern as trend mode takes.
+		int rangeIndex = command.equals("find") ? 4 : 2;
+		if (!command.equals("rows") && !command.equals("stats") && !command.equals("trend") && !command.equals("find")) {
+			printHelp();
+			return false;
+		}
+
+		if (arguments.length != rangeIndex && arguments.length != rangeIndex + 2) {
+			printHelp();
+			return false;
+		}
+
+		long startTimestamp = 0;
+		long endTimestamp = Long.MAX_VALUE;
+
+		try {
+			if (arguments.length > rangeIndex) {
+				startTimestamp = Instant.parse(arguments[rangeIndex]).toEpochMilli();
+				endTimestamp = Instant.parse(arguments[rangeIndex + 1]).toEpochMilli();
+			}
+		} catch (DateTimeParseException exception) {
+			System.out.println("Failed to parse start or end: " + exception.getParsedString());
+			return false;
+		}
+
+		QueryStatistics statistics = new QueryStatistics("session");
+
+		if (command.equals("rows")) {
+			printRows(caches, arguments[1], null, 0, startTimestamp, endTimestamp, statistics);
+		} else if (command.equals("find")) {
+			if (!isOperator(arguments[2])) {
+				printHelp();
+				return false;
+			}
+
+			double operand;
+			try {
+				operand = Double.parseDouble(arguments[3]);
+			} catch (NumberFormatException exception) {
+				System.out.println("Failed to parse value: " + arguments[3]);
+				return false;
+			}
+
+			printRows(caches, arguments[1], arguments[2], operand, startTimestamp, endTimestamp, statistics);
+		} else {
+			printAggregates(caches, arguments[1], command.equals("trend"), startTimestamp, endTimestamp, statistics);
+		}
+
+		statistics.record();
+		return true;
+	}
+
+	private static void printHelp() {
+		System.out.println("Commands (start and end are optional, and narrow the range of the session):");
+		System.out.println("  channels");
+		System.out.println("  rows [CHANNEL] [start] [end]");
+		System.out.println("  find [CHANNEL] [< <= = != >= >] [VALUE] [start] [end]");
+		System.out.println("  stats [CHANNEL] [start] [end]");
+		System.out.println("  trend [CHANNEL] [start] [end]");
+		System.out.println("  quit");
+		System.out.println("CHANNEL is a channel name or pattern, e.g. ta, ta[1][3], ta[*][3] or *.");
+	}
+
+	private static void printChannels(List<ColumnCache> caches) {
+		List<Map<String, String>> rows = new ArrayList<>();
+
+		for (ColumnCache cache : caches) {
+			for (ColumnCache.ColumnBlock block : cache.getBlocks()) {
+				ChannelLayout layout = block.getLayout();
+				StringBuilder names = new StringBuilder();
+
+				for (int i = 0; i < layout.getChannelCount(); i++) {
+					names.append(i == 0 ? "" : " ").append(layout.getName(i));
+				}
+
+				Map<String, String> row = new LinkedHashMap<>();
+				row.put(LogLineColumnNames.SOURCE, cache.getName());
+				row.put(LogLineColumnNames.COUNT, Integer.toString(block.getRowCount()));
+				row.put(LogLineColumnNames.CHANNEL, names.toString());
+				rows.add(row);
+			}
+		}
+
+		if (!rows.isEmpty()) {
+			QueryApplication.printTable("Channels", rows);
+		}
+	}
+
+	/**
+	 * Prints values of matching channels for rows within the range, in tables of up to
+	 * cst.session.chunk.rows. With an operator, only rows where one of the channels compares to the
+	 * operand that way are printed.
+	 */
+	private static void printRows(List<ColumnCache> caches, String channel, String operator, double operand, long startTimestamp, long endTimestamp,
+			QueryStatistics statistics) {
+		int chunkRows = Math.max(Settings.getInt("cst.session.chunk.rows", DEFAULT_CHUNK_ROWS), 1);
+
+		for (ColumnCache cache : caches) {
+			for (ColumnCache.ColumnBlock block : cache.getBlocks()) {
+				int[] channels = block.getLayout().find(channel);
+				if (channels.length == 0) {
+					continue;
+				}
+
+				String heading = String.format("File: %s (resolution: raw)", cache.getName());
+				List<Map<String, String>> rows = new ArrayList<>();
+				int firstRow = block.findRow(startTimestamp);
+				int row = firstRow;
+				long matchedCount = 0;
+
+				for (; row < block.getRowCount() && block.getTimestamp(row) <= endTimestamp; row++) {
+					if (operator != null && !anyMatches(block, channels, row, operator, operand)) {
+						continue;
+					}
+
+					Map<String, String> fields = new LinkedHashMap<>();
+					fields.put(LogLineColumnNames.TIMESTAMP, formatTimestamp(block.getTimestamp(row)));
+					for (int index : channels) {
+						fields.put(block.getLayout().getName(index), Rollup.formatValue(block.getValue(index, row)));
+					}
+
+					rows.add(fields);
+					if (rows.size() == chunkRows) {
+						QueryApplication.printTable(heading, rows);
+						matchedCount += rows.size();
+						rows.clear();
+					}
+				}
+
+				if (!rows.isEmpty()) {
+					QueryApplication.printTable(heading, rows);
+					matchedCount += rows.size();
+				}
+
+				statistics.addScanned(row - firstRow, row - firstRow - matchedCount, false);
+				statistics.addParsed(matchedCount, 0);
+			}
+		}
+	}
+
+	private static boolean anyMatches(ColumnCache.ColumnBlock block, int[] channels, int row, String operator, double operand) {
+		for (int index : channels) {
+			double value = block.getValue(index, row);
+			int order = Double.compare(value, operand);
+
+			if (operator.equals("<") ? order < 0 : operator.equals("<=") ? order <= 0 : operator.equals("=") ? order == 0
+					: operator.equals("!=") ? order != 0 : operator.equals(">=") ? order >= 0 : order > 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isOperator(String operator) {
+		return operator.equals("<") || operator.equals("<=") || operator.equals("=") || operator.equals("!=") || operator.equals(">=") || operator.equals(">");
+	}
+
+	/**
+	 * Prints min, max, average, last and count of matching channels within the range: over the whole
+	 * range for stats, or per bucket for a trend. Buckets are of the finest resolution which keeps
+	 * their number within what trend mode allows, for the range of data actually in the session.
+	 * Values are aggregated straight from the columns; only a Rollup per channel and bucket is made.
+	 */
+	private static void printAggregates(List<ColumnCache> caches, String channel, boolean trend, long startTimestamp, long endTimestamp,
+			QueryStatistics statistics) {
+		long firstTimestamp = Long.MAX_VALUE;
+		long lastTimestamp = Long.MIN_VALUE;
+
+		for (ColumnCache cache : caches) {
+			for (ColumnCache.ColumnBlock block : cache.getBlocks()) {
+				int firstRow = block.findRow(startTimestamp);
+				int endRow = block.findRow(endTimestamp == Long.MAX_VALUE ? endTimestamp : endTimestamp + 1);
+
+				if (firstRow < endRow) {
+					firstTimestamp = Math.min(firstTimestamp, block.getTimestamp(firstRow));
+					lastTimestamp = Math.max(lastTimestamp, block.getTimestamp(endRow - 1));
+				}
+			}
+		}
+
+		if (firstTimestamp > lastTimestamp) {
+			return;
+		}
+
+		RollupResolution resolution = trend ? RollupResolution.forRange(firstTimestamp, lastTimestamp, TrendApplication.MAX_BUCKETS) : null;
+		final Map<String, Rollup> aggregates = new LinkedHashMap<>();
+
+		for (ColumnCache cache : caches) {
+			for (ColumnCache.ColumnBlock block : cache.getBlocks()) {
+				ChannelLayout layout = block.getLayout();
+				int firstRow = block.findRow(startTimestamp);
+				int endRow = block.findRow(endTimestamp == Long.MAX_VALUE ? endTimestamp : endTimestamp + 1);
+				int[] channels = layout.find(channel);
+
+				for (int index : channels) {
+					// rows are in timestamp order, so a bucket is a run of rows; it is added once it ends.
+					int row = firstRow;
+
+					while (row < endRow) {
+						long bucketStart = resolution == null ? firstTimestamp : resolution.getBucketStart(block.getTimestamp(row));
+						long bucketEnd = resolution == null ? Long.MAX_VALUE : bucketStart + resolution.getDurationMillis();
+						double min = Double.POSITIVE_INFINITY;
+						double max = Double.NEGATIVE_INFINITY;
+						double sum = 0;
+						double last = 0;
+						int count = 0;
+
+						for (; row < endRow && block.getTimestamp(row) < bucketEnd; row++) {
+							double value = block.getValue(index, row);
+							min = Math.min(min, value);
+							max = Math.max(max, value);
+							sum += value;
+							last = value;
+							count++;
+						}
+
+						Rollup rollup = new Rollup(bucketStart, layout.getType(), layout.getName(index), min, max, sum, count, last);
+						String key = bucketStart + "\t" + rollup.getChannel();
+						Rollup aggregate = aggregates.get(key);
+
+						aggregates.put(key, aggregate == null ? rollup : aggregate.combine(rollup));
+					}
+				}
+
+				statistics.addScanned(endRow - firstRow, channels.length == 0 ? endRow - firstRow : 0, false);
+			}
+		}
+
+		List<Rollup> rollups = new ArrayList<>(aggregates.values());
+		Collections.sort(rollups, new Comparator<Rollup>() {
+			@Override
+			public int compare(Rollup rollup, Rollup otherRollup) {
+				int order = Long.compare(rollup.getBucketStart(), otherRollup.getBucketStart());
+				return order != 0 ? order : rollup.getChannel().compareTo(otherRollup.getChannel());
+			}
+		});
+
+		List<Map<String, String>> rows = new ArrayList<>();
+		for (Rollup rollup : rollups) {
+			Map<String, String> fields = rollup.getFields();
+
+			// stats cover the whole range, which the heading shows instead.
+			if (resolution == null) {
+				fields.remove(LogLineColumnNames.TIMESTAMP);
+			}
+
+			rows.add(fields);
+		}
+
+		statistics.addParsed(rows.size(), 0);
+
+		if (!rows.isEmpty()) {
+			String heading = resolution == null
+					? String.format("Session: %s to %s", formatTimestamp(firstTimestamp), formatTimestamp(lastTimestamp))
+					: String.format("Session: %d file(s) (resolution: %s)", caches.size(), resolution.getLabel());
+			QueryApplication.printTable(heading, rows);
+		}
+	}
+
+	private static String formatTimestamp(long timestamp) {
+		return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(timestamp).truncatedTo(ChronoUnit.SECONDS));
+	}
+}
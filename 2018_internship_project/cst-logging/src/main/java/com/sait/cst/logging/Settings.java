@@ -0,0 +1,70 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+public class Settings {
+	private static final Logger logger = Logger.getLogger(Settings.class);
+
+	public static final String SETTINGS_FILENAME = "cst-logging.properties";
+	private static Properties properties;
+
+	/**
+	 * Returns value of a setting. Settings are read from cst-logging.properties in the working directory
+	 * (if there is one) and can be overridden with system properties, e.g. -Dcst.retention.raw.days=14.
+	 * If setting isn't set anywhere, defaultValue is returned.
+	 */
+	public static synchronized String getString(String name, String defaultValue) {
+		// properties are set before loading them, so a failure to load can be logged (and logging can
+		// read its own settings).
+		if (properties == null) {
+			properties = new Properties();
+			load(properties);
+		}
+
+		String value = System.getProperty(name);
+		if (value == null) {
+			value = properties.getProperty(name);
+		}
+
+		return value == null ? defaultValue : value.trim();
+	}
+
+	public static int getInt(String name, int defaultValue) {
+		return (int) getLong(name, defaultValue);
+	}
+
+	public static long getLong(String name, long defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException exception) {
+			logger.warn("Ignoring invalid value for setting %s: %s", name, value);
+			return defaultValue;
+		}
+	}
+
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	private static void load(Properties properties) {
+		File file = new File(SETTINGS_FILENAME);
+
+		if (file.exists()) {
+			try (Reader reader = new FileReader(file)) {
+				properties.load(reader);
+			} catch (IOException exception) {
+				logger.warn("Failed to read settings from %s: %s", file.getName(), exception.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.neovisionaries.ws.client.WebSocket;
+
+public class SimulateApplication {
+	private static final Logger logger = Logger.getLogger(SimulateApplication.class);
+
+	public static final int DEFAULT_PORT = 9000;
+	public static final String DEFAULT_OUTPUT_DIRECTORY = "cst-logs-simulated";
+	private static final int DEFAULT_REPORT_INTERVAL = 5;
+
+	// time left for messages in flight to reach captures once devices stop.
+	private static final long DRAIN_DELAY = 500;
+
+	/**
+	 * Simulates a number of CST devices on consecutive ports starting at cst.simulate.port (of
+	 * cst.simulate.address, the loopback interface by default), each replaying log files of the source
+	 * directory at the given speed (see DeviceSimulator). When the source directory has no log files,
+	 * synthetic messages with cst.simulate.units units are sent instead.
+	 *
+	 * Unless cst.simulate.capture is false, a capture is run for every device in this process, writing
+	 * to cst.simulate.output (cst-logs-simulated by default) like capture mode would, and how many
+	 * messages were sent and written per second along with how long they took from being sent to being
+	 * written (end-to-end latency) is reported every cst.simulate.report.seconds and once stopped.
+	 * Otherwise devices wait for captures run elsewhere, e.g. capture 127.0.0.1:9000.
+	 */
+	public static void run(String sourceDirectory, int deviceCount, double speed, int durationInSeconds) {
+		File[] replayFiles = FileUtils.listLogFiles(new File(sourceDirectory));
+		if (replayFiles == null || replayFiles.length == 0) {
+			logger.info("No log files to replay in %s, sending synthetic messages.", sourceDirectory);
+			replayFiles = new File[0];
+		}
+
+		boolean capture = Settings.getBoolean("cst.simulate.capture", true);
+		String outputDirectory = Settings.getString("cst.simulate.output", DEFAULT_OUTPUT_DIRECTORY);
+		int units = Settings.getInt("cst.simulate.units", 1);
+		int port = Settings.getInt("cst.simulate.port", DEFAULT_PORT);
+
+		if (capture && !FileUtils.createDirectory(outputDirectory)) {
+			logger.error("Failed to create directory: %s", outputDirectory);
+			System.exit(-2);
+		}
+
+		// captures export their metrics like capture mode does; see Metrics.
+		if (capture) {
+			Metrics.getInstance().export("simulate", outputDirectory);
+		}
+
+		final List<DeviceSimulator> devices = new ArrayList<>();
+		final List<MessageHandler> handlers = new ArrayList<>();
+		final List<WebSocket> sockets = new ArrayList<>();
+		final List<DeviceSimulator.SentTimes> sentTimes = new ArrayList<>();
+		final Statistics statistics = new Statistics(devices, sentTimes);
+
+		try {
+			InetAddress address = InetAddress.getByName(Settings.getString("cst.simulate.address", "127.0.0.1"));
+
+			for (int i = 0; i < deviceCount; i++) {
+				DeviceSimulator.SentTimes deviceSentTimes = capture ? new DeviceSimulator.SentTimes() : null;
+				DeviceSimulator device = new DeviceSimulator(new InetSocketAddress(address, port + i), replayFiles, i, speed, units, deviceSentTimes);
+
+				device.start();
+				devices.add(device);
+
+				if (deviceSentTimes != null) {
+					sentTimes.add(deviceSentTimes);
+				}
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to start simulated devices on port %d: %s", port, exception.getMessage());
+			System.exit(-2);
+		}
+
+		logger.info("Simulating %d device(s) on %s:%d and up at %s speed.", deviceCount, devices.get(0).getAddress().getHostString(), port, speed > 0 ? speed + "x" : "maximum");
+
+		if (capture) {
+			for (int i = 0; i < devices.size(); i++) {
+				InetSocketAddress address = devices.get(i).getAddress();
+				String ipAddress = address.getHostString() + ":" + address.getPort();
+
+				MessageHandler handler = new MessageHandler(outputDirectory, ipAddress);
+				if (!handler.isReady()) {
+					logger.error("Failed to initialize LogMessageHandler successfully.");
+					System.exit(-3);
+				}
+
+				handler.setWriteListener(statistics.createListener(sentTimes.get(i)));
+				handlers.add(handler);
+
+				try {
+					sockets.add(CaptureApplication.start("ws://" + ipAddress, handler));
+				} catch (Exception exception) {
+					logger.error("Failed to WebSocket (%s): (%s)", ipAddress, exception.getMessage());
+					System.exit(-2);
+				}
+			}
+		}
+
+		final Timer timer = new Timer("simulate-report", true);
+		long reportInterval = Settings.getInt("cst.simulate.report.seconds", DEFAULT_REPORT_INTERVAL) * 1000L;
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				logger.info("%s", statistics.report(false));
+			}
+		}, reportInterval, reportInterval);
+
+		// like capture, stopping (Ctrl + C or after the duration) lets captures finish writing, and what
+		// was measured over the whole run is reported last.
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				timer.cancel();
+
+				for (DeviceSimulator device : devices) {
+					device.stop();
+				}
+
+				try {
+					Thread.sleep(DRAIN_DELAY);
+				} catch (InterruptedException exception) {
+					// report what made it so far.
+				}
+
+				for (WebSocket socket : sockets) {
+					socket.disconnect();
+				}
+
+				for (MessageHandler handler : handlers) {
+					handler.close();
+				}
+
+				logger.info("%s", statistics.report(true));
+			}
+		});
+
+		if (durationInSeconds > 0) {
+			new Timer().schedule(new TimerTask() {
+				@Override
+				public void run() {
+					System.exit(0);
+				}
+			}, durationInSeconds * 1000L);
+		}
+	}
+
+	/**
+	 * Counts messages sent by devices and written by captures, and their end-to-end latency, both since
+	 * the last report and since the start.
+	 */
+	private static class Statistics {
+		private final List<DeviceSimulator> devices;
+		private final List<DeviceSimulator.SentTimes> sentTimes;
+		private final long startTime = System.nanoTime();
+
+		private final Histogram intervalLatencies = new Histogram();
+		private final Histogram totalLatencies = new Histogram();
+		private final AtomicLong writtenCount = new AtomicLong();
+		private long lastReportTime = startTime;
+		private long lastSentCount = 0;
+		private long lastSentBytes = 0;
+		private long lastWrittenCount = 0;
+
+		Statistics(List<DeviceSimulator> devices, List<DeviceSimulator.SentTimes> sentTimes) {
+			this.devices = devices;
+			this.sentTimes = sentTimes;
+		}
+
+		/**
+		 * Returns a listener for a capture (see MessageHandler.setWriteListener) of the device adding
+		 * the time it sent messages at to deviceSentTimes. The capture receives everything the device
+		 * sends, in order, so its received sequence of a message is the device's sequence of it.
+		 */
+		EventHandler<CaptureEvent> createListener(final DeviceSimulator.SentTimes deviceSentTimes) {
+			return new EventHandler<CaptureEvent>() {
+				@Override
+				public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) {
+					writtenCount.incrementAndGet();
+
+					long sentTime = deviceSentTimes.remove(event.getReceivedSequence());
+					if (sentTime >= 0) {
+						record(System.nanoTime() - sentTime);
+					}
+				}
+			};
+		}
+
+		void record(long latency) {
+			intervalLatencies.record(latency);
+			totalLatencies.record(latency);
+		}
+
+		/**
+		 * Returns a line describing what happened since the last report, or since the start for the final
+		 * one. Messages are counted as lost once a later one of the same device was written; the final
+		 * report counts everything sent which wasn't written.
+		 */
+		synchronized String report(boolean total) {
+			long now = System.nanoTime();
+			long sentCount = 0;
+			long sentBytes = 0;
+
+			for (DeviceSimulator device : devices) {
+				sentCount += device.getSentCount();
+				sentBytes += device.getSentBytes();
+			}
+
+			long written = writtenCount.get();
+			long lostCount = 0;
+
+			if (total) {
+				lostCount = sentCount - written;
+			} else {
+				for (DeviceSimulator.SentTimes deviceSentTimes : sentTimes) {
+					lostCount += deviceSentTimes.getPassedCount();
+				}
+			}
+
+			Histogram latencies = total ? totalLatencies : intervalLatencies;
+			double seconds = (now - (total ? startTime : lastReportTime)) / 1e9;
+			long count = total ? sentCount : sentCount - lastSentCount;
+			long bytes = total ? sentBytes : sentBytes - lastSentBytes;
+			long writtenInReport = total ? written : written - lastWrittenCount;
+
+			StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%s %d messages (%.1f/s, %.2f MB/s)",
+					total ? "Simulation sent" : "Sent", count, count / seconds, bytes / seconds / 1024 / 1024));
+
+			if (!sentTimes.isEmpty()) {
+				line.append(String.format(Locale.ROOT, ", written %d (%.1f/s), lost %d in total; latency p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+						writtenInReport, writtenInReport / seconds, lostCount,
+						latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6, latencies.getMaximum() / 1e6));
+			}
+
+			intervalLatencies.reset();
+			lastReportTime = now;
+			lastSentCount = sentCount;
+			lastSentBytes = sentBytes;
+			lastWrittenCount = written;
+
+			return line.append('.').toString();
+		}
+	}
+}
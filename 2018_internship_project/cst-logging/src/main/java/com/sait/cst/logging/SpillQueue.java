@@ -0,0 +1,143 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class SpillQueue {
+	private static final Logger logger = Logger.getLogger(SpillQueue.class);
+
+	public static final String SPILL_FILENAME_EXTENSION = "spill";
+
+	private final File file;
+	private DataOutputStream outputStream;
+	private DataInputStream inputStream;
+	private boolean flushed = true;
+	private long size = 0;
+	private long byteCount = 0;
+
+	/**
+	 * Creates a SpillQueue, a first-in first-out queue of messages kept in a file instead of memory.
+	 * Capture spills messages into it when the pipeline can't keep up, so bursts cost disk space rather
+	 * than heap. File is only created once something is spilled and emptied whenever queue drains.
+	 */
+	public SpillQueue(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the file used to spill messages captured to the given log file, e.g.
+	 * 10.10.102.11_20180829_144900.log.spill.
+	 */
+	public static File getSpillFile(File logFile) {
+		return new File(logFile.getParentFile(), logFile.getName() + "." + SPILL_FILENAME_EXTENSION);
+	}
+
+	/**
+	 * Adds a message at the end of the queue. Each entry is written as timestamp, received sequence
+	 * (see CaptureEvent.getReceivedSequence), length and UTF-8 bytes of the text.
+	 */
+	public void add(long timestamp, long receivedSequence, String text) throws IOException {
+		if (outputStream == null) {
+			outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		}
+
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		outputStream.writeLong(timestamp);
+		outputStream.writeLong(receivedSequence);
+		outputStream.writeInt(bytes.length);
+		outputStream.write(bytes);
+
+		flushed = false;
+		size++;
+		byteCount += 20 + bytes.length;
+	}
+
+	/**
+	 * Removes the message at the front of the queue and copies it into event. Returns false if
+	 * queue is empty.
+	 */
+	public boolean poll(CaptureEvent event) throws IOException {
+		if (size == 0) {
+			return false;
+		}
+
+		// entries are read back from the file, so everything added so far must have reached it.
+		if (!flushed) {
+			outputStream.flush();
+			flushed = true;
+		}
+
+		if (inputStream == null) {
+			inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		}
+
+		long timestamp = inputStream.readLong();
+		long receivedSequence = inputStream.readLong();
+		byte[] bytes = new byte[inputStream.readInt()];
+		inputStream.readFully(bytes);
+		event.set(timestamp, new String(bytes, StandardCharsets.UTF_8), 0, receivedSequence);
+
+		size--;
+		if (size == 0) {
+			clear();
+		}
+
+		return true;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns how many messages are in the queue.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns how much disk space (in bytes) is used by messages in the queue since it last drained.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Closes and deletes the file. Messages still in the queue are lost, so callers should drain it.
+	 */
+	public void close() {
+		clear();
+	}
+
+	/**
+	 * Starts over with an empty file so disk space used by drained messages is given back.
+	 */
+	private void clear() {
+		try {
+			if (outputStream != null) {
+				outputStream.close();
+			}
+
+			if (inputStream != null) {
+				inputStream.close();
+			}
+		} catch (IOException exception) {
+			logger.error("Failed to close spill file (%s): %s", file.getName(), exception.getMessage());
+		}
+
+		outputStream = null;
+		inputStream = null;
+		flushed = true;
+		size = 0;
+		byteCount = 0;
+		file.delete();
+	}
+}
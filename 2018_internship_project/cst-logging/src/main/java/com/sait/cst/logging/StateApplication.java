@@ -0,0 +1,86 @@
+package com.sait.cst.logging;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class StateApplication {
+	private static final Logger logger = Logger.getLogger(StateApplication.class);
+
+	private static final int CONNECTION_TIMEOUT = 5000;
+
+	/**
+	 * Prints latest state of all devices (or the one with given IP address) as served by a running
+	 * capture's StateServer on the given port.
+	 */
+	public static void run(int port, String ipAddress) {
+		String path = ipAddress == null ? StateServer.STATE_PATH : StateServer.STATE_PATH + "/" + ipAddress;
+		JSONObject devices;
+
+		try {
+			devices = new JSONObject(fetch(new URL("http", "127.0.0.1", port, path)));
+		} catch (IOException | JSONException exception) {
+			logger.error("Failed to get state from capture on port %d: %s", port, exception.getMessage());
+			System.exit(-2);
+			return;
+		}
+
+		for (String device : new TreeSet<>(devices.keySet())) {
+			JSONObject deviceJson = devices.getJSONObject(device);
+
+			for (String type : LatestStateStore.STATE_TYPES) {
+				if (!deviceJson.has(type)) {
+					continue;
+				}
+
+				JSONObject typeJson = deviceJson.getJSONObject(type);
+				JSONObject channels = typeJson.getJSONObject("channels");
+				List<Map<String, String>> rows = new ArrayList<>();
+
+				for (String channel : new TreeSet<>(channels.keySet())) {
+					Map<String, String> fields = new LinkedHashMap<>();
+					fields.put(LogLineColumnNames.CHANNEL, channel);
+					fields.put(LogLineColumnNames.LAST, Rollup.formatValue(channels.getDouble(channel)));
+					rows.add(fields);
+				}
+
+				String timestamp = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(typeJson.getLong("timestamp")).truncatedTo(ChronoUnit.SECONDS));
+				QueryApplication.printTable(String.format("Device: %s (type: %s, as of %s)", device, type, timestamp), rows);
+			}
+		}
+	}
+
+	private static String fetch(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(CONNECTION_TIMEOUT);
+		connection.setReadTimeout(CONNECTION_TIMEOUT);
+
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("Unexpected response: " + connection.getResponseCode());
+		}
+
+		StringBuilder body = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				body.append(line);
+			}
+		}
+
+		return body.toString();
+	}
+}
@@ -0,0 +1,101 @@
+package com.sait.cst.logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StateServer {
+	private static final Logger logger = Logger.getLogger(StateServer.class);
+
+	public static final String STATE_PATH = "/state";
+
+	private final HttpServer server;
+
+	/**
+	 * Creates a lightweight HTTP endpoint (only reachable from the local machine) serving the latest
+	 * state of devices from LatestStateStore as JSON:
+	 * - /state: all devices.
+	 * - /state/<ip address>: a single device.
+	 *
+	 * Requests are answered from memory only; reading the whole fleet is one pass over the devices.
+	 */
+	public StateServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(STATE_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+		logger.info("Serving latest state on http://%s:%d%s.", server.getAddress().getHostString(), server.getAddress().getPort(), STATE_PATH);
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * Returns latest state of a device as JSON: one object per message type holding its timestamp and
+	 * channels, e.g. {"sm":{"timestamp":1535546950516,"channels":{"is[0][0]":5600,...}}}.
+	 */
+	public static JSONObject toJson(LatestStateStore store, String device) {
+		JSONObject deviceJson = new JSONObject();
+
+		for (String type : LatestStateStore.STATE_TYPES) {
+			StateSnapshot snapshot = store.getSnapshot(device, type);
+			if (snapshot == null) {
+				continue;
+			}
+
+			JSONObject channels = new JSONObject();
+			for (int i = 0; i < snapshot.getSize(); i++) {
+				channels.put(snapshot.getLayout().getName(i), snapshot.getValue(i));
+			}
+
+			JSONObject typeJson = new JSONObject();
+			typeJson.put("timestamp", snapshot.getTimestamp());
+			typeJson.put("channels", channels);
+			deviceJson.put(type, typeJson);
+		}
+
+		return deviceJson;
+	}
+
+	private static void respond(HttpExchange exchange) throws IOException {
+		LatestStateStore store = LatestStateStore.getInstance();
+		String path = exchange.getRequestURI().getPath();
+		String device = path.length() > STATE_PATH.length() + 1 ? path.substring(STATE_PATH.length() + 1) : null;
+
+		int status = 200;
+		JSONObject response = new JSONObject();
+
+		if (device == null) {
+			for (String knownDevice : store.getDevices()) {
+				response.put(knownDevice, toJson(store, knownDevice));
+			}
+		} else if (store.getDevices().contains(device)) {
+			response.put(device, toJson(store, device));
+		} else {
+			status = 404;
+		}
+
+		byte[] body = response.toString().getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+
+		try (OutputStream outputStream = exchange.getResponseBody()) {
+			outputStream.write(body);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.sait.cst.logging;
+
+import java.util.Arrays;
+
+public class StateSnapshot {
+	private final long timestamp;
+	private final ChannelLayout layout;
+	private final double[] values;
+
+	/**
+	 * Creates an immutable copy of the channels of a decoded message. Snapshots are never changed after
+	 * they are published, so readers on any thread can use them without locking.
+	 */
+	public StateSnapshot(TelemetryRecord record) {
+		this.timestamp = record.getTimestamp();
+		this.layout = record.getLayout();
+		this.values = new double[record.getSize()];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = record.getValue(i);
+		}
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public ChannelLayout getLayout() {
+		return layout;
+	}
+
+	public int getSize() {
+		return values.length;
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Returns value of the channel with given name, or NaN if snapshot has no such channel.
+	 */
+	public double getValue(String channel) {
+		int index = layout.indexOf(channel);
+		return index < 0 ? Double.NaN : values[index];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("StateSnapshot(timestamp=%d, type=%s, values=%s)", timestamp, layout.getType(), Arrays.toString(values));
+	}
+}
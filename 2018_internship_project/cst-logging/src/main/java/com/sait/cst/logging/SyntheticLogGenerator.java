@@ -0,0 +1,283 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class SyntheticLogGenerator {
+	private static final Logger logger = Logger.getLogger(SyntheticLogGenerator.class);
+
+	// addresses of the documentation range, so generated files can't be mistaken for a real device's.
+	public static final String IP_ADDRESS = "192.0.2.1";
+	private static final long START_TIMESTAMP = 1535546940000L;
+
+	// devices report fm, cc, hc and sm about once a second each, and occasional lr and er messages.
+	private static final long SAMPLE_INTERVAL = 1000;
+
+	private final Random random;
+	private final int units;
+	private long timestamp;
+
+	// counters keep increasing from one sample to the next, like om[] of real devices.
+	private final long[][] counters;
+
+	/**
+	 * Creates a SyntheticLogGenerator producing messages shaped like those in the sample files of
+	 * cst-logs. units is 1 for a standalone device, or the number of entries reported by a master/slave
+	 * system (combiner, master and slaves; 6 in the samples). Same seed always gives the same messages.
+	 */
+	public SyntheticLogGenerator(int units, long seed, long startTimestamp) {
+		this.random = new Random(seed);
+		this.units = units;
+		this.timestamp = startTimestamp;
+		this.counters = new long[units][4];
+
+		for (long[] unitCounters : counters) {
+			for (int i = 0; i < unitCounters.length; i++) {
+				unitCounters[i] = 250000 + random.nextInt(50000000);
+			}
+		}
+	}
+
+	/**
+	 * Generates a log file of about sizeInMegabytes in the log directory, in the format set by
+	 * cst.capture.format, named like a capture of IP_ADDRESS started when its first message was sent.
+	 */
+	public static void run(String logDirectory, long sizeInMegabytes, int units) {
+		if (!FileUtils.createDirectory(logDirectory)) {
+			logger.error("Failed to create log directory (%s).", logDirectory);
+			System.exit(-2);
+		}
+
+		String filename = String.format("%s_%s.%s", IP_ADDRESS, new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date(START_TIMESTAMP)), Application.LOG_FILENAME_EXTENSION);
+		File file = new File(logDirectory, filename);
+
+		try {
+			long count = generate(file, LogFormat.getDefault(), sizeInMegabytes * 1024 * 1024, units, 0);
+			logger.info("Generated %d messages (%d bytes) into %s.", count, file.length(), file.getName());
+		} catch (IOException exception) {
+			logger.error("Failed to generate log file (%s): %s", filename, exception.getMessage());
+			System.exit(-2);
+		}
+	}
+
+	/**
+	 * Writes messages to file (replacing it) in the given format until it is at least targetBytes long.
+	 * Returns the number of messages written.
+	 */
+	public static long generate(File file, LogFormat format, long targetBytes, int units, long seed) throws IOException {
+		SyntheticLogGenerator generator = new SyntheticLogGenerator(units, seed, START_TIMESTAMP);
+		LogWriter writer = LogWriter.create(file, format);
+		long count = 0;
+
+		try {
+			for (LogLine logLine : generator.nextHeader()) {
+				writer.write(logLine.getTimestamp(), logLine.getJsonString());
+				count++;
+			}
+
+			while (writer.getPosition() < targetBytes) {
+				for (LogLine logLine : generator.nextSample()) {
+					writer.write(logLine.getTimestamp(), logLine.getJsonString());
+					count++;
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns messages a device sends once when a capture connects: its configuration (pg), users (ur),
+	 * modes (mr) and channels (cr).
+	 */
+	public List<LogLine> nextHeader() {
+		List<LogLine> logLines = new ArrayList<>();
+
+		add(logLines, "{\"pg\":{\"id\":0,\"txname\":\"TX\",\"txtype\":\"CST3005\",\"a[]\":[0,0],\"m[]\":[0,0],\"ar\":7,\"al\":3,\"vo\":-133,"
+				+ "\"ip[]\":[192,168,1,11],\"sm[]\":[255,255,255,0],\"gw[]\":[192,168,1,1],\"td[]\":[0,0,0,0],\"pd[]\":[10,30,60,90],"
+				+ "\"ca[]\":[0,0,0,0],\"kt\":1000,\"ds\":0,\"di\":98304,\"do\":0,\"ap\":0,\"at\":2000,\"sn\":170018,\"pl\":5000,"
+				+ "\"es[]\":[16,3,1,2,4,5,0,0,0,0,0,0],\"ri\":200,\"pt\":149,\"vp\":150,\"b6\":100,\"bt\":40,\"mt\":4,\"me[]\":[0,10,53,0,17,18]}}");
+		add(logLines, "{\"ur\":{\"id\":1,\"name\":\"manager\",\"pwd\":\"\",\"level\":3}}");
+
+		for (int i = 1; i <= 4; i++) {
+			add(logLines, String.format("{\"mr\":{\"id\":%d,\"name\":\"A1A\",\"cl\":4096,\"f1\":0,\"f2\":0,\"t1\":0,\"t2\":0,\"df\":0,\"su\":0,\"sl\":0}}", i));
+		}
+
+		for (int i = 1; i <= 16; i++) {
+			add(logLines, String.format("{\"cr\":{\"id\":%d,\"name\":\"%d\",\"cf\":%d,\"pl\":500,\"ai\":1,\"mi\":2}}", i, i, 490000 + i * 25000));
+		}
+
+		return logLines;
+	}
+
+	/**
+	 * Returns messages of the next second: fm, cc, hc and sm, and sometimes lr and er.
+	 */
+	public List<LogLine> nextSample() {
+		List<LogLine> logLines = new ArrayList<>();
+
+		timestamp += SAMPLE_INTERVAL - 50 + random.nextInt(100);
+		add(logLines, nextCc());
+		add(logLines, nextHc());
+		add(logLines, nextSm());
+		add(logLines, nextFm());
+
+		if (random.nextInt(4) == 0) {
+			add(logLines, String.format("{\"lr\":{\"id\":1,\"lt\":%d,\"st\":1,\"ec[]\":[262144],\"wn[]\":[8],\"ui\":0,\"at\":0}}", timestamp - random.nextInt(1000000000)));
+		}
+
+		if (random.nextInt(10) == 0) {
+			add(logLines, "{\"er\":{\"id\":1,\"type\":\"rs\",\"eid\":0,\"ed\":\"Off\"}}");
+		}
+
+		return logLines;
+	}
+
+	private void add(List<LogLine> logLines, String json) {
+		timestamp += 1 + random.nextInt(50);
+		logLines.add(new LogLine(timestamp, json));
+	}
+
+	private String nextCc() {
+		return String.format(Locale.ROOT, "{\"cc\":{\"id\":0,\"cf\":3016000,\"ci\":1,\"sl\":0,\"su\":0,\"cl\":%.6f,\"la\":%.6f,\"f[]\":[0.000000,0.000000],"
+				+ "\"t[]\":[0.000000,0.000000],\"df\":0,\"km[]\":[4],\"pl\":100,\"vs\":%d,\"vd\":750,\"zr\":0,\"lm\":1.000000}}",
+				random.nextDouble(), random.nextDouble(), 17 + random.nextInt(3));
+	}
+
+	private String nextHc() {
+		StringBuilder builder = new StringBuilder("{\"hc\":{\"id\":0,");
+
+		appendArray(builder, "u1fv[]", units, "\" 3.06\"");
+		builder.append("\"esn[]\":[170001],");
+
+		builder.append("\"u1sn[]\":[");
+		for (int i = 0; i < units; i++) {
+			builder.append(i == 0 ? "" : ",").append(170010 + i);
+		}
+
+		builder.append("],\"om[]\":[0,127],");
+		appendArray(builder, "u2p[]", units, "0");
+		appendArray(builder, "u2fv[]", units, "\" 3.06\"");
+		appendArray(builder, "u2pap[]", units, "[0,0,0,0]");
+		appendArray(builder, "u2pafv[]", units, "[\"A3\",\"A3\",\"A3\",\"A3\"]");
+
+		builder.append("\"u2pasn[]\":[");
+		for (int i = 0; i < units; i++) {
+			int serial = 170100 + i * 4;
+			builder.append(i == 0 ? "" : ",").append(String.format("[%d,%d,%d,%d]", serial, serial + 1, serial + 2, serial + 3));
+		}
+
+		builder.append("],");
+		appendArray(builder, "u2psp[]", units, "[0,0]");
+
+		builder.append("\"u2pssn[]\":[");
+		for (int i = 0; i < units; i++) {
+			builder.append(i == 0 ? "" : ",").append(String.format("[\"16KZ250196%02d  \",\"16KZ250198%02d  \"]", i, i));
+		}
+
+		return builder.append("]}}").toString();
+	}
+
+	private String nextSm() {
+		StringBuilder builder = new StringBuilder("{\"sm\":{\"id\":0,");
+
+		appendMatrix(builder, "is[]", 2, 5500, 300);
+		appendMatrix(builder, "vs[]", 2, 17980, 20);
+		appendMatrix(builder, "ts[]", 2, 23, 10);
+		appendMatrix(builder, "ia[]", 4, 2900, 150);
+		appendMatrix(builder, "ta[]", 4, 22, 12);
+		appendMatrix(builder, "fa[]", 4, 0, 1);
+		appendMatrix(builder, "pa[]", 4, 18, 340);
+		appendMatrix(builder, "vc[]", 4, 19, 8);
+
+		builder.append("\"om[]\":[");
+		for (int i = 0; i < units; i++) {
+			builder.append(i == 0 ? "[" : ",[");
+
+			for (int j = 0; j < 4; j++) {
+				counters[i][j] += random.nextInt(8);
+				builder.append(j == 0 ? "" : ",").append(counters[i][j]);
+			}
+
+			builder.append(']');
+		}
+
+		builder.append("],");
+		appendMatrix(builder, "ob[]", 4, 56000, 160000);
+		appendMatrix(builder, "of[]", 4, 600000, 7400000);
+
+		return builder.append("\"bi[]\":[1],\"me[]\":[255]}}").toString();
+	}
+
+	private String nextFm() {
+		StringBuilder builder = new StringBuilder("{\"fm\":{\"id\":0,");
+
+		appendRandomArray(builder, "pf[]", 6);
+		appendRandomArray(builder, "pr[]", 5);
+		builder.append(String.format(Locale.ROOT, "\"rs\":%d,\"ks\":%d,\"ec[]\":[0],\"wn[]\":[0],\"ll[]\":[[%.6f,%.6f]],",
+				1 + random.nextInt(3), random.nextInt(2), -63 + random.nextDouble() * 8, -63 + random.nextDouble() * 8));
+		appendArray(builder, "paa[]", units, "[0,0,0,0]");
+
+		builder.append("\"saa[]\":[");
+		for (int i = 0; i < units; i++) {
+			builder.append(i == 0 ? "" : ",").append(units > 1 && i == 0 ? "[0,0]" : "[1342242816,1342242816]");
+		}
+
+		builder.append("],");
+		appendArray(builder, "bo[]", units, "4095");
+
+		builder.setLength(builder.length() - 1);
+		return builder.append("}}").toString();
+	}
+
+	/**
+	 * Appends "name":[value,...] with the same value for every unit.
+	 */
+	private void appendArray(StringBuilder builder, String name, int count, String value) {
+		builder.append('"').append(name).append("\":[");
+
+		for (int i = 0; i < count; i++) {
+			builder.append(i == 0 ? "" : ",").append(value);
+		}
+
+		builder.append("],");
+	}
+
+	private void appendRandomArray(StringBuilder builder, String name, int bound) {
+		builder.append('"').append(name).append("\":[");
+
+		for (int i = 0; i < units; i++) {
+			builder.append(i == 0 ? "" : ",").append(random.nextInt(bound));
+		}
+
+		builder.append("],");
+	}
+
+	/**
+	 * Appends "name":[[v,...],...] with width random values per unit, between minimum and
+	 * minimum + range.
+	 */
+	private void appendMatrix(StringBuilder builder, String name, int width, int minimum, int range) {
+		builder.append('"').append(name).append("\":[");
+
+		for (int i = 0; i < units; i++) {
+			builder.append(i == 0 ? "[" : ",[");
+
+			for (int j = 0; j < width; j++) {
+				builder.append(j == 0 ? "" : ",").append(minimum + random.nextInt(range));
+			}
+
+			builder.append(']');
+		}
+
+		builder.append("],");
+	}
+}
@@ -0,0 +1,373 @@
+package com.sait.cst.logging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TelemetryDecoder {
+	private static final int MAX_DEPTH = 8;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+	};
+
+	private ChannelLayout[] layouts = new ChannelLayout[8];
+	private int layoutCount = 0;
+
+	// state of the message being decoded. decoder isn't thread-safe; every thread needs its own.
+	private CharSequence text;
+	private int position;
+	private long signature;
+	private TelemetryRecord record;
+	private int typeStart;
+	private int typeEnd;
+	private int keyStart;
+	private int keyEnd;
+	private int depth;
+	private int[] path = new int[MAX_DEPTH];
+	private List<String> names;
+
+	/**
+	 * Decodes numeric channels of a message received from a device (e.g. {"sm":{"is[]":[[5600,5800]]}})
+	 * into the given record. Returns false if text isn't a message that can be decoded.
+	 *
+	 * Decoding works directly on the text and doesn't allocate: numbers are parsed by hand and channel
+	 * names are only built the first time a message shape is seen. After that, the shape is recognized
+	 * by a signature computed while scanning and the cached ChannelLayout is reused.
+	 */
+	public boolean decode(long timestamp, CharSequence text, TelemetryRecord record) {
+		this.text = text;
+		this.record = record;
+		this.names = null;
+
+		record.reset(timestamp);
+		if (!scan()) {
+			return false;
+		}
+
+		ChannelLayout layout = findLayout(signature, record.getSize());
+		if (layout == null) {
+			// first time this shape is seen, so scan once more collecting names of channels.
+			names = new ArrayList<>();
+			record.reset(timestamp);
+			scan();
+
+			String type = text.subSequence(typeStart, typeEnd).toString();
+			layout = new ChannelLayout(type, signature, names.toArray(new String[names.size()]));
+			addLayout(layout);
+			names = null;
+		}
+
+		record.setLayout(layout);
+		return true;
+	}
+
+	private ChannelLayout findLayout(long signature, int channelCount) {
+		for (int i = 0; i < layoutCount; i++) {
+			if (layouts[i].getSignature() == signature && layouts[i].getChannelCount() == channelCount) {
+				return layouts[i];
+			}
+		}
+
+		return null;
+	}
+
+	private void addLayout(ChannelLayout layout) {
+		if (layoutCount == layouts.length) {
+			layouts = Arrays.copyOf(layouts, layoutCount * 2);
+		}
+
+		layouts[layoutCount++] = layout;
+	}
+
+	/**
+	 * Scans the whole message: {"type":{"key":value,...}}. Every key, array boundary and kind of value
+	 * is mixed into the signature so messages of the same shape get the same signature.
+	 */
+	private boolean scan() {
+		position = 0;
+		signature = 17;
+
+		skipWhitespace();
+		if (!consume('{')) {
+			return false;
+		}
+
+		skipWhitespace();
+		typeStart = position + 1;
+		if (!skipString(true)) {
+			return false;
+		}
+
+		typeEnd = position - 1;
+		skipWhitespace();
+		if (!consume(':')) {
+			return false;
+		}
+
+		skipWhitespace();
+		if (!consume('{')) {
+			return false;
+		}
+
+		skipWhitespace();
+		if (consume('}')) {
+			return true;
+		}
+
+		while (true) {
+			skipWhitespace();
+			keyStart = position + 1;
+			if (!skipString(true)) {
+				return false;
+			}
+
+			keyEnd = position - 1;
+			skipWhitespace();
+			if (!consume(':')) {
+				return false;
+			}
+
+			skipWhitespace();
+			depth = 0;
+			if (!scanValue()) {
+				return false;
+			}
+
+			skipWhitespace();
+			if (consume(',')) {
+				continue;
+			}
+
+			return consume('}');
+		}
+	}
+
+	private boolean scanValue() {
+		char c = peek();
+
+		if (c == '[') {
+			if (depth == MAX_DEPTH) {
+				return false;
+			}
+
+			position++;
+			mix('[');
+			depth++;
+
+			skipWhitespace();
+			if (consume(']')) {
+				depth--;
+				mix(']');
+				return true;
+			}
+
+			for (int index = 0; ; index++) {
+				path[depth - 1] = index;
+
+				skipWhitespace();
+				if (!scanValue()) {
+					return false;
+				}
+
+				skipWhitespace();
+				if (consume(',')) {
+					continue;
+				}
+
+				if (consume(']')) {
+					depth--;
+					mix(']');
+					return true;
+				}
+
+				return false;
+			}
+		} else if (c == '"') {
+			mix('s');
+			return skipString(false);
+		} else if (c == '{') {
+			mix('o');
+			return skipObject();
+		} else if (c == '-' || (c >= '0' && c <= '9')) {
+			mix('#');
+			return scanNumber();
+		} else if (c == 't' || c == 'f' || c == 'n') {
+			mix('l');
+			while (Character.isLetter(peek())) {
+				position++;
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	private boolean scanNumber() {
+		int start = position;
+		boolean negative = consume('-');
+		boolean exact = true;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+
+		for (char c = peek(); c >= '0' && c <= '9'; c = peek()) {
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (c - '0');
+			} else {
+				exact = false;
+			}
+
+			digits++;
+			position++;
+		}
+
+		if (digits == 0) {
+			return false;
+		}
+
+		if (consume('.')) {
+			for (char c = peek(); c >= '0' && c <= '9'; c = peek()) {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					scale++;
+				} else {
+					exact = false;
+				}
+
+				digits++;
+				position++;
+			}
+		}
+
+		char c = peek();
+		if (c == 'e' || c == 'E') {
+			exact = false;
+			position++;
+
+			c = peek();
+			if (c == '+' || c == '-') {
+				position++;
+			}
+
+			while (peek() >= '0' && peek() <= '9') {
+				position++;
+			}
+		}
+
+		double value;
+		boolean integral = exact && scale == 0 && mantissa < MAX_EXACT_MANTISSA;
+
+		// dividing an exactly representable mantissa by an exactly representable power of ten gives
+		// the correctly rounded result, same as Double.parseDouble would, without creating a String.
+		if (exact && mantissa < MAX_EXACT_MANTISSA) {
+			value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+			value = negative ? -value : value;
+		} else {
+			value = Double.parseDouble(text.subSequence(start, position).toString());
+		}
+
+		record.add(value, integral);
+		if (names != null) {
+			names.add(getChannelName());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Builds the name of the channel currently being scanned from its key and array indexes, e.g.
+	 * key "ta[]" at indexes 1 and 3 becomes ta[1][3].
+	 */
+	private String getChannelName() {
+		StringBuilder name = new StringBuilder();
+		name.append(text, keyStart, keyEnd);
+
+		if (name.length() > 2 && name.charAt(name.length() - 2) == '[' && name.charAt(name.length() - 1) == ']') {
+			name.setLength(name.length() - 2);
+		}
+
+		for (int i = 0; i < depth; i++) {
+			name.append('[').append(path[i]).append(']');
+		}
+
+		return name.toString();
+	}
+
+	private boolean skipString(boolean mixCharacters) {
+		if (!consume('"')) {
+			return false;
+		}
+
+		while (position < text.length()) {
+			char c = text.charAt(position++);
+
+			if (c == '"') {
+				if (mixCharacters) {
+					mix('"');
+				}
+
+				return true;
+			}
+
+			if (c == '\\') {
+				position++;
+			}
+
+			if (mixCharacters) {
+				mix(c);
+			}
+		}
+
+		return false;
+	}
+
+	private boolean skipObject() {
+		int nesting = 0;
+
+		while (position < text.length()) {
+			char c = peek();
+
+			if (c == '"') {
+				if (!skipString(false)) {
+					return false;
+				}
+
+				continue;
+			}
+
+			position++;
+			if (c == '{') {
+				nesting++;
+			} else if (c == '}' && --nesting == 0) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+	}
+
+	private boolean consume(char expected) {
+		if (position < text.length() && text.charAt(position) == expected) {
+			position++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private char peek() {
+		return position < text.length() ? text.charAt(position) : '\0';
+	}
+
+	private void mix(char c) {
+		signature = signature * 31 + c;
+	}
+}
@@ -0,0 +1,85 @@
+package com.sait.cst.logging;
+
+import java.util.Arrays;
+
+public class TelemetryRecord {
+	private long timestamp;
+	private ChannelLayout layout;
+	private double[] values = new double[64];
+	// whether each value was written as an integer (see isIntegral).
+	private boolean[] integral = new boolean[64];
+	private int size;
+
+	/**
+	 * Creates an empty TelemetryRecord. Records are meant to be reused: TelemetryDecoder overwrites
+	 * the content of a record on every decode, so no allocation is needed per message.
+	 */
+	public TelemetryRecord() {
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public ChannelLayout getLayout() {
+		return layout;
+	}
+
+	public String getType() {
+		return layout.getType();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Returns whether the value at index was written without a fraction or exponent (e.g. 1342242816
+	 * or 007, but not 1e3) and is held exactly, so it can be treated as an integer.
+	 */
+	public boolean isIntegral(int index) {
+		return integral[index];
+	}
+
+	/**
+	 * Copies content of another record into this one, e.g. to keep a decoded record around after the
+	 * original is reused for the next message.
+	 */
+	public void copyFrom(TelemetryRecord other) {
+		reset(other.timestamp);
+		for (int i = 0; i < other.size; i++) {
+			add(other.values[i], other.integral[i]);
+		}
+
+		layout = other.layout;
+	}
+
+	void reset(long timestamp) {
+		this.timestamp = timestamp;
+		this.layout = null;
+		this.size = 0;
+	}
+
+	void add(double value, boolean integral) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+			this.integral = Arrays.copyOf(this.integral, size * 2);
+		}
+
+		this.integral[size] = integral;
+		values[size++] = value;
+	}
+
+	void setLayout(ChannelLayout layout) {
+		this.layout = layout;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TelemetryRecord(timestamp=%d, type=%s, size=%d)", timestamp, layout == null ? null : layout.getType(), size);
+	}
+}
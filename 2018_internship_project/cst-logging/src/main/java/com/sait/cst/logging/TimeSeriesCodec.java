@@ -0,0 +1,701 @@
+package com.sait.cst.logging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TimeSeriesCodec {
+	/**
+	 * First byte of a record's payload for records written by this codec: the definition of the next
+	 * template id, or a block of messages.
+	 */
+	public static final byte TEMPLATE = 'T';
+	public static final byte BLOCK = 'B';
+
+	public static final int MAX_BLOCK_SIZE = 128;
+	private static final int MAX_TEMPLATES = 1024;
+	private static final int MAX_DIGITS = 18;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	// templates known to the writer, by skeleton and scales. only those used since the last sync
+	// marker have an id; see clearScope.
+	private final Map<String, Template> templates = new HashMap<>();
+	private final List<Template> scopeTemplates = new ArrayList<>();
+	private final StringBuilder keyBuilder = new StringBuilder();
+	private final StringBuilder numberBuilder = new StringBuilder();
+	private int[] scales = new int[64];
+
+	// block being written or read: message i has timestamps[i] and either a template (and its numbers
+	// in mantissas[i] and values[i]) or raw text.
+	private int blockSize = 0;
+	private long blockNumber = 0;
+	private final long[] timestamps = new long[MAX_BLOCK_SIZE];
+	private final Template[] entryTemplates = new Template[MAX_BLOCK_SIZE];
+	private final String[] rawTexts = new String[MAX_BLOCK_SIZE];
+	private final int[] rawOffsets = new int[MAX_BLOCK_SIZE];
+	private final int[] rawEnds = new int[MAX_BLOCK_SIZE];
+	private final long[][] mantissas = new long[MAX_BLOCK_SIZE][];
+	private final double[][] values = new double[MAX_BLOCK_SIZE][];
+	private final List<Template> blockTemplates = new ArrayList<>();
+	private byte[] blockBuffer = new byte[4096];
+
+	private byte[] output = new byte[4096];
+	private int outputLength;
+	private int position;
+
+	/**
+	 * Creates a TimeSeriesCodec, which stores messages as numbers rather than text. A message is split
+	 * into a template (its text with every number taken out, e.g. {"sm":{"is[]":[[#,#]]}}, and how many
+	 * decimals each number has) and its numbers. Templates are written once; messages are written in
+	 * blocks of up to MAX_BLOCK_SIZE, column by column:
+	 * - timestamps as zigzag varints of their delta-of-delta, which is 0 for regular sampling.
+	 * - integers (e.g. om[] counters) as zigzag varints of the delta from the previous message with the
+	 *   same template, 1 byte for counters increasing by a few per sample.
+	 * - decimals (e.g. ll[] levels) Gorilla-style: XOR of the double with the previous one, written as
+	 *   a control byte and its meaningful bytes only; values which don't change take a single byte.
+	 *
+	 * Each column is decoded in a tight loop straight into primitive arrays. Messages whose numbers
+	 * can't be reproduced exactly from a mantissa and scale (e.g. 1e3) are kept in the block as text,
+	 * so encoding is always lossless.
+	 */
+	public TimeSeriesCodec() {
+	}
+
+	/**
+	 * Adds a message to the block being written. Returns true once the block is full and should be
+	 * written with encodeBlock.
+	 */
+	public boolean add(long timestamp, String text) {
+		int index = blockSize++;
+		timestamps[index] = timestamp;
+
+		Template template = parse(text, index);
+		entryTemplates[index] = template;
+		rawTexts[index] = template == null ? text : null;
+
+		return blockSize == MAX_BLOCK_SIZE;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	/**
+	 * Encodes the block being written into a block record (see getOutput), preceded by definitions of
+	 * templates not written since the last sync marker and of dictionary strings used by messages kept
+	 * as text, which are added to definitions in the order they must be written. Block is emptied.
+	 */
+	public void encodeBlock(DictionaryCodec dictionary, List<byte[]> definitions) {
+		List<String> dictionaryDefinitions = new ArrayList<>();
+
+		outputLength = 0;
+		writeByte(BLOCK);
+		writeVarint(blockSize);
+
+		blockTemplates.clear();
+		blockNumber++;
+
+		for (int i = 0; i < blockSize; i++) {
+			Template template = entryTemplates[i];
+			if (template == null) {
+				writeVarint(0);
+				continue;
+			}
+
+			if (template.id < 0) {
+				template.id = scopeTemplates.size();
+				scopeTemplates.add(template);
+				definitions.add(template.serialize());
+			}
+
+			if (template.blockNumber != blockNumber) {
+				template.blockNumber = blockNumber;
+				blockTemplates.add(template);
+			}
+
+			writeVarint(template.id + 1);
+		}
+
+		long previousDelta = 0;
+		for (int i = 1; i < blockSize; i++) {
+			long delta = timestamps[i] - timestamps[i - 1];
+			writeVarint(zigzag(delta - previousDelta));
+			previousDelta = delta;
+		}
+
+		for (int i = 0; i < blockSize; i++) {
+			if (entryTemplates[i] != null) {
+				continue;
+			}
+
+			dictionaryDefinitions.clear();
+			dictionary.encode(rawTexts[i], dictionaryDefinitions);
+			for (String definition : dictionaryDefinitions) {
+				byte[] bytes = definition.getBytes(StandardCharsets.UTF_8);
+				byte[] payload = new byte[bytes.length + 1];
+				payload[0] = DictionaryCodec.DEFINITION;
+				System.arraycopy(bytes, 0, payload, 1, bytes.length);
+				definitions.add(payload);
+			}
+
+			writeVarint(dictionary.getOutputLength());
+			writeBytes(dictionary.getOutput(), 0, dictionary.getOutputLength());
+			rawTexts[i] = null;
+		}
+
+		for (Template template : blockTemplates) {
+			for (int hole = 0; hole < template.scales.length; hole++) {
+				if (template.scales[hole] == 0) {
+					long previous = 0;
+
+					for (int i = 0; i < blockSize; i++) {
+						if (entryTemplates[i] == template) {
+							writeVarint(zigzag(mantissas[i][hole] - previous));
+							previous = mantissas[i][hole];
+						}
+					}
+				} else {
+					long previousBits = 0;
+					double power = POWERS_OF_TEN[template.scales[hole]];
+
+					for (int i = 0; i < blockSize; i++) {
+						if (entryTemplates[i] == template) {
+							long bits = Double.doubleToRawLongBits(mantissas[i][hole] / power);
+							writeXor(bits ^ previousBits);
+							previousBits = bits;
+						}
+					}
+				}
+			}
+		}
+
+		blockSize = 0;
+	}
+
+	public byte[] getOutput() {
+		return output;
+	}
+
+	public int getOutputLength() {
+		return outputLength;
+	}
+
+	/**
+	 * Adds the template of a definition record read from a file. It gets the next id.
+	 */
+	public void defineTemplate(byte[] payload, int offset, int end) {
+		position = offset + 1;
+
+		int holeCount = (int) readVarint(payload);
+		int[] templateScales = new int[holeCount];
+		for (int hole = 0; hole < holeCount; hole++) {
+			templateScales[hole] = payload[position++];
+		}
+
+		String[] chunks = new String[holeCount + 1];
+		for (int i = 0; i < chunks.length; i++) {
+			int length = (int) readVarint(payload);
+			chunks[i] = new String(payload, position, length, StandardCharsets.UTF_8);
+			position += length;
+		}
+
+		Template template = new Template(chunks, templateScales);
+		template.id = scopeTemplates.size();
+		scopeTemplates.add(template);
+	}
+
+	/**
+	 * Decodes a block record read from a file; its messages are then available by index, from 0 to
+	 * getBlockSize. First message has the timestamp of the record.
+	 */
+	public void decodeBlock(byte[] payload, int offset, int end, long timestamp) {
+		// raw messages are decoded later from this copy, as payload is reused by the caller.
+		if (blockBuffer.length < end - offset) {
+			blockBuffer = new byte[Math.max(blockBuffer.length * 2, end - offset)];
+		}
+
+		System.arraycopy(payload, offset, blockBuffer, 0, end - offset);
+		byte[] buffer = blockBuffer;
+		position = 1;
+
+		blockSize = (int) readVarint(buffer);
+		blockTemplates.clear();
+		blockNumber++;
+
+		for (int i = 0; i < blockSize; i++) {
+			int id = (int) readVarint(buffer);
+			Template template = id == 0 ? null : scopeTemplates.get(id - 1);
+			entryTemplates[i] = template;
+
+			if (template != null) {
+				if (template.blockNumber != blockNumber) {
+					template.blockNumber = blockNumber;
+					blockTemplates.add(template);
+				}
+
+				ensureEntryCapacity(i, template.scales.length);
+			}
+		}
+
+		timestamps[0] = timestamp;
+		long previousDelta = 0;
+		for (int i = 1; i < blockSize; i++) {
+			previousDelta += unzigzag(readVarint(buffer));
+			timestamps[i] = timestamps[i - 1] + previousDelta;
+		}
+
+		for (int i = 0; i < blockSize; i++) {
+			if (entryTemplates[i] == null) {
+				int length = (int) readVarint(buffer);
+				rawOffsets[i] = position;
+				rawEnds[i] = position + length;
+				position += length;
+			}
+		}
+
+		for (Template template : blockTemplates) {
+			for (int hole = 0; hole < template.scales.length; hole++) {
+				if (template.scales[hole] == 0) {
+					long previous = 0;
+
+					for (int i = 0; i < blockSize; i++) {
+						if (entryTemplates[i] == template) {
+							previous += unzigzag(readVarint(buffer));
+							mantissas[i][hole] = previous;
+							values[i][hole] = previous;
+						}
+					}
+				} else {
+					long previousBits = 0;
+					double power = POWERS_OF_TEN[template.scales[hole]];
+
+					for (int i = 0; i < blockSize; i++) {
+						if (entryTemplates[i] == template) {
+							previousBits ^= readXor(buffer);
+							double value = Double.longBitsToDouble(previousBits);
+							mantissas[i][hole] = Math.round(value * power);
+							values[i][hole] = value;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether message at index of the block read is of the given type. Messages kept as text
+	 * are compared by dictionary id (see DictionaryCodec.getFirstId); typeId is the id of type.
+	 */
+	public boolean isType(int index, String type, int typeId) {
+		Template template = entryTemplates[index];
+		if (template != null) {
+			return type.equals(template.type);
+		}
+
+		int id = DictionaryCodec.getFirstId(blockBuffer, rawOffsets[index], rawEnds[index]);
+		return id < 0 || id == typeId;
+	}
+
+	/**
+	 * Returns the text of the message at index of the block read, exactly as it was written.
+	 */
+	public String decode(int index, DictionaryCodec dictionary, StringBuilder builder) {
+		Template template = entryTemplates[index];
+		if (template == null) {
+			return dictionary.decode(blockBuffer, rawOffsets[index], rawEnds[index], builder);
+		}
+
+		builder.setLength(0);
+		for (int hole = 0; hole < template.scales.length; hole++) {
+			builder.append(template.chunks[hole]);
+			render(builder, mantissas[index][hole], template.scales[hole]);
+		}
+
+		return builder.append(template.chunks[template.scales.length]).toString();
+	}
+
+	/**
+	 * Fills record with numeric channels of the message at index of the block read, straight from the
+	 * decoded columns. Returns false if the message has no template matching a channel layout (it
+	 * then has to be decoded from its text).
+	 */
+	public boolean fill(int index, TelemetryRecord record, TelemetryDecoder decoder, StringBuilder builder) {
+		Template template = entryTemplates[index];
+		if (template == null) {
+			return false;
+		}
+
+		// layout of a template is found once, by decoding the text of its first message.
+		if (!template.layoutResolved) {
+			template.layoutResolved = true;
+
+			if (decoder.decode(timestamps[index], decode(index, null, builder), record) && record.getSize() == template.scales.length) {
+				template.layout = record.getLayout();
+			}
+		}
+
+		if (template.layout == null) {
+			return false;
+		}
+
+		record.reset(timestamps[index]);
+		double[] entryValues = values[index];
+		for (int hole = 0; hole < template.scales.length; hole++) {
+			record.add(entryValues[hole], template.scales[hole] == 0 && Math.abs(entryValues[hole]) < MAX_EXACT_MANTISSA);
+		}
+
+		record.setLayout(template.layout);
+		return true;
+	}
+
+	/**
+	 * Forgets template ids, which start over at every sync marker (like dictionary ids) so readers can
+	 * start at any of them.
+	 */
+	public void clearScope() {
+		for (Template template : scopeTemplates) {
+			template.id = -1;
+		}
+
+		scopeTemplates.clear();
+	}
+
+	/**
+	 * Empties the block read, e.g. after seeking.
+	 */
+	public void clearBlock() {
+		blockSize = 0;
+	}
+
+	/**
+	 * Splits text into a template and numbers, which are stored for the message at index. Returns null
+	 * if the message has no numbers or they can't all be reproduced exactly.
+	 */
+	private Template parse(String text, int index) {
+		keyBuilder.setLength(0);
+
+		int holeCount = 0;
+		int chunkStart = 0;
+		int length = text.length();
+		boolean inString = false;
+		int i = 0;
+
+		while (i < length) {
+			char c = text.charAt(i);
+
+			// placeholders of the key below can't be ambiguous.
+			if (c < 2) {
+				return null;
+			}
+
+			if (inString) {
+				if (c == '\\') {
+					i++;
+				} else if (c == '"') {
+					inString = false;
+				}
+
+				i++;
+				continue;
+			}
+
+			if (c == '"') {
+				inString = true;
+				i++;
+				continue;
+			}
+
+			if (c != '-' && (c < '0' || c > '9')) {
+				i++;
+				continue;
+			}
+
+			int start = i;
+			boolean negative = c == '-';
+			if (negative) {
+				i++;
+			}
+
+			long mantissa = 0;
+			int digits = 0;
+			int scale = 0;
+			boolean fraction = false;
+
+			for (; i < length; i++) {
+				c = text.charAt(i);
+
+				if (c >= '0' && c <= '9') {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					scale += fraction ? 1 : 0;
+				} else if (c == '.' && !fraction) {
+					fraction = true;
+				} else {
+					break;
+				}
+
+				if (digits > MAX_DIGITS) {
+					return null;
+				}
+			}
+
+			if (digits == 0 || (negative && mantissa == 0) || (scale > 0 && mantissa >= MAX_EXACT_MANTISSA)) {
+				return null;
+			}
+
+			// number must be written back exactly as it was, e.g. not 1.0e3, 007 or 1., and decimals must
+			// survive the trip through a double.
+			numberBuilder.setLength(0);
+			render(numberBuilder, negative ? -mantissa : mantissa, scale);
+			if (!matches(text, start, i, numberBuilder)) {
+				return null;
+			}
+
+			if (scale > 0 && Math.round((mantissa / (double) POWERS_OF_TEN[scale]) * POWERS_OF_TEN[scale]) != mantissa) {
+				return null;
+			}
+
+			if (holeCount == scales.length) {
+				scales = Arrays.copyOf(scales, holeCount * 2);
+			}
+
+			ensureEntryCapacity(index, holeCount + 1);
+			mantissas[index][holeCount] = negative ? -mantissa : mantissa;
+			scales[holeCount] = scale;
+			holeCount++;
+
+			keyBuilder.append(text, chunkStart, start).append('\u0000');
+			chunkStart = i;
+		}
+
+		if (inString || holeCount == 0) {
+			return null;
+		}
+
+		keyBuilder.append(text, chunkStart, length).append('\u0001');
+		for (int hole = 0; hole < holeCount; hole++) {
+			keyBuilder.append((char) ('0' + scales[hole]));
+		}
+
+		String key = keyBuilder.toString();
+		Template template = templates.get(key);
+
+		if (template == null) {
+			if (templates.size() >= MAX_TEMPLATES) {
+				return null;
+			}
+
+			String[] chunks = key.substring(0, key.indexOf('\u0001')).split("\u0000", -1);
+			template = new Template(chunks, Arrays.copyOf(scales, holeCount));
+			templates.put(key, template);
+		}
+
+		return template;
+	}
+
+	private static boolean matches(String text, int start, int end, StringBuilder builder) {
+		if (end - start != builder.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < builder.length(); i++) {
+			if (text.charAt(start + i) != builder.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes mantissa with scale decimals, e.g. 150 with scale 2 is 1.50.
+	 */
+	private static void render(StringBuilder builder, long mantissa, int scale) {
+		if (mantissa < 0) {
+			builder.append('-');
+			mantissa = -mantissa;
+		}
+
+		if (scale == 0) {
+			builder.append(mantissa);
+			return;
+		}
+
+		long power = POWERS_OF_TEN[scale];
+		builder.append(mantissa / power).append('.');
+
+		long fraction = mantissa % power;
+		for (long digit = power / 10; digit > 0; digit /= 10) {
+			builder.append((char) ('0' + (fraction / digit) % 10));
+		}
+	}
+
+	private void ensureEntryCapacity(int index, int holeCount) {
+		if (mantissas[index] == null || mantissas[index].length < holeCount) {
+			int capacity = Math.max(holeCount, mantissas[index] == null ? 64 : mantissas[index].length * 2);
+			mantissas[index] = mantissas[index] == null ? new long[capacity] : Arrays.copyOf(mantissas[index], capacity);
+			values[index] = new double[capacity];
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes XOR of two doubles: 0 if they are equal, otherwise a control byte with how many leading
+	 * and trailing bytes are zero, followed by the bytes in between.
+	 */
+	private void writeXor(long xor) {
+		if (xor == 0) {
+			writeByte((byte) 0);
+			return;
+		}
+
+		int leadingBytes = Long.numberOfLeadingZeros(xor) / 8;
+		int trailingBytes = Long.numberOfTrailingZeros(xor) / 8;
+		writeByte((byte) (0x40 | leadingBytes << 3 | trailingBytes));
+
+		for (int i = 7 - leadingBytes; i >= trailingBytes; i--) {
+			writeByte((byte) (xor >>> (i * 8)));
+		}
+	}
+
+	private long readXor(byte[] buffer) {
+		int control = buffer[position++];
+		if (control == 0) {
+			return 0;
+		}
+
+		int leadingBytes = (control >>> 3) & 7;
+		int trailingBytes = control & 7;
+		long xor = 0;
+
+		for (int i = 7 - leadingBytes; i >= trailingBytes; i--) {
+			xor |= (long) (buffer[position++] & 0xFF) << (i * 8);
+		}
+
+		return xor;
+	}
+
+	private long readVarint(byte[] buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+
+		do {
+			b = buffer[position++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		return value;
+	}
+
+	private void writeVarint(long value) {
+		ensureCapacity(10);
+
+		while ((value & ~0x7FL) != 0) {
+			output[outputLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		output[outputLength++] = (byte) value;
+	}
+
+	private void writeByte(byte value) {
+		ensureCapacity(1);
+		output[outputLength++] = value;
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, output, outputLength, length);
+		outputLength += length;
+	}
+
+	private void ensureCapacity(int length) {
+		if (outputLength + length > output.length) {
+			output = Arrays.copyOf(output, Math.max(output.length * 2, outputLength + length));
+		}
+	}
+
+	/**
+	 * Text of messages with numbers taken out (chunks in between them) and decimals of each number.
+	 */
+	private static class Template {
+		private final String[] chunks;
+		private final int[] scales;
+		private final String type;
+		private int id = -1;
+		private long blockNumber = -1;
+		private boolean layoutResolved = false;
+		private ChannelLayout layout;
+
+		Template(String[] chunks, int[] scales) {
+			this.chunks = chunks;
+			this.scales = scales;
+			this.type = new LogLine(0, chunks[0]).getType();
+		}
+
+		/**
+		 * Returns payload of the definition record of this template: number of holes, their scales and
+		 * the chunks around them.
+		 */
+		byte[] serialize() {
+			int length = 1 + 5 + scales.length;
+			byte[][] chunkBytes = new byte[chunks.length][];
+
+			for (int i = 0; i < chunks.length; i++) {
+				chunkBytes[i] = chunks[i].getBytes(StandardCharsets.UTF_8);
+				length += 5 + chunkBytes[i].length;
+			}
+
+			byte[] payload = new byte[length];
+			int position = 0;
+
+			payload[position++] = TEMPLATE;
+			position = putVarint(payload, position, scales.length);
+			for (int scale : scales) {
+				payload[position++] = (byte) scale;
+			}
+
+			for (byte[] bytes : chunkBytes) {
+				position = putVarint(payload, position, bytes.length);
+				System.arraycopy(bytes, 0, payload, position, bytes.length);
+				position += bytes.length;
+			}
+
+			return Arrays.copyOf(payload, position);
+		}
+
+		private static int putVarint(byte[] buffer, int position, long value) {
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+
+			buffer[position++] = (byte) value;
+			return position;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.sait.cst.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class TrendApplication {
+	private static final Logger logger = Logger.getLogger(TrendApplication.class);
+
+	// resolution is chosen so a time range is covered by at most this many buckets.
+	static final long MAX_BUCKETS = 500;
+
+	public static void run(String logDirectory, String type, String channel, Instant start, Instant end) {
+		// if there are no files found in the directory, prints an error message and exits.
+		if (!run(new LogCatalog(new File(logDirectory)), type, channel, start, end, System.out)) {
+			logger.error("Failed to list files in directory (%s).", logDirectory);
+			System.exit(-2);
+		}
+	}
+
+	/**
+	 * Prints rollups of every capture of the catalog matching type and channel to out. Returns false
+	 * if the log directory can't be listed.
+	 */
+	public static boolean run(LogCatalog catalog, String type, String channel, Instant start, Instant end, PrintStream out) {
+		File directory = catalog.getDirectory();
+		Set<String> captureNames = catalog.getCaptureNames();
+		if (captureNames == null) {
+			return false;
+		}
+
+		// same defaults as QueryApplication: no start or end means no filtering.
+		long startTimestamp = start == null ? 0 : start.toEpochMilli();
+		long endTimestamp = end == null ? Long.MAX_VALUE : end.toEpochMilli();
+
+		// trends are answered from rollups instead of raw data. the finest resolution that keeps the
+		// number of buckets reasonable is preferred.
+		RollupResolution preferredResolution = RollupResolution.forRange(startTimestamp, endTimestamp, MAX_BUCKETS);
+		Pattern channelPattern = ChannelLayout.compilePattern(channel);
+		QueryStatistics statistics = new QueryStatistics("trend");
+
+		logger.debug("Preferring %s rollups for %d captures in log directory provided (%s).", preferredResolution.getLabel(), captureNames.size(), directory.getPath());
+		for (String captureName : captureNames) {
+			File file = new File(directory, captureName + "." + Application.LOG_FILENAME_EXTENSION);
+
+			SegmentIndex index = catalog.getIndex(file);
+			if (index != null && !index.mayContain(type, startTimestamp, endTimestamp)) {
+				statistics.addScanned(0, 0, true);
+				continue;
+			}
+
+			RollupResolution resolution = getAvailableResolution(file, preferredResolution);
+			if (resolution == null) {
+				logger.warn("No rollups at %s or coarser are available for %s.", preferredResolution.getLabel(), captureName);
+				continue;
+			}
+
+			File rollupFile = resolution.getRollupFile(file);
+			List<Rollup> rollups = getMatchingRollups(catalog, rollupFile, type, channelPattern, resolution.getBucketStart(startTimestamp), endTimestamp, statistics);
+
+			if (rollups.isEmpty()) {
+				logger.debug("No matching rollups were found in %s.", rollupFile.getName());
+			} else {
+				printTable(out, rollupFile, resolution, rollups);
+			}
+		}
+
+		statistics.record();
+		return true;
+	}
+
+	/**
+	 * Returns the resolution which will serve a trend for the given capture: the preferred one if its
+	 * rollups are complete, otherwise the next coarser one which is. Rollups of a capture still running
+	 * or whose raw log is gone are as complete as they will get.
+	 *
+	 * Rollups are never built here, as trends are answered by many threads of serve and agent at once.
+	 * Missing or incomplete ones (of a capture which was killed, or captured before rollups existed) are
+	 * built by capture recovery, compaction and retention; until then, incomplete ones are used with a
+	 * warning.
+	 */
+	static RollupResolution getAvailableResolution(File file, RollupResolution preferredResolution) {
+		RollupResolution[] resolutions = RollupResolution.values();
+
+		boolean hasRawFiles = RollupAggregator.hasRawFiles(file);
+		boolean beingCaptured = hasRawFiles && RollupAggregator.isBeingCaptured(file);
+
+		for (int i = preferredResolution.ordinal(); i < resolutions.length; i++) {
+			File rollupFile = resolutions[i].getRollupFile(file);
+			if (rollupFile.exists() && (!hasRawFiles || beingCaptured || RollupAggregator.isComplete(rollupFile))) {
+				return resolutions[i];
+			}
+		}
+
+		for (int i = preferredResolution.ordinal(); i < resolutions.length; i++) {
+			if (resolutions[i].getRollupFile(file).exists()) {
+				logger.warn("Rollups of %s are incomplete until it is compacted.", file.getName());
+				return resolutions[i];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads rollups from the given file matching type, channel pattern and whose bucket starts within
+	 * the time range. Buckets are written as they close, so file isn't strictly ordered and is read fully
+	 * (or taken from the catalog's cache). Time taken getting rollups is counted as parsing in
+	 * statistics.
+	 */
+	static List<Rollup> getMatchingRollups(LogCatalog catalog, File rollupFile, String type, Pattern channelPattern, long startTimestamp, long endTimestamp,
+			QueryStatistics statistics) {
+		List<Rollup> rollups = new ArrayList<>();
+
+		try {
+			long parseStart = System.nanoTime();
+			List<Rollup> fileRollups = catalog.getRollups(rollupFile);
+			long parseTime = System.nanoTime() - parseStart;
+
+			for (Rollup rollup : fileRollups) {
+				if (rollup.getBucketStart() < startTimestamp || rollup.getBucketStart() > endTimestamp) {
+					continue;
+				}
+
+				if (!rollup.getType().equals(type) || !channelPattern.matcher(rollup.getChannel()).matches()) {
+					continue;
+				}
+
+				rollups.add(rollup);
+			}
+
+			statistics.addScanned(fileRollups.size(), fileRollups.size() - rollups.size(), false);
+			statistics.addParsed(rollups.size(), parseTime);
+		} catch (IOException exception) {
+			logger.error("Failed to read rollups from file (%s): %s", rollupFile.getName(), exception.getMessage());
+		}
+
+		return rollups;
+	}
+
+	private static void printTable(PrintStream out, File rollupFile, RollupResolution resolution, List<Rollup> rollups) {
+		List<Map<String, String>> rows = new ArrayList<>();
+		for (Rollup rollup : rollups) {
+			rows.add(rollup.getFields());
+		}
+
+		QueryApplication.printTable(out, String.format("File: %s (resolution: %s)", rollupFile.getName(), resolution.getLabel()), rows);
+	}
+}
@@ -0,0 +1,151 @@
+package com.sait.cst.logging;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+public abstract class WaitStrategy {
+	private static final Logger logger = Logger.getLogger(WaitStrategy.class);
+
+	/**
+	 * Waits until dependency reaches sequence, or consumer is stopped. Returns the highest sequence
+	 * available, which may be more than requested so consumers can process a whole batch at once.
+	 */
+	public abstract long waitFor(long sequence, AtomicLong dependency, BatchConsumer<?> consumer);
+
+	/**
+	 * Called by producers (and consumers others depend on) after moving their sequence, so consumers
+	 * blocked waiting can wake up. Only blocking strategy needs it.
+	 */
+	public void signalAll() {
+	}
+
+	/**
+	 * Creates a WaitStrategy by name:
+	 * - blocking: consumers sleep on a condition until signalled; lowest CPU use (default).
+	 * - sleeping: consumers spin briefly, then park for short periods; no signalling needed.
+	 * - yielding: consumers spin and yield the CPU; low latency, uses a core when busy.
+	 * - busy-spin: consumers spin; lowest latency, uses a core per consumer all the time.
+	 */
+	public static WaitStrategy create(String name) {
+		if (name.equals("busy-spin")) {
+			return new BusySpinWaitStrategy();
+		} else if (name.equals("yielding")) {
+			return new YieldingWaitStrategy();
+		} else if (name.equals("sleeping")) {
+			return new SleepingWaitStrategy();
+		} else if (!name.equals("blocking")) {
+			logger.warn("Unknown wait strategy (%s), using blocking.", name);
+		}
+
+		return new BlockingWaitStrategy();
+	}
+
+	private static class BusySpinWaitStrategy extends WaitStrategy {
+		@Override
+		public long waitFor(long sequence, AtomicLong dependency, BatchConsumer<?> consumer) {
+			long available;
+
+			while ((available = dependency.get()) < sequence && consumer.isRunning()) {
+				// spin.
+			}
+
+			return available;
+		}
+	}
+
+	private static class YieldingWaitStrategy extends WaitStrategy {
+		private static final int SPIN_TRIES = 100;
+
+		@Override
+		public long waitFor(long sequence, AtomicLong dependency, BatchConsumer<?> consumer) {
+			long available;
+			int counter = SPIN_TRIES;
+
+			while ((available = dependency.get()) < sequence && consumer.isRunning()) {
+				if (counter > 0) {
+					counter--;
+				} else {
+					Thread.yield();
+				}
+			}
+
+			return available;
+		}
+	}
+
+	private static class SleepingWaitStrategy extends WaitStrategy {
+		private static final int SPIN_TRIES = 200;
+		private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+		@Override
+		public long waitFor(long sequence, AtomicLong dependency, BatchConsumer<?> consumer) {
+			long available;
+			int counter = SPIN_TRIES;
+
+			while ((available = dependency.get()) < sequence && consumer.isRunning()) {
+				if (counter > 100) {
+					counter--;
+				} else if (counter > 0) {
+					counter--;
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(SLEEP_NANOS);
+				}
+			}
+
+			return available;
+		}
+	}
+
+	private static class BlockingWaitStrategy extends WaitStrategy {
+		private final Lock lock = new ReentrantLock();
+		private final Condition condition = lock.newCondition();
+
+		// avoids taking the lock on every publish when nobody is waiting. Only safe because sequences
+		// are published with set(): a lazySet may be reordered after the read of this flag, so a
+		// consumer setting it just then would miss the signal.
+		private volatile boolean waiting = false;
+
+		@Override
+		public long waitFor(long sequence, AtomicLong dependency, BatchConsumer<?> consumer) {
+			long available;
+
+			while ((available = dependency.get()) < sequence && consumer.isRunning()) {
+				lock.lock();
+				try {
+					waiting = true;
+
+					// checked again with the lock held, so a signal between the check above and await
+					// can't be missed. await times out anyway, as a safety net.
+					if (dependency.get() < sequence && consumer.isRunning()) {
+						condition.await(10, TimeUnit.MILLISECONDS);
+					}
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					return dependency.get();
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			return available;
+		}
+
+		@Override
+		public void signalAll() {
+			if (waiting) {
+				lock.lock();
+				try {
+					waiting = false;
+					condition.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AlertEngineTest {
+	private static final long START = LogFormatTest.START;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final TelemetryDecoder decoder = new TelemetryDecoder();
+
+	@Test
+	public void raisesAndClearsOncePerChannel() throws IOException {
+		List<String> alerts = evaluate("pa-overheat,above,sm,ta[*][*],70",
+				"{\"sm\":{\"ta[]\":[[20,30],[40,50]]}}",
+				"{\"sm\":{\"ta[]\":[[71,30],[40,50]]}}",
+				"{\"sm\":{\"ta[]\":[[72,30],[40,80]]}}",
+				"{\"sm\":{\"ta[]\":[[73,30],[40,81]]}}",
+				"{\"fm\":{\"ta[]\":[[90,90],[90,90]]}}",
+				"{\"sm\":{\"ta[]\":[[70,30],[40,82]]}}",
+				"{\"sm\":{\"ta[]\":[[20,30],[40,50]]}}");
+
+		assertEquals(Arrays.asList(
+				(START + 1) + ",pa-overheat,raised,ta[0][0],71",
+				(START + 2) + ",pa-overheat,raised,ta[1][1],80",
+				(START + 5) + ",pa-overheat,cleared,ta[0][0],70",
+				(START + 6) + ",pa-overheat,cleared,ta[1][1],50"), alerts);
+	}
+
+	@Test
+	public void keepsStateOfEveryMessageShape() throws IOException {
+		// devices with one or two power amplifiers send differently shaped messages of the same type.
+		List<String> alerts = evaluate("pa-cold,below,sm,ta[*][0],10",
+				"{\"sm\":{\"ta[]\":[[5,30]]}}",
+				"{\"sm\":{\"ta[]\":[[20,30],[5,30]]}}",
+				"{\"sm\":{\"ta[]\":[[6,30]]}}",
+				"{\"sm\":{\"ta[]\":[[20,30],[20,30]]}}");
+
+		assertEquals(Arrays.asList(
+				START + ",pa-cold,raised,ta[0][0],5",
+				(START + 1) + ",pa-cold,raised,ta[1][0],5",
+				(START + 3) + ",pa-cold,cleared,ta[1][0],20"), alerts);
+	}
+
+	@Test
+	public void raisesOnRateAndMask() throws IOException {
+		// rate is per second and messages are 1ms apart, so 2000 per second is a change of more than 2.
+		List<String> alerts = evaluate(new String[] { "v-jump,rate,me,v,2000", "ps-alarm,mask,me,saa,2" },
+				"{\"me\":{\"v\":3,\"saa\":0}}",
+				"{\"me\":{\"v\":4,\"saa\":1}}",
+				"{\"me\":{\"v\":7,\"saa\":3}}",
+				"{\"me\":{\"v\":8,\"saa\":2}}",
+				"{\"me\":{\"v\":8,\"saa\":4}}");
+
+		assertEquals(Arrays.asList(
+				(START + 2) + ",v-jump,raised,v,7",
+				(START + 2) + ",ps-alarm,raised,saa,3",
+				(START + 3) + ",v-jump,cleared,v,8",
+				(START + 4) + ",ps-alarm,cleared,saa,4"), alerts);
+	}
+
+	@Test
+	public void raisesStaleOnceUntilMessageArrives() throws IOException {
+		AlertRule rule = AlertRule.parse("fm-stale,stale,fm,*,5000");
+		File alertFile = new File(folder.getRoot(), "test.alerts");
+		AlertSink sink = new AlertSink(alertFile);
+		TelemetryRecord record = new TelemetryRecord();
+
+		decoder.decode(START, "{\"fm\":{\"saa\":0}}", record);
+		rule.evaluate(record, sink);
+		rule.checkStale(START + 5000, sink);
+		rule.checkStale(START + 6000, sink);
+		rule.checkStale(START + 7000, sink);
+
+		decoder.decode(START + 8000, "{\"fm\":{\"saa\":0}}", record);
+		rule.evaluate(record, sink);
+		rule.checkStale(START + 9000, sink);
+		sink.close();
+
+		assertEquals(Arrays.asList(
+				(START + 6000) + ",fm-stale,raised,*,6000",
+				(START + 8000) + ",fm-stale,cleared,*,0"), readLines(alertFile));
+	}
+
+	@Test
+	public void skipsInvalidRules() throws IOException {
+		File rulesFile = folder.newFile();
+		Files.write(rulesFile.toPath(), Arrays.asList(
+				"# comment",
+				"",
+				"pa-overheat,above,sm,ta[*][*],70",
+				"pa-overheat,hotter,sm,ta[*][*],70",
+				"pa-overheat,above,sm,70",
+				"  fm-stale , stale , fm , * , 5000  "), StandardCharsets.UTF_8);
+
+		List<AlertRule> rules = AlertEngine.load(rulesFile);
+
+		assertEquals(2, rules.size());
+		assertEquals(AlertRule.Kind.ABOVE, rules.get(0).getKind());
+		assertEquals("fm-stale", rules.get(1).getName());
+		assertEquals(AlertRule.Kind.STALE, rules.get(1).getKind());
+	}
+
+	private List<String> evaluate(String rule, String... texts) throws IOException {
+		return evaluate(new String[] { rule }, texts);
+	}
+
+	/**
+	 * Evaluates rules against messages 1ms apart, returning the alerts written.
+	 */
+	private List<String> evaluate(String[] ruleLines, String... texts) throws IOException {
+		List<AlertRule> rules = new ArrayList<>();
+		for (String ruleLine : ruleLines) {
+			rules.add(AlertRule.parse(ruleLine));
+		}
+
+		File alertFile = new File(folder.getRoot(), "test.alerts");
+		AlertEngine alertEngine = new AlertEngine(rules, new AlertSink(alertFile));
+		TelemetryRecord record = new TelemetryRecord();
+
+		for (int i = 0; i < texts.length; i++) {
+			assertTrue(texts[i], decoder.decode(START + i, texts[i], record));
+			alertEngine.evaluate(record);
+		}
+
+		alertEngine.close();
+		return readLines(alertFile);
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+}
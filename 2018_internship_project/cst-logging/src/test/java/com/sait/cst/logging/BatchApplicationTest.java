@@ -0,0 +1,103 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchApplicationTest {
+	private static final Instant START = Instant.ofEpochMilli(LogFormatTest.START + 5000);
+	private static final Instant END = Instant.ofEpochMilli(LogFormatTest.START + 20000);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void answersEveryQueryAsQueryModeWould() throws IOException {
+		File directory = folder.newFolder("cst-logs");
+		List<LogLine> lines = LogFormatTest.getSampleLines(1000);
+
+		// a compacted segment with an index, a capture which wasn't compacted and a partitioned one.
+		CompactApplicationTest.write(new File(directory, "10.10.102.11_20180829_120000.log"), lines);
+		CompactApplication.run(directory.getPath(), null);
+		CompactApplicationTest.write(new File(directory, "10.10.102.12_20180830_120000.log"), lines.subList(0, 500));
+
+		LogWriter writer = new PartitionedLogWriter(new File(directory, "10.10.102.13_20180830_120000"), LogFormat.TEXT);
+		CompactApplicationTest.write(writer, lines);
+		writer.close();
+
+		String[][] queries = {
+			{ "me" },
+			{ "er", START.toString(), END.toString() },
+			{ "er" },
+			{ "me", END.toString(), END.plusSeconds(3600).toString() },
+			{ "xx" },
+		};
+
+		List<String> plan = new ArrayList<>();
+		for (int i = 0; i < queries.length; i++) {
+			plan.add(getOutputFile(i) + " " + String.join(" ", queries[i]));
+		}
+
+		File planFile = folder.newFile();
+		Files.write(planFile.toPath(), plan, StandardCharsets.UTF_8);
+		BatchApplication.run(directory.getPath(), planFile.getPath());
+
+		for (int i = 0; i < queries.length; i++) {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(outputStream, false, "UTF-8");
+
+			Instant start = queries[i].length > 1 ? Instant.parse(queries[i][1]) : null;
+			Instant end = queries[i].length > 1 ? Instant.parse(queries[i][2]) : null;
+			assertTrue(QueryApplication.run(new LogCatalog(directory), queries[i][0], start, end, out));
+			out.flush();
+
+			String expected = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+			assertTrue(i == queries.length - 1 || !expected.isEmpty());
+			assertEquals(String.join(" ", queries[i]), expected, new String(Files.readAllBytes(getOutputFile(i).toPath()), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void skipsInvalidQueries() throws IOException {
+		File planFile = folder.newFile();
+		Files.write(planFile.toPath(), Arrays.asList(
+				"# comment",
+				"",
+				getOutputFile(0) + " me",
+				getOutputFile(0) + " er " + START + " " + END,
+				getOutputFile(1) + " er " + START,
+				getOutputFile(1) + " er " + START + " yesterday",
+				"  " + getOutputFile(2) + "   hc  "), StandardCharsets.UTF_8);
+
+		Map<String, PrintStream> outputs = new HashMap<>();
+		List<BatchApplication.BatchQuery> queries = BatchApplication.load(planFile, outputs);
+
+		// queries with the same output share it; invalid ones don't open theirs.
+		assertEquals(3, queries.size());
+		assertEquals(2, outputs.size());
+
+		for (PrintStream out : outputs.values()) {
+			out.close();
+		}
+	}
+
+	private File getOutputFile(int index) {
+		return new File(folder.getRoot(), "query" + index + ".txt");
+	}
+}
@@ -0,0 +1,190 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactApplicationTest {
+	private static final String IP_ADDRESS = "10.10.102.11";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void mergesFilesInTimestampOrder() throws IOException {
+		File directory = folder.getRoot();
+		List<LogLine> lines = LogFormatTest.getSampleLines(1000);
+
+		// captures restarted during the day overlap in time, e.g. when a device sends late.
+		List<List<LogLine>> inputs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			inputs.add(new ArrayList<LogLine>());
+		}
+
+		for (int i = 0; i < lines.size(); i++) {
+			inputs.get(i % 7 % 3).add(lines.get(i));
+		}
+
+		for (int i = 0; i < inputs.size(); i++) {
+			write(new File(directory, IP_ADDRESS + "_20180829_1" + i + "0000.log"), inputs.get(i));
+		}
+
+		write(new File(directory, "192.168.1.11_20180829_100000.log"), lines.subList(0, 10));
+		CompactApplication.run(directory.getPath(), IP_ADDRESS);
+
+		File segmentFile = new File(directory, IP_ADDRESS + "_20180829.log");
+		LogFormatTest.assertLines(lines, LogFormatTest.readAll(segmentFile));
+		assertTrue(SegmentIndex.load(segmentFile) != null);
+
+		// only files of the given device are compacted.
+		assertTrue(new File(directory, "192.168.1.11_20180829_100000.log").exists());
+		assertFalse(new File(directory, "192.168.1.11_20180829.log").exists());
+
+		for (String name : directory.list()) {
+			assertFalse(name, name.startsWith(IP_ADDRESS + "_20180829_"));
+		}
+	}
+
+	@Test
+	public void mergesManyFilesInRounds() throws IOException {
+		File directory = folder.getRoot();
+		List<LogLine> lines = LogFormatTest.getSampleLines(600);
+
+		for (int i = 0; i < 300; i++) {
+			List<LogLine> input = new ArrayList<>();
+			input.add(lines.get(i));
+			input.add(lines.get(i + 300));
+			write(new File(directory, String.format("%s_20180829_%06d.log", IP_ADDRESS, i)), input);
+		}
+
+		CompactApplication.run(directory.getPath(), null);
+
+		LogFormatTest.assertLines(lines, LogFormatTest.readAll(new File(directory, IP_ADDRESS + "_20180829.log")));
+
+		// only the segment, its index and rollups are left; no inputs or files of merge rounds.
+		for (String name : directory.list()) {
+			assertTrue(name, name.startsWith(IP_ADDRESS + "_20180829.") && !name.endsWith(".tmp"));
+		}
+	}
+
+	@Test
+	public void dropsDuplicatesOfInterruptedCompaction() throws IOException {
+		File directory = folder.getRoot();
+		List<LogLine> lines = new ArrayList<>(LogFormatTest.getSampleLines(200));
+
+		// different messages received at the same time are all kept.
+		lines.add(new LogLine(lines.get(199).getTimestamp() + 1, "{\"er\":{\"id\":1}}"));
+		lines.add(new LogLine(lines.get(199).getTimestamp() + 1, "{\"er\":{\"id\":2}}"));
+
+		// segment was written, but compaction died before deleting the files it was made of.
+		write(new File(directory, IP_ADDRESS + "_20180829.log"), lines.subList(0, 150));
+		write(new File(directory, IP_ADDRESS + "_20180829_100000.log"), lines.subList(0, 100));
+		write(new File(directory, IP_ADDRESS + "_20180829_120000.log"), lines.subList(100, lines.size()));
+
+		CompactApplication.run(directory.getPath(), null);
+
+		LogFormatTest.assertLines(lines, LogFormatTest.readAll(new File(directory, IP_ADDRESS + "_20180829.log")));
+	}
+
+	@Test
+	public void leavesFileBeingCapturedAlone() throws IOException {
+		File directory = folder.getRoot();
+		List<LogLine> lines = LogFormatTest.getSampleLines(300);
+
+		write(new File(directory, IP_ADDRESS + "_20180829_100000.log"), lines.subList(0, 100));
+
+		// a capture started before midnight, still running.
+		File liveFile = new File(directory, IP_ADDRESS + "_20180829_230000.log");
+		LogWriter writer = LogWriter.create(liveFile, LogFormat.TEXT);
+		File segmentFile = new File(directory, IP_ADDRESS + "_20180829.log");
+
+		try {
+			write(writer, lines.subList(100, 200));
+			CompactApplication.run(directory.getPath(), null);
+
+			assertTrue(liveFile.exists());
+			LogFormatTest.assertLines(lines.subList(0, 100), LogFormatTest.readAll(segmentFile));
+
+			write(writer, lines.subList(200, 300));
+		} finally {
+			writer.close();
+		}
+
+		// once it is done, its messages (including those written after the first compaction) are merged.
+		CompactApplication.run(directory.getPath(), null);
+
+		assertFalse(liveFile.exists());
+		LogFormatTest.assertLines(lines, LogFormatTest.readAll(segmentFile));
+	}
+
+	@Test
+	public void leavesPartitionedCaptureBeingCapturedAlone() throws IOException {
+		File directory = folder.getRoot();
+		List<LogLine> lines = LogFormatTest.getSampleLines(300);
+
+		File capture = new File(directory, IP_ADDRESS + "_20180829_100000");
+		LogWriter closedWriter = new PartitionedLogWriter(capture, LogFormat.TEXT);
+		write(closedWriter, lines.subList(0, 100));
+		closedWriter.close();
+
+		File liveCapture = new File(directory, IP_ADDRESS + "_20180829_230000");
+		LogWriter writer = new PartitionedLogWriter(liveCapture, LogFormat.TEXT);
+		File segmentDirectory = new File(directory, IP_ADDRESS + "_20180829");
+
+		try {
+			write(writer, lines.subList(100, 200));
+			writer.flush();
+			CompactApplication.run(directory.getPath(), null);
+
+			assertTrue(liveCapture.isDirectory());
+			assertFalse(capture.exists());
+			LogFormatTest.assertLines(filter(lines.subList(0, 100), "me"), LogFormatTest.readAll(new File(segmentDirectory, "me.log")));
+
+			write(writer, lines.subList(200, 300));
+		} finally {
+			writer.close();
+		}
+
+		CompactApplication.run(directory.getPath(), null);
+
+		assertFalse(liveCapture.exists());
+		for (String type : new String[] { "me", "er", "hc" }) {
+			LogFormatTest.assertLines(filter(lines, type), LogFormatTest.readAll(new File(segmentDirectory, type + ".log")));
+		}
+	}
+
+	static void write(File file, List<LogLine> lines) throws IOException {
+		LogWriter writer = LogWriter.create(file, LogFormat.TEXT);
+
+		try {
+			write(writer, lines);
+		} finally {
+			writer.close();
+		}
+	}
+
+	static void write(LogWriter writer, List<LogLine> lines) throws IOException {
+		for (LogLine line : lines) {
+			writer.write(line.getTimestamp(), line.getJsonString());
+		}
+	}
+
+	static List<LogLine> filter(List<LogLine> lines, String type) {
+		List<LogLine> filtered = new ArrayList<>();
+		for (LogLine line : lines) {
+			if (line.is(type)) {
+				filtered.add(line);
+			}
+		}
+
+		return filtered;
+	}
+}
@@ -0,0 +1,201 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoordinatorApplicationTest {
+	private final List<FakeAgent> agents = new ArrayList<>();
+	private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+	private PrintStream standardOutput;
+
+	@Before
+	public void captureOutput() throws IOException {
+		standardOutput = System.out;
+		System.setOut(new PrintStream(outputStream, true, "UTF-8"));
+	}
+
+	@After
+	public void restoreOutput() throws IOException {
+		System.setOut(standardOutput);
+
+		for (FakeAgent agent : agents) {
+			agent.serverSocket.close();
+		}
+	}
+
+	@Test
+	public void mergesRowsOfAgentsInTimestampOrder() throws IOException {
+		FakeAgent first = startAgent(row(1000, "a1"), row(3000, "a3"), row(5000, "a5"), row(7000, "a7"), end(4));
+		FakeAgent second = startAgent(row(2000, "b2"), row(3000, "b3"), row(6000, "b6"), end(3));
+
+		System.setProperty("cst.coordinate.chunk.rows", "3");
+		try {
+			CoordinatorApplication.runQuery(Arrays.asList(first.getName(), second.getName()), "me", Instant.ofEpochMilli(1000), null);
+		} finally {
+			System.clearProperty("cst.coordinate.chunk.rows");
+		}
+
+		// rows of the same time come in the order agents were given.
+		String output = getOutput();
+		assertOrder(output, "a1", "b2", "a3", "b3", "a5", "b6", "a7");
+		assertOrder(output, "Rows 1-3", "a3", "Rows 4-6", "b6", "Rows 7-7", "a7");
+
+		assertEquals(getLine(AgentApplication.ROWS_REQUEST, "me", "1000", AgentApplication.NO_VALUE), first.request + "\n");
+		assertEquals(first.request, second.request);
+	}
+
+	@Test
+	public void startsTableOnceColumnsChange() throws IOException {
+		FakeAgent agent = startAgent(row(1000, "a1"), row(2000, "a2"),
+				getLine(AgentApplication.ROW, "3000", "fm.log", "[\"Fan\",\"f3\"]"), row(4000, "a4"), end(4));
+
+		CoordinatorApplication.runQuery(Arrays.asList(agent.getName()), "me", null, null);
+
+		assertOrder(getOutput(), "Rows 1-2", "a2", "Rows 3-3", "Fan", "f3", "Rows 4-4", "a4");
+	}
+
+	@Test
+	public void combinesAggregatesOfAgents() throws IOException {
+		// the same device and bucket on both hosts (e.g. captures copied over), and one only on the first.
+		FakeAgent first = startAgent(
+				rollup("dev1", new Rollup(0, "sm", "ta[0][0]", 10, 20, 60, 4, 20)),
+				rollup("dev2", new Rollup(0, "sm", "ta[0][0]", 1, 2, 3, 2, 2)),
+				end(2));
+		FakeAgent second = startAgent(
+				rollup("dev1", new Rollup(0, "sm", "ta[0][0]", 5, 15, 40, 4, 15)),
+				end(1));
+
+		CoordinatorApplication.runTrend(Arrays.asList(first.getName(), second.getName()), "sm", "ta[*][*]", null, null);
+
+		String output = getOutput();
+		assertTrue(output, output.contains("Agents: 2 (resolution: 1h)"));
+		assertEquals(Arrays.asList("dev1", "1970-01-01T00:00:00Z", "ta[0][0]", "5", "20", "12.5", "15", "8"), getCells(output, "dev1"));
+		assertEquals(Arrays.asList("dev2", "1970-01-01T00:00:00Z", "ta[0][0]", "1", "2", "1.5", "2", "2"), getCells(output, "dev2"));
+		assertOrder(output, "dev1", "dev2");
+
+		assertEquals(getLine(AgentApplication.AGGREGATE_REQUEST, "sm", "ta[*][*]", RollupResolution.HOUR.name(), AgentApplication.NO_VALUE,
+				AgentApplication.NO_VALUE), first.request + "\n");
+	}
+
+	private FakeAgent startAgent(String... lines) throws IOException {
+		FakeAgent agent = new FakeAgent(lines);
+		agents.add(agent);
+
+		Thread thread = new Thread(agent, "agent-" + agents.size());
+		thread.setDaemon(true);
+		thread.start();
+
+		return agent;
+	}
+
+	private String getOutput() throws IOException {
+		System.out.flush();
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String row(long timestamp, String value) throws IOException {
+		return getLine(AgentApplication.ROW, Long.toString(timestamp), "me.log", "[\"Value\",\"" + value + "\"]");
+	}
+
+	private static String rollup(String device, Rollup rollup) throws IOException {
+		return getLine(AgentApplication.ROLLUP, RollupResolution.HOUR.name(), device, Rollup.serialize(rollup));
+	}
+
+	private static String end(int count) throws IOException {
+		return getLine(AgentApplication.END, Integer.toString(count));
+	}
+
+	private static String getLine(String... values) throws IOException {
+		StringWriter line = new StringWriter();
+		AgentApplication.writeLine(line, values);
+
+		return line.toString();
+	}
+
+	/**
+	 * Checks that every text appears in output after the one before it.
+	 */
+	private static void assertOrder(String output, String... texts) {
+		int position = 0;
+		for (String text : texts) {
+			int found = output.indexOf(text, position);
+			assertTrue(text + " in " + output, found >= 0);
+			position = found + text.length();
+		}
+	}
+
+	/**
+	 * Returns cells of the table row whose first cell is firstCell.
+	 */
+	private static List<String> getCells(String output, String firstCell) {
+		for (String line : output.split("\n")) {
+			String[] cells = line.split("\\|");
+			if (cells.length > 1 && cells[1].trim().equals(firstCell)) {
+				List<String> trimmed = new ArrayList<>();
+				for (int i = 1; i < cells.length; i++) {
+					trimmed.add(cells[i].trim());
+				}
+
+				return trimmed;
+			}
+		}
+
+		throw new AssertionError(firstCell + " in " + output);
+	}
+
+	/**
+	 * Answers a single request with the given lines, the way AgentApplication would.
+	 */
+	private static class FakeAgent implements Runnable {
+		private final ServerSocket serverSocket;
+		private final String[] lines;
+		private volatile String request;
+
+		FakeAgent(String[] lines) throws IOException {
+			this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			this.lines = lines;
+		}
+
+		String getName() {
+			return serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			try (Socket socket = serverSocket.accept()) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				request = reader.readLine();
+
+				Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+				for (String line : lines) {
+					writer.write(line);
+				}
+
+				writer.flush();
+			} catch (IOException exception) {
+				// socket closed by the test.
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DictionaryCodecTest extends LogFormatTest {
+	@Override
+	protected LogFormat getFormat() {
+		return LogFormat.DICTIONARY;
+	}
+
+	@Test
+	public void definesStringsOnce() {
+		DictionaryCodec encoder = new DictionaryCodec();
+		DictionaryCodec decoder = new DictionaryCodec();
+		List<String> definitions = new ArrayList<>();
+		String text = "{\"hc\":{\"u1fv[]\":[\" 3.10\"],\"u2fv[]\":[\" 3.10\"]}}";
+
+		encoder.encode(text, definitions);
+		assertEquals(4, definitions.size());
+		assertEquals(text, decode(encoder, decoder, definitions));
+
+		// a second message of the same shape needs no definitions.
+		definitions.clear();
+		encoder.encode(text, definitions);
+		assertTrue(definitions.isEmpty());
+		assertTrue(encoder.getOutputLength() < text.length());
+		assertEquals(text, decode(encoder, decoder, definitions));
+	}
+
+	@Test
+	public void keepsUnusualStringsInline() {
+		DictionaryCodec encoder = new DictionaryCodec();
+		DictionaryCodec decoder = new DictionaryCodec();
+		List<String> definitions = new ArrayList<>();
+
+		StringBuilder longString = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			longString.append((char) ('a' + i % 26));
+		}
+
+		String[] texts = {
+			"{\"er\":{\"ed\":\"" + longString + "\"}}",
+			"{\"er\":{\"ed\":\"Tuned to \\\"channel\\\" \\\\\"}}",
+			"{\"er\":{\"ed\":\"Kanal \u00fc\u00e7 \u2013 \u6ce2\"}}",
+			"{\"er\":{\"ed\":\"\"}}",
+			"{\"er\":{\"ed\":\"unterminated",
+		};
+
+		for (String text : texts) {
+			definitions.clear();
+			encoder.encode(text, definitions);
+			assertEquals(text, decode(encoder, decoder, definitions));
+		}
+	}
+
+	@Test
+	public void roundTripsMoreStringsThanDictionaryHolds() throws IOException {
+		List<LogLine> lines = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			lines.add(new LogLine(START + i, "{\"hc\":{\"id\":0,\"u2pssn[]\":[[\"14KZ" + i + "\",\"15KZ" + (i % 100) + "\"]]}}"));
+		}
+
+		assertLines(lines, readAll(write(getFormat(), lines, 0)));
+	}
+
+	/**
+	 * Hands definitions and the message encoder wrote to decoder, as a reader of the file would.
+	 */
+	private static String decode(DictionaryCodec encoder, DictionaryCodec decoder, List<String> definitions) {
+		for (String definition : definitions) {
+			byte[] string = definition.getBytes(StandardCharsets.UTF_8);
+			byte[] payload = new byte[string.length + 1];
+			payload[0] = DictionaryCodec.DEFINITION;
+			System.arraycopy(string, 0, payload, 1, string.length);
+			decoder.define(payload, 0, payload.length);
+		}
+
+		return decoder.decode(encoder.getOutput(), 0, encoder.getOutputLength(), new StringBuilder());
+	}
+}
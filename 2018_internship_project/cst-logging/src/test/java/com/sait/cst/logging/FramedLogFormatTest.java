@@ -0,0 +1,75 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FramedLogFormatTest extends LogFormatTest {
+	@Override
+	protected LogFormat getFormat() {
+		return LogFormat.FRAMED;
+	}
+
+	@Test
+	public void detectsRecordsAndSyncMarkers() {
+		byte[] payload = "{\"me\":{\"id\":0}}".getBytes(StandardCharsets.UTF_8);
+		byte[] buffer = new byte[FramedLogFormat.HEADER_LENGTH + payload.length];
+		int length = FramedLogFormat.encode(START, payload, payload.length, buffer);
+
+		assertEquals(buffer.length, length);
+		assertEquals(length, FramedLogFormat.getValidRecordLength(buffer, 0, length));
+		assertFalse(FramedLogFormat.isSyncMarker(buffer, 0, length));
+
+		// a record cut short or with a changed byte isn't valid.
+		assertTrue(FramedLogFormat.getValidRecordLength(buffer, 0, length - 1) < 0);
+		buffer[length - 1] ^= 1;
+		assertTrue(FramedLogFormat.getValidRecordLength(buffer, 0, length) < 0);
+	}
+
+	@Test
+	public void recoversTextFromPartialLine() throws IOException {
+		List<LogLine> lines = getSampleLines(100);
+		File file = write(LogFormat.TEXT, lines, 0);
+		long length = file.length();
+
+		try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+			outputStream.write("1535546950470,{\"me\":{\"id\":0,\"ta[]\":[[1".getBytes(StandardCharsets.UTF_8));
+		}
+
+		assertEquals(file.length() - length, LogRecovery.recover(file));
+		assertEquals(length, file.length());
+		assertLines(lines, readAll(file));
+	}
+
+	@Test
+	public void leavesFileBeingWrittenAlone() throws IOException {
+		File file = folder.newFile();
+		LogWriter writer = LogWriter.create(file, getFormat());
+
+		try {
+			writer.write(START, "{\"me\":{\"id\":0}}");
+			writer.flush();
+			truncate(file, file.length() - 1);
+
+			assertTrue(LogWriter.isLocked(file));
+			assertEquals(0, LogRecovery.recover(file));
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void throwsForMissingFile() throws IOException {
+		// e.g. compacted or expired between listing a directory and reading it.
+		new LogReader(new File(folder.getRoot(), "missing.log"));
+	}
+}
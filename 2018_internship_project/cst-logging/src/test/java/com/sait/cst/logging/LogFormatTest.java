@@ -0,0 +1,219 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests every framed LogFormat runs through: whatever is written must be read back with the same
+ * timestamp and exactly the same text, and a damaged file must be cut back by LogRecovery to messages
+ * which read back unchanged. Subclasses name the format.
+ */
+public abstract class LogFormatTest {
+	static final long START = 1535546940417L;
+
+	/**
+	 * Messages whose numbers are written in ways that don't survive being parsed and rendered again
+	 * (e.g. 1e3 would come back as 1000), so formats which store numbers must keep them as text.
+	 */
+	static final String[] ODD_NUMBERS = {
+		"{\"me\":{\"id\":0,\"ta[]\":[[1e3,1.0e3,1E-3]]}}",
+		"{\"me\":{\"id\":0,\"ta[]\":[[-0,-0.0,0]]}}",
+		"{\"me\":{\"id\":0,\"ta[]\":[[007,0.50,1.]]}}",
+		"{\"me\":{\"id\":0,\"ta[]\":[[0.123456789012345678,123456789012345678,-12345678.9012345678]]}}",
+		"{\"me\":{\"id\":0,\"ta[]\":[[1234567890123456789,0.1234567890123456789,9007199254740993]]}}",
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected abstract LogFormat getFormat();
+
+	@Test
+	public void roundTripsSampleMessages() throws IOException {
+		List<LogLine> lines = getSampleLines(5000);
+		File file = write(getFormat(), lines, 0);
+
+		assertEquals(getFormat(), LogFormat.detect(file));
+		assertLines(lines, readAll(file));
+	}
+
+	@Test
+	public void roundTripsOddNumbers() throws IOException {
+		List<LogLine> lines = new ArrayList<>();
+		for (int i = 0; i < ODD_NUMBERS.length; i++) {
+			lines.add(new LogLine(START + i, ODD_NUMBERS[i]));
+		}
+
+		assertLines(lines, readAll(write(getFormat(), lines, 0)));
+	}
+
+	@Test
+	public void filtersByType() throws IOException {
+		List<LogLine> lines = getSampleLines(2000);
+		File file = write(getFormat(), lines, 0);
+		long start = lines.get(500).getTimestamp();
+		long end = lines.get(1500).getTimestamp();
+
+		for (String type : new String[] { "me", "er", "hc", "xx" }) {
+			List<LogLine> expected = new ArrayList<>();
+			for (LogLine line : lines) {
+				if (line.is(type) && !line.isBefore(start) && !line.isAfter(end)) {
+					expected.add(line);
+				}
+			}
+
+			assertLines(expected, new LogReader(file).getMatchingLogLines(type, start, end));
+		}
+	}
+
+	@Test
+	public void leavesCompleteFileAlone() throws IOException {
+		List<LogLine> lines = getSampleLines(3000);
+		File file = write(getFormat(), lines, 0);
+		long length = file.length();
+
+		assertEquals(0, LogRecovery.recover(file));
+		assertEquals(length, file.length());
+		assertLines(lines, readAll(file));
+	}
+
+	@Test
+	public void recoversFromTornRecord() throws IOException {
+		// enough messages for several sync markers, flushed now and then so buffering formats write more
+		// than one record.
+		List<LogLine> lines = getSampleLines(20000);
+
+		for (int torn : new int[] { 1, 5, 17, 1000 }) {
+			File file = write(getFormat(), lines, 1000);
+			long length = file.length();
+			truncate(file, length - torn);
+
+			long removed = LogRecovery.recover(file);
+			assertTrue("removed " + removed, removed > 0);
+			assertEquals(length - torn - removed, file.length());
+			assertPrefix(lines, readAll(file));
+		}
+	}
+
+	@Test
+	public void recoversFromCorruptedRecord() throws IOException {
+		List<LogLine> lines = getSampleLines(20000);
+		File file = write(getFormat(), lines, 1000);
+
+		// flip a bit of the last record's payload; its checksum no longer matches.
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			long position = randomAccessFile.length() - 3;
+			randomAccessFile.seek(position);
+			int value = randomAccessFile.read();
+			randomAccessFile.seek(position);
+			randomAccessFile.write(value ^ 0x10);
+		}
+
+		long removed = LogRecovery.recover(file);
+		assertTrue("removed " + removed, removed > 3);
+
+		List<LogLine> recovered = readAll(file);
+		assertTrue(recovered.size() < lines.size());
+		assertPrefix(lines, recovered);
+	}
+
+	/**
+	 * Returns count messages made of the shapes devices send, in timestamp order.
+	 */
+	static List<LogLine> getSampleLines(int count) {
+		List<LogLine> lines = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			String text;
+			switch (i % 4) {
+			case 0:
+				text = "{\"er\":{\"id\":" + i + ",\"type\":\"rs\",\"eid\":" + (i % 9) + ",\"ed\":\"Tuned to \\\"channel\\\"\"}}";
+				break;
+			case 1:
+				text = "{\"hc\":{\"id\":0,\"u1fv[]\":[\" 3.10\"],\"esn[]\":[" + (150000 + i) + "],\"om[]\":[0,127],"
+						+ "\"u2pssn[]\":[[\"14KZ40020902  \",\"15KZ10014053  \"]]}}";
+				break;
+			default:
+				text = "{\"me\":{\"id\":" + (i % 2) + ",\"ta[]\":[[" + (i % 100) + "," + (i % 7 - 3) + "],[" + (20 + i % 5) + ",0]],"
+						+ "\"ll\":" + (i * 0.01 - 5) + ",\"v\":" + (3 + i % 3) + "." + (i % 10) + "}}";
+				break;
+			}
+
+			lines.add(new LogLine(START + i * 31L, text));
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Writes lines to a new file of the folder, flushing every flushInterval lines (never if 0).
+	 */
+	static File write(TemporaryFolder folder, LogFormat format, List<LogLine> lines, int flushInterval) throws IOException {
+		File file = folder.newFile();
+		LogWriter writer = LogWriter.create(file, format);
+
+		try {
+			for (int i = 0; i < lines.size(); i++) {
+				writer.write(lines.get(i).getTimestamp(), lines.get(i).getJsonString());
+
+				if (flushInterval > 0 && i % flushInterval == flushInterval - 1) {
+					writer.flush();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		return file;
+	}
+
+	File write(LogFormat format, List<LogLine> lines, int flushInterval) throws IOException {
+		return write(folder, format, lines, flushInterval);
+	}
+
+	static List<LogLine> readAll(File file) throws IOException {
+		List<LogLine> lines = new ArrayList<>();
+		LogReader reader = new LogReader(file);
+
+		try {
+			LogLine line;
+			while ((line = reader.readLogLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+
+		return lines;
+	}
+
+	static void truncate(File file, long length) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(length);
+		}
+	}
+
+	static void assertLines(List<LogLine> expected, List<LogLine> actual) {
+		assertEquals(expected.size(), actual.size());
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("timestamp " + i, expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+			assertEquals("text " + i, expected.get(i).getJsonString(), actual.get(i).getJsonString());
+		}
+	}
+
+	static void assertPrefix(List<LogLine> lines, List<LogLine> recovered) {
+		assertTrue("recovered " + recovered.size(), recovered.size() > 0 && recovered.size() <= lines.size());
+		assertLines(lines.subList(0, recovered.size()), recovered);
+	}
+}
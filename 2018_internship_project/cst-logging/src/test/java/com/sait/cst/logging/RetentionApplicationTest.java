@@ -0,0 +1,147 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RetentionApplicationTest {
+	private static final long DAY_IN_MILLISECONDS = 24 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void downsamplesExpiredRawFileBeforeDeletingIt() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		CompactApplicationTest.write(logFile, getTelemetryLines());
+		long lastModified = daysAgo(10);
+		logFile.setLastModified(lastModified);
+
+		RetentionApplication.enforce(folder.getRoot().getPath());
+
+		// second rollups would have expired along with the raw file, so they aren't built at all.
+		assertFalse(logFile.exists());
+		assertFalse(RollupResolution.SECOND.getRollupFile(logFile).exists());
+
+		for (RollupResolution resolution : new RollupResolution[] { RollupResolution.MINUTE, RollupResolution.HOUR }) {
+			File rollupFile = resolution.getRollupFile(logFile);
+			assertTrue(RollupAggregator.isComplete(rollupFile));
+			assertEquals(lastModified / 1000, rollupFile.lastModified() / 1000);
+		}
+	}
+
+	@Test
+	public void keepsRecentRawFile() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		CompactApplicationTest.write(logFile, getTelemetryLines());
+		logFile.setLastModified(daysAgo(6));
+
+		RetentionApplication.enforce(folder.getRoot().getPath());
+
+		assertTrue(logFile.exists());
+		assertFalse(RollupResolution.MINUTE.getRollupFile(logFile).exists());
+	}
+
+	@Test
+	public void keepsExpiredRawFileWhoseRollupsCantBeBuilt() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		CompactApplicationTest.write(logFile, getTelemetryLines());
+		logFile.setLastModified(daysAgo(10));
+
+		// a directory in the way of the minute rollups, so they can't be written.
+		assertTrue(RollupResolution.MINUTE.getRollupFile(logFile).mkdir());
+		RetentionApplication.enforce(folder.getRoot().getPath());
+
+		assertTrue(logFile.exists());
+	}
+
+	@Test
+	public void deletesRollupsOlderThanTheirTier() throws IOException {
+		File directory = folder.getRoot();
+		File expiredSeconds = createRollupFile(directory, "10.10.102.11_20180801.r1s", 10);
+		File minutes = createRollupFile(directory, "10.10.102.11_20180801.r1m", 10);
+		File expiredMinutes = createRollupFile(directory, "10.10.102.11_20180501.r1m", 100);
+		File hours = createRollupFile(directory, "10.10.102.11_20150501.r1h", 1000);
+
+		RetentionApplication.enforce(directory.getPath());
+
+		assertFalse(expiredSeconds.exists());
+		assertTrue(minutes.exists());
+		assertFalse(expiredMinutes.exists());
+		assertTrue(hours.exists());
+	}
+
+	@Test
+	public void expiresPartitionedCaptureAsWhole() throws IOException {
+		File directory = folder.getRoot();
+		File capture = new File(directory, "10.10.102.11_20180829_144900");
+		LogWriter writer = new PartitionedLogWriter(capture, LogFormat.TEXT);
+		CompactApplicationTest.write(writer, getTelemetryLines());
+		CompactApplicationTest.write(writer, LogFormatTest.getSampleLines(100));
+		writer.close();
+
+		File[] partitions = capture.listFiles();
+		assertTrue(partitions.length > 1);
+		for (File partition : partitions) {
+			partition.setLastModified(daysAgo(10));
+		}
+
+		// one partition was still written to recently, so none of them expire.
+		partitions[0].setLastModified(daysAgo(1));
+		RetentionApplication.enforce(directory.getPath());
+		assertEquals(partitions.length, capture.listFiles().length);
+
+		partitions[0].setLastModified(daysAgo(10));
+		RetentionApplication.enforce(directory.getPath());
+		assertFalse(capture.exists());
+		assertTrue(RollupAggregator.isComplete(RollupResolution.HOUR.getRollupFile(new File(directory, capture.getName() + ".log"))));
+	}
+
+	@Test
+	public void archivesExpiredRawFile() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		CompactApplicationTest.write(logFile, getTelemetryLines());
+		logFile.setLastModified(daysAgo(10));
+
+		System.setProperty("cst.retention.archive", "true");
+		try {
+			RetentionApplication.enforce(folder.getRoot().getPath());
+		} finally {
+			System.clearProperty("cst.retention.archive");
+		}
+
+		assertFalse(logFile.exists());
+		File archiveFile = new File(new File(folder.getRoot(), RetentionApplication.ARCHIVE_DIRECTORY), logFile.getName() + ".gz");
+		assertTrue(archiveFile.length() > 0);
+	}
+
+	private static List<LogLine> getTelemetryLines() {
+		List<LogLine> lines = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			lines.add(new LogLine(LogFormatTest.START + i * 1000L, "{\"cc\":{\"n\":" + i + ",\"t\":" + (i % 10) + "}}"));
+		}
+
+		return lines;
+	}
+
+	private static File createRollupFile(File directory, String name, int ageInDays) throws IOException {
+		File rollupFile = new File(directory, name);
+		assertTrue(rollupFile.createNewFile());
+		rollupFile.setLastModified(daysAgo(ageInDays));
+
+		return rollupFile;
+	}
+
+	private static long daysAgo(int days) {
+		return System.currentTimeMillis() - days * DAY_IN_MILLISECONDS;
+	}
+}
@@ -0,0 +1,168 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RollupAggregatorTest {
+	// start of a minute, so buckets of every resolution are easy to tell apart.
+	private static final long START = 1535546940000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// shared, as buckets only carry on while messages have the same (decoded once) layout.
+	private final TelemetryDecoder decoder = new TelemetryDecoder();
+
+	@Test
+	public void bucketsMessagesOfEveryResolution() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		RollupAggregator rollupAggregator = new RollupAggregator(logFile, false);
+
+		// a message every 250ms for three minutes; only rolled up types count.
+		for (LogLine line : getTelemetryLines(720)) {
+			add(rollupAggregator, line);
+		}
+
+		add(rollupAggregator, new LogLine(START + 1000, "{\"me\":{\"id\":0,\"v\":3.3}}"));
+		rollupAggregator.close();
+
+		List<Rollup> seconds = readRollups(RollupResolution.SECOND.getRollupFile(logFile));
+		assertEquals(180 * 2, seconds.size());
+		assertRollup(seconds.get(2 * 37), START + 37 * 1000, "n", 148, 151, 4);
+
+		List<Rollup> minutes = readRollups(RollupResolution.MINUTE.getRollupFile(logFile));
+		assertEquals(3 * 2, minutes.size());
+		assertRollup(minutes.get(2), START + 60 * 1000, "n", 240, 479, 240);
+		assertRollup(minutes.get(3), START + 60 * 1000, "t", 0, 9, 240);
+		assertEquals(24 * 45, minutes.get(3).getSum(), 0);
+
+		List<Rollup> hours = readRollups(RollupResolution.HOUR.getRollupFile(logFile));
+		assertEquals(2, hours.size());
+		assertRollup(hours.get(0), RollupResolution.HOUR.getBucketStart(START), "n", 0, 719, 720);
+		assertEquals(719, hours.get(0).getLast(), 0);
+	}
+
+	@Test
+	public void marksOnlyClosedRollupsComplete() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		RollupAggregator rollupAggregator = new RollupAggregator(logFile, false);
+
+		for (LogLine line : getTelemetryLines(100)) {
+			add(rollupAggregator, line);
+		}
+
+		// flushed as a running capture does, but not closed (e.g. capture was killed).
+		rollupAggregator.flush();
+		assertTrue(RollupResolution.SECOND.getRollupFile(logFile).length() > 0);
+		assertFalse(RollupAggregator.hasCompleteRollups(logFile));
+
+		rollupAggregator.close();
+		assertTrue(RollupAggregator.hasCompleteRollups(logFile));
+
+		File rollupFile = RollupResolution.MINUTE.getRollupFile(logFile);
+		LogFormatTest.truncate(rollupFile, rollupFile.length() - 1);
+		assertArrayEquals(new RollupResolution[] { RollupResolution.MINUTE },
+				RollupAggregator.getIncompleteResolutions(logFile, RollupResolution.values()));
+
+		RollupResolution.SECOND.getRollupFile(logFile).delete();
+		assertArrayEquals(new RollupResolution[] { RollupResolution.SECOND, RollupResolution.MINUTE },
+				RollupAggregator.getIncompleteResolutions(logFile, RollupResolution.values()));
+	}
+
+	@Test
+	public void discardLeavesRollupsAlone() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		RollupAggregator rollupAggregator = new RollupAggregator(logFile, false);
+		add(rollupAggregator, getTelemetryLines(1).get(0));
+		rollupAggregator.close();
+
+		File rollupFile = RollupResolution.MINUTE.getRollupFile(logFile);
+		List<String> rollups = Files.readAllLines(rollupFile.toPath(), StandardCharsets.UTF_8);
+
+		RollupAggregator temporaryAggregator = new RollupAggregator(logFile, true);
+		for (LogLine line : getTelemetryLines(100)) {
+			add(temporaryAggregator, line);
+		}
+
+		temporaryAggregator.discard();
+
+		assertEquals(rollups, Files.readAllLines(rollupFile.toPath(), StandardCharsets.UTF_8));
+		for (String name : folder.getRoot().list()) {
+			assertFalse(name, name.endsWith(".tmp"));
+		}
+	}
+
+	@Test
+	public void backfillsMissingResolutionsFromRawFile() throws IOException {
+		File logFile = new File(folder.getRoot(), "10.10.102.11_20180829_144900.log");
+		CompactApplicationTest.write(logFile, getTelemetryLines(720));
+
+		RollupAggregator.backfill(logFile);
+		assertTrue(RollupAggregator.hasCompleteRollups(logFile));
+
+		File rollupFile = RollupResolution.MINUTE.getRollupFile(logFile);
+		List<String> rollups = Files.readAllLines(rollupFile.toPath(), StandardCharsets.UTF_8);
+		long hourModified = RollupResolution.HOUR.getRollupFile(logFile).lastModified();
+		rollupFile.delete();
+
+		RollupAggregator.backfill(logFile, RollupAggregator.getIncompleteResolutions(logFile, RollupResolution.values()));
+
+		assertEquals(rollups, Files.readAllLines(rollupFile.toPath(), StandardCharsets.UTF_8));
+		assertEquals(hourModified, RollupResolution.HOUR.getRollupFile(logFile).lastModified());
+		for (String name : folder.getRoot().list()) {
+			assertFalse(name, name.endsWith(".tmp"));
+		}
+	}
+
+	/**
+	 * Returns count counter messages 250ms apart, where n counts up from 0 and t goes around 0 to 9.
+	 */
+	private static List<LogLine> getTelemetryLines(int count) {
+		List<LogLine> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			lines.add(new LogLine(START + i * 250L, "{\"cc\":{\"n\":" + i + ",\"t\":" + (i % 10) + "}}"));
+		}
+
+		return lines;
+	}
+
+	private void add(RollupAggregator rollupAggregator, LogLine line) throws IOException {
+		TelemetryRecord record = new TelemetryRecord();
+		if (decoder.decode(line.getTimestamp(), line.getJsonString(), record)) {
+			rollupAggregator.add(record);
+		}
+	}
+
+	private static List<Rollup> readRollups(File rollupFile) throws IOException {
+		List<Rollup> rollups = new ArrayList<>();
+		for (String line : Files.readAllLines(rollupFile.toPath(), StandardCharsets.UTF_8)) {
+			if (!line.equals(RollupAggregator.COMPLETE_MARKER)) {
+				rollups.add(Rollup.deserialize(line));
+			}
+		}
+
+		return rollups;
+	}
+
+	private static void assertRollup(Rollup rollup, long bucketStart, String channel, double min, double max, long count) {
+		assertEquals(bucketStart, rollup.getBucketStart());
+		assertEquals("cc", rollup.getType());
+		assertEquals(channel, rollup.getChannel());
+		assertEquals(min, rollup.getMin(), 0);
+		assertEquals(max, rollup.getMax(), 0);
+		assertEquals(count, rollup.getCount());
+	}
+}
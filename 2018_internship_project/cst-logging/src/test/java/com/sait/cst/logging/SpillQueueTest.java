@@ -0,0 +1,131 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillQueueTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void pollsInOrderAdded() throws IOException {
+		File file = new File(folder.getRoot(), "test.log.spill");
+		SpillQueue spillQueue = new SpillQueue(file);
+		CaptureEvent event = new CaptureEvent();
+
+		assertFalse(spillQueue.poll(event));
+		assertFalse(file.exists());
+
+		// polling while adding, as capture does when room frees up during a burst.
+		long next = 0;
+		for (int i = 0; i < 1000; i++) {
+			spillQueue.add(1000 + i, i, getText(i));
+
+			if (i % 3 == 2) {
+				assertPolled(spillQueue, event, next++);
+			}
+		}
+
+		assertEquals(1000 - next, spillQueue.size());
+		while (!spillQueue.isEmpty()) {
+			assertPolled(spillQueue, event, next++);
+		}
+
+		assertEquals(1000, next);
+		assertFalse(spillQueue.poll(event));
+	}
+
+	@Test
+	public void givesBackDiskSpaceOnceDrained() throws IOException {
+		File file = new File(folder.getRoot(), "test.log.spill");
+		SpillQueue spillQueue = new SpillQueue(file);
+		CaptureEvent event = new CaptureEvent();
+
+		spillQueue.add(1000, 0, getText(0));
+		spillQueue.add(1001, 1, getText(1));
+		assertTrue(file.exists());
+		assertEquals(2 * (20 + getText(0).getBytes(StandardCharsets.UTF_8).length), spillQueue.getByteCount());
+
+		assertPolled(spillQueue, event, 0);
+		assertTrue(file.exists());
+		assertPolled(spillQueue, event, 1);
+		assertFalse(file.exists());
+		assertEquals(0, spillQueue.getByteCount());
+
+		// queue starts over with a new file.
+		spillQueue.add(1002, 2, getText(2));
+		assertPolled(spillQueue, event, 2);
+
+		spillQueue.add(1003, 3, getText(3));
+		spillQueue.close();
+		assertFalse(file.exists());
+		assertTrue(spillQueue.isEmpty());
+	}
+
+	@Test
+	public void pipelineDrainsSpilledMessagesInOrder() throws InterruptedException {
+		File spillFile = new File(folder.getRoot(), "test.log.spill");
+		final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		System.setProperty("cst.pipeline.size", "16");
+		CapturePipeline capturePipeline;
+		try {
+			capturePipeline = new CapturePipeline("test", spillFile);
+		} finally {
+			System.clearProperty("cst.pipeline.size");
+		}
+
+		// a writer which is stuck until everything was received, so the ring buffer fills up.
+		capturePipeline.addRawHandler("writer", new EventHandler<CaptureEvent>() {
+			@Override
+			public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) throws Exception {
+				blocked.await();
+				handled.add(event.getReceivedSequence() + " " + event.getText());
+			}
+		});
+		capturePipeline.start();
+
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			String text = "{\"er\":{\"id\":" + i + "}}";
+			capturePipeline.publish(1000 + i, text);
+			expected.add(i + " " + text);
+		}
+
+		assertTrue(capturePipeline.getSpilledCount() > 0);
+		assertTrue(spillFile.exists());
+
+		blocked.countDown();
+		capturePipeline.stop();
+
+		assertEquals(0, capturePipeline.getDroppedCount());
+		assertEquals(expected, handled);
+		assertFalse(spillFile.exists());
+	}
+
+	private static String getText(long index) {
+		return "{\"er\":{\"id\":" + index + ",\"ed\":\"Kanal \u00fc\u00e7\"}}";
+	}
+
+	private static void assertPolled(SpillQueue spillQueue, CaptureEvent event, long index) throws IOException {
+		assertTrue(spillQueue.poll(event));
+		assertEquals(1000 + index, event.getTimestamp());
+		assertEquals(index, event.getReceivedSequence());
+		assertEquals(0, event.getReceivedTime());
+		assertEquals(getText(index), event.getText());
+	}
+}
@@ -0,0 +1,69 @@
+package com.sait.cst.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimeSeriesCodecTest extends LogFormatTest {
+	@Override
+	protected LogFormat getFormat() {
+		return LogFormat.TIMESERIES;
+	}
+
+	@Test
+	public void roundTripsNumbersBetweenOddNumbers() throws IOException {
+		// blocks mix messages stored as numbers with ones which had to stay text.
+		List<LogLine> lines = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			String text = i % 50 == 7 ? ODD_NUMBERS[i % ODD_NUMBERS.length]
+					: "{\"me\":{\"id\":0,\"ta[]\":[[" + (i % 13) + "," + (i * 0.25) + "," + (-i * 1000003L) + "]]}}";
+			lines.add(new LogLine(START + i * 47L, text));
+		}
+
+		assertLines(lines, readAll(write(getFormat(), lines, 0)));
+	}
+
+	@Test
+	public void roundTripsCountersAndSlowValues() throws IOException {
+		List<LogLine> lines = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			long counter = 4000000000L + i * 3L;
+			String value = String.format("%.2f", 20 + Math.sin(i / 100.0));
+			lines.add(new LogLine(START + i * 1000L + i % 3, "{\"cc\":{\"id\":0,\"n\":" + counter + ",\"t\":" + value + "}}"));
+		}
+
+		assertLines(lines, readAll(write(getFormat(), lines, 700)));
+	}
+
+	@Test
+	public void decodesTelemetryAsFromText() throws IOException {
+		List<LogLine> lines = getSampleLines(1000);
+		List<String> expected = readTelemetry(write(LogFormat.TEXT, lines, 0));
+
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, readTelemetry(write(getFormat(), lines, 0)));
+	}
+
+	private static List<String> readTelemetry(File file) throws IOException {
+		List<String> records = new ArrayList<>();
+		LogReader reader = new LogReader(file);
+		TelemetryRecord record = new TelemetryRecord();
+		TelemetryDecoder decoder = new TelemetryDecoder();
+
+		try {
+			while (reader.readTelemetryRecord(record, decoder)) {
+				records.add(record.toString() + " " + reader.getTelemetryText());
+			}
+		} finally {
+			reader.close();
+		}
+
+		return records;
+	}
+}